@@ -5,8 +5,6 @@ package androidx.documentfile.provider;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.jf.dexlib2.iface.ClassDef;
-
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -18,7 +16,7 @@ import java.util.Objects;
 
 import io.github.muntashirakon.AppManager.scanner.DexClasses;
 
-public class DexDocumentFile extends VirtualDocumentFile<ClassDef> {
+public class DexDocumentFile extends VirtualDocumentFile<String> {
     @NonNull
     private final DexClasses dexClasses;
 
@@ -39,7 +37,7 @@ public class DexDocumentFile extends VirtualDocumentFile<ClassDef> {
         this.dexClasses = parent.dexClasses;
     }
 
-    private DexDocumentFile(@NonNull DexDocumentFile parent, @NonNull Node<ClassDef> currentNode) {
+    private DexDocumentFile(@NonNull DexDocumentFile parent, @NonNull Node<String> currentNode) {
         super(Objects.requireNonNull(parent), currentNode);
         this.dexClasses = parent.dexClasses;
     }
@@ -71,10 +69,11 @@ public class DexDocumentFile extends VirtualDocumentFile<ClassDef> {
     @Override
     public InputStream openInputStream() throws IOException {
         if (currentNode == null) throw new FileNotFoundException("Document does not exist.");
-        ClassDef classDef = currentNode.getObject();
-        if (classDef == null) throw new FileNotFoundException("No class definition is associated with this class.");
+        String className = currentNode.getObject();
+        if (className == null) throw new FileNotFoundException("No class definition is associated with this class.");
         try {
-            return new ByteArrayInputStream(this.dexClasses.getClassContents(currentNode.getObject()).getBytes(StandardCharsets.UTF_8));
+            // The class definition is only loaded when its contents are requested
+            return new ByteArrayInputStream(this.dexClasses.getClassContents(className).getBytes(StandardCharsets.UTF_8));
         } catch (ClassNotFoundException e) {
             throw new IOException(e);
         }
@@ -115,7 +114,7 @@ public class DexDocumentFile extends VirtualDocumentFile<ClassDef> {
     @Override
     public DexDocumentFile[] listFiles() {
         if (currentNode == null) return new DexDocumentFile[0];
-        Node<ClassDef>[] nodes = currentNode.listChildren();
+        Node<String>[] nodes = currentNode.listChildren();
         if (nodes == null) return new DexDocumentFile[0];
         DexDocumentFile[] documentFiles = new DexDocumentFile[nodes.length];
         for (int i = 0; i < nodes.length; ++i) {
@@ -131,28 +130,22 @@ public class DexDocumentFile extends VirtualDocumentFile<ClassDef> {
     }
 
     @NonNull
-    private static DexNode<ClassDef> buildTree(@NonNull DexClasses dexClasses) {
-        DexNode<ClassDef> rootNode = new DexNode<>(null, File.separator);
+    private static DexNode<String> buildTree(@NonNull DexClasses dexClasses) {
+        DexNode<String> rootNode = new DexNode<>(null, File.separator);
         List<String> classNames = dexClasses.getClassNames();
         for (String className : classNames) {
-            ClassDef classDef;
-            try {
-                classDef = dexClasses.getClassDef(className);
-            } catch (ClassNotFoundException e) {
-                classDef = null;
-            }
-            buildTree(rootNode, className, classDef);
+            buildTree(rootNode, className);
         }
         return rootNode;
     }
 
     // Build nodes as needed by the entry, entry itself is the last node in the tree if it is not a directory
-    private static void buildTree(@NonNull DexNode<ClassDef> rootNode, @NonNull String className, @Nullable ClassDef classDef) {
+    private static void buildTree(@NonNull DexNode<String> rootNode, @NonNull String className) {
         String[] components = getSanitizedPath(className).split("\\.");
         if (components.length < 1) return;
-        Node<ClassDef> lastNode = rootNode;
+        Node<String> lastNode = rootNode;
         for (int i = 0; i < components.length - 1 /* last one will be set manually */; ++i) {
-            Node<ClassDef> newNode = lastNode.getChild(components[i]);
+            Node<String> newNode = lastNode.getChild(components[i]);
             if (newNode == null) {
                 // Add children
                 newNode = new DexNode<>(lastNode.getFullPath(), components[i]);
@@ -160,7 +153,7 @@ public class DexDocumentFile extends VirtualDocumentFile<ClassDef> {
             }
             lastNode = newNode;
         }
-        lastNode.addChild(new DexNode<>(lastNode.getFullPath(), components[components.length - 1] + ".smali", classDef));
+        lastNode.addChild(new DexNode<>(lastNode.getFullPath(), components[components.length - 1] + ".smali", className));
     }
 
     private static class DexNode<T> extends Node<T> {
@@ -9,35 +9,36 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
 import java.util.Objects;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+
+import io.github.muntashirakon.io.RandomAccessSource;
+import io.github.muntashirakon.io.ZipArchive;
 
 public class ZipDocumentFile extends VirtualDocumentFile<ZipEntry> {
     @NonNull
-    private final ZipFile mZipFile;
+    private final ZipArchive mZipArchive;
 
-    public ZipDocumentFile(int vfsId, @NonNull ZipFile zipFile, @Nullable String basePath) {
-        this(null, vfsId, zipFile, basePath);
+    public ZipDocumentFile(int vfsId, @NonNull ZipArchive zipArchive, @Nullable String basePath) {
+        this(null, vfsId, zipArchive, basePath);
     }
 
     public ZipDocumentFile(@Nullable DocumentFile parent,
                            int vfsId,
-                           @NonNull ZipFile zipFile,
+                           @NonNull ZipArchive zipArchive,
                            @Nullable String basePath) {
-        super(parent, vfsId, buildTree(Objects.requireNonNull(zipFile)), basePath);
-        this.mZipFile = zipFile;
+        super(parent, vfsId, buildTree(Objects.requireNonNull(zipArchive)), basePath);
+        this.mZipArchive = zipArchive;
     }
 
     private ZipDocumentFile(@NonNull ZipDocumentFile parent, @NonNull String relativePath) {
         super(Objects.requireNonNull(parent), relativePath);
-        this.mZipFile = Objects.requireNonNull(parent).mZipFile;
+        this.mZipArchive = Objects.requireNonNull(parent).mZipArchive;
     }
 
     private ZipDocumentFile(@NonNull ZipDocumentFile parent, @NonNull Node<ZipEntry> currentNode) {
         super(parent, currentNode);
-        this.mZipFile = Objects.requireNonNull(parent).mZipFile;
+        this.mZipArchive = Objects.requireNonNull(parent).mZipArchive;
     }
 
     @Nullable
@@ -117,15 +118,28 @@ public class ZipDocumentFile extends VirtualDocumentFile<ZipEntry> {
         if (currentNode == null) throw new FileNotFoundException("Document does not exist.");
         ZipEntry zipEntry = currentNode.getObject();
         if (zipEntry == null) throw new FileNotFoundException("Document is a directory.");
-        return mZipFile.getInputStream(zipEntry);
+        return mZipArchive.getInputStream(zipEntry);
+    }
+
+    /**
+     * Open the document for random access without extracting it.
+     *
+     * @see ZipArchive#openSource(ZipEntry, long, File, long)
+     */
+    @NonNull
+    public RandomAccessSource openRandomAccessSource(long maxInflateCacheSize, @Nullable File spillDir,
+                                                     long maxSpillSize) throws IOException {
+        if (currentNode == null) throw new FileNotFoundException("Document does not exist.");
+        ZipEntry zipEntry = currentNode.getObject();
+        if (zipEntry == null) throw new FileNotFoundException("Document is a directory.");
+        return mZipArchive.openSource(zipEntry, maxInflateCacheSize, spillDir, maxSpillSize);
     }
 
     @NonNull
-    private static Node<ZipEntry> buildTree(@NonNull ZipFile zipFile) {
+    private static Node<ZipEntry> buildTree(@NonNull ZipArchive zipArchive) {
+        // Only the central directory, which has already been read, is needed
         Node<ZipEntry> rootNode = new Node<>(null, File.separator);
-        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-        while (zipEntries.hasMoreElements()) {
-            ZipEntry zipEntry = zipEntries.nextElement();
+        for (ZipEntry zipEntry : zipArchive.getEntries()) {
             buildTree(rootNode, zipEntry);
         }
         return rootNode;
@@ -19,7 +19,9 @@ import org.lsposed.hiddenapibypass.HiddenApiBypass;
 import java.security.Security;
 
 import io.github.muntashirakon.AppManager.db.AMDatabase;
+import io.github.muntashirakon.AppManager.imagecache.MemoryCache;
 import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
+import io.github.muntashirakon.AppManager.servermanager.PackageInfoCache;
 import io.github.muntashirakon.AppManager.utils.LangUtils;
 
 public class AppManager extends Application {
@@ -53,7 +55,7 @@ public class AppManager extends Application {
         if (db == null) {
             db = Room.databaseBuilder(getContext(), AMDatabase.class, "am")
                     .addMigrations(AMDatabase.MIGRATION_1_2, AMDatabase.MIGRATION_2_3, AMDatabase.MIGRATION_3_4,
-                            AMDatabase.MIGRATION_4_5)
+                            AMDatabase.MIGRATION_4_5, AMDatabase.MIGRATION_5_6)
                     .build();
         }
         return db;
@@ -73,6 +75,14 @@ public class AppManager extends Application {
         super.onCreate();
         Lingver.init(instance, LangUtils.getLocaleByLanguage(instance));
         Security.addProvider(new JavaKeyStoreProvider());
+        PackageInfoCache.getInstance().registerReceiver(instance);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryCache.getInstance().onTrimMemory(level);
+        PackageInfoCache.getInstance().onTrimMemory(level);
     }
 
     @Override
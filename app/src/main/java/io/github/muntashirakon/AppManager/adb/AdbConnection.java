@@ -16,6 +16,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -108,6 +109,18 @@ public class AdbConnection implements Closeable {
      */
     private volatile int maxData;
 
+    /**
+     * The protocol version negotiated with the remote peer.
+     * This is only valid after connect() returns successfully.
+     */
+    private volatile int protocolVersion = AdbProtocol.CONNECT_VERSION_MIN;
+
+    /**
+     * Whether both peers support {@link AdbProtocol#FEATURE_DELAYED_ACK}.
+     * This is only valid after connect() returns successfully.
+     */
+    private volatile boolean delayedAck;
+
     private final KeyPair keyPair;
 
     /**
@@ -182,8 +195,8 @@ public class AdbConnection implements Closeable {
                     /* Read and parse a message off the socket's input stream */
                     AdbProtocol.AdbMessage msg = AdbProtocol.AdbMessage.parseAdbMessage(getInputStream());
 
-                    /* Verify magic and checksum */
-                    if (!AdbProtocol.validateMessage(msg))
+                    /* Verify magic and checksum (the latter is not calculated by modern peers) */
+                    if (!AdbProtocol.validateMessage(msg, isChecksumVerifiable(msg)))
                         continue;
 
                     switch (msg.command) {
@@ -202,18 +215,15 @@ public class AdbConnection implements Closeable {
 
                             synchronized (waitingStream) {
                                 if (msg.command == AdbProtocol.CMD_OKAY) {
-                                    /* We're ready for writes */
+                                    /* We're ready for writes, this also unwaits an open/write */
                                     waitingStream.updateRemoteId(msg.arg0);
-                                    waitingStream.readyForWrite();
-
-                                    /* Unwait an open/write */
-                                    waitingStream.notify();
+                                    waitingStream.readyForWrite(delayedAck ? AdbProtocol.getAckedBytes(msg) : null);
                                 } else if (msg.command == AdbProtocol.CMD_WRTE) {
                                     /* Got some data from our partner */
                                     waitingStream.addPayload(msg.payload);
 
                                     /* Tell it we're ready for more */
-                                    waitingStream.sendReady();
+                                    waitingStream.sendReady(msg.payloadLength);
                                 } else { // if (msg.command == AdbProtocol.CMD_CLSE)
                                     /* He doesn't like us anymore :-( */
                                     conn.openStreams.remove(msg.arg1);
@@ -276,8 +286,12 @@ public class AdbConnection implements Closeable {
                         }
                         case AdbProtocol.CMD_CNXN: {
                             synchronized (conn) {
-                                /* We need to store the max data size */
-                                conn.maxData = msg.arg1;
+                                /* We need to store the max data size and the version supported by both */
+                                conn.maxData = Math.min(msg.arg1, AdbProtocol.CONNECT_MAXDATA);
+                                conn.protocolVersion = Math.min(msg.arg0, AdbProtocol.CONNECT_VERSION);
+                                conn.delayedAck = AdbProtocol.hasFeature(msg.payload, AdbProtocol.FEATURE_DELAYED_ACK);
+                                Log.d(TAG, String.format(Locale.ROOT, "Connected: version=0x%x, maxdata=%d, delayed_ack=%b",
+                                        conn.protocolVersion, conn.maxData, conn.delayedAck));
 
                                 /* Mark us as connected and unwait anyone waiting on the connection */
                                 conn.connected = true;
@@ -326,6 +340,51 @@ public class AdbConnection implements Closeable {
         return maxData;
     }
 
+    /**
+     * The maximum payload of a packet, only valid after the connection is established.
+     */
+    int getMaxPayload() {
+        return maxData > 0 ? maxData : AdbProtocol.CONNECT_MAXDATA_LEGACY;
+    }
+
+    /**
+     * Whether the payload of the packets has to be checksummed, i.e. the peer uses a protocol
+     * version prior to {@link AdbProtocol#CONNECT_VERSION_SKIP_CHECKSUM}.
+     */
+    boolean isChecksumRequired() {
+        return !connected || protocolVersion < AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM;
+    }
+
+    /**
+     * Whether the payload checksum of a packet received from the peer can be verified. Once it has
+     * received our CNXN advertising {@link AdbProtocol#CONNECT_VERSION_SKIP_CHECKSUM}, a modern peer
+     * sets the checksum of all its packets to 0, including its AUTH and CNXN replies. A zero checksum
+     * is therefore only verified if the peer has negotiated an older version.
+     */
+    private boolean isChecksumVerifiable(@NonNull AdbProtocol.AdbMessage msg) {
+        if (msg.checksum != 0 || !connectAttempted
+                || AdbProtocol.CONNECT_VERSION < AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM) {
+            return true;
+        }
+        return connected && protocolVersion < AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM;
+    }
+
+    /**
+     * Whether the writes are acknowledged by the number of bytes, allowing multiple writes to be
+     * in flight.
+     */
+    boolean isDelayedAckEnabled() {
+        return delayedAck;
+    }
+
+    /**
+     * The protocol version negotiated with the peer, only valid after the connection is
+     * established.
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
     /**
      * Same as {@code connect(Long.MAX_VALUE, TimeUnit.MILLISECONDS, false)}
      *
@@ -397,13 +456,16 @@ public class AdbConnection implements Closeable {
 
         /* Send the open */
         synchronized (lock) {
-            getOutputStream().write(AdbProtocol.generateOpen(localId, destination));
+            getOutputStream().write(AdbProtocol.generateOpen(localId, destination,
+                    delayedAck ? AdbProtocol.INITIAL_DELAYED_ACK_BYTES : 0));
             getOutputStream().flush();
         }
 
         /* Wait for the connection thread to receive the OKAY */
         synchronized (stream) {
-            stream.wait();
+            while (!stream.isOpened() && !stream.isClosed()) {
+                stream.wait();
+            }
         }
 
         /* Check if the open was rejected */
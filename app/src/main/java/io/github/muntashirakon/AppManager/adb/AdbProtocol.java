@@ -4,6 +4,7 @@ package io.github.muntashirakon.AppManager.adb;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,20 +32,50 @@ class AdbProtocol {
      */
     public static final int CMD_CNXN = 0x4e584e43;
 
+    /**
+     * The original version of the ADB protocol
+     */
+    public static final int CONNECT_VERSION_MIN = 0x01000000;
+
+    /**
+     * Since this version, the payload checksums are neither calculated nor verified (Android 9)
+     */
+    public static final int CONNECT_VERSION_SKIP_CHECKSUM = 0x01000001;
+
     /**
      * The current version of the ADB protocol
      */
-    public static final int CONNECT_VERSION = 0x01000000;
+    public static final int CONNECT_VERSION = CONNECT_VERSION_SKIP_CHECKSUM;
+
+    /**
+     * The maximum data payload supported by the original ADB implementation
+     */
+    public static final int CONNECT_MAXDATA_LEGACY = 4096;
 
     /**
-     * The maximum data payload supported by the ADB implementation
+     * The maximum data payload supported by the ADB implementation. The peer may support less,
+     * the actual maximum is the minimum of the two (4096 for daemons prior to Android 7, 256 KB
+     * for Android 7 and 8, and 1 MB since Android 9).
      */
-    public static final int CONNECT_MAXDATA = 4096;
+    public static final int CONNECT_MAXDATA = 1024 * 1024;
+
+    /**
+     * The feature that allows multiple writes to be in flight. Writes are acknowledged by the
+     * number of bytes processed instead of a single OKAY per WRTE.
+     */
+    public static final String FEATURE_DELAYED_ACK = "delayed_ack";
+
+    /**
+     * The number of bytes the peer is allowed to send before we acknowledge them if
+     * {@link #FEATURE_DELAYED_ACK} is negotiated.
+     */
+    public static final int INITIAL_DELAYED_ACK_BYTES = 4 * 1024 * 1024;
 
     /**
      * The payload sent with the connect message
      */
-    public static final byte[] CONNECT_PAYLOAD = "host::\0".getBytes(StandardCharsets.UTF_8);
+    public static final byte[] CONNECT_PAYLOAD = ("host::features=" + FEATURE_DELAYED_ACK + "\0")
+            .getBytes(StandardCharsets.UTF_8);
 
     /**
      * AUTH is the authentication message. It is part of the
@@ -116,14 +147,12 @@ class AdbProtocol {
      * @param payload Payload to checksum
      * @return The checksum of the payload
      */
-    private static int getPayloadChecksum(@NonNull byte[] payload) {
+    private static int getPayloadChecksum(@NonNull byte[] payload, int offset, int length) {
         int checksum = 0;
 
-        for (byte b : payload) {
+        for (int i = offset; i < offset + length; ++i) {
             /* We have to manually "unsign" these bytes because Java sucks */
-            if (b >= 0) {
-                checksum += b;
-            } else checksum += b + 256;
+            checksum += payload[i] & 0xFF;
         }
 
         return checksum;
@@ -137,16 +166,48 @@ class AdbProtocol {
      * @return True if the message was valid, false otherwise
      */
     public static boolean validateMessage(@NonNull AdbMessage msg) {
+        return validateMessage(msg, true);
+    }
+
+    /**
+     * This function validate the ADB message by checking its command, magic, and optionally, its
+     * payload checksum.
+     *
+     * @param msg            ADB message to validate
+     * @param verifyChecksum Whether to verify the payload checksum. The peer does not calculate it
+     *                       if the negotiated version is {@link #CONNECT_VERSION_SKIP_CHECKSUM} or later.
+     * @return True if the message was valid, false otherwise
+     */
+    public static boolean validateMessage(@NonNull AdbMessage msg, boolean verifyChecksum) {
         /* Magic is cmd ^ 0xFFFFFFFF */
         if (msg.command != (~msg.magic)) return false;
 
-        if (msg.payloadLength != 0) {
-            return getPayloadChecksum(msg.payload) == msg.checksum;
+        if (verifyChecksum && msg.payloadLength != 0) {
+            return getPayloadChecksum(msg.payload, 0, msg.payloadLength) == msg.checksum;
         }
 
         return true;
     }
 
+    /**
+     * Whether the payload of a connect message advertises the given feature. The payload has the
+     * format {@code <system-type>:<serial>:<property>=<value>;...;features=<feature>,...}.
+     */
+    public static boolean hasFeature(@Nullable byte[] connectPayload, @NonNull String feature) {
+        if (connectPayload == null) return false;
+        String banner = new String(connectPayload, StandardCharsets.UTF_8).trim();
+        int propertiesIndex = banner.lastIndexOf(':');
+        if (propertiesIndex < 0) return false;
+        for (String property : banner.substring(propertiesIndex + 1).split(";")) {
+            if (property.startsWith("features=")) {
+                for (String supportedFeature : property.substring(9).split(",")) {
+                    if (supportedFeature.trim().equals(feature)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * This function generates an ADB message given the fields.
      *
@@ -158,6 +219,24 @@ class AdbProtocol {
      */
     @NonNull
     public static byte[] generateMessage(@Command int cmd, int arg0, int arg1, byte[] payload) {
+        return generateMessage(cmd, arg0, arg1, payload, 0, payload != null ? payload.length : 0, true);
+    }
+
+    /**
+     * This function generates an ADB message given the fields.
+     *
+     * @param cmd      Command identifier
+     * @param arg0     First argument
+     * @param arg1     Second argument
+     * @param payload  Data payload
+     * @param offset   Offset of the payload in {@code payload}
+     * @param length   Length of the payload
+     * @param checksum Whether to calculate the checksum of the payload, it is set to zero otherwise
+     * @return Byte array containing the message
+     */
+    @NonNull
+    public static byte[] generateMessage(@Command int cmd, int arg0, int arg1, @Nullable byte[] payload, int offset,
+                                         int length, boolean checksum) {
         /* struct message {
          *     unsigned command;       // command identifier constant
          *     unsigned arg0;          // first argument
@@ -171,7 +250,7 @@ class AdbProtocol {
         ByteBuffer message;
 
         if (payload != null) {
-            message = ByteBuffer.allocate(ADB_HEADER_LENGTH + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+            message = ByteBuffer.allocate(ADB_HEADER_LENGTH + length).order(ByteOrder.LITTLE_ENDIAN);
         } else {
             message = ByteBuffer.allocate(ADB_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
         }
@@ -181,8 +260,8 @@ class AdbProtocol {
         message.putInt(arg1);
 
         if (payload != null) {
-            message.putInt(payload.length);
-            message.putInt(getPayloadChecksum(payload));
+            message.putInt(length);
+            message.putInt(checksum ? getPayloadChecksum(payload, offset, length) : 0);
         } else {
             message.putInt(0);
             message.putInt(0);
@@ -191,7 +270,7 @@ class AdbProtocol {
         message.putInt(~cmd);
 
         if (payload != null) {
-            message.put(payload);
+            message.put(payload, offset, length);
         }
 
         return message.array();
@@ -238,10 +317,25 @@ class AdbProtocol {
      */
     @NonNull
     public static byte[] generateOpen(int localId, @NonNull String dest) {
-        ByteBuffer bbuf = ByteBuffer.allocate(dest.length() + 1);
-        bbuf.put(dest.getBytes(StandardCharsets.UTF_8));
+        return generateOpen(localId, dest, 0);
+    }
+
+    /**
+     * Generates an open stream message with the specified local ID and destination.
+     *
+     * @param localId         A unique local ID identifying the stream
+     * @param dest            The destination of the stream on the target
+     * @param delayedAckBytes The number of bytes the peer may send before being acknowledged if
+     *                        {@link #FEATURE_DELAYED_ACK} is negotiated, zero otherwise
+     * @return Byte array containing the message
+     */
+    @NonNull
+    public static byte[] generateOpen(int localId, @NonNull String dest, int delayedAckBytes) {
+        byte[] destBytes = dest.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer bbuf = ByteBuffer.allocate(destBytes.length + 1);
+        bbuf.put(destBytes);
         bbuf.put((byte) 0);
-        return generateMessage(CMD_OPEN, localId, 0, bbuf.array());
+        return generateMessage(CMD_OPEN, localId, delayedAckBytes, bbuf.array());
     }
 
     /**
@@ -257,6 +351,23 @@ class AdbProtocol {
         return generateMessage(CMD_WRTE, localId, remoteId, data);
     }
 
+    /**
+     * Generates a write stream message with the specified IDs and a part of the payload.
+     *
+     * @param localId  The unique local ID of the stream
+     * @param remoteId The unique remote ID of the stream
+     * @param data     The data containing the write payload
+     * @param offset   Offset of the payload in {@code data}
+     * @param length   Length of the payload
+     * @param checksum Whether to calculate the checksum of the payload
+     * @return Byte array containing the message
+     */
+    @NonNull
+    public static byte[] generateWrite(int localId, int remoteId, @NonNull byte[] data, int offset, int length,
+                                       boolean checksum) {
+        return generateMessage(CMD_WRTE, localId, remoteId, data, offset, length, checksum);
+    }
+
     /**
      * Generates a close stream message with the specified IDs.
      *
@@ -281,6 +392,35 @@ class AdbProtocol {
         return generateMessage(CMD_OKAY, localId, remoteId, null);
     }
 
+    /**
+     * Generates an okay message acknowledging the given number of bytes. This is only valid if
+     * {@link #FEATURE_DELAYED_ACK} is negotiated.
+     *
+     * @param localId    The unique local ID of the stream
+     * @param remoteId   The unique remote ID of the stream
+     * @param ackedBytes The number of bytes received since the last acknowledgement
+     * @return Byte array containing the message
+     */
+    @NonNull
+    public static byte[] generateReady(int localId, int remoteId, int ackedBytes) {
+        byte[] payload = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(ackedBytes).array();
+        return generateMessage(CMD_OKAY, localId, remoteId, payload);
+    }
+
+    /**
+     * Get the number of bytes acknowledged by an okay message.
+     *
+     * @return The number of bytes, or {@code null} if the message does not carry any, i.e. if
+     * {@link #FEATURE_DELAYED_ACK} is not negotiated
+     */
+    @Nullable
+    public static Integer getAckedBytes(@NonNull AdbMessage msg) {
+        if (msg.payload == null || msg.payloadLength != 4) {
+            return null;
+        }
+        return ByteBuffer.wrap(msg.payload).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
     /**
      * This class provides an abstraction for the ADB message format.
      */
@@ -340,6 +480,10 @@ class AdbProtocol {
 
             AdbMessage msg = new AdbMessage(header);
 
+            if (msg.payloadLength < 0 || msg.payloadLength > CONNECT_MAXDATA) {
+                throw new IOException("Invalid payload length " + msg.payloadLength);
+            }
+
             /* If there's a payload supplied, read that too */
             if (msg.payloadLength != 0) {
                 msg.payload = new byte[msg.payloadLength];
@@ -2,7 +2,9 @@
 
 package io.github.muntashirakon.AppManager.adb;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -37,6 +39,24 @@ public class AdbStream implements Closeable {
      */
     private final AtomicBoolean writeReady;
 
+    /**
+     * Whether the peer acknowledges the number of bytes written rather than each write. This is
+     * known once the peer accepts the stream.
+     */
+    private volatile boolean delayedAck;
+
+    /**
+     * The number of bytes that can be written without waiting for an acknowledgement if
+     * {@link #delayedAck} is {@code true}
+     */
+    @GuardedBy("this")
+    private long sendWindow;
+
+    /**
+     * Whether the peer has accepted the stream
+     */
+    private volatile boolean opened;
+
     /**
      * A queue of data from the target's write packets
      */
@@ -85,9 +105,14 @@ public class AdbStream implements Closeable {
      *
      * @throws IOException If the connection fails while sending the packet
      */
-    void sendReady() throws IOException {
+    void sendReady(int receivedBytes) throws IOException {
         // Generate and send a READY packet
-        byte[] packet = AdbProtocol.generateReady(localId, remoteId);
+        byte[] packet;
+        if (adbConn.isDelayedAckEnabled()) {
+            packet = AdbProtocol.generateReady(localId, remoteId, receivedBytes);
+        } else {
+            packet = AdbProtocol.generateReady(localId, remoteId);
+        }
 
         synchronized (adbConn.lock) {
             adbConn.getOutputStream().write(packet);
@@ -106,9 +131,33 @@ public class AdbStream implements Closeable {
 
     /**
      * Called by the connection thread to indicate the stream is okay to send data.
+     *
+     * @param ackedBytes The number of bytes acknowledged by the peer, or {@code null} if the peer
+     *                   acknowledges each write
      */
-    void readyForWrite() {
-        writeReady.set(true);
+    void readyForWrite(@Nullable Integer ackedBytes) {
+        synchronized (this) {
+            if (!opened) {
+                // The first OKAY accepts the stream and tells us whether the writes are acknowledged
+                // by the number of bytes
+                delayedAck = ackedBytes != null;
+                opened = true;
+            }
+            if (delayedAck) {
+                if (ackedBytes != null) {
+                    sendWindow += ackedBytes;
+                }
+            } else writeReady.set(true);
+            // Unwait an open/write
+            notifyAll();
+        }
+    }
+
+    /**
+     * Whether the peer has accepted the stream.
+     */
+    boolean isOpened() {
+        return opened;
     }
 
     /**
@@ -194,27 +243,58 @@ public class AdbStream implements Closeable {
      * @throws InterruptedException If we are unable to wait to send data
      */
     public void write(byte[] payload, boolean flush) throws IOException, InterruptedException {
-        synchronized (this) {
-            // Make sure we're ready for a write
-            while (!isClosed && !writeReady.compareAndSet(true, false)) {
-                wait();
-            }
+        write(payload, 0, payload.length, flush);
+    }
 
-            if (isClosed) {
-                throw new IOException("Stream closed");
+    /**
+     * Sends a part of a byte array. The payload is split into packets no larger than the maximum
+     * payload negotiated with the peer. If the peer supports delayed acknowledgements, packets are
+     * sent as long as the peer is willing to receive them. Otherwise, each packet waits for the
+     * previous one to be acknowledged.
+     *
+     * @param payload Payload in the form of a byte array
+     * @param offset  Offset of the payload in {@code payload}
+     * @param length  Length of the payload
+     * @param flush   Specifies whether to send the last packet immediately
+     * @throws IOException          If the stream fails while sending data
+     * @throws InterruptedException If we are unable to wait to send data
+     */
+    public void write(@NonNull byte[] payload, int offset, int length, boolean flush)
+            throws IOException, InterruptedException {
+        int maxData = adbConn.getMaxPayload();
+        int end = offset + length;
+        do {
+            int packetSize;
+            synchronized (this) {
+                // Make sure we're ready for a write
+                while (!isClosed && !(delayedAck ? sendWindow > 0 : writeReady.compareAndSet(true, false))) {
+                    wait();
+                }
+
+                if (isClosed) {
+                    throw new IOException("Stream closed");
+                }
+
+                packetSize = Math.min(end - offset, maxData);
+                if (delayedAck) {
+                    packetSize = (int) Math.min(packetSize, sendWindow);
+                    sendWindow -= packetSize;
+                }
             }
-        }
 
-        // Generate a WRITE packet and send it
-        byte[] packet = AdbProtocol.generateWrite(localId, remoteId, payload);
+            // Generate a WRITE packet and send it
+            byte[] packet = AdbProtocol.generateWrite(localId, remoteId, payload, offset, packetSize,
+                    adbConn.isChecksumRequired());
+            offset += packetSize;
 
-        synchronized (adbConn.lock) {
-            adbConn.getOutputStream().write(packet);
+            synchronized (adbConn.lock) {
+                adbConn.getOutputStream().write(packet);
 
-            if (flush) {
-                adbConn.getOutputStream().flush();
+                if (flush || offset < end) {
+                    adbConn.getOutputStream().flush();
+                }
             }
-        }
+        } while (offset < end);
     }
 
     /**
@@ -16,6 +16,7 @@ import android.text.format.Formatter;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -83,13 +84,17 @@ public final class ApkFile implements AutoCloseable {
     private static final String UN_APKM_PKG = "io.github.muntashirakon.unapkm";
 
     // There's hardly any chance of using multiple instances of ApkFile but still kept for convenience
+    @GuardedBy("apkFiles")
     private static final SparseArray<ApkFile> apkFiles = new SparseArray<>(3);
     private static final SparseIntArray instanceCount = new SparseIntArray(3);
     private static final SparseIntArray advancedInstanceCount = new SparseIntArray(3);
 
     @NonNull
     public static ApkFile getInstance(int sparseArrayKey) {
-        ApkFile apkFile = apkFiles.get(sparseArrayKey);
+        ApkFile apkFile;
+        synchronized (apkFiles) {
+            apkFile = apkFiles.get(sparseArrayKey);
+        }
         if (apkFile == null) {
             throw new IllegalArgumentException("ApkFile not found for key " + sparseArrayKey);
         }
@@ -115,7 +120,9 @@ public final class ApkFile implements AutoCloseable {
     public static int createInstance(Uri apkUri, @Nullable String mimeType) throws ApkFileException {
         int key = ThreadLocalRandom.current().nextInt();
         ApkFile apkFile = new ApkFile(apkUri, mimeType, key);
-        apkFiles.put(key, apkFile);
+        synchronized (apkFiles) {
+            apkFiles.put(key, apkFile);
+        }
         return key;
     }
 
@@ -123,7 +130,9 @@ public final class ApkFile implements AutoCloseable {
     public static int createInstance(ApplicationInfo info) throws ApkFileException {
         int key = ThreadLocalRandom.current().nextInt();
         ApkFile apkFile = new ApkFile(info, key);
-        apkFiles.put(key, apkFile);
+        synchronized (apkFiles) {
+            apkFiles.put(key, apkFile);
+        }
         return key;
     }
 
@@ -461,6 +470,17 @@ public final class ApkFile implements AutoCloseable {
         entries.set(entry, tmpEntry);
     }
 
+    /**
+     * Sign the selected entries in advance if signing is requested so that installing them only requires copying them.
+     */
+    @WorkerThread
+    public void prepareForInstall(@NonNull Context context) throws IOException, RemoteException {
+        if (!needSigning()) return;
+        for (Entry entry : getSelectedEntries()) {
+            entry.getSignedFile(context);
+        }
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public boolean needSigning() {
         return (boolean) AppPref.get(AppPref.PrefKey.PREF_INSTALLER_SIGN_APK_BOOL);
@@ -477,7 +497,9 @@ public final class ApkFile implements AutoCloseable {
             // Only this instance remained
             instanceCount.delete(sparseArrayKey);
         }
-        apkFiles.delete(sparseArrayKey);
+        synchronized (apkFiles) {
+            apkFiles.delete(sparseArrayKey);
+        }
         for (Entry entry : entries) {
             entry.close();
         }
@@ -658,7 +680,7 @@ public final class ApkFile implements AutoCloseable {
             else throw new RuntimeException("Neither zipEntry nor source is defined.");
         }
 
-        public File getSignedFile(Context context) throws IOException, RemoteException {
+        public synchronized File getSignedFile(Context context) throws IOException, RemoteException {
             if (signedFile != null) return signedFile;
             File realFile = getRealCachedFile();
             if (!needSigning()) {
@@ -684,6 +706,14 @@ public final class ApkFile implements AutoCloseable {
             }
         }
 
+        /**
+         * Size of the file returned by {@link #getSignedInputStream(Context)}
+         */
+        public long getSignedFileSize(Context context) throws IOException, RemoteException {
+            if (!needSigning()) return getFileSize();
+            return getSignedFile(context).length();
+        }
+
         public InputStream getSignedInputStream(Context context) throws IOException, RemoteException {
             if (!needSigning()) {
                 // Return original/real input stream if signing is not requested
@@ -8,6 +8,7 @@ import android.net.Uri;
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -20,19 +21,21 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.apk.ApkFile;
 import io.github.muntashirakon.AppManager.apk.parser.AndroidBinXmlDecoder;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.RandomAccessSource;
 import io.github.muntashirakon.io.VirtualFileSystem;
+import io.github.muntashirakon.io.ZipArchive;
 
 public class AppExplorerViewModel extends AndroidViewModel {
-    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
     private final MutableLiveData<List<AdapterItem>> fmItems = new MutableLiveData<>();
     private final MutableLiveData<Boolean> modificationObserver = new MutableLiveData<>();
     private final MutableLiveData<AdapterItem> openObserver = new MutableLiveData<>();
@@ -162,6 +165,14 @@ public class AppExplorerViewModel extends AndroidViewModel {
                 uriChangeObserver.postValue(item.getUri());
                 return;
             }
+            try {
+                if (mountNestedZip(item)) {
+                    uriChangeObserver.postValue(item.getUri());
+                    return;
+                }
+            } catch (Throwable th) {
+                th.printStackTrace();
+            }
             try {
                 int vfsId = VirtualFileSystem.mount(new VirtualFileSystem.DexFileSystem(item.getUri(), item.path));
                 vfsIds.add(vfsId);
@@ -188,6 +199,32 @@ public class AppExplorerViewModel extends AndroidViewModel {
         });
     }
 
+    /**
+     * Mount a zip file inside the current zip file in place, i.e. without extracting it to the cache.
+     *
+     * @return {@code true} if the file is a zip file and it has been mounted
+     */
+    @WorkerThread
+    private boolean mountNestedZip(@NonNull AdapterItem item) throws Throwable {
+        if (item.getCachedFile() != null) {
+            // Modified file
+            return false;
+        }
+        try (InputStream is = new BufferedInputStream(item.openInputStream())) {
+            if (!FileUtils.isInputFileZip(is)) return false;
+        }
+        RandomAccessSource source = item.path.openRandomAccessSource(ZipArchive.DEFAULT_MAX_INFLATE_CACHE_SIZE);
+        if (source == null) return false;
+        try {
+            int vfsId = VirtualFileSystem.mount(new VirtualFileSystem.ZipFileSystem(item.getUri(), source));
+            vfsIds.add(vfsId);
+        } catch (Throwable th) {
+            source.close();
+            throw th;
+        }
+        return true;
+    }
+
     public LiveData<List<AdapterItem>> observeFiles() {
         return fmItems;
     }
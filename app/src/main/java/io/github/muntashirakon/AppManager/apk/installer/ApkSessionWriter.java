@@ -0,0 +1,195 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.installer;
+
+import android.content.Context;
+import android.content.pm.PackageInstaller;
+import android.os.RemoteException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.muntashirakon.AppManager.apk.ApkFile;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
+import io.github.muntashirakon.io.IoUtils;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Write the APK files of an install session concurrently. Each file is streamed from its source, usually an entry of
+ * the APKS/XAPK archive, into its own session write and synced independently of the others.
+ */
+final class ApkSessionWriter {
+    public static final String TAG = ApkSessionWriter.class.getSimpleName();
+
+    /**
+     * Maximum number of files written at once. The session writes are backed by the same storage, therefore, more
+     * writes only compete with each other.
+     */
+    static final int MAX_PARALLEL_WRITES = 4;
+
+    interface Session {
+        @NonNull
+        OutputStream openWrite(@NonNull String name, long offsetBytes, long lengthBytes) throws IOException;
+
+        void fsync(@NonNull OutputStream out) throws IOException;
+    }
+
+    interface Source {
+        @NonNull
+        String getName();
+
+        long getLength() throws IOException, RemoteException;
+
+        @NonNull
+        InputStream openInputStream() throws IOException, RemoteException;
+    }
+
+    @NonNull
+    static Session fromSession(@NonNull PackageInstaller.Session session) {
+        return new Session() {
+            @NonNull
+            @Override
+            public OutputStream openWrite(@NonNull String name, long offsetBytes, long lengthBytes)
+                    throws IOException {
+                return session.openWrite(name, offsetBytes, lengthBytes);
+            }
+
+            @Override
+            public void fsync(@NonNull OutputStream out) throws IOException {
+                session.fsync(out);
+            }
+        };
+    }
+
+    /**
+     * The entry is streamed from the archive unless it has to be signed, in which case the signed file is used.
+     */
+    @NonNull
+    static Source fromEntry(@NonNull Context context, @NonNull ApkFile.Entry entry) {
+        return new Source() {
+            @NonNull
+            @Override
+            public String getName() {
+                return entry.getFileName();
+            }
+
+            @Override
+            public long getLength() throws IOException, RemoteException {
+                return entry.getSignedFileSize(context);
+            }
+
+            @NonNull
+            @Override
+            public InputStream openInputStream() throws IOException, RemoteException {
+                return entry.getSignedInputStream(context);
+            }
+        };
+    }
+
+    @NonNull
+    static Source fromPath(@NonNull Path path) {
+        return new Source() {
+            @NonNull
+            @Override
+            public String getName() {
+                return path.getName();
+            }
+
+            @Override
+            public long getLength() {
+                return path.length();
+            }
+
+            @NonNull
+            @Override
+            public InputStream openInputStream() throws IOException {
+                return path.openInputStream();
+            }
+        };
+    }
+
+    /**
+     * Write the sources to the session, at most {@link #MAX_PARALLEL_WRITES} at a time.
+     *
+     * @throws IOException       If any of the sources could not be written. No more sources are written after that.
+     * @throws RemoteException   If any of the sources could not be read from the privileged service
+     * @throws SecurityException If any of the sources could not be accessed
+     */
+    @WorkerThread
+    static void write(@NonNull Session session, @NonNull List<? extends Source> sources)
+            throws IOException, RemoteException {
+        write(session, sources, MAX_PARALLEL_WRITES);
+    }
+
+    @VisibleForTesting
+    @WorkerThread
+    static void write(@NonNull Session session, @NonNull List<? extends Source> sources, int parallelism)
+            throws IOException, RemoteException {
+        int count = sources.size();
+        AtomicInteger nextSource = new AtomicInteger();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch written = new CountDownLatch(count);
+        Runnable writer = () -> {
+            int i;
+            while ((i = nextSource.getAndIncrement()) < count) {
+                try {
+                    if (error.get() == null) {
+                        writeSource(session, sources.get(i));
+                    }
+                } catch (IOException | RemoteException | RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    written.countDown();
+                }
+            }
+        };
+        int helperCount = Math.min(count, parallelism) - 1;
+        TaskScope scope = helperCount > 0 ? WorkerPools.newScope(WorkerPools.LANE_IO, helperCount) : null;
+        try {
+            for (int i = 0; i < helperCount; ++i) {
+                Objects.requireNonNull(scope).submit(writer);
+            }
+            // The calling thread takes part as well, so that the writes complete even if the lane is busy
+            writer.run();
+            written.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            if (scope != null) {
+                scope.shutdownNow();
+            }
+        }
+        Exception e = error.get();
+        if (e instanceof IOException) throw (IOException) e;
+        if (e instanceof RemoteException) throw (RemoteException) e;
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+    }
+
+    private static void writeSource(@NonNull Session session, @NonNull Source source)
+            throws IOException, RemoteException {
+        try (Tracer.Span span = Tracer.begin("installer", "writeApk");
+             InputStream is = source.openInputStream();
+             OutputStream os = session.openWrite(source.getName(), 0, source.getLength())) {
+            if (span.isRecording()) {
+                span.setArg("name", source.getName());
+            }
+            span.addBytes(IoUtils.copy(is, os));
+            session.fsync(os);
+        }
+        Log.d(TAG, "Copied " + source.getName());
+    }
+}
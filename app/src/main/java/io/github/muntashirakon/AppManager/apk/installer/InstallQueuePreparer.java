@@ -0,0 +1,118 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.installer;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
+
+/**
+ * Prepare the queued installations in the background, one at a time and in the order they were queued, so that the
+ * next package is ready by the time the current one is committed.
+ *
+ * @param <T> The prepared package
+ */
+final class InstallQueuePreparer<T> {
+    public static final String TAG = InstallQueuePreparer.class.getSimpleName();
+
+    interface Preparation<T> {
+        /**
+         * Prepare a package. If the preparation fails, it must release everything it has acquired because the package
+         * is prepared again by {@link #take(int)}.
+         */
+        @WorkerThread
+        @NonNull
+        T prepare(int key);
+    }
+
+    private static class QueuedPreparation<T> {
+        final int key;
+        @NonNull
+        final Future<T> future;
+
+        QueuedPreparation(int key, @NonNull Future<T> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+
+    @NonNull
+    private final Preparation<T> mPreparation;
+    // A single preparation at a time, they only have to stay ahead of the installations
+    private final TaskScope mExecutor = WorkerPools.newScope(WorkerPools.LANE_IO, 1);
+    @GuardedBy("mQueue")
+    private final ArrayDeque<QueuedPreparation<T>> mQueue = new ArrayDeque<>();
+
+    InstallQueuePreparer(@NonNull Preparation<T> preparation) {
+        mPreparation = preparation;
+    }
+
+    /**
+     * Start preparing a queued package.
+     */
+    @AnyThread
+    void enqueue(int key) {
+        synchronized (mQueue) {
+            mQueue.add(new QueuedPreparation<>(key, mExecutor.submit(() -> mPreparation.prepare(key))));
+        }
+    }
+
+    /**
+     * Get the prepared package, waiting for it to be prepared if necessary. The package is prepared in the calling
+     * thread if it was not queued, or if its preparation has failed.
+     */
+    @WorkerThread
+    @NonNull
+    T take(int key) {
+        QueuedPreparation<T> preparation = null;
+        synchronized (mQueue) {
+            Iterator<QueuedPreparation<T>> it = mQueue.iterator();
+            while (it.hasNext()) {
+                QueuedPreparation<T> queuedPreparation = it.next();
+                if (queuedPreparation.key == key) {
+                    it.remove();
+                    preparation = queuedPreparation;
+                    break;
+                }
+            }
+        }
+        if (preparation == null) {
+            return mPreparation.prepare(key);
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return preparation.future.get();
+                } catch (InterruptedException e) {
+                    // The preparation cannot be undone, wait for it anyway
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Could not prepare " + key + " in advance.", e.getCause());
+                    return mPreparation.prepare(key);
+                } catch (CancellationException e) {
+                    return mPreparation.prepare(key);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void close() {
+        mExecutor.shutdownNow();
+    }
+}
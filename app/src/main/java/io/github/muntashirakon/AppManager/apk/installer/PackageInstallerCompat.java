@@ -34,10 +34,9 @@ import androidx.annotation.WorkerThread;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -50,6 +49,7 @@ import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.apk.ApkFile;
 import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
 import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
 import io.github.muntashirakon.AppManager.misc.OsEnvironment;
 import io.github.muntashirakon.AppManager.servermanager.LocalServer;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
@@ -58,13 +58,13 @@ import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
 import io.github.muntashirakon.AppManager.utils.UiThreadHandler;
-import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.ProxyFile;
 
 @SuppressLint("ShiftFlags")
 public final class PackageInstallerCompat {
     public static final String TAG = PackageInstallerCompat.class.getSimpleName();
+    private static final String TRACE_CATEGORY = "installer";
 
     public static final String ACTION_INSTALL_STARTED = BuildConfig.APPLICATION_ID + ".action.INSTALL_STARTED";
     public static final String ACTION_INSTALL_COMPLETED = BuildConfig.APPLICATION_ID + ".action.INSTALL_COMPLETED";
@@ -516,63 +516,72 @@ public final class PackageInstallerCompat {
     }
 
     public boolean install(@NonNull ApkFile apkFile) {
-        try {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "install", apkFile.getPackageName())) {
             this.apkFile = apkFile;
             this.packageName = apkFile.getPackageName();
             initBroadcastReceiver();
             new Thread(this::copyObb).start();
             Log.d(TAG, "Install: opening session...");
-            if (!openSession()) return false;
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "openSession", packageName)) {
+                if (!openSession()) return false;
+            }
             List<ApkFile.Entry> selectedEntries = apkFile.getSelectedEntries();
             Log.d(TAG, "Install: selected entries: " + selectedEntries.size());
+            span.setArg("apks", selectedEntries.size());
             // Write apk files
+            List<ApkSessionWriter.Source> sources = new ArrayList<>(selectedEntries.size());
             for (ApkFile.Entry entry : selectedEntries) {
-                try (InputStream apkInputStream = entry.getSignedInputStream(context);
-                     OutputStream apkOutputStream = session.openWrite(entry.getFileName(), 0, entry.getFileSize())) {
-                    IoUtils.copy(apkInputStream, apkOutputStream);
-                    session.fsync(apkOutputStream);
-                    Log.d(TAG, "Install: copied entry " + entry.name);
-                } catch (IOException | RemoteException e) {
-                    callFinish(STATUS_FAILURE_SESSION_WRITE);
-                    Log.e(TAG, "Install: Cannot copy files to session.", e);
-                    return abandon();
-                } catch (SecurityException e) {
-                    callFinish(STATUS_FAILURE_SECURITY);
-                    Log.e(TAG, "Install: Cannot access apk files.", e);
-                    return abandon();
-                }
+                sources.add(ApkSessionWriter.fromEntry(context, entry));
+            }
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "writeSession", packageName)) {
+                ApkSessionWriter.write(ApkSessionWriter.fromSession(session), sources);
+            } catch (IOException | RemoteException e) {
+                callFinish(STATUS_FAILURE_SESSION_WRITE);
+                Log.e(TAG, "Install: Cannot copy files to session.", e);
+                return abandon();
+            } catch (SecurityException e) {
+                callFinish(STATUS_FAILURE_SECURITY);
+                Log.e(TAG, "Install: Cannot access apk files.", e);
+                return abandon();
             }
             Log.d(TAG, "Install: Running installation...");
-            return commit();
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "commit", packageName)) {
+                return commit();
+            }
         } finally {
             unregisterReceiver();
         }
     }
 
     public boolean install(@NonNull Path[] apkFiles, String packageName) {
-        try {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "install", packageName)) {
             this.apkFile = null;
             this.packageName = packageName;
             initBroadcastReceiver();
-            if (!openSession()) return false;
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "openSession", packageName)) {
+                if (!openSession()) return false;
+            }
+            span.setArg("apks", apkFiles.length);
             // Write apk files
+            List<ApkSessionWriter.Source> sources = new ArrayList<>(apkFiles.length);
             for (Path apkFile : apkFiles) {
-                try (InputStream apkInputStream = apkFile.openInputStream();
-                     OutputStream apkOutputStream = session.openWrite(apkFile.getName(), 0, apkFile.length())) {
-                    IoUtils.copy(apkInputStream, apkOutputStream);
-                    session.fsync(apkOutputStream);
-                } catch (IOException e) {
-                    callFinish(STATUS_FAILURE_SESSION_WRITE);
-                    Log.e(TAG, "Install: Cannot copy files to session.", e);
-                    return abandon();
-                } catch (SecurityException e) {
-                    callFinish(STATUS_FAILURE_SECURITY);
-                    Log.e(TAG, "Install: Cannot access apk files.", e);
-                    return abandon();
-                }
+                sources.add(ApkSessionWriter.fromPath(apkFile));
+            }
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "writeSession", packageName)) {
+                ApkSessionWriter.write(ApkSessionWriter.fromSession(session), sources);
+            } catch (IOException | RemoteException e) {
+                callFinish(STATUS_FAILURE_SESSION_WRITE);
+                Log.e(TAG, "Install: Cannot copy files to session.", e);
+                return abandon();
+            } catch (SecurityException e) {
+                callFinish(STATUS_FAILURE_SECURITY);
+                Log.e(TAG, "Install: Cannot access apk files.", e);
+                return abandon();
             }
             // Commit
-            return commit();
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "commit", packageName)) {
+                return commit();
+            }
         } finally {
             unregisterReceiver();
         }
@@ -5,6 +5,7 @@ package io.github.muntashirakon.AppManager.apk.installer;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Intent;
+import android.os.RemoteException;
 import android.os.UserHandleHidden;
 
 import androidx.annotation.NonNull;
@@ -13,11 +14,13 @@ import androidx.annotation.UiThread;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import java.io.IOException;
 import java.util.Collections;
 
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.apk.ApkFile;
+import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.main.MainActivity;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
 import io.github.muntashirakon.AppManager.types.ForegroundService;
@@ -42,6 +45,8 @@ import static io.github.muntashirakon.AppManager.apk.installer.PackageInstallerC
 import static io.github.muntashirakon.AppManager.apk.installer.PackageInstallerCompat.STATUS_SUCCESS;
 
 public class PackageInstallerService extends ForegroundService {
+    public static final String TAG = PackageInstallerService.class.getSimpleName();
+
     public static final String EXTRA_APK_FILE_KEY = "EXTRA_APK_FILE_KEY";
     public static final String EXTRA_APP_LABEL = "EXTRA_APP_LABEL";
     public static final String EXTRA_USER_ID = "EXTRA_USER_ID";
@@ -63,6 +68,21 @@ public class PackageInstallerService extends ForegroundService {
     private NotificationManagerCompat notificationManager;
     private int sessionId;
     private String packageName;
+    // Sign the queued packages while the current package is being installed
+    private final InstallQueuePreparer<ApkFile> queuePreparer = new InstallQueuePreparer<>(apkFileKey -> {
+        ApkFile apkFile = ApkFile.getInstance(apkFileKey);
+        try {
+            apkFile.prepareForInstall(this);
+        } catch (IOException | RemoteException e) {
+            // The installer will try again and report the error
+            Log.w(TAG, "Could not prepare " + apkFile.getPackageName(), e);
+        } catch (RuntimeException e) {
+            // The package is prepared again with a new instance, release this one
+            apkFile.close();
+            throw e;
+        }
+        return apkFile;
+    });
 
     @Override
     public int onStartCommand(@Nullable Intent intent, int flags, int startId) {
@@ -115,12 +135,16 @@ public class PackageInstallerService extends ForegroundService {
             }
         });
         pi.setAppLabel(appLabel);
-        pi.install(ApkFile.getInstance(apkFileKey));
+        pi.install(queuePreparer.take(apkFileKey));
     }
 
     @Override
     protected void onQueued(@Nullable Intent intent) {
         if (intent == null) return;
+        int apkFileKey = intent.getIntExtra(EXTRA_APK_FILE_KEY, -1);
+        if (apkFileKey != -1) {
+            queuePreparer.enqueue(apkFileKey);
+        }
         String appLabel = intent.getStringExtra(EXTRA_APP_LABEL);
         NotificationCompat.Builder builder = NotificationUtils.getHighPriorityNotificationBuilder(this)
                 .setAutoCancel(true)
@@ -156,6 +180,7 @@ public class PackageInstallerService extends ForegroundService {
         if (notificationManager != null) {
             notificationManager.deleteNotificationChannel(CHANNEL_ID);
         }
+        queuePreparer.close();
         super.onDestroy();
     }
 
@@ -0,0 +1,186 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.parser;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.dongliu.apk.parser.parser.ResourceResolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import io.github.muntashirakon.io.IoUtils;
+
+import static android.util.TypedValue.TYPE_REFERENCE;
+import static android.util.TypedValue.TYPE_STRING;
+
+/**
+ * Load the label and the icon of an APK file directly from its manifest and {@code resources.arsc}. Unlike
+ * {@link android.content.pm.PackageManager#getPackageArchiveInfo(String, int)}, the package is not parsed and no
+ * asset manager is created, which makes this suitable for listing APK files that are not installed.
+ */
+public final class ApkLabelLoader {
+    private static final String MANIFEST_FILE = "AndroidManifest.xml";
+    private static final String RESOURCE_TABLE_FILE = "resources.arsc";
+    private static final int ATTR_LABEL = android.R.attr.label;
+    private static final int ATTR_ICON = android.R.attr.icon;
+
+    @WorkerThread
+    @NonNull
+    public static ApkLabelLoader fromApk(@NonNull File apkFile) throws IOException {
+        try (ZipFile zipFile = new ZipFile(apkFile)) {
+            ByteBuffer manifest = readEntry(zipFile, MANIFEST_FILE);
+            if (manifest == null) {
+                throw new IOException("No manifest found in " + apkFile);
+            }
+            // Some APKs, such as those generated by the obfuscators, have no resource table
+            return fromBuffers(manifest, readEntry(zipFile, RESOURCE_TABLE_FILE));
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static ApkLabelLoader fromBuffers(@NonNull ByteBuffer manifest, @Nullable ByteBuffer resourceTable)
+            throws IOException {
+        try {
+            return new ApkLabelLoader(manifest, resourceTable);
+        } catch (AndroidBinXmlParser.XmlParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @NonNull
+    private final String mPackageName;
+    @Nullable
+    private String mLabel;
+    private int mLabelRes;
+    private int mIconRes;
+    @Nullable
+    private final ByteBuffer mResourceTableBuffer;
+    @Nullable
+    private ResourceResolver mResourceResolver;
+
+    private ApkLabelLoader(@NonNull ByteBuffer manifest, @Nullable ByteBuffer resourceTable)
+            throws AndroidBinXmlParser.XmlParserException, IOException {
+        mResourceTableBuffer = resourceTable;
+        String packageName = null;
+        AndroidBinXmlParser parser = new AndroidBinXmlParser(manifest);
+        int eventType = parser.getEventType();
+        while (eventType != AndroidBinXmlParser.EVENT_END_DOCUMENT) {
+            if (eventType == AndroidBinXmlParser.EVENT_START_ELEMENT && parser.getNamespace().isEmpty()) {
+                if (parser.getDepth() == 1 && parser.getName().equals("manifest")) {
+                    for (int i = 0; i < parser.getAttributeCount(); ++i) {
+                        if (parser.getAttributeName(i).equals("package")) {
+                            packageName = parser.getAttributeStringValue(i);
+                        }
+                    }
+                } else if (parser.getDepth() == 2 && parser.getName().equals("application")) {
+                    readApplicationAttributes(parser);
+                    // Nothing else is needed
+                    break;
+                }
+            }
+            eventType = parser.next();
+        }
+        if (packageName == null) {
+            throw new IOException("No package name found.");
+        }
+        mPackageName = packageName;
+    }
+
+    @NonNull
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    /**
+     * Get the label of the application under the given locale. The package name is returned if the application does
+     * not have a label, as the package manager does.
+     *
+     * @param locale The locale to use, or {@code null} to use the default label
+     */
+    @WorkerThread
+    @NonNull
+    public String getLabel(@Nullable Locale locale) {
+        if (mLabel != null) {
+            return mLabel;
+        }
+        ResourceResolver resolver = getResourceResolver();
+        if (mLabelRes != 0 && resolver != null) {
+            String label = resolver.getString(mLabelRes & 0xFFFFFFFFL, locale);
+            if (label != null) {
+                return label.trim();
+            }
+        }
+        return mPackageName;
+    }
+
+    /**
+     * Get the path of the application icon inside the APK that suits the given density.
+     *
+     * @param density The density of the screen, e.g. {@link android.util.DisplayMetrics#densityDpi}
+     * @return The path or {@code null} if the application does not have an icon
+     */
+    @WorkerThread
+    @Nullable
+    public String getIconPath(int density) {
+        ResourceResolver resolver = getResourceResolver();
+        if (mIconRes == 0 || resolver == null) {
+            return null;
+        }
+        return resolver.getFilePath(mIconRes & 0xFFFFFFFFL, null, density);
+    }
+
+    private void readApplicationAttributes(@NonNull AndroidBinXmlParser parser)
+            throws AndroidBinXmlParser.XmlParserException {
+        for (int i = 0; i < parser.getAttributeCount(); ++i) {
+            int attrRes = parser.getAttributeNameResourceId(i);
+            if (attrRes != ATTR_LABEL && attrRes != ATTR_ICON) {
+                continue;
+            }
+            int valueType = parser.getAttributeValueType(i);
+            if (valueType == TYPE_REFERENCE) {
+                if (attrRes == ATTR_LABEL) {
+                    mLabelRes = parser.getAttributeIntValue(i);
+                } else {
+                    mIconRes = parser.getAttributeIntValue(i);
+                }
+            } else if (valueType == TYPE_STRING && attrRes == ATTR_LABEL) {
+                // Hardcoded label
+                mLabel = parser.getAttributeStringValue(i);
+            }
+        }
+    }
+
+    @Nullable
+    private ResourceResolver getResourceResolver() {
+        if (mResourceResolver == null && mResourceTableBuffer != null) {
+            try {
+                mResourceResolver = new ResourceResolver(mResourceTableBuffer);
+            } catch (RuntimeException e) {
+                // Malformed table, only the hardcoded values are available
+                return null;
+            }
+        }
+        return mResourceResolver;
+    }
+
+    @Nullable
+    private static ByteBuffer readEntry(@NonNull ZipFile zipFile, @NonNull String name) throws IOException {
+        ZipEntry zipEntry = zipFile.getEntry(name);
+        if (zipEntry == null) {
+            return null;
+        }
+        try (InputStream is = zipFile.getInputStream(zipEntry)) {
+            return ByteBuffer.wrap(IoUtils.readFully(is, (int) zipEntry.getSize(), true));
+        }
+    }
+}
@@ -10,6 +10,7 @@ import android.os.UserHandleHidden;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 import com.android.internal.app.IAppOpsService;
 
@@ -71,8 +72,21 @@ public class AppOpsService {
         return Collections.singletonList(new PackageOps(packageName, uid, opEntries));
     }
 
+    /**
+     * Get the UID modes of the given UID.
+     *
+     * @param ops The app ops, or {@code null} for all app ops
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    @NonNull
+    public List<OpEntry> getUidOps(int uid, @Nullable int[] ops) throws RemoteException {
+        List<OpEntry> opEntries = new ArrayList<>();
+        addAllRelevantOpEntriesWithNoOverride(opEntries, appOpsService.getUidOps(uid, ops));
+        return opEntries;
+    }
+
     @NonNull
-    public List<PackageOps> getPackagesForOps(int[] ops) throws RemoteException {
+    public List<PackageOps> getPackagesForOps(@Nullable int[] ops) throws RemoteException {
         List<Parcelable> opsForPackage = appOpsService.getPackagesForOps(ops);
         List<PackageOps> packageOpsList = new ArrayList<>();
         if (opsForPackage != null) {
@@ -0,0 +1,198 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.appops;
+
+import android.os.Build;
+import android.os.RemoteException;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+
+/**
+ * The modes of a set of app ops for every package, fetched using a single call to
+ * {@link AppOpsService#getPackagesForOps(int[])} instead of calling
+ * {@link AppOpsService#checkOperation(int, int, String)} for each op of each package.
+ * <p>
+ * A mode is resolved the same way as {@code checkOperation} does, i.e. the UID mode of the switch
+ * op, or else the package mode of the switch op, or else the default mode of the switch op. UID
+ * modes are fetched once per UID when they are first needed. Modes changed via
+ * {@link #setMode(int, int, String, int)} are reflected in the snapshot.
+ */
+public class AppOpsSnapshot {
+    public static final String TAG = AppOpsSnapshot.class.getSimpleName();
+
+    /**
+     * Capture the modes of the given app ops.
+     *
+     * @param ops The app ops, or {@code null} for all app ops
+     */
+    @WorkerThread
+    @NonNull
+    public static AppOpsSnapshot capture(@NonNull AppOpsService appOpsService, @Nullable int[] ops) {
+        int[] switchOps = null;
+        if (ops != null) {
+            switchOps = new int[ops.length];
+            for (int i = 0; i < ops.length; ++i) {
+                switchOps[i] = AppOpsManager.opToSwitch(ops[i]);
+            }
+        }
+        Map<String, SparseIntArray> packageModes = null;
+        try {
+            List<PackageOps> packageOpsList = appOpsService.getPackagesForOps(switchOps);
+            packageModes = new HashMap<>(packageOpsList.size());
+            for (PackageOps packageOps : packageOpsList) {
+                if (packageOps.getOps() == null) continue;
+                SparseIntArray modes = new SparseIntArray(packageOps.getOps().size());
+                for (OpEntry entry : packageOps.getOps()) {
+                    modes.put(entry.getOp(), entry.getMode());
+                }
+                packageModes.put(getKey(packageOps.getPackageName(), packageOps.getUid()), modes);
+            }
+        } catch (RemoteException | RuntimeException e) {
+            // Modes are checked one by one
+            Log.e(TAG, "Could not fetch app ops in bulk", e);
+        }
+        return new AppOpsSnapshot(appOpsService, switchOps, packageModes);
+    }
+
+    @NonNull
+    private final AppOpsService mAppOpsService;
+    @Nullable
+    private final int[] mSwitchOps;
+    @Nullable
+    private final Map<String, SparseIntArray> mPackageModes;
+    @GuardedBy("mUidModes")
+    private final SparseArray<SparseIntArray> mUidModes = new SparseArray<>();
+
+    private AppOpsSnapshot(@NonNull AppOpsService appOpsService, @Nullable int[] switchOps,
+                           @Nullable Map<String, SparseIntArray> packageModes) {
+        mAppOpsService = appOpsService;
+        mSwitchOps = switchOps;
+        mPackageModes = packageModes;
+    }
+
+    /**
+     * Get the mode of an app op for the given package.
+     *
+     * @return One of the MODE_*
+     */
+    @WorkerThread
+    public int getMode(int op, int uid, @NonNull String packageName) throws RemoteException {
+        if (mPackageModes == null || Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            // No snapshot, or the UID modes cannot be listed
+            return mAppOpsService.checkOperation(op, uid, packageName);
+        }
+        int switchOp = AppOpsManager.opToSwitch(op);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            synchronized (mUidModes) {
+                SparseIntArray uidModes = getUidModes(uid);
+                int index = uidModes.indexOfKey(switchOp);
+                if (index >= 0) {
+                    return uidModes.valueAt(index);
+                }
+            }
+        }
+        SparseIntArray modes;
+        synchronized (mPackageModes) {
+            modes = mPackageModes.get(getKey(packageName, uid));
+        }
+        if (modes != null) {
+            synchronized (modes) {
+                int index = modes.indexOfKey(switchOp);
+                if (index >= 0) {
+                    return modes.valueAt(index);
+                }
+            }
+        }
+        return AppOpsManager.opToDefaultMode(switchOp);
+    }
+
+    /**
+     * Get the app ops whose mode is not the given mode, i.e. the app ops that have to be changed in
+     * order to set them to the given mode.
+     */
+    @WorkerThread
+    @NonNull
+    public List<Integer> getOpsNotInMode(@NonNull String packageName, int uid, @NonNull int[] ops, int mode) {
+        List<Integer> filteredOps = new ArrayList<>();
+        for (int op : ops) {
+            try {
+                if (getMode(op, uid, packageName) != mode) {
+                    filteredOps.add(op);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, e);
+            }
+        }
+        return filteredOps;
+    }
+
+    /**
+     * Set the mode of an app op via {@link AppOpsService#setMode(int, int, String, int)} and
+     * update the snapshot accordingly.
+     */
+    @WorkerThread
+    public void setMode(int op, int uid, @NonNull String packageName, int mode) throws RemoteException {
+        mAppOpsService.setMode(op, uid, packageName, mode);
+        if (mPackageModes == null) return;
+        int switchOp = AppOpsManager.opToSwitch(op);
+        if (AppOpsManager.isMiuiOp(op) || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            // Package mode was set
+            SparseIntArray modes;
+            synchronized (mPackageModes) {
+                String key = getKey(packageName, uid);
+                modes = mPackageModes.get(key);
+                if (modes == null) {
+                    modes = new SparseIntArray(1);
+                    mPackageModes.put(key, modes);
+                }
+            }
+            synchronized (modes) {
+                modes.put(switchOp, mode);
+            }
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // UID mode was set
+            synchronized (mUidModes) {
+                getUidModes(uid).put(switchOp, mode);
+            }
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.O)
+    @NonNull
+    private SparseIntArray getUidModes(int uid) {
+        synchronized (mUidModes) {
+            SparseIntArray uidModes = mUidModes.get(uid);
+            if (uidModes == null) {
+                uidModes = new SparseIntArray();
+                try {
+                    for (OpEntry entry : mAppOpsService.getUidOps(uid, mSwitchOps)) {
+                        uidModes.put(entry.getOp(), entry.getMode());
+                    }
+                } catch (RemoteException | RuntimeException e) {
+                    Log.e(TAG, "Could not get app ops for UID " + uid, e);
+                }
+                mUidModes.put(uid, uidModes);
+            }
+            return uidModes;
+        }
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String packageName, int uid) {
+        return uid + "/" + packageName;
+    }
+}
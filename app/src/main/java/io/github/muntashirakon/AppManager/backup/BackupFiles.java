@@ -28,6 +28,7 @@ public class BackupFiles {
     static final String MISC_TSV = "misc.am.tsv";
     static final String CHECKSUMS_TXT = "checksums.txt";
     static final String FREEZE = ".freeze";
+    static final String VERIFIED = ".verified";
     static final String NO_MEDIA = ".nomedia";
 
     @NonNull
@@ -140,7 +141,8 @@ public class BackupFiles {
 
         public boolean commit() {
             if (isTemporary) {
-                return delete() && tmpBackupPath.moveTo(backupPath);
+                return BackupMetadataIndex.getInstance().applyChange(backupPath,
+                        () -> deleteInternal() && tmpBackupPath.moveTo(backupPath));
             }
             return true;
         }
@@ -152,6 +154,10 @@ public class BackupFiles {
         }
 
         public boolean delete() {
+            return BackupMetadataIndex.getInstance().applyChange(backupPath, this::deleteInternal);
+        }
+
+        private boolean deleteInternal() {
             if (backupPath.exists()) {
                 return backupPath.delete();
             }
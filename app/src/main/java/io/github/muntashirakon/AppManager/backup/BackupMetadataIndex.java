@@ -0,0 +1,367 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.ArrayUtils;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * A persistent index of the metadata of all backups. Instead of reading the metadata of every backup each time, the
+ * index keeps the parsed metadata along with the modification times of the package directories and the modification
+ * times and sizes of the metadata files. A package directory is only rescanned if its modification time has changed
+ * (i.e. a backup was added, removed or renamed) and only the metadata files that have changed are parsed again.
+ * <p>
+ * Backups are created, replaced and deleted through {@link #applyChange(Path, Change)}, which keeps the index in sync
+ * even if the file system does not update the modification time of the package directory. File systems that do not
+ * report modification times (i.e. {@code 0}) are always rescanned.
+ */
+final class BackupMetadataIndex {
+    public static final String TAG = BackupMetadataIndex.class.getSimpleName();
+
+    private static final int INDEX_VERSION = 2;
+    private static final String INDEX_FILE = "backup_index.json";
+
+    @Nullable
+    private static BackupMetadataIndex sInstance;
+
+    @NonNull
+    public static synchronized BackupMetadataIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new BackupMetadataIndex(new File(AppManager.getContext().getCacheDir(), INDEX_FILE));
+        }
+        return sInstance;
+    }
+
+    /**
+     * A change to a backup, e.g. creating, replacing or deleting it.
+     */
+    interface Change {
+        /**
+         * @return {@code true} if the change was successful
+         */
+        boolean apply();
+    }
+
+    private static class BackupEntry {
+        final long metadataModified;
+        final long metadataSize;
+        @NonNull
+        final MetadataManager.Metadata metadata;
+
+        BackupEntry(long metadataModified, long metadataSize, @NonNull MetadataManager.Metadata metadata) {
+            this.metadataModified = metadataModified;
+            this.metadataSize = metadataSize;
+            this.metadata = metadata;
+        }
+    }
+
+    private static class PackageEntry {
+        long lastModified;
+        @NonNull
+        final HashMap<String, BackupEntry> backups = new HashMap<>();
+    }
+
+    @NonNull
+    private final File mIndexFile;
+    @GuardedBy("this")
+    @NonNull
+    private final HashMap<String, PackageEntry> mPackages = new HashMap<>();
+    // The backup directory the index belongs to, null if the index has not been loaded yet
+    @GuardedBy("this")
+    @Nullable
+    private String mBackupDirectory;
+    @GuardedBy("this")
+    private int mMetadataReadCount;
+
+    @VisibleForTesting
+    BackupMetadataIndex(@NonNull File indexFile) {
+        mIndexFile = indexFile;
+    }
+
+    /**
+     * Retrieve all metadata grouped by their package names.
+     */
+    @WorkerThread
+    @NonNull
+    public synchronized HashMap<String, List<MetadataManager.Metadata>> getAllMetadata() throws IOException {
+        Path backupDirectory = BackupFiles.getBackupDirectory();
+        load(backupDirectory);
+        boolean modified = false;
+        Set<String> packageDirs = new HashSet<>();
+        for (Path packagePath : ArrayUtils.defeatNullable(Path.class, backupDirectory.listFiles(Path::isDirectory))) {
+            String packageDir = packagePath.getName();
+            if (isExcluded(packageDir)) continue;
+            packageDirs.add(packageDir);
+            modified |= validatePackage(packagePath, false);
+        }
+        modified |= mPackages.keySet().retainAll(packageDirs);
+        if (modified) save();
+        HashMap<String, List<MetadataManager.Metadata>> backupMetadata = new HashMap<>();
+        for (PackageEntry packageEntry : mPackages.values()) {
+            for (BackupEntry backupEntry : packageEntry.backups.values()) {
+                List<MetadataManager.Metadata> metadataList = backupMetadata.get(backupEntry.metadata.packageName);
+                if (metadataList == null) {
+                    metadataList = new ArrayList<>();
+                    backupMetadata.put(backupEntry.metadata.packageName, metadataList);
+                }
+                metadataList.add(new MetadataManager.Metadata(backupEntry.metadata));
+            }
+        }
+        return backupMetadata;
+    }
+
+    /**
+     * Retrieve all metadata stored in the package directory named after the package.
+     *
+     * @throws FileNotFoundException If the package has no backups
+     */
+    @WorkerThread
+    @NonNull
+    public synchronized MetadataManager.Metadata[] getMetadata(@NonNull String packageName) throws IOException {
+        Path backupDirectory = BackupFiles.getBackupDirectory();
+        load(backupDirectory);
+        Path packagePath;
+        try {
+            packagePath = BackupFiles.getPackagePath(packageName, false);
+        } catch (FileNotFoundException e) {
+            if (mPackages.remove(packageName) != null) {
+                save();
+            }
+            throw e;
+        }
+        if (validatePackage(packagePath, false)) {
+            save();
+        }
+        PackageEntry packageEntry = mPackages.get(packageName);
+        if (packageEntry == null) return new MetadataManager.Metadata[0];
+        List<MetadataManager.Metadata> metadataList = new ArrayList<>(packageEntry.backups.size());
+        for (BackupEntry backupEntry : packageEntry.backups.values()) {
+            metadataList.add(new MetadataManager.Metadata(backupEntry.metadata));
+        }
+        return metadataList.toArray(new MetadataManager.Metadata[0]);
+    }
+
+    /**
+     * Create, replace or delete the given backup, and update the index accordingly. Before the change is applied, the
+     * package of the backup is marked as changed in the saved index, so that it is rescanned even if the app is killed
+     * in the middle of the change. After the change is applied, successfully or not, the package is rescanned right
+     * away, which also discards anything a concurrent listing may have indexed in the middle of the change.
+     *
+     * @return The result of the change
+     */
+    @WorkerThread
+    public boolean applyChange(@NonNull Path backupPath, @NonNull Change change) {
+        Path packagePath = backupPath.getParentFile();
+        if (packagePath == null) return change.apply();
+        invalidatePackage(packagePath.getName());
+        try {
+            return change.apply();
+        } finally {
+            rescanPackage(packagePath);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getMetadataReadCount() {
+        return mMetadataReadCount;
+    }
+
+    private synchronized void invalidatePackage(@NonNull String packageDir) {
+        if (!loadCurrent()) return;
+        PackageEntry packageEntry = mPackages.get(packageDir);
+        if (packageEntry != null && packageEntry.lastModified != 0) {
+            packageEntry.lastModified = 0;
+            save();
+        }
+    }
+
+    private synchronized void rescanPackage(@NonNull Path packagePath) {
+        if (!loadCurrent()) return;
+        if (packagePath.exists()) {
+            validatePackage(packagePath, true);
+        } else mPackages.remove(packagePath.getName());
+        save();
+    }
+
+    /**
+     * Load the index of the current backup directory.
+     *
+     * @return {@code false} if the backup directory is inaccessible
+     */
+    @GuardedBy("this")
+    private boolean loadCurrent() {
+        try {
+            load(BackupFiles.getBackupDirectory());
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Backup directory is inaccessible", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param force Rescan the package directory even if its modification time remains the same
+     * @return {@code true} if the index has been modified
+     */
+    @GuardedBy("this")
+    private boolean validatePackage(@NonNull Path packagePath, boolean force) {
+        String packageDir = packagePath.getName();
+        long lastModified = packagePath.lastModified();
+        PackageEntry packageEntry = mPackages.get(packageDir);
+        if (!force && packageEntry != null && lastModified != 0 && packageEntry.lastModified == lastModified) {
+            return false;
+        }
+        PackageEntry newPackageEntry = new PackageEntry();
+        newPackageEntry.lastModified = lastModified;
+        for (Path backupPath : ArrayUtils.defeatNullable(Path.class, packagePath.listFiles(Path::isDirectory))) {
+            String backupName = backupPath.getName();
+            Path metadataFile;
+            try {
+                metadataFile = backupPath.findFile(MetadataManager.META_FILE);
+            } catch (FileNotFoundException e) {
+                // Not a backup
+                continue;
+            }
+            long metadataModified = metadataFile.lastModified();
+            long metadataSize = metadataFile.length();
+            BackupEntry backupEntry = packageEntry != null ? packageEntry.backups.get(backupName) : null;
+            if (backupEntry == null || metadataModified == 0 || backupEntry.metadataModified != metadataModified
+                    || backupEntry.metadataSize != metadataSize) {
+                try {
+                    backupEntry = new BackupEntry(metadataModified, metadataSize, readMetadata(metadataFile, backupName));
+                } catch (IOException | JSONException e) {
+                    Log.e(TAG, "Could not read metadata for " + packageDir + "/" + backupName, e);
+                    continue;
+                }
+            }
+            newPackageEntry.backups.put(backupName, backupEntry);
+        }
+        mPackages.put(packageDir, newPackageEntry);
+        return true;
+    }
+
+    @GuardedBy("this")
+    @NonNull
+    private MetadataManager.Metadata readMetadata(@NonNull Path metadataFile, @NonNull String backupName)
+            throws IOException, JSONException {
+        ++mMetadataReadCount;
+        String metadata = FileUtils.getFileContent(metadataFile);
+        if (metadata.isEmpty()) {
+            throw new IOException("Empty JSON string");
+        }
+        MetadataManager.Metadata m = MetadataManager.fromJson(new JSONObject(metadata));
+        m.backupName = backupName;
+        return m;
+    }
+
+    @GuardedBy("this")
+    private void load(@NonNull Path backupDirectory) {
+        String backupDirectoryUri = backupDirectory.getUri().toString();
+        if (backupDirectoryUri.equals(mBackupDirectory)) return;
+        // Either the first use or the backup volume has changed
+        mBackupDirectory = backupDirectoryUri;
+        mPackages.clear();
+        if (!mIndexFile.exists()) return;
+        try {
+            JSONObject rootObject = new JSONObject(FileUtils.getFileContent(mIndexFile));
+            if (rootObject.getInt("version") != INDEX_VERSION
+                    || !rootObject.getString("backup_dir").equals(backupDirectoryUri)) {
+                // Outdated or belongs to another backup volume
+                return;
+            }
+            JSONObject packagesObject = rootObject.getJSONObject("packages");
+            Iterator<String> packageDirs = packagesObject.keys();
+            while (packageDirs.hasNext()) {
+                String packageDir = packageDirs.next();
+                JSONObject packageObject = packagesObject.getJSONObject(packageDir);
+                PackageEntry packageEntry = new PackageEntry();
+                packageEntry.lastModified = packageObject.getLong("mtime");
+                JSONObject backupsObject = packageObject.getJSONObject("backups");
+                Iterator<String> backupNames = backupsObject.keys();
+                while (backupNames.hasNext()) {
+                    String backupName = backupNames.next();
+                    JSONObject backupObject = backupsObject.getJSONObject(backupName);
+                    MetadataManager.Metadata metadata = MetadataManager.fromJson(backupObject.getJSONObject("metadata"));
+                    metadata.backupName = backupName;
+                    packageEntry.backups.put(backupName, new BackupEntry(backupObject.getLong("mtime"),
+                            backupObject.getLong("size"), metadata));
+                }
+                mPackages.put(packageDir, packageEntry);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding corrupt index", e);
+            mPackages.clear();
+            //noinspection ResultOfMethodCallIgnored
+            mIndexFile.delete();
+        }
+    }
+
+    @GuardedBy("this")
+    private void save() {
+        File tmpFile = new File(mIndexFile.getPath() + ".tmp");
+        try {
+            JSONObject packagesObject = new JSONObject();
+            for (Map.Entry<String, PackageEntry> packageEntry : mPackages.entrySet()) {
+                JSONObject backupsObject = new JSONObject();
+                for (Map.Entry<String, BackupEntry> backupEntry : packageEntry.getValue().backups.entrySet()) {
+                    JSONObject backupObject = new JSONObject();
+                    backupObject.put("mtime", backupEntry.getValue().metadataModified);
+                    backupObject.put("size", backupEntry.getValue().metadataSize);
+                    backupObject.put("metadata", MetadataManager.toJson(backupEntry.getValue().metadata));
+                    backupsObject.put(backupEntry.getKey(), backupObject);
+                }
+                JSONObject packageObject = new JSONObject();
+                packageObject.put("mtime", packageEntry.getValue().lastModified);
+                packageObject.put("backups", backupsObject);
+                packagesObject.put(packageEntry.getKey(), packageObject);
+            }
+            JSONObject rootObject = new JSONObject();
+            rootObject.put("version", INDEX_VERSION);
+            rootObject.put("backup_dir", mBackupDirectory);
+            rootObject.put("packages", packagesObject);
+            try (OutputStream os = new FileOutputStream(tmpFile)) {
+                os.write(rootObject.toString().getBytes());
+            }
+            if (!tmpFile.renameTo(mIndexFile)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + mIndexFile);
+            }
+        } catch (IOException | JSONException e) {
+            // The index is rebuilt from the backups when it's missing
+            Log.w(TAG, "Could not save index", e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    private static boolean isExcluded(@NonNull String dirName) {
+        return dirName.equals(SaveLogHelper.SAVED_LOGS_DIR)
+                || dirName.equals(BackupFiles.APK_SAVING_DIRECTORY)
+                || dirName.equals(BackupFiles.TEMPORARY_DIRECTORY);
+    }
+}
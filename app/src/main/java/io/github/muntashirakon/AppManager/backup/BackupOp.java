@@ -2,15 +2,12 @@
 
 package io.github.muntashirakon.AppManager.backup;
 
-import android.app.INotificationManager;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PermissionInfo;
 import android.graphics.Bitmap;
-import android.os.Build;
 import android.os.RemoteException;
 
 import androidx.annotation.NonNull;
@@ -24,7 +21,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -35,26 +31,23 @@ import io.github.muntashirakon.AppManager.appops.PackageOps;
 import io.github.muntashirakon.AppManager.crypto.Crypto;
 import io.github.muntashirakon.AppManager.crypto.CryptoException;
 import io.github.muntashirakon.AppManager.db.entity.FileHash;
-import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
 import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
 import io.github.muntashirakon.AppManager.misc.OsEnvironment;
 import io.github.muntashirakon.AppManager.rules.PseudoRules;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
-import io.github.muntashirakon.AppManager.runner.Runner;
-import io.github.muntashirakon.AppManager.servermanager.LocalServer;
 import io.github.muntashirakon.AppManager.servermanager.NetworkPolicyManagerCompat;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.servermanager.PermissionCompat;
 import io.github.muntashirakon.AppManager.uri.UriManager;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
+import io.github.muntashirakon.AppManager.utils.DeviceStateSnapshot;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 import io.github.muntashirakon.AppManager.utils.KeyStoreUtils;
-import io.github.muntashirakon.AppManager.utils.MagiskUtils;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
-import io.github.muntashirakon.AppManager.utils.SsaidSettings;
 import io.github.muntashirakon.AppManager.utils.TarUtils;
 import io.github.muntashirakon.AppManager.utils.Utils;
 import io.github.muntashirakon.io.Path;
@@ -72,6 +65,7 @@ import static io.github.muntashirakon.AppManager.backup.BackupManager.getExt;
 @WorkerThread
 class BackupOp implements Closeable {
     static final String TAG = "BackupOp";
+    private static final String TRACE_CATEGORY = "backup";
 
     @NonNull
     private final Context context = AppManager.getContext();
@@ -109,7 +103,7 @@ class BackupOp implements Closeable {
         this.metadataManager = metadataManager;
         this.backupFlags = backupFlags;
         this.tmpBackupPath = this.backupFile.getBackupPath();
-        try {
+        try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "setupMetadata", packageName)) {
             packageInfo = PackageManagerCompat.getPackageInfo(this.packageName,
                     PackageManager.GET_META_DATA | PackageUtils.flagSigningInfo
                             | PackageManager.GET_PERMISSIONS, userHandle);
@@ -160,19 +154,39 @@ class BackupOp implements Closeable {
         }
         try {
             // Backup icon
-            backupIcon();
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "icon", packageName)) {
+                backupIcon();
+            }
             // Backup source
-            if (backupFlags.backupApkFiles()) backupApkFiles();
+            if (backupFlags.backupApkFiles()) {
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "apkFiles", packageName)) {
+                    backupApkFiles();
+                }
+            }
             // Backup data
             if (backupFlags.backupData()) {
-                backupData();
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "data", packageName)) {
+                    backupData();
+                }
                 // Backup KeyStore
-                if (metadata.keyStore) backupKeyStore();
+                if (metadata.keyStore) {
+                    try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "keyStore", packageName)) {
+                        backupKeyStore();
+                    }
+                }
             }
             // Backup permissions
-            if (backupFlags.backupExtras()) backupExtras();
+            if (backupFlags.backupExtras()) {
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "extras", packageName)) {
+                    backupExtras();
+                }
+            }
             // Export rules
-            if (metadata.hasRules) backupRules();
+            if (metadata.hasRules) {
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "rules", packageName)) {
+                    backupRules();
+                }
+            }
         } catch (BackupException e) {
             try {
                 throw e;
@@ -180,6 +194,12 @@ class BackupOp implements Closeable {
                 backupFile.cleanup();
             }
         }
+        try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "commit", packageName)) {
+            writeMetadataAndCommit();
+        }
+    }
+
+    private void writeMetadataAndCommit() throws BackupException {
         // Set backup time
         metadata.backupTime = System.currentTimeMillis();
         // Write modified metadata
@@ -195,8 +215,7 @@ class BackupOp implements Closeable {
         }
         // Store checksum for metadata
         try {
-            checksum.add(MetadataManager.META_FILE, DigestUtils.getHexDigest(metadata.checksumAlgo,
-                    backupFile.getMetadataFile()));
+            checksum.add(MetadataManager.META_FILE, getChecksum(backupFile.getMetadataFile()));
         } catch (IOException e) {
             try {
                 throw new BackupException("Failed to get meta.json");
@@ -208,7 +227,7 @@ class BackupOp implements Closeable {
         // Encrypt checksum
         try {
             Path checksumFile = backupFile.getChecksumFile(CryptoUtils.MODE_NO_ENCRYPTION);
-            if (!crypto.encrypt(new Path[]{checksumFile})) {
+            if (!encrypt(new Path[]{checksumFile})) {
                 try {
                     throw new BackupException("Failed to encrypt " + checksumFile.getName());
                 } finally {
@@ -233,6 +252,26 @@ class BackupOp implements Closeable {
         }
     }
 
+    private boolean encrypt(@NonNull Path[] files) {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "encrypt", packageName)) {
+            if (span.isRecording()) {
+                span.setArg("mode", metadata.crypto);
+                span.addBytes(BackupUtils.getTotalLength(files));
+            }
+            return crypto.encrypt(files);
+        }
+    }
+
+    @NonNull
+    private String getChecksum(@NonNull Path file) {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "checksum", packageName)) {
+            if (span.isRecording()) {
+                span.addBytes(file.length());
+            }
+            return DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+        }
+    }
+
     private void backupIcon() {
         try {
             Path iconFile = tmpBackupPath.createNewFile(ICON_FILE, null);
@@ -262,13 +301,13 @@ class BackupOp implements Closeable {
         } catch (Throwable th) {
             throw new BackupException("APK files backup is requested but no source directory has been backed up.", th);
         }
-        if (!crypto.encrypt(sourceFiles)) {
+        if (!encrypt(sourceFiles)) {
             throw new BackupException("Failed to encrypt " + Arrays.toString(sourceFiles));
         }
         // Overwrite with the new files
         sourceFiles = crypto.getNewFiles();
         for (Path file : sourceFiles) {
-            checksum.add(file.getName(), DigestUtils.getHexDigest(metadata.checksumAlgo, file));
+            checksum.add(file.getName(), getChecksum(file));
         }
     }
 
@@ -294,13 +333,13 @@ class BackupOp implements Closeable {
             } catch (Throwable th) {
                 throw new BackupException("Failed to backup data directory at " + metadata.dataDirs[i], th);
             }
-            if (!crypto.encrypt(dataFiles)) {
+            if (!encrypt(dataFiles)) {
                 throw new BackupException("Failed to encrypt " + Arrays.toString(dataFiles));
             }
             // Overwrite with the new files
             dataFiles = crypto.getNewFiles();
             for (Path file : dataFiles) {
-                checksum.add(file.getName(), DigestUtils.getHexDigest(metadata.checksumAlgo, file));
+                checksum.add(file.getName(), getChecksum(file));
             }
         }
     }
@@ -352,13 +391,13 @@ class BackupOp implements Closeable {
             } catch (FileNotFoundException ignore) {
             }
         }
-        if (!crypto.encrypt(backedUpKeyStoreFiles)) {
+        if (!encrypt(backedUpKeyStoreFiles)) {
             throw new BackupException("Failed to encrypt " + Arrays.toString(backedUpKeyStoreFiles));
         }
         // Overwrite with the new files
         backedUpKeyStoreFiles = crypto.getNewFiles();
         for (Path file : backedUpKeyStoreFiles) {
-            checksum.add(file.getName(), DigestUtils.getHexDigest(metadata.checksumAlgo, file));
+            checksum.add(file.getName(), getChecksum(file));
         }
     }
 
@@ -402,34 +441,17 @@ class BackupOp implements Closeable {
         for (OpEntry entry : opEntries) {
             rules.setAppOp(entry.getOp(), entry.getMode());
         }
+        DeviceStateSnapshot snapshot = DeviceStateSnapshot.get();
         // Backup Magisk status
-        if (MagiskUtils.isHidden(packageName)) {
+        if (snapshot.isMagiskHidden(packageName)) {
             rules.setMagiskHide(true);
         }
         // Backup allowed notification listeners aka BIND_NOTIFICATION_LISTENER_SERVICE
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
-            INotificationManager notificationManager = INotificationManager.Stub.asInterface(ProxyBinder.getService(Context.NOTIFICATION_SERVICE));
-            try {
-                List<ComponentName> notificationComponents;
-                if (LocalServer.isAMServiceAlive()) {
-                    notificationComponents = notificationManager.getEnabledNotificationListeners(userHandle);
-                } else notificationComponents = Collections.emptyList();
-                List<String> componentsForThisPkg = new ArrayList<>();
-                for (ComponentName componentName : notificationComponents) {
-                    if (packageName.equals(componentName.getPackageName())) {
-                        componentsForThisPkg.add(componentName.getClassName());
-                    }
-                }
-                for (String component : componentsForThisPkg) {
-                    rules.setNotificationListener(component, true);
-                }
-            } catch (RemoteException ignore) {
-            }
+        for (String component : snapshot.getEnabledNotificationListeners(packageName, userHandle)) {
+            rules.setNotificationListener(component, true);
         }
         // Backup battery optimization
-        String targetString = "user," + packageName + "," + applicationInfo.uid;
-        Runner.Result result = Runner.runCommand(new String[]{"dumpsys", "deviceidle", "whitelist"});
-        if (result.isSuccessful() && result.getOutput().contains(targetString)) {
+        if (snapshot.isBatteryOptimizationDisabled(packageName, applicationInfo.uid)) {
             rules.setBatteryOptimization(false);
         }
         // Backup net policy
@@ -439,34 +461,29 @@ class BackupOp implements Closeable {
             rules.setNetPolicy(policies);
         }
         // Backup URI grants
-        List<UriManager.UriGrant> uriGrants = new UriManager().getGrantedUris(packageName);
-        if (uriGrants != null) {
-            for (UriManager.UriGrant uriGrant : uriGrants) {
-                if (uriGrant.targetUserId == userHandle) {
-                    rules.setUriGrant(uriGrant);
-                }
+        for (UriManager.UriGrant uriGrant : snapshot.getGrantedUris(packageName)) {
+            if (uriGrant.targetUserId == userHandle) {
+                rules.setUriGrant(uriGrant);
             }
         }
         // Backup SSAID
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            try {
-                String ssaid = new SsaidSettings(packageName, applicationInfo.uid).getSsaid();
-                if (ssaid != null) rules.setSsaid(ssaid);
-            } catch (IOException e) {
-                // Ignore exception
-                Log.e(TAG, e);
-            }
+        try {
+            String ssaid = snapshot.getSsaid(packageName, applicationInfo.uid);
+            if (ssaid != null) rules.setSsaid(ssaid);
+        } catch (IOException e) {
+            // Ignore exception
+            Log.e(TAG, e);
         }
         rules.commitExternal(miscFile);
         if (!miscFile.exists()) return;
-        if (!crypto.encrypt(new Path[]{miscFile})) {
+        if (!encrypt(new Path[]{miscFile})) {
             throw new BackupException("Failed to encrypt " + miscFile.getName());
         }
         try {
             // Overwrite with the new file
             miscFile = backupFile.getMiscFile(metadata.crypto);
             // Store checksum
-            checksum.add(miscFile.getName(), DigestUtils.getHexDigest(metadata.checksumAlgo, miscFile));
+            checksum.add(miscFile.getName(), getChecksum(miscFile));
         } catch (IOException e) {
             throw new BackupException("Couldn't get misc.am.tsv for generating checksum", e);
         }
@@ -480,13 +497,13 @@ class BackupOp implements Closeable {
                 ComponentUtils.storeRules(outputStream, cb.getAll(), true);
             }
             if (!rulesFile.exists()) return;
-            if (!crypto.encrypt(new Path[]{rulesFile})) {
+            if (!encrypt(new Path[]{rulesFile})) {
                 throw new BackupException("Failed to encrypt " + rulesFile.getName());
             }
             // Overwrite with the new file
             rulesFile = backupFile.getRulesFile(metadata.crypto);
             // Store checksum
-            checksum.add(rulesFile.getName(), DigestUtils.getHexDigest(metadata.checksumAlgo, rulesFile));
+            checksum.add(rulesFile.getName(), getChecksum(rulesFile));
         } catch (IOException e) {
             throw new BackupException("Rules backup is requested but encountered an error during fetching rules.", e);
         }
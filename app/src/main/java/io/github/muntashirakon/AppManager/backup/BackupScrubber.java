@@ -0,0 +1,279 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Verify many backups at once. Backups are verified concurrently, but no more than the given number of backups are
+ * read at the same time, and each file of a backup is read only once.
+ * <p>
+ * Optionally, the time of a successful verification is stored in the backup along with the number and the total
+ * size of its files, and the backup is skipped by the subsequent scrubs until any of its files changes.
+ */
+@WorkerThread
+public class BackupScrubber {
+    public static final String TAG = BackupScrubber.class.getSimpleName();
+
+    @IntDef({
+            STATUS_VERIFIED,
+            STATUS_SKIPPED,
+            STATUS_FAILED,
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Status {
+    }
+
+    public static final int STATUS_VERIFIED = 0;
+    public static final int STATUS_SKIPPED = 1;
+    public static final int STATUS_FAILED = 2;
+
+    public static class BackupResult {
+        @NonNull
+        public final String packageName;
+        @NonNull
+        public final String backupName;
+        @Status
+        public final int status;
+        public final long bytes;
+        @Nullable
+        public final String error;
+
+        BackupResult(@NonNull MetadataManager.Metadata metadata, @Status int status, long bytes,
+                     @Nullable String error) {
+            this.packageName = metadata.packageName;
+            this.backupName = metadata.backupName;
+            this.status = status;
+            this.bytes = bytes;
+            this.error = error;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "BackupResult{" +
+                    "packageName='" + packageName + '\'' +
+                    ", backupName='" + backupName + '\'' +
+                    ", status=" + status +
+                    ", bytes=" + bytes +
+                    ", error='" + error + '\'' +
+                    '}';
+        }
+    }
+
+    public static class Report {
+        @NonNull
+        private final List<BackupResult> mResults;
+        private final long mElapsedMillis;
+        private final long mBytes;
+
+        Report(@NonNull List<BackupResult> results, long elapsedMillis) {
+            mResults = Collections.unmodifiableList(results);
+            mElapsedMillis = elapsedMillis;
+            long bytes = 0;
+            for (BackupResult result : results) {
+                bytes += result.bytes;
+            }
+            mBytes = bytes;
+        }
+
+        /**
+         * Results in the same order as the backups
+         */
+        @NonNull
+        public List<BackupResult> getResults() {
+            return mResults;
+        }
+
+        public int getCount(@Status int status) {
+            int count = 0;
+            for (BackupResult result : mResults) {
+                if (result.status == status) ++count;
+            }
+            return count;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * Overall throughput in bytes per second
+         */
+        public long getThroughput() {
+            return mElapsedMillis == 0 ? mBytes * 1000 : mBytes * 1000 / mElapsedMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d verified, %d skipped, %d failed, %d bytes in %d ms (%d B/s)",
+                    getCount(STATUS_VERIFIED), getCount(STATUS_SKIPPED), getCount(STATUS_FAILED), mBytes,
+                    mElapsedMillis, getThroughput());
+        }
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called from the worker threads after each backup.
+         */
+        void onProgress(@NonNull BackupResult result, int done, int total);
+    }
+
+    private final int mParallelism;
+    private final boolean mMarkVerified;
+
+    /**
+     * @param parallelism  Maximum number of backups to verify at the same time
+     * @param markVerified Whether to skip the backups that have not changed since they were last verified, and to
+     *                     mark the verified backups as such
+     */
+    public BackupScrubber(int parallelism, boolean markVerified) {
+        mParallelism = Math.max(1, parallelism);
+        mMarkVerified = markVerified;
+    }
+
+    @NonNull
+    public Report scrub(@NonNull List<MetadataManager.Metadata> backups, @Nullable ProgressListener listener) {
+        long startTime = SystemClock.elapsedRealtime();
+        BackupResult[] results = new BackupResult[backups.size()];
+        AtomicInteger done = new AtomicInteger();
+        TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, mParallelism);
+        executor.setPriority(WorkerPools.PRIORITY_BACKGROUND);
+        for (int i = 0; i < results.length; ++i) {
+            int index = i;
+            executor.submit(() -> {
+                BackupResult result = verify(backups.get(index));
+                results[index] = result;
+                if (listener != null) {
+                    listener.onProgress(result, done.incrementAndGet(), results.length);
+                }
+            });
+        }
+        executor.awaitCompletion();
+        for (int i = 0; i < results.length; ++i) {
+            if (results[i] == null) {
+                // The task did not complete
+                results[i] = new BackupResult(backups.get(i), STATUS_FAILED, 0, "Interrupted");
+            }
+        }
+        Report report = new Report(Arrays.asList(results), SystemClock.elapsedRealtime() - startTime);
+        Log.i(TAG, "Scrubbed " + results.length + " backups: " + report);
+        return report;
+    }
+
+    @NonNull
+    private BackupResult verify(@NonNull MetadataManager.Metadata metadata) {
+        BackupFiles.BackupFile backupFile;
+        try {
+            Path backupPath = BackupFiles.getPackagePath(metadata.packageName, false).findFile(metadata.backupName);
+            backupFile = new BackupFiles.BackupFile(backupPath, false);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not find backup " + metadata.packageName + "/" + metadata.backupName, e);
+            return new BackupResult(metadata, STATUS_FAILED, 0, e.getMessage());
+        }
+        Path backupPath = backupFile.getBackupPath();
+        if (mMarkVerified && isVerified(backupPath)) {
+            return new BackupResult(metadata, STATUS_SKIPPED, 0, null);
+        }
+        // Only the files as they were before the verification are covered by it
+        long startTime = System.currentTimeMillis();
+        long[] state = mMarkVerified ? getState(backupPath) : null;
+        long bytes;
+        try (VerifyOp verifyOp = new VerifyOp(MetadataManager.getNewInstance(), backupFile)) {
+            try {
+                verifyOp.verify();
+            } finally {
+                bytes = verifyOp.getVerifiedBytes();
+            }
+        } catch (BackupException e) {
+            Log.e(TAG, "Could not verify backup " + metadata.packageName + "/" + metadata.backupName, e);
+            return new BackupResult(metadata, STATUS_FAILED, 0, e.getMessage());
+        }
+        if (state != null) {
+            markVerified(backupPath, state, startTime);
+        }
+        return new BackupResult(metadata, STATUS_VERIFIED, bytes, null);
+    }
+
+    /**
+     * Whether the backup has been verified before and none of its files have changed since then.
+     */
+    @VisibleForTesting
+    static boolean isVerified(@NonNull Path backupPath) {
+        Path verifiedFile;
+        try {
+            verifiedFile = backupPath.findFile(BackupFiles.VERIFIED);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        String[] fields = FileUtils.getFileContent(verifiedFile).trim().split("\t");
+        if (fields.length != 3) return false;
+        long[] state = getState(backupPath);
+        try {
+            long verifiedAt = Long.parseLong(fields[0]);
+            return state[2] <= verifiedAt && state[0] == Long.parseLong(fields[1])
+                    && state[1] == Long.parseLong(fields[2]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param state     State of the backup before the verification
+     * @param startTime Time at which the verification started. Files modified after it are not covered by the
+     *                  verification.
+     */
+    private static void markVerified(@NonNull Path backupPath, @NonNull long[] state, long startTime) {
+        long verifiedAt = Math.max(startTime, state[2]);
+        String contents = verifiedAt + "\t" + state[0] + "\t" + state[1] + "\n";
+        try (OutputStream os = backupPath.findOrCreateFile(BackupFiles.VERIFIED, null).openOutputStream()) {
+            os.write(contents.getBytes());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not mark " + backupPath + " as verified", e);
+        }
+    }
+
+    /**
+     * @return Number of files, their total size and the last modification time of the backup
+     */
+    @NonNull
+    private static long[] getState(@NonNull Path backupPath) {
+        long[] state = new long[3];
+        for (Path file : backupPath.listFiles()) {
+            String name = file.getName();
+            if (name.equals(BackupFiles.VERIFIED) || name.equals(BackupFiles.FREEZE)) continue;
+            ++state[0];
+            state[1] += file.length();
+            state[2] = Math.max(state[2], file.lastModified());
+        }
+        return state;
+    }
+}
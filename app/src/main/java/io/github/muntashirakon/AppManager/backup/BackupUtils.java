@@ -9,7 +9,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,30 +18,12 @@ import java.util.List;
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.db.dao.BackupDao;
 import io.github.muntashirakon.AppManager.db.entity.Backup;
-import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.io.FileStatus;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.ProxyFile;
 import io.github.muntashirakon.io.ProxyFiles;
 
 public final class BackupUtils {
-    @NonNull
-    private static List<String> getBackupPackages() throws FileNotFoundException {
-        Path backupPath = BackupFiles.getBackupDirectory();
-        List<String> packages;
-        Path[] files = backupPath.listFiles(Path::isDirectory);
-        packages = new ArrayList<>();
-        for (Path path : files) {
-            packages.add(path.getName());
-        }
-        packages.remove(SaveLogHelper.SAVED_LOGS_DIR);
-        packages.remove(BackupFiles.APK_SAVING_DIRECTORY);
-        packages.remove(BackupFiles.TEMPORARY_DIRECTORY);
-        // We don't need to check the contents of the packages at this stage.
-        // It's the caller's job to check contents if needed.
-        return packages;
-    }
-
     @WorkerThread
     @NonNull
     public static HashMap<String, Backup> storeAllAndGetLatestBackupMetadata() throws IOException {
@@ -106,19 +87,7 @@ public final class BackupUtils {
     @WorkerThread
     @NonNull
     public static HashMap<String, List<MetadataManager.Metadata>> getAllMetadata() throws IOException {
-        HashMap<String, List<MetadataManager.Metadata>> backupMetadata = new HashMap<>();
-        List<String> backupPackages = getBackupPackages();
-        for (String dirtyPackageName : backupPackages) {
-            MetadataManager.Metadata[] metadataList = MetadataManager.getMetadata(dirtyPackageName);
-            for (MetadataManager.Metadata metadata : metadataList) {
-                if (!backupMetadata.containsKey(metadata.packageName)) {
-                    backupMetadata.put(metadata.packageName, new ArrayList<>());
-                }
-                //noinspection ConstantConditions
-                backupMetadata.get(metadata.packageName).add(metadata);
-            }
-        }
-        return backupMetadata;
+        return BackupMetadataIndex.getInstance().getAllMetadata();
     }
 
     @NonNull
@@ -168,6 +137,14 @@ public final class BackupUtils {
         }
     }
 
+    static long getTotalLength(@NonNull Path[] files) {
+        long length = 0;
+        for (Path file : files) {
+            length += file.length();
+        }
+        return length;
+    }
+
     @NonNull
     static String[] getExcludeDirs(boolean includeCache, @Nullable String[] others) {
         List<String> excludeDirs = new ArrayList<>();
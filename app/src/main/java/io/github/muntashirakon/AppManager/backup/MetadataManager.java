@@ -22,7 +22,6 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -140,7 +139,14 @@ public final class MetadataManager {
         }
 
         public long getBackupSize() {
-            if (backupPath == null) return 0L;
+            if (backupPath == null) {
+                // Metadata loaded from the index does not have a path until it is needed
+                try {
+                    backupPath = BackupFiles.getPackagePath(packageName, false).findFile(backupName);
+                } catch (IOException e) {
+                    return 0L;
+                }
+            }
             return FileUtils.fileSize(backupPath);
         }
 
@@ -202,18 +208,7 @@ public final class MetadataManager {
     @WorkerThread
     @NonNull
     public static Metadata[] getMetadata(String packageName) throws IOException {
-        Path[] backupFiles = getBackupFiles(packageName);
-        List<Metadata> metadataList = new ArrayList<>(backupFiles.length);
-        for (Path backupFile : backupFiles) {
-            try {
-                MetadataManager metadataManager = MetadataManager.getNewInstance();
-                metadataManager.readMetadata(new BackupFiles.BackupFile(backupFile, false));
-                metadataList.add(metadataManager.getMetadata());
-            } catch (IOException e) {
-                Log.e("MetadataManager", e);
-            }
-        }
-        return metadataList.toArray(new Metadata[0]);
+        return BackupMetadataIndex.getInstance().getMetadata(packageName);
     }
 
     @NonNull
@@ -244,52 +239,14 @@ public final class MetadataManager {
             throw new IOException("Empty JSON string for path " + backupFile.getBackupPath());
         }
         try {
-            JSONObject rootObject = new JSONObject(metadata);
-            this.metadata = new Metadata();
+            this.metadata = fromJson(new JSONObject(metadata));
             this.metadata.backupPath = backupFile.getBackupPath();
             this.metadata.backupName = this.metadata.backupPath.getName();
-            this.metadata.label = rootObject.getString("label");
-            this.metadata.packageName = rootObject.getString("package_name");
-            this.metadata.versionName = rootObject.getString("version_name");
-            this.metadata.versionCode = rootObject.getLong("version_code");
-            this.metadata.dataDirs = JSONUtils.getArray(String.class, rootObject.getJSONArray("data_dirs"));
-            this.metadata.isSystem = rootObject.getBoolean("is_system");
-            this.metadata.isSplitApk = rootObject.getBoolean("is_split_apk");
-            this.metadata.splitConfigs = JSONUtils.getArray(String.class, rootObject.getJSONArray("split_configs"));
-            this.metadata.hasRules = rootObject.getBoolean("has_rules");
-            this.metadata.backupTime = rootObject.getLong("backup_time");
-            this.metadata.checksumAlgo = rootObject.getString("checksum_algo");
-            this.metadata.crypto = rootObject.getString("crypto");
-            readCrypto(rootObject);
-            this.metadata.version = rootObject.getInt("version");
-            this.metadata.apkName = rootObject.getString("apk_name");
-            this.metadata.instructionSet = rootObject.getString("instruction_set");
-            this.metadata.flags = new BackupFlags(rootObject.getInt("flags"));
-            this.metadata.userHandle = rootObject.getInt("user_handle");
-            this.metadata.tarType = rootObject.getString("tar_type");
-            this.metadata.keyStore = rootObject.getBoolean("key_store");
-            this.metadata.installer = JSONUtils.getString(rootObject, "installer", BuildConfig.APPLICATION_ID);
         } catch (JSONException e) {
             throw new IOException(e.getMessage() + " for path " + backupFile.getBackupPath());
         }
     }
 
-    private void readCrypto(JSONObject rootObj) throws JSONException {
-        switch (metadata.crypto) {
-            case CryptoUtils.MODE_OPEN_PGP:
-                this.metadata.keyIds = rootObj.getString("key_ids");
-                break;
-            case CryptoUtils.MODE_RSA:
-                this.metadata.aes = HexEncoding.decode(rootObj.getString("aes"));
-                // Deliberate fallthrough
-            case CryptoUtils.MODE_AES:
-                this.metadata.iv = HexEncoding.decode(rootObj.getString("iv"));
-                break;
-            case CryptoUtils.MODE_NO_ENCRYPTION:
-            default:
-        }
-    }
-
     @WorkerThread
     synchronized public void writeMetadata(@NonNull BackupFiles.BackupFile backupFile) throws IOException {
         if (metadata == null) {
@@ -297,36 +254,88 @@ public final class MetadataManager {
         }
         Path metadataFile = backupFile.getMetadataFile();
         try (OutputStream outputStream = metadataFile.openOutputStream()) {
-            JSONObject rootObject = new JSONObject();
-            rootObject.put("label", metadata.label);
-            rootObject.put("package_name", metadata.packageName);
-            rootObject.put("version_name", metadata.versionName);
-            rootObject.put("version_code", metadata.versionCode);
-            rootObject.put("data_dirs", JSONUtils.getJSONArray(metadata.dataDirs));
-            rootObject.put("is_system", metadata.isSystem);
-            rootObject.put("is_split_apk", metadata.isSplitApk);
-            rootObject.put("split_configs", JSONUtils.getJSONArray(metadata.splitConfigs));
-            rootObject.put("has_rules", metadata.hasRules);
-            rootObject.put("backup_time", metadata.backupTime);
-            rootObject.put("checksum_algo", metadata.checksumAlgo);
-            rootObject.put("crypto", metadata.crypto);
-            rootObject.put("key_ids", metadata.keyIds);
-            rootObject.put("iv", metadata.iv == null ? null : HexEncoding.encodeToString(metadata.iv));
-            rootObject.put("aes", metadata.aes == null ? null : HexEncoding.encodeToString(metadata.aes));
-            rootObject.put("version", metadata.version);
-            rootObject.put("apk_name", metadata.apkName);
-            rootObject.put("instruction_set", metadata.instructionSet);
-            rootObject.put("flags", metadata.flags.getFlags());
-            rootObject.put("user_handle", metadata.userHandle);
-            rootObject.put("tar_type", metadata.tarType);
-            rootObject.put("key_store", metadata.keyStore);
-            rootObject.put("installer", metadata.installer);
-            outputStream.write(rootObject.toString(4).getBytes());
+            outputStream.write(toJson(metadata).toString(4).getBytes());
         } catch (JSONException e) {
             throw new IOException(e.getMessage() + " for path " + backupFile.getBackupPath());
         }
     }
 
+    /**
+     * Parse the contents of a metadata file. {@link Metadata#backupName} and {@link Metadata#backupPath}
+     * are not part of it and have to be set by the caller.
+     */
+    @NonNull
+    static Metadata fromJson(@NonNull JSONObject rootObject) throws JSONException {
+        Metadata metadata = new Metadata();
+        metadata.label = rootObject.getString("label");
+        metadata.packageName = rootObject.getString("package_name");
+        metadata.versionName = rootObject.getString("version_name");
+        metadata.versionCode = rootObject.getLong("version_code");
+        metadata.dataDirs = JSONUtils.getArray(String.class, rootObject.getJSONArray("data_dirs"));
+        metadata.isSystem = rootObject.getBoolean("is_system");
+        metadata.isSplitApk = rootObject.getBoolean("is_split_apk");
+        metadata.splitConfigs = JSONUtils.getArray(String.class, rootObject.getJSONArray("split_configs"));
+        metadata.hasRules = rootObject.getBoolean("has_rules");
+        metadata.backupTime = rootObject.getLong("backup_time");
+        metadata.checksumAlgo = rootObject.getString("checksum_algo");
+        metadata.crypto = rootObject.getString("crypto");
+        readCrypto(metadata, rootObject);
+        metadata.version = rootObject.getInt("version");
+        metadata.apkName = rootObject.getString("apk_name");
+        metadata.instructionSet = rootObject.getString("instruction_set");
+        metadata.flags = new BackupFlags(rootObject.getInt("flags"));
+        metadata.userHandle = rootObject.getInt("user_handle");
+        metadata.tarType = rootObject.getString("tar_type");
+        metadata.keyStore = rootObject.getBoolean("key_store");
+        metadata.installer = JSONUtils.getString(rootObject, "installer", BuildConfig.APPLICATION_ID);
+        return metadata;
+    }
+
+    @NonNull
+    static JSONObject toJson(@NonNull Metadata metadata) throws JSONException {
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("label", metadata.label);
+        rootObject.put("package_name", metadata.packageName);
+        rootObject.put("version_name", metadata.versionName);
+        rootObject.put("version_code", metadata.versionCode);
+        rootObject.put("data_dirs", JSONUtils.getJSONArray(metadata.dataDirs));
+        rootObject.put("is_system", metadata.isSystem);
+        rootObject.put("is_split_apk", metadata.isSplitApk);
+        rootObject.put("split_configs", JSONUtils.getJSONArray(metadata.splitConfigs));
+        rootObject.put("has_rules", metadata.hasRules);
+        rootObject.put("backup_time", metadata.backupTime);
+        rootObject.put("checksum_algo", metadata.checksumAlgo);
+        rootObject.put("crypto", metadata.crypto);
+        rootObject.put("key_ids", metadata.keyIds);
+        rootObject.put("iv", metadata.iv == null ? null : HexEncoding.encodeToString(metadata.iv));
+        rootObject.put("aes", metadata.aes == null ? null : HexEncoding.encodeToString(metadata.aes));
+        rootObject.put("version", metadata.version);
+        rootObject.put("apk_name", metadata.apkName);
+        rootObject.put("instruction_set", metadata.instructionSet);
+        rootObject.put("flags", metadata.flags.getFlags());
+        rootObject.put("user_handle", metadata.userHandle);
+        rootObject.put("tar_type", metadata.tarType);
+        rootObject.put("key_store", metadata.keyStore);
+        rootObject.put("installer", metadata.installer);
+        return rootObject;
+    }
+
+    private static void readCrypto(@NonNull Metadata metadata, @NonNull JSONObject rootObj) throws JSONException {
+        switch (metadata.crypto) {
+            case CryptoUtils.MODE_OPEN_PGP:
+                metadata.keyIds = rootObj.getString("key_ids");
+                break;
+            case CryptoUtils.MODE_RSA:
+                metadata.aes = HexEncoding.decode(rootObj.getString("aes"));
+                // Deliberate fallthrough
+            case CryptoUtils.MODE_AES:
+                metadata.iv = HexEncoding.decode(rootObj.getString("iv"));
+                break;
+            case CryptoUtils.MODE_NO_ENCRYPTION:
+            default:
+        }
+    }
+
     public Metadata setupMetadata(@NonNull PackageInfo packageInfo,
                                   int userHandle,
                                   @NonNull BackupFlags requestedFlags) {
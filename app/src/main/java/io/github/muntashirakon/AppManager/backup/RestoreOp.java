@@ -20,7 +20,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.apk.installer.PackageInstallerCompat;
@@ -29,6 +28,7 @@ import io.github.muntashirakon.AppManager.crypto.Crypto;
 import io.github.muntashirakon.AppManager.crypto.CryptoException;
 import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
 import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
 import io.github.muntashirakon.AppManager.rules.PseudoRules;
 import io.github.muntashirakon.AppManager.rules.RuleType;
 import io.github.muntashirakon.AppManager.rules.RulesImporter;
@@ -44,6 +44,7 @@ import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.servermanager.PermissionCompat;
 import io.github.muntashirakon.AppManager.uri.UriManager;
 import io.github.muntashirakon.AppManager.utils.AppPref;
+import io.github.muntashirakon.AppManager.utils.DeviceStateSnapshot;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 import io.github.muntashirakon.AppManager.utils.KeyStoreUtils;
@@ -67,6 +68,7 @@ import static io.github.muntashirakon.AppManager.backup.BackupManager.SOURCE_PRE
 @WorkerThread
 class RestoreOp implements Closeable {
     static final String TAG = "RestoreOp";
+    private static final String TRACE_CATEGORY = "restore";
 
     @NonNull
     private final Context context = AppManager.getContext();
@@ -100,7 +102,7 @@ class RestoreOp implements Closeable {
         this.backupFile = backupFile;
         this.backupPath = this.backupFile.getBackupPath();
         this.userHandle = userHandle;
-        try {
+        try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "readMetadata", packageName)) {
             metadataManager.readMetadata(this.backupFile);
             metadata = metadataManager.getMetadata();
             backupFlags = metadata.flags;
@@ -123,7 +125,7 @@ class RestoreOp implements Closeable {
             throw new BackupException("Could not get encrypted checksum.txt file.", e);
         }
         // Decrypt checksum
-        if (!crypto.decrypt(new Path[]{checksumFile})) {
+        if (!decrypt(new Path[]{checksumFile})) {
             throw new BackupException("Failed to decrypt " + checksumFile.getName());
         }
         // Get checksums
@@ -143,7 +145,7 @@ class RestoreOp implements Closeable {
             } catch (IOException e) {
                 throw new BackupException("Could not get metadata file.", e);
             }
-            String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, metadataFile);
+            String checksum = getChecksum(metadataFile);
             if (!checksum.equals(this.checksum.get(metadataFile.getName()))) {
                 throw new BackupException("Couldn't verify metadata file." +
                         "\nFile: " + metadataFile +
@@ -157,7 +159,7 @@ class RestoreOp implements Closeable {
         }
         // Get package info
         packageInfo = null;
-        try {
+        try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "getPackageInfo", packageName)) {
             packageInfo = PackageManagerCompat.getPackageInfo(packageName, PackageUtils.flagSigningInfo, userHandle);
         } catch (Exception ignore) {
         }
@@ -179,13 +181,51 @@ class RestoreOp implements Closeable {
             // Check checksum of master key first
             checkMasterKey();
         }
-        if (requestedFlags.backupApkFiles()) restoreApkFiles();
+        if (requestedFlags.backupApkFiles()) {
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "apkFiles", packageName)) {
+                restoreApkFiles();
+            }
+        }
         if (requestedFlags.backupData()) {
-            restoreData();
-            if (metadata.keyStore) restoreKeyStore();
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "data", packageName)) {
+                restoreData();
+            }
+            if (metadata.keyStore) {
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "keyStore", packageName)) {
+                    restoreKeyStore();
+                }
+            }
+        }
+        if (requestedFlags.backupExtras()) {
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "extras", packageName)) {
+                restoreExtras();
+            }
+        }
+        if (requestedFlags.backupRules()) {
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "rules", packageName)) {
+                restoreRules();
+            }
+        }
+    }
+
+    private boolean decrypt(@NonNull Path[] files) {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "decrypt", packageName)) {
+            if (span.isRecording()) {
+                span.setArg("mode", metadata.crypto);
+                span.addBytes(BackupUtils.getTotalLength(files));
+            }
+            return crypto.decrypt(files);
+        }
+    }
+
+    @NonNull
+    private String getChecksum(@NonNull Path file) {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "checksum", packageName)) {
+            if (span.isRecording()) {
+                span.addBytes(file.length());
+            }
+            return DigestUtils.getHexDigest(metadata.checksumAlgo, file);
         }
-        if (requestedFlags.backupExtras()) restoreExtras();
-        if (requestedFlags.backupRules()) restoreRules();
     }
 
     private void checkMasterKey() throws BackupException {
@@ -232,7 +272,7 @@ class RestoreOp implements Closeable {
         if (!requestedFlags.skipSignatureCheck()) {
             String checksum;
             for (Path file : backupSourceFiles) {
-                checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+                checksum = getChecksum(file);
                 if (!checksum.equals(this.checksum.get(file.getName()))) {
                     throw new BackupException("Source file verification failed." +
                             "\nFile: " + file +
@@ -278,7 +318,7 @@ class RestoreOp implements Closeable {
             throw new BackupException("Could not create staging files", e);
         }
         // Decrypt sources
-        if (!crypto.decrypt(backupSourceFiles)) {
+        if (!decrypt(backupSourceFiles)) {
             throw new BackupException("Failed to decrypt " + Arrays.toString(backupSourceFiles));
         }
         // Get decrypted file
@@ -295,7 +335,11 @@ class RestoreOp implements Closeable {
         // A normal update will do it now
         PackageInstallerCompat packageInstaller = PackageInstallerCompat.getNewInstance(userHandle, metadata.installer);
         try {
-            if (!packageInstaller.install(allApks, packageName)) {
+            boolean installed;
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "install", packageName)) {
+                installed = packageInstaller.install(allApks, packageName);
+            }
+            if (!installed) {
                 throw new BackupException("A (re)install was necessary but couldn't perform it.");
             }
         } finally {
@@ -321,7 +365,7 @@ class RestoreOp implements Closeable {
         if (!requestedFlags.skipSignatureCheck()) {
             String checksum;
             for (Path file : keyStoreFiles) {
-                checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+                checksum = getChecksum(file);
                 if (!checksum.equals(this.checksum.get(file.getName()))) {
                     throw new BackupException("KeyStore file verification failed." +
                             "\nFile: " + file +
@@ -331,7 +375,7 @@ class RestoreOp implements Closeable {
             }
         }
         // Decrypt sources
-        if (!crypto.decrypt(keyStoreFiles)) {
+        if (!decrypt(keyStoreFiles)) {
             throw new BackupException("Failed to decrypt " + Arrays.toString(keyStoreFiles));
         }
         // Get decrypted file
@@ -378,7 +422,7 @@ class RestoreOp implements Closeable {
                     throw new BackupException("Data restore is requested but there are no data files for index " + i + ".");
                 }
                 for (Path file : dataFiles) {
-                    checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+                    checksum = getChecksum(file);
                     if (!checksum.equals(this.checksum.get(file.getName()))) {
                         throw new BackupException("Data file verification failed for index " + i + "." +
                                 "\nFile: " + file +
@@ -432,7 +476,7 @@ class RestoreOp implements Closeable {
                 dataSourceFile.mkdirs();
             }
             // Decrypt data
-            if (!crypto.decrypt(dataFiles)) {
+            if (!decrypt(dataFiles)) {
                 throw new BackupException("Failed to decrypt " + Arrays.toString(dataFiles));
             }
             // Get decrypted files
@@ -448,7 +492,8 @@ class RestoreOp implements Closeable {
                 throw new BackupException("Failed to restore data files for index " + i + ".", th);
             }
             // Fix UID and GID
-            if (uidAndGid != null && !Runner.runCommand(String.format(Locale.ROOT, "chown -R %d:%d \"%s\"", uidAndGid.first, uidAndGid.second, dataSource)).isSuccessful()) {
+            if (uidAndGid != null && !Runner.runCommand(new String[]{"chown", "-R", uidAndGid.first + ":"
+                    + uidAndGid.second, dataSource}).isSuccessful()) {
                 throw new BackupException("Failed to restore ownership info for index " + i + ".");
             }
             // Restore permissions
@@ -467,6 +512,8 @@ class RestoreOp implements Closeable {
         List<RuleEntry> entries = rules.getAll();
         AppOpsService appOpsService = new AppOpsService();
         INotificationManager notificationManager = INotificationManager.Stub.asInterface(ProxyBinder.getService(Context.NOTIFICATION_SERVICE));
+        DeviceStateSnapshot snapshot = DeviceStateSnapshot.get();
+        int uid = packageInfo.applicationInfo.uid;
         for (RuleEntry entry : entries) {
             try {
                 switch (entry.type) {
@@ -486,15 +533,22 @@ class RestoreOp implements Closeable {
                         }
                         break;
                     case BATTERY_OPT:
-                        Runner.runCommand(new String[]{"dumpsys", "deviceidle", "whitelist", "+" + packageName});
+                        if (!snapshot.isBatteryOptimizationDisabled(packageName, uid)) {
+                            Runner.runCommand(new String[]{"dumpsys", "deviceidle", "whitelist", "+" + packageName});
+                            DeviceStateSnapshot.invalidate(DeviceStateSnapshot.STATE_BATTERY_OPT);
+                        }
                         break;
                     case MAGISK_HIDE:
-                        MagiskUtils.hide(packageName);
+                        if (!snapshot.isMagiskHidden(packageName)) {
+                            MagiskUtils.hide(packageName);
+                        }
                         break;
                     case NOTIFICATION:
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1 && !snapshot
+                                .getEnabledNotificationListeners(packageName, userHandle).contains(entry.name)) {
                             notificationManager.setNotificationListenerAccessGrantedForUser(
                                     new ComponentName(packageName, entry.name), userHandle, true);
+                            DeviceStateSnapshot.invalidate(DeviceStateSnapshot.STATE_NOTIFICATION_LISTENERS);
                         }
                         break;
                     case URI_GRANT:
@@ -509,8 +563,10 @@ class RestoreOp implements Closeable {
                         break;
                     case SSAID:
                         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                            new SsaidSettings(packageName, packageInfo.applicationInfo.uid)
-                                    .setSsaid(((SsaidRule) entry).getSsaid());
+                            String ssaid = ((SsaidRule) entry).getSsaid();
+                            if (!ssaid.equals(snapshot.getSsaid(packageName, uid))) {
+                                new SsaidSettings(packageName, uid).setSsaid(ssaid);
+                            }
                         }
                         break;
                 }
@@ -532,7 +588,7 @@ class RestoreOp implements Closeable {
             return;
         }
         if (!requestedFlags.skipSignatureCheck()) {
-            String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, miscFile);
+            String checksum = getChecksum(miscFile);
             if (!checksum.equals(this.checksum.get(miscFile.getName()))) {
                 throw new BackupException("Couldn't verify misc file." +
                         "\nFile: " + miscFile +
@@ -541,7 +597,7 @@ class RestoreOp implements Closeable {
             }
         }
         // Decrypt permission file
-        if (!crypto.decrypt(new Path[]{miscFile})) {
+        if (!decrypt(new Path[]{miscFile})) {
             throw new BackupException("Failed to decrypt " + miscFile.getName());
         }
         // Get decrypted file
@@ -575,7 +631,7 @@ class RestoreOp implements Closeable {
             }
         }
         if (!requestedFlags.skipSignatureCheck()) {
-            String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, rulesFile);
+            String checksum = getChecksum(rulesFile);
             if (!checksum.equals(this.checksum.get(rulesFile.getName()))) {
                 throw new BackupException("Couldn't verify permission file." +
                         "\nFile: " + rulesFile +
@@ -584,7 +640,7 @@ class RestoreOp implements Closeable {
             }
         }
         // Decrypt rules file
-        if (!crypto.decrypt(new Path[]{rulesFile})) {
+        if (!decrypt(new Path[]{rulesFile})) {
             throw new BackupException("Failed to decrypt " + rulesFile.getName());
         }
         // Get decrypted file
@@ -5,8 +5,13 @@ package io.github.muntashirakon.AppManager.backup;
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -38,16 +43,24 @@ class VerifyOp implements Closeable {
     @NonNull
     private final BackupFiles.Checksum checksum;
     private final List<Path> decryptedFiles = new ArrayList<>();
+    private long verifiedBytes;
 
     VerifyOp(@NonNull MetadataManager metadataManager, @NonNull BackupFiles.BackupFile backupFile)
             throws BackupException {
         this.backupFile = backupFile;
         this.backupPath = this.backupFile.getBackupPath();
+        // The metadata file is read only once, both for parsing and for verifying it
+        Path metadataFile;
+        byte[] metadataBytes;
         try {
-            metadataManager.readMetadata(this.backupFile);
-            metadata = metadataManager.getMetadata();
+            metadataFile = this.backupFile.getMetadataFile();
+            metadataBytes = readFully(metadataFile);
+            metadata = MetadataManager.fromJson(new JSONObject(new String(metadataBytes)));
+            metadata.backupPath = this.backupPath;
+            metadata.backupName = this.backupPath.getName();
+            metadataManager.setMetadata(metadata);
             this.backupFlags = metadata.flags;
-        } catch (IOException e) {
+        } catch (IOException | JSONException e) {
             throw new BackupException("Could not read metadata. Possibly due to a malformed json file.", e);
         }
         // Setup crypto
@@ -79,13 +92,8 @@ class VerifyOp implements Closeable {
             throw new BackupException("Could not get checksums.", e);
         }
         // Verify metadata
-        Path metadataFile;
-        try {
-            metadataFile = this.backupFile.getMetadataFile();
-        } catch (IOException e) {
-            throw new BackupException("Could not get metadata file.", e);
-        }
-        String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, metadataFile);
+        verifiedBytes += metadataBytes.length;
+        String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, metadataBytes);
         if (!checksum.equals(this.checksum.get(metadataFile.getName()))) {
             throw new BackupException("Could not verify metadata." +
                     "\nFile: " + metadataFile.getName() +
@@ -116,6 +124,32 @@ class VerifyOp implements Closeable {
         if (backupFlags.backupRules()) verifyRules();
     }
 
+    /**
+     * Number of bytes read during the verification so far.
+     */
+    long getVerifiedBytes() {
+        return verifiedBytes;
+    }
+
+    @NonNull
+    private String getHexDigest(@NonNull Path file) {
+        verifiedBytes += file.length();
+        return DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+    }
+
+    @NonNull
+    private static byte[] readFully(@NonNull Path file) throws IOException {
+        try (InputStream is = file.openInputStream()) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                os.write(buffer, 0, read);
+            }
+            return os.toByteArray();
+        }
+    }
+
     private void verifyApkFiles() throws BackupException {
         Path[] backupSourceFiles = getSourceFiles(backupPath);
         if (backupSourceFiles.length == 0) {
@@ -124,7 +158,7 @@ class VerifyOp implements Closeable {
         }
         String checksum;
         for (Path file : backupSourceFiles) {
-            checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+            checksum = getHexDigest(file);
             if (!checksum.equals(this.checksum.get(file.getName()))) {
                 throw new BackupException("Could not verify APK files." +
                         "\nFile: " + file.getName() +
@@ -141,7 +175,7 @@ class VerifyOp implements Closeable {
         }
         String checksum;
         for (Path file : keyStoreFiles) {
-            checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+            checksum = getHexDigest(file);
             if (!checksum.equals(this.checksum.get(file.getName()))) {
                 throw new BackupException("Could not verify KeyStore files." +
                         "\nFile: " + file.getName() +
@@ -160,7 +194,7 @@ class VerifyOp implements Closeable {
                 throw new BackupException("No data files at index " + i + ".");
             }
             for (Path file : dataFiles) {
-                checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, file);
+                checksum = getHexDigest(file);
                 if (!checksum.equals(this.checksum.get(file.getName()))) {
                     throw new BackupException("Could not verify data files at index " + i + "." +
                             "\nFile: " + file.getName() +
@@ -179,7 +213,7 @@ class VerifyOp implements Closeable {
             // There are no permissions, just skip
             return;
         }
-        String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, miscFile);
+        String checksum = getHexDigest(miscFile);
         if (!checksum.equals(this.checksum.get(miscFile.getName()))) {
             throw new BackupException("Could not verify extras." +
                     "\nFile: " + miscFile.getName() +
@@ -200,7 +234,7 @@ class VerifyOp implements Closeable {
                 return;
             }
         }
-        String checksum = DigestUtils.getHexDigest(metadata.checksumAlgo, rulesFile);
+        String checksum = getHexDigest(rulesFile);
         if (!checksum.equals(this.checksum.get(rulesFile.getName()))) {
             throw new BackupException("Could not verify rules file." +
                     "\nFile: " + rulesFile.getName() +
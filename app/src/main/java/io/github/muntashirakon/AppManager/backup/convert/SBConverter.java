@@ -8,10 +8,12 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.os.RemoteException;
 import android.os.UserHandleHidden;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.pm.PackageInfoCompat;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
@@ -33,9 +35,11 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.apk.parser.ApkLabelLoader;
 import io.github.muntashirakon.AppManager.backup.BackupException;
 import io.github.muntashirakon.AppManager.backup.BackupFiles;
 import io.github.muntashirakon.AppManager.backup.BackupFlags;
@@ -47,6 +51,7 @@ import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.LangUtils;
 import io.github.muntashirakon.AppManager.utils.TarUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.SplitOutputStream;
@@ -77,6 +82,7 @@ public class SBConverter extends Converter {
     private MetadataManager.Metadata destMetadata;
     private Path tmpBackupPath;
     private PackageInfo packageInfo;
+    private ApkLabelLoader labelLoader;
     private Path cachedApk;
 
     public SBConverter(@NonNull Path xmlFile) {
@@ -293,7 +299,14 @@ public class SBConverter extends Converter {
             throw new BackupException("Package name mismatch: Expected=" + packageName + ", Actual=" + packageInfo.packageName);
         }
 
-        sourceMetadata.label = applicationInfo.loadLabel(pm).toString();
+        try {
+            // Avoid creating an asset manager only to read the label
+            labelLoader = ApkLabelLoader.fromApk(new File(filePath));
+            sourceMetadata.label = labelLoader.getLabel(LangUtils.getLocaleByLanguage(context));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load label from the resource table.", e);
+            sourceMetadata.label = applicationInfo.loadLabel(pm).toString();
+        }
         sourceMetadata.packageName = packageName;
         sourceMetadata.versionName = packageInfo.versionName;
         sourceMetadata.versionCode = PackageInfoCompat.getLongVersionCode(packageInfo);
@@ -397,7 +410,10 @@ public class SBConverter extends Converter {
         try {
             Path iconFile = tmpBackupPath.findOrCreateFile(ICON_FILE, null);
             try (OutputStream outputStream = iconFile.openOutputStream()) {
-                Bitmap bitmap = FileUtils.getBitmapFromDrawable(packageInfo.applicationInfo.loadIcon(pm));
+                Bitmap bitmap = loadIconFromApk();
+                if (bitmap == null) {
+                    bitmap = FileUtils.getBitmapFromDrawable(packageInfo.applicationInfo.loadIcon(pm));
+                }
                 bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
                 outputStream.flush();
             }
@@ -405,4 +421,28 @@ public class SBConverter extends Converter {
             Log.w(TAG, "Could not back up icon.", th);
         }
     }
+
+    /**
+     * Decode the icon directly from the APK file. Returns {@code null} if the icon is not a bitmap (e.g. an adaptive
+     * icon) so that the package manager can be used instead.
+     */
+    @Nullable
+    private Bitmap loadIconFromApk() throws IOException {
+        if (labelLoader == null) {
+            return null;
+        }
+        String iconPath = labelLoader.getIconPath(context.getResources().getDisplayMetrics().densityDpi);
+        if (iconPath == null || iconPath.endsWith(".xml")) {
+            return null;
+        }
+        try (ZipFile zipFile = new ZipFile(Objects.requireNonNull(cachedApk.getFilePath()))) {
+            ZipEntry zipEntry = zipFile.getEntry(iconPath);
+            if (zipEntry == null) {
+                return null;
+            }
+            try (InputStream is = zipFile.getInputStream(zipEntry)) {
+                return BitmapFactory.decodeStream(is);
+            }
+        }
+    }
 }
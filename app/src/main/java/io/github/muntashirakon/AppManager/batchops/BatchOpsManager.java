@@ -6,7 +6,6 @@ import android.annotation.UserIdInt;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.net.NetworkPolicyManager;
 import android.net.Uri;
@@ -22,13 +21,17 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 
@@ -37,31 +40,40 @@ import io.github.muntashirakon.AppManager.apk.ApkUtils;
 import io.github.muntashirakon.AppManager.apk.installer.PackageInstallerCompat;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
 import io.github.muntashirakon.AppManager.appops.AppOpsService;
+import io.github.muntashirakon.AppManager.appops.AppOpsSnapshot;
 import io.github.muntashirakon.AppManager.appops.AppOpsUtils;
 import io.github.muntashirakon.AppManager.appops.OpEntry;
 import io.github.muntashirakon.AppManager.backup.BackupDialogFragment;
 import io.github.muntashirakon.AppManager.backup.BackupException;
 import io.github.muntashirakon.AppManager.backup.BackupManager;
+import io.github.muntashirakon.AppManager.backup.BackupScrubber;
+import io.github.muntashirakon.AppManager.backup.BackupUtils;
+import io.github.muntashirakon.AppManager.backup.MetadataManager;
 import io.github.muntashirakon.AppManager.backup.convert.ConvertUtils;
 import io.github.muntashirakon.AppManager.backup.convert.Converter;
 import io.github.muntashirakon.AppManager.backup.convert.ImportType;
 import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
 import io.github.muntashirakon.AppManager.rules.compontents.ExternalComponentsImporter;
 import io.github.muntashirakon.AppManager.servermanager.NetworkPolicyManagerCompat;
 import io.github.muntashirakon.AppManager.servermanager.NetworkPolicyManagerCompat.NetPolicy;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
-import io.github.muntashirakon.AppManager.servermanager.PermissionCompat;
 import io.github.muntashirakon.AppManager.types.UserPackagePair;
+import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
+import io.github.muntashirakon.AppManager.utils.DeviceStateSnapshot;
 import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 import io.github.muntashirakon.io.Path;
 
 @WorkerThread
 public class BatchOpsManager {
     public static final String TAG = "BatchOpsManager";
+    private static final String TRACE_CATEGORY = "batchops";
 
     // Bundle args
     /**
@@ -106,6 +118,12 @@ public class BatchOpsManager {
      */
     public static final String ARG_NET_POLICIES = "net_policies";
 
+    /**
+     * {@link Boolean} value. Whether to skip the backups that have not changed since they were last verified and to
+     * mark the verified backups as such. To be used with {@link #OP_VERIFY_BACKUPS}.
+     */
+    public static final String ARG_MARK_VERIFIED = "mark_verified";
+
     @IntDef(value = {
             OP_NONE,
             OP_BACKUP_APK,
@@ -129,6 +147,7 @@ public class BatchOpsManager {
             OP_UNBLOCK_COMPONENTS,
             OP_UNBLOCK_TRACKERS,
             OP_UNINSTALL,
+            OP_VERIFY_BACKUPS,
     })
     @Retention(RetentionPolicy.SOURCE)
     public @interface OpType {
@@ -156,6 +175,7 @@ public class BatchOpsManager {
     public static final int OP_REVOKE_PERMISSIONS = 18;
     public static final int OP_IMPORT_BACKUPS = 19;
     public static final int OP_NET_POLICY = 20;
+    public static final int OP_VERIFY_BACKUPS = 21;
 
     private final Handler handler;
 
@@ -195,6 +215,26 @@ public class BatchOpsManager {
     @CheckResult
     @NonNull
     private Result performOp(@OpType int op) {
+        // Record a trace of the operation if requested
+        boolean tracing = AppPref.getBoolean(AppPref.PrefKey.PREF_TRACE_BATCH_OPS_BOOL)
+                && Tracer.start("batch_op_" + op);
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "performOp")) {
+            span.setArg("op", op);
+            span.setArg("packages", userPackagePairs.length);
+            return performOpInternal(op);
+        } finally {
+            if (tracing) {
+                File traceFile = Tracer.stop();
+                if (traceFile != null) {
+                    Log.i(TAG, "Trace of the operation has been saved to " + traceFile);
+                }
+            }
+        }
+    }
+
+    @CheckResult
+    @NonNull
+    private Result performOpInternal(@OpType int op) {
         switch (op) {
             case OP_BACKUP_APK:
                 return opBackupApk();
@@ -238,6 +278,8 @@ public class BatchOpsManager {
                 return opImportBackups();
             case OP_NET_POLICY:
                 return opNetPolicy();
+            case OP_VERIFY_BACKUPS:
+                return opVerifyBackups();
             case OP_NONE:
                 break;
         }
@@ -267,8 +309,10 @@ public class BatchOpsManager {
             sendProgress(context, PackageUtils.getPackageLabel(pm, pair.getPackageName(),
                     pair.getUserHandle()).toString(), max, i + 1);
             // Do operation
-            if (!ApkUtils.backupApk(pair.getPackageName(), pair.getUserHandle())) {
-                failedPackages.add(pair);
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "backupApk", pair.getPackageName())) {
+                if (!ApkUtils.backupApk(pair.getPackageName(), pair.getUserHandle())) {
+                    failedPackages.add(pair);
+                }
             }
         }
         return lastResult = new Result(failedPackages);
@@ -276,35 +320,114 @@ public class BatchOpsManager {
 
     private Result opBackupRestore(@BackupDialogFragment.ActionMode int mode) {
         List<UserPackagePair> failedPackages = new ArrayList<>();
-        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, MultithreadedExecutor.getThreadCount());
+        executor.setPriority(WorkerPools.PRIORITY_BACKGROUND);
+        // Share device states among all the packages
+        DeviceStateSnapshot.acquire();
         try {
-            String[] backupNames = args.getStringArray(ARG_BACKUP_NAMES);
-            for (UserPackagePair pair : userPackagePairs) {
-                executor.submit(() -> {
-                    BackupManager backupManager = BackupManager.getNewInstance(pair, args.getInt(ARG_FLAGS));
-                    try {
-                        switch (mode) {
-                            case BackupDialogFragment.MODE_BACKUP:
-                                backupManager.backup(backupNames);
-                                break;
-                            case BackupDialogFragment.MODE_DELETE:
-                                backupManager.deleteBackup(backupNames);
-                                break;
-                            case BackupDialogFragment.MODE_RESTORE:
-                                backupManager.restore(backupNames);
-                                break;
-                        }
-                    } catch (BackupException e) {
-                        Log.e(TAG, e);
-                        synchronized (failedPackages) {
-                            failedPackages.add(pair);
+            try {
+                String[] backupNames = args.getStringArray(ARG_BACKUP_NAMES);
+                for (UserPackagePair pair : userPackagePairs) {
+                    executor.submit(() -> {
+                        BackupManager backupManager = BackupManager.getNewInstance(pair, args.getInt(ARG_FLAGS));
+                        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, getModeName(mode), pair.getPackageName())) {
+                            span.setArg("user", pair.getUserHandle());
+                            switch (mode) {
+                                case BackupDialogFragment.MODE_BACKUP:
+                                    backupManager.backup(backupNames);
+                                    break;
+                                case BackupDialogFragment.MODE_DELETE:
+                                    backupManager.deleteBackup(backupNames);
+                                    break;
+                                case BackupDialogFragment.MODE_RESTORE:
+                                    backupManager.restore(backupNames);
+                                    break;
+                            }
+                        } catch (BackupException e) {
+                            Log.e(TAG, e);
+                            synchronized (failedPackages) {
+                                failedPackages.add(pair);
+                            }
                         }
-                    }
-                });
+                    });
+                }
+            } catch (Throwable ignore) {
+            }
+            executor.awaitCompletion();
+        } finally {
+            DeviceStateSnapshot.release();
+        }
+        return lastResult = new Result(failedPackages);
+    }
+
+    @NonNull
+    private static String getModeName(@BackupDialogFragment.ActionMode int mode) {
+        switch (mode) {
+            case BackupDialogFragment.MODE_BACKUP:
+                return "backup";
+            case BackupDialogFragment.MODE_DELETE:
+                return "deleteBackup";
+            case BackupDialogFragment.MODE_RESTORE:
+                return "restore";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Verify all the backups of the packages, regardless of the users. If no packages are given, all the backups are
+     * verified.
+     */
+    @NonNull
+    private Result opVerifyBackups() {
+        List<UserPackagePair> failedPackages = new ArrayList<>();
+        List<MetadataManager.Metadata> backups = new ArrayList<>();
+        HashMap<String, List<UserPackagePair>> packagePairs = new HashMap<>();
+        if (userPackagePairs.length == 0) {
+            int userHandle = UserHandleHidden.myUserId();
+            try {
+                for (List<MetadataManager.Metadata> metadataList : BackupUtils.getAllMetadata().values()) {
+                    if (metadataList.isEmpty()) continue;
+                    backups.addAll(metadataList);
+                    String packageName = metadataList.get(0).packageName;
+                    packagePairs.put(packageName, Collections.singletonList(new UserPackagePair(packageName,
+                            userHandle)));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not list the backups", e);
+                return lastResult = new Result(failedPackages);
+            }
+        }
+        for (UserPackagePair pair : userPackagePairs) {
+            List<UserPackagePair> pairs = packagePairs.get(pair.getPackageName());
+            if (pairs != null) {
+                pairs.add(pair);
+                continue;
+            }
+            pairs = new ArrayList<>();
+            pairs.add(pair);
+            packagePairs.put(pair.getPackageName(), pairs);
+            try {
+                backups.addAll(Arrays.asList(MetadataManager.getMetadata(pair.getPackageName())));
+            } catch (IOException e) {
+                Log.e(TAG, "No backups found for " + pair.getPackageName(), e);
+                failedPackages.add(pair);
+            }
+        }
+        Context context = AppManager.getContext();
+        // Initial progress
+        sendProgress(context, null, backups.size(), 0);
+        BackupScrubber scrubber = new BackupScrubber(MultithreadedExecutor.getThreadCount(),
+                args != null && args.getBoolean(ARG_MARK_VERIFIED, false));
+        BackupScrubber.Report report = scrubber.scrub(backups, (result, done, total) ->
+                sendProgress(context, result.packageName, total, done));
+        HashSet<String> failedPackageNames = new HashSet<>();
+        for (BackupScrubber.BackupResult result : report.getResults()) {
+            if (result.status == BackupScrubber.STATUS_FAILED && failedPackageNames.add(result.packageName)) {
+                List<UserPackagePair> pairs = packagePairs.get(result.packageName);
+                if (pairs != null) failedPackages.addAll(pairs);
             }
-        } catch (Throwable ignore) {
         }
-        executor.awaitCompletion();
         return lastResult = new Result(failedPackages);
     }
 
@@ -321,7 +444,8 @@ public class BatchOpsManager {
         } catch (FileNotFoundException e) {
             return new Result(failedPkgList);
         }
-        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, MultithreadedExecutor.getThreadCount());
+        executor.setPriority(WorkerPools.PRIORITY_BACKGROUND);
         try {
             for (Path file : files) {
                 executor.submit(() -> {
@@ -357,8 +481,11 @@ public class BatchOpsManager {
     private Result opClearCache() {
         List<UserPackagePair> failedPackages = new ArrayList<>();
         for (UserPackagePair pair : userPackagePairs) {
-            if (!PackageManagerCompat.deleteApplicationCacheFilesAsUser(pair.getPackageName(), pair.getUserHandle())) {
-                failedPackages.add(pair);
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "clearCache", pair.getPackageName())) {
+                if (!PackageManagerCompat.deleteApplicationCacheFilesAsUser(pair.getPackageName(),
+                        pair.getUserHandle())) {
+                    failedPackages.add(pair);
+                }
             }
         }
         return lastResult = new Result(failedPackages);
@@ -368,8 +495,10 @@ public class BatchOpsManager {
     private Result opClearData() {
         List<UserPackagePair> failedPackages = new ArrayList<>();
         for (UserPackagePair pair : userPackagePairs) {
-            if (!PackageManagerCompat.clearApplicationUserData(pair.getPackageName(), pair.getUserHandle())) {
-                failedPackages.add(pair);
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "clearData", pair.getPackageName())) {
+                if (!PackageManagerCompat.clearApplicationUserData(pair.getPackageName(), pair.getUserHandle())) {
+                    failedPackages.add(pair);
+                }
             }
         }
         return lastResult = new Result(failedPackages);
@@ -378,10 +507,10 @@ public class BatchOpsManager {
     @NonNull
     private Result opAppEnabledSetting(@PackageManagerCompat.EnabledState int newState) {
         List<UserPackagePair> failedPackages = new ArrayList<>();
-        IPackageManager pm = AppManager.getIPackageManager();
         for (UserPackagePair pair : userPackagePairs) {
-            try {
-                pm.setApplicationEnabledSetting(pair.getPackageName(), newState, 0, pair.getUserHandle(), null);
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "setEnabledSetting", pair.getPackageName())) {
+                PackageManagerCompat.setApplicationEnabledSetting(pair.getPackageName(), newState, 0,
+                        pair.getUserHandle());
             } catch (Throwable e) {
                 Log.e(TAG, e);
                 failedPackages.add(pair);
@@ -422,49 +551,20 @@ public class BatchOpsManager {
 
     private Result opGrantOrRevokePermissions(boolean isGrant) {
         String[] permissions = args.getStringArray(ARG_PERMISSIONS);
-        List<UserPackagePair> failedPackages = new ArrayList<>();
         if (permissions.length == 1 && permissions[0].equals("*")) {
             // Wildcard detected
-            for (UserPackagePair pair : userPackagePairs) {
-                try {
-                    permissions = PackageUtils.getPermissionsForPackage(pair.getPackageName(), pair.getUserHandle());
-                    if (permissions == null) continue;
-                    for (String permission : permissions) {
-                        if (isGrant) {
-                            PermissionCompat.grantPermission(pair.getPackageName(), permission, pair.getUserHandle());
-                        } else {
-                            PermissionCompat.revokePermission(pair.getPackageName(), permission, pair.getUserHandle());
-                        }
-                    }
-                } catch (Throwable e) {
-                    Log.e(TAG, e);
-                    failedPackages.add(pair);
-                }
-            }
-        } else {
-            for (UserPackagePair pair : userPackagePairs) {
-                for (String permission : permissions) {
-                    try {
-                        if (isGrant) {
-                            PermissionCompat.grantPermission(pair.getPackageName(), permission, pair.getUserHandle());
-                        } else {
-                            PermissionCompat.revokePermission(pair.getPackageName(), permission, pair.getUserHandle());
-                        }
-                    } catch (Throwable e) {
-                        Log.e(TAG, e);
-                        failedPackages.add(pair);
-                    }
-                }
-            }
+            permissions = null;
         }
-        return lastResult = new Result(failedPackages);
+        PermissionStateApplier applier = new PermissionStateApplier(MultithreadedExecutor.getThreadCount());
+        PermissionStateApplier.Report report = applier.apply(Arrays.asList(userPackagePairs), permissions, isGrant);
+        return lastResult = new Result(report.getFailedPackages());
     }
 
     @NonNull
     private Result opForceStop() {
         List<UserPackagePair> failedPackages = new ArrayList<>();
         for (UserPackagePair pair : userPackagePairs) {
-            try {
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "forceStop", pair.getPackageName())) {
                 PackageManagerCompat.forceStopPackage(pair.getPackageName(), pair.getUserHandle());
             } catch (Throwable e) {
                 Log.e(TAG, e);
@@ -496,6 +596,8 @@ public class BatchOpsManager {
         if (appOps.length == 1 && appOps[0] == AppOpsManager.OP_NONE) {
             // Wildcard detected
             AppOpsService appOpsService = new AppOpsService();
+            // Modes of all the app ops of all the packages
+            AppOpsSnapshot snapshot = AppOpsSnapshot.capture(appOpsService, null);
             for (UserPackagePair pair : userPackagePairs) {
                 try {
                     List<Integer> appOpList = new ArrayList<>();
@@ -504,7 +606,7 @@ public class BatchOpsManager {
                     for (OpEntry entry : entries) {
                         appOpList.add(entry.getOp());
                     }
-                    failedPkgList.addAll(ExternalComponentsImporter.setModeToFilteredAppOps(
+                    failedPkgList.addAll(ExternalComponentsImporter.setModeToFilteredAppOps(snapshot,
                             Collections.singletonList(pair), ArrayUtils.convertToIntArray(appOpList), mode));
                 } catch (Exception e) {
                     Log.e(TAG, e);
@@ -532,7 +634,7 @@ public class BatchOpsManager {
     private Result opUninstall() {
         List<UserPackagePair> failedPackages = new ArrayList<>();
         for (UserPackagePair pair : userPackagePairs) {
-            try {
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "uninstall", pair.getPackageName())) {
                 PackageInstallerCompat.uninstall(pair.getPackageName(), pair.getUserHandle(), false);
             } catch (Exception e) {
                 Log.e(TAG, e);
@@ -331,6 +331,8 @@ public class BatchOpsService extends ForegroundService {
                 return getString(R.string.set_mode_for_app_ops_dots);
             case BatchOpsManager.OP_IMPORT_BACKUPS:
                 return getString(R.string.pref_import_backups);
+            case BatchOpsManager.OP_VERIFY_BACKUPS:
+                return getString(R.string.pref_verify_backups);
             case BatchOpsManager.OP_NONE:
                 break;
         }
@@ -372,6 +374,8 @@ public class BatchOpsService extends ForegroundService {
                 return getResources().getQuantityString(R.plurals.alert_failed_to_set_app_ops, failedCount, failedCount);
             case BatchOpsManager.OP_IMPORT_BACKUPS:
                 return getResources().getQuantityString(R.plurals.alert_failed_to_import_backups, failedCount, failedCount);
+            case BatchOpsManager.OP_VERIFY_BACKUPS:
+                return getResources().getQuantityString(R.plurals.alert_failed_to_verify_backups, failedCount, failedCount);
         }
         return getString(R.string.error);
     }
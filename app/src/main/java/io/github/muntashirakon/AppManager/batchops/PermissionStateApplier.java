@@ -0,0 +1,287 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.batchops;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+import android.os.Build;
+import android.os.RemoteException;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.core.content.pm.PermissionInfoCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
+import io.github.muntashirakon.AppManager.servermanager.PermissionCompat;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
+
+/**
+ * Grant or revoke permissions of many packages with as few calls as possible. The requested permissions of a package
+ * and whether they are granted are fetched once per package, and the protection level of a permission is fetched once
+ * for all the packages. Only the permissions that are requested by the package, that can be altered and that are not
+ * already in the requested state are changed.
+ * <p>
+ * The packages are processed one user at a time, and the packages of a user are processed in parallel.
+ */
+@WorkerThread
+class PermissionStateApplier {
+    public static final String TAG = PermissionStateApplier.class.getSimpleName();
+
+    /**
+     * The system services used by the applier
+     */
+    @VisibleForTesting
+    interface Backend {
+        /**
+         * Get the package info with the requested permissions and their flags.
+         */
+        @NonNull
+        PackageInfo getPackageInfo(@NonNull String packageName, int userId)
+                throws PackageManager.NameNotFoundException, RemoteException;
+
+        @Nullable
+        PermissionInfo getPermissionInfo(@NonNull String permissionName) throws RemoteException;
+
+        void grantPermission(@NonNull String packageName, @NonNull String permissionName, int userId)
+                throws RemoteException;
+
+        void revokePermission(@NonNull String packageName, @NonNull String permissionName, int userId)
+                throws RemoteException;
+    }
+
+    private static class SystemBackend implements Backend {
+        @NonNull
+        @Override
+        public PackageInfo getPackageInfo(@NonNull String packageName, int userId)
+                throws PackageManager.NameNotFoundException, RemoteException {
+            // Requests for permissions are never served from the cache
+            return PackageManagerCompat.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS, userId);
+        }
+
+        @Nullable
+        @Override
+        public PermissionInfo getPermissionInfo(@NonNull String permissionName) throws RemoteException {
+            return PermissionCompat.getPermissionInfo(permissionName, AppManager.getContext().getPackageName(), 0);
+        }
+
+        @Override
+        public void grantPermission(@NonNull String packageName, @NonNull String permissionName, int userId)
+                throws RemoteException {
+            PermissionCompat.grantPermission(packageName, permissionName, userId);
+        }
+
+        @Override
+        public void revokePermission(@NonNull String packageName, @NonNull String permissionName, int userId)
+                throws RemoteException {
+            PermissionCompat.revokePermission(packageName, permissionName, userId);
+        }
+    }
+
+    public static class Report {
+        @GuardedBy("this")
+        private final List<UserPackagePair> mFailedPackages = new ArrayList<>();
+        @GuardedBy("this")
+        private int mAppliedCount;
+        @GuardedBy("this")
+        private int mSkippedCount;
+        @GuardedBy("this")
+        private int mFailedCount;
+
+        /**
+         * Number of permissions granted or revoked
+         */
+        public synchronized int getAppliedCount() {
+            return mAppliedCount;
+        }
+
+        /**
+         * Number of permissions left as is, because they were already in the requested state, or were not requested
+         * by the package, or cannot be granted or revoked
+         */
+        public synchronized int getSkippedCount() {
+            return mSkippedCount;
+        }
+
+        /**
+         * Number of permissions that could not be granted or revoked. A package that could not be read counts as one
+         * failure for each of the permissions, or as a single failure if all the permissions were requested.
+         */
+        public synchronized int getFailedCount() {
+            return mFailedCount;
+        }
+
+        @NonNull
+        public synchronized List<UserPackagePair> getFailedPackages() {
+            return new ArrayList<>(mFailedPackages);
+        }
+
+        @NonNull
+        @Override
+        public synchronized String toString() {
+            return "Report{applied=" + mAppliedCount + ", skipped=" + mSkippedCount + ", failed=" + mFailedCount
+                    + ", failedPackages=" + mFailedPackages.size() + '}';
+        }
+
+        private synchronized void add(@NonNull UserPackagePair pair, int applied, int skipped, int failed) {
+            mAppliedCount += applied;
+            mSkippedCount += skipped;
+            mFailedCount += failed;
+            if (failed > 0) {
+                mFailedPackages.add(pair);
+            }
+        }
+    }
+
+    private final Backend mBackend;
+    private final int mParallelism;
+    // Permission name => whether the permission can be granted or revoked
+    private final Map<String, Boolean> mChangeablePermissions = new ConcurrentHashMap<>();
+
+    PermissionStateApplier(int parallelism) {
+        this(new SystemBackend(), parallelism);
+    }
+
+    @VisibleForTesting
+    PermissionStateApplier(@NonNull Backend backend, int parallelism) {
+        mBackend = backend;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Grant or revoke the permissions of the packages.
+     *
+     * @param permissions The permissions to grant or revoke, or {@code null} for all the permissions requested by
+     *                    each package
+     * @param grant       {@code true} to grant the permissions, {@code false} to revoke them
+     */
+    @NonNull
+    public Report apply(@NonNull List<UserPackagePair> userPackagePairs, @Nullable String[] permissions,
+                        boolean grant) {
+        Report report = new Report();
+        // Permission states are stored per user
+        Map<Integer, List<UserPackagePair>> userPackages = new LinkedHashMap<>();
+        for (UserPackagePair pair : userPackagePairs) {
+            List<UserPackagePair> pairs = userPackages.get(pair.getUserHandle());
+            if (pairs == null) {
+                pairs = new ArrayList<>();
+                userPackages.put(pair.getUserHandle(), pairs);
+            }
+            pairs.add(pair);
+        }
+        for (List<UserPackagePair> pairs : userPackages.values()) {
+            if (mParallelism == 1 || pairs.size() == 1) {
+                for (UserPackagePair pair : pairs) {
+                    applyToPackage(pair, permissions, grant, report);
+                }
+                continue;
+            }
+            TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, mParallelism);
+            try {
+                for (UserPackagePair pair : pairs) {
+                    executor.submit(() -> applyToPackage(pair, permissions, grant, report));
+                }
+            } finally {
+                executor.awaitCompletion();
+            }
+        }
+        Log.d(TAG, (grant ? "Grant: " : "Revoke: ") + report);
+        return report;
+    }
+
+    private void applyToPackage(@NonNull UserPackagePair pair, @Nullable String[] permissions, boolean grant,
+                                @NonNull Report report) {
+        String packageName = pair.getPackageName();
+        int userId = pair.getUserHandle();
+        Map<String, Boolean> grantStates;
+        try {
+            grantStates = getGrantStates(mBackend.getPackageInfo(packageName, userId));
+        } catch (PackageManager.NameNotFoundException | RemoteException | RuntimeException e) {
+            Log.e(TAG, "Could not fetch permissions of " + pair, e);
+            report.add(pair, 0, 0, permissions != null ? permissions.length : 1);
+            return;
+        }
+        Iterable<String> targetPermissions = permissions != null ? Arrays.asList(permissions) : grantStates.keySet();
+        int applied = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (String permission : targetPermissions) {
+            Boolean granted = grantStates.get(permission);
+            try {
+                if (granted == null || granted == grant || !isChangeable(permission)) {
+                    // Not requested, already in the requested state, or not a runtime or development permission
+                    ++skipped;
+                    continue;
+                }
+                if (grant) {
+                    mBackend.grantPermission(packageName, permission, userId);
+                } else {
+                    mBackend.revokePermission(packageName, permission, userId);
+                }
+                ++applied;
+            } catch (RemoteException | RuntimeException e) {
+                Log.e(TAG, "Could not " + (grant ? "grant " : "revoke ") + permission + " for " + pair, e);
+                ++failed;
+            }
+        }
+        report.add(pair, applied, skipped, failed);
+    }
+
+    /**
+     * @throws RemoteException If the permission info could not be fetched. The result is not cached, and the next
+     *                         package tries again.
+     */
+    private boolean isChangeable(@NonNull String permissionName) throws RemoteException {
+        Boolean changeable = mChangeablePermissions.get(permissionName);
+        if (changeable != null) {
+            return changeable;
+        }
+        PermissionInfo info = mBackend.getPermissionInfo(permissionName);
+        changeable = info != null && isChangeable(info);
+        mChangeablePermissions.put(permissionName, changeable);
+        return changeable;
+    }
+
+    private static boolean isChangeable(@NonNull PermissionInfo info) {
+        if ((PermissionInfoCompat.getProtectionFlags(info) & PermissionInfo.PROTECTION_FLAG_DEVELOPMENT) != 0) {
+            return true;
+        }
+        // Dangerous permissions are granted at install time before M
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && PermissionInfoCompat.getProtection(info) == PermissionInfo.PROTECTION_DANGEROUS;
+    }
+
+    /**
+     * @return Requested permissions and whether they are granted, in the order they were requested
+     */
+    @NonNull
+    private static Map<String, Boolean> getGrantStates(@NonNull PackageInfo packageInfo) {
+        String[] requestedPermissions = packageInfo.requestedPermissions;
+        int[] requestedPermissionsFlags = packageInfo.requestedPermissionsFlags;
+        if (requestedPermissions == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Boolean> grantStates = new LinkedHashMap<>(requestedPermissions.length);
+        for (int i = 0; i < requestedPermissions.length; ++i) {
+            boolean granted = requestedPermissionsFlags != null
+                    && (requestedPermissionsFlags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+            grantStates.put(requestedPermissions[i], granted);
+        }
+        return grantStates;
+    }
+}
@@ -17,7 +17,7 @@ import io.github.muntashirakon.AppManager.db.entity.Backup;
 import io.github.muntashirakon.AppManager.db.entity.FileHash;
 import io.github.muntashirakon.AppManager.db.entity.LogFilter;
 
-@Database(entities = {App.class, LogFilter.class, FileHash.class, Backup.class}, version = 5)
+@Database(entities = {App.class, LogFilter.class, FileHash.class, Backup.class}, version = 6)
 public abstract class AMDatabase extends RoomDatabase {
     public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
         @Override
@@ -52,6 +52,13 @@ public abstract class AMDatabase extends RoomDatabase {
         }
     };
 
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE app ADD COLUMN content_hash INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
     public abstract AppDao appDao();
 
     public abstract BackupDao backupDao();
@@ -2,6 +2,7 @@
 
 package io.github.muntashirakon.AppManager.db.dao;
 
+import androidx.annotation.NonNull;
 import androidx.room.*;
 import io.github.muntashirakon.AppManager.db.entity.App;
 
@@ -9,6 +10,33 @@ import java.util.List;
 
 @Dao
 public interface AppDao {
+    /**
+     * The primary key and the content hash of a row
+     */
+    class AppKey {
+        @ColumnInfo(name = "package_name")
+        @NonNull
+        public String packageName;
+
+        @ColumnInfo(name = "user_id")
+        public int userId;
+
+        @ColumnInfo(name = "content_hash")
+        public long contentHash;
+    }
+
+    /**
+     * A summary of the table which changes whenever a row is added, removed or altered. The content hashes are mixed
+     * non-linearly, therefore, the sum only collides by chance, see {@link App#getHashCode()}.
+     */
+    class ChangeToken {
+        @ColumnInfo(name = "count")
+        public int count;
+
+        @ColumnInfo(name = "hash_sum")
+        public long hashSum;
+    }
+
     @Query("SELECT * FROM app")
     List<App> getAll();
 
@@ -21,6 +49,12 @@ public interface AppDao {
     @Query("SELECT * FROM app WHERE package_name = :packageName AND user_id = :userId")
     List<App> getAll(String packageName, int userId);
 
+    @Query("SELECT package_name, user_id, content_hash FROM app")
+    List<AppKey> getAllKeys();
+
+    @Query("SELECT COUNT(*) AS count, IFNULL(SUM(content_hash), 0) AS hash_sum FROM app")
+    ChangeToken getChangeToken();
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insert(List<App> apps);
 
@@ -87,6 +87,13 @@ public class App implements Serializable {
     @ColumnInfo(name = "last_action_time", defaultValue = "0")
     public long lastActionTime;
 
+    /**
+     * The value of {@link #getHashCode()} when the row was last written, used to find the rows that have changed
+     * without loading them.
+     */
+    @ColumnInfo(name = "content_hash", defaultValue = "0")
+    public long contentHash;
+
     @NonNull
     public static App fromApp(@NonNull App app) {
         App newApp = new App();
@@ -115,6 +122,22 @@ public class App implements Serializable {
 
     @NonNull
     public static App fromPackageInfo(@NonNull Context context, @NonNull PackageInfo packageInfo) {
+        App app = fromPackageInfoWithoutExtras(packageInfo);
+        app.packageLabel = packageInfo.applicationInfo.loadLabel(context.getPackageManager()).toString();
+        Pair<String, String> issuerAndAlgoPair = Utils.getIssuerAndAlg(packageInfo);
+        app.certName = issuerAndAlgoPair.first;
+        app.certAlgo = issuerAndAlgoPair.second;
+        app.hasActivities = packageInfo.activities != null;
+        app.trackerCount = ComponentUtils.getTrackerComponentsForPackage(packageInfo).size();
+        return app;
+    }
+
+    /**
+     * Same as {@link #fromPackageInfo(Context, PackageInfo)} except that the attributes that are costly to load are
+     * left out: the package name is used as the label, and the signer, activities and trackers are left empty.
+     */
+    @NonNull
+    public static App fromPackageInfoWithoutExtras(@NonNull PackageInfo packageInfo) {
         App app = new App();
         ApplicationInfo applicationInfo = packageInfo.applicationInfo;
         app.packageName = applicationInfo.packageName;
@@ -124,20 +147,19 @@ public class App implements Serializable {
                 && applicationInfo.publicSourceDir != null && new File(applicationInfo.publicSourceDir).exists();
         app.flags = applicationInfo.flags;
         app.isEnabled = applicationInfo.enabled;
-        app.packageLabel = applicationInfo.loadLabel(context.getPackageManager()).toString();
+        app.packageLabel = applicationInfo.packageName;
         app.sdk = applicationInfo.targetSdkVersion;
         app.versionName = packageInfo.versionName;
         app.versionCode = PackageInfoCompat.getLongVersionCode(packageInfo);
         app.sharedUserId = packageInfo.sharedUserId;
-        Pair<String, String> issuerAndAlgoPair = Utils.getIssuerAndAlg(packageInfo);
-        app.certName = issuerAndAlgoPair.first;
-        app.certAlgo = issuerAndAlgoPair.second;
+        app.certName = "";
+        app.certAlgo = "";
         app.firstInstallTime = packageInfo.firstInstallTime;
         app.lastUpdateTime = packageInfo.lastUpdateTime;
-        app.hasActivities = packageInfo.activities != null;
+        app.hasActivities = false;
         app.hasSplits = applicationInfo.splitSourceDirs != null;
         app.rulesCount = 0;
-        app.trackerCount = ComponentUtils.getTrackerComponentsForPackage(packageInfo).size();
+        app.trackerCount = 0;
         app.lastActionTime = System.currentTimeMillis();
         return app;
     }
@@ -211,7 +233,31 @@ public class App implements Serializable {
         return Objects.hash(packageName, userId);
     }
 
-    public int getHashCode() {
-        return Objects.hash(packageName, userId, packageLabel, versionName, versionCode, flags, uid, sharedUserId, firstInstallTime, lastUpdateTime, sdk, certName, certAlgo, isInstalled, isEnabled, hasActivities, hasSplits, rulesCount, lastActionTime);
+    /**
+     * Hash of the contents of this app. The last action time of an installed app is the time it was loaded and is
+     * therefore excluded.
+     * <p>
+     * The hashes of the rows are summed up to find out whether the table has changed, see
+     * {@link io.github.muntashirakon.AppManager.db.dao.AppDao#getChangeToken()}. Unlike {@link Objects#hash(Object...)},
+     * which is linear in the hashes of the fields, each field is mixed in with the SplitMix64 finalizer so that changes
+     * in different rows do not cancel each other out in the sum. Only the lower 40 bits are kept so that the sum of
+     * millions of rows does not overflow in SQLite, which fails the query instead of wrapping around.
+     */
+    public long getHashCode() {
+        Object[] fields = new Object[]{packageName, userId, packageLabel, versionName, versionCode, flags, uid,
+                sharedUserId, firstInstallTime, lastUpdateTime, sdk, certName, certAlgo, isInstalled, isEnabled,
+                hasActivities, hasSplits, rulesCount, trackerCount, isInstalled ? 0 : lastActionTime};
+        long hash = 0;
+        for (Object field : fields) {
+            hash = mix64(hash + Objects.hashCode(field));
+        }
+        return hash & 0xff_ffff_ffffL;
+    }
+
+    private static long mix64(long z) {
+        z += 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 }
@@ -0,0 +1,134 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.details;
+
+import android.annotation.SuppressLint;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.details.struct.AppDetailsComponentItem;
+import io.github.muntashirakon.AppManager.details.struct.AppDetailsItem;
+
+/**
+ * The components of a single tab in the App Details page, built once per package load. The components are kept sorted
+ * by name so that searching and sorting them does not require rebuilding them, and the result of the last search is
+ * reused when the query is only extended.
+ * <p>
+ * The items returned by {@link #getItems(String, int)} are copies, so that they can be handed to the UI thread while
+ * the blocked status is updated by a worker thread.
+ */
+final class AppDetailsComponentModel {
+    @NonNull
+    private final PackageInfo mPackageInfo;
+    @NonNull
+    private final AppDetailsComponentItem[] mItems;
+    @NonNull
+    private final String[] mSearchNames;
+    @NonNull
+    private boolean[] mBlocked;
+    @Nullable
+    private Set<String> mBlockedComponents;
+    @Nullable
+    private String mLastQuery;
+    @Nullable
+    private int[] mLastMatches;
+
+    /**
+     * @param packageInfo The package the components were loaded from, used to find out whether the model is stale
+     * @param items       The components with their tracker status set
+     */
+    AppDetailsComponentModel(@NonNull PackageInfo packageInfo, @NonNull List<AppDetailsComponentItem> items) {
+        mPackageInfo = packageInfo;
+        mItems = items.toArray(new AppDetailsComponentItem[0]);
+        Arrays.sort(mItems, (o1, o2) -> o1.name.compareToIgnoreCase(o2.name));
+        mSearchNames = new String[mItems.length];
+        for (int i = 0; i < mItems.length; ++i) {
+            mSearchNames[i] = mItems[i].name.toLowerCase(Locale.ROOT);
+        }
+        mBlocked = new boolean[mItems.length];
+    }
+
+    boolean isLoadedFrom(@Nullable PackageInfo packageInfo) {
+        return mPackageInfo == packageInfo;
+    }
+
+    /**
+     * Update the blocked status of the components. Does nothing if the same set was applied already.
+     *
+     * @param blockedComponents Class names of the components that have rules
+     */
+    synchronized void setBlockedComponents(@NonNull Set<String> blockedComponents) {
+        if (mBlockedComponents == blockedComponents) return;
+        mBlockedComponents = blockedComponents;
+        boolean[] blocked = new boolean[mItems.length];
+        for (int i = 0; i < mItems.length; ++i) {
+            blocked[i] = blockedComponents.contains(((ComponentInfo) mItems[i].vanillaItem).name);
+        }
+        mBlocked = blocked;
+    }
+
+    /**
+     * @param query     Lower-case search query, or {@code null} to return all components
+     * @param sortOrder One of {@link AppDetailsFragment#SORT_BY_NAME}, {@link AppDetailsFragment#SORT_BY_BLOCKED} and
+     *                  {@link AppDetailsFragment#SORT_BY_TRACKERS}
+     */
+    @SuppressLint("SwitchIntDef")
+    @NonNull
+    synchronized List<AppDetailsItem> getItems(@Nullable String query, @AppDetailsFragment.SortOrder int sortOrder) {
+        List<AppDetailsItem> items = new ArrayList<>(mItems.length);
+        if (TextUtils.isEmpty(query)) {
+            mLastQuery = null;
+            mLastMatches = null;
+            for (int i = 0; i < mItems.length; ++i) {
+                items.add(copyItem(i));
+            }
+        } else {
+            int[] candidates = mLastQuery != null && query.startsWith(mLastQuery) ? mLastMatches : null;
+            int count = candidates != null ? candidates.length : mItems.length;
+            int[] matches = new int[count];
+            int matchCount = 0;
+            for (int i = 0; i < count; ++i) {
+                int index = candidates != null ? candidates[i] : i;
+                if (mSearchNames[index].contains(query)) {
+                    matches[matchCount++] = index;
+                    items.add(copyItem(index));
+                }
+            }
+            mLastQuery = query;
+            mLastMatches = Arrays.copyOf(matches, matchCount);
+        }
+        // The items are already sorted by name, and the sort is stable
+        switch (sortOrder) {
+            case AppDetailsFragment.SORT_BY_BLOCKED:
+                Collections.sort(items, (o1, o2) -> -Boolean.compare(((AppDetailsComponentItem) o1).isBlocked,
+                        ((AppDetailsComponentItem) o2).isBlocked));
+                break;
+            case AppDetailsFragment.SORT_BY_TRACKERS:
+                Collections.sort(items, (o1, o2) -> -Boolean.compare(((AppDetailsComponentItem) o1).isTracker,
+                        ((AppDetailsComponentItem) o2).isTracker));
+                break;
+        }
+        return items;
+    }
+
+    @NonNull
+    private AppDetailsComponentItem copyItem(int index) {
+        AppDetailsComponentItem item = mItems[index];
+        AppDetailsComponentItem copy = new AppDetailsComponentItem((ComponentInfo) item.vanillaItem);
+        copy.name = item.name;
+        copy.isTracker = item.isTracker;
+        copy.isBlocked = mBlocked[index];
+        return copy;
+    }
+}
@@ -63,8 +63,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
@@ -84,8 +82,10 @@ import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.PermissionUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
 import io.github.muntashirakon.AppManager.utils.Utils;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 import io.github.muntashirakon.widget.RecyclerViewWithEmptyView;
 import me.zhanghai.android.fastscroll.FastScrollerBuilder;
 
@@ -173,7 +173,7 @@ public class AppDetailsFragment extends Fragment implements SearchView.OnQueryTe
     @Nullable
     AppDetailsViewModel mainModel;
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
     private final ImageLoader imageLoader = new ImageLoader(executor);
 
     private int mColorRed;
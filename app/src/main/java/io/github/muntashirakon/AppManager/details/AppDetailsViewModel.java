@@ -8,19 +8,19 @@ import android.app.Application;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.ComponentInfo;
 import android.content.pm.ConfigurationInfo;
 import android.content.pm.FeatureInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PermissionInfo;
-import android.content.pm.ProviderInfo;
-import android.content.pm.ServiceInfo;
 import android.content.pm.Signature;
 import android.content.pm.UserInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.os.RemoteException;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.GuardedBy;
@@ -49,8 +49,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.muntashirakon.AppManager.apk.ApkFile;
@@ -66,6 +65,7 @@ import io.github.muntashirakon.AppManager.rules.RuleType;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
 import io.github.muntashirakon.AppManager.rules.struct.AppOpRule;
+import io.github.muntashirakon.AppManager.rules.struct.ComponentRule;
 import io.github.muntashirakon.AppManager.rules.struct.RuleEntry;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.servermanager.PermissionCompat;
@@ -74,6 +74,8 @@ import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 import io.github.muntashirakon.AppManager.utils.PermissionUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
 import static io.github.muntashirakon.AppManager.appops.AppOpsManager.OP_NONE;
 import static io.github.muntashirakon.AppManager.utils.PackageUtils.flagDisabledComponents;
@@ -95,7 +97,9 @@ public class AppDetailsViewModel extends AndroidViewModel {
     private ApkFile apkFile;
     private int apkFileKey;
     private int userHandle;
-    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
+    // Searching and sorting the loaded items
+    private final TaskScope uiPrepExecutor = WorkerPools.newScope(WorkerPools.LANE_UI_PREP);
 
     @AppDetailsFragment.SortOrder
     private int sortOrderComponents = (int) AppPref.get(AppPref.PrefKey.PREF_COMPONENTS_SORT_ORDER_INT);
@@ -108,6 +112,9 @@ public class AppDetailsViewModel extends AndroidViewModel {
     private boolean waitForBlocker;
     private boolean isExternalApk = false;
     private final CountDownLatch packageInfoWatcher = new CountDownLatch(1);
+    // Tasks waiting for the package info to be loaded
+    @GuardedBy("packageInfoWatcher")
+    private final List<Runnable> pendingLoaders = new ArrayList<>();
 
     public AppDetailsViewModel(@NonNull Application application) {
         super(application);
@@ -136,6 +143,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
         receiver = null;
         FileUtils.closeQuietly(apkFile);
         executor.shutdownNow();
+        uiPrepExecutor.shutdownNow();
     }
 
     @UiThread
@@ -158,7 +166,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
                 Log.e("ADVM", "Could not fetch package info.", th);
                 packageInfoLiveData.postValue(null);
             } finally {
-                packageInfoWatcher.countDown();
+                onPackageInfoLoaded();
             }
         });
         return packageInfoLiveData;
@@ -184,7 +192,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
                 Log.e("ADVM", "Could not fetch package info.", th);
                 packageInfoLiveData.postValue(null);
             } finally {
-                packageInfoWatcher.countDown();
+                onPackageInfoLoaded();
             }
         });
         return packageInfoLiveData;
@@ -218,6 +226,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
                         blocker.close();
                     }
                     blocker = ComponentsBlocker.getInstance(packageName, userHandle);
+                    blockedComponents = null;
                 } finally {
                     waitForBlocker = false;
                     blockerLocker.notifyAll();
@@ -572,7 +581,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
         if (isExternalApk) return false;
         try {
             mAppOpsService.resetAllModes(userHandle, packageName);
-            executor.submit(this::loadAppOps);
+            submitAfterPackageInfo(this::loadAppOps);
             // Save values to the blocking rules
             executor.submit(() -> {
                 synchronized (blockerLocker) {
@@ -697,7 +706,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
 
     @AnyThread
     public void load(@AppDetailsFragment.Property int property) {
-        executor.submit(() -> {
+        submitAfterPackageInfo(() -> {
             switch (property) {
                 case AppDetailsFragment.ACTIVITIES:
                     loadActivities();
@@ -771,12 +780,16 @@ public class AppDetailsViewModel extends AndroidViewModel {
     public void setIsPackageChanged() {
         setPackageInfo(true);
         if (isExternalApk || executor.isShutdown() || executor.isTerminated()) return;
+        PackageInfo installedPackageInfo = this.installedPackageInfo;
         executor.submit(() -> {
             synchronized (blockerLocker) {
                 try {
                     waitForBlockerOrExit();
-                    // Reload app components
-                    blocker.reloadComponents();
+                    // Reload app components, reusing the package info fetched above
+                    if (installedPackageInfo != null) {
+                        blocker.reloadComponents(installedPackageInfo);
+                    } else blocker.reloadComponents();
+                    blockedComponents = null;
                 } finally {
                     blockerLocker.notifyAll();
                 }
@@ -811,10 +824,14 @@ public class AppDetailsViewModel extends AndroidViewModel {
 
     @WorkerThread
     private void reloadComponents() {
-        executor.submit(this::loadActivities);
-        executor.submit(this::loadServices);
-        executor.submit(this::loadReceivers);
-        executor.submit(this::loadProviders);
+        synchronized (blockerLocker) {
+            // The rules have been changed
+            blockedComponents = null;
+        }
+        submitAfterPackageInfo(this::loadActivities);
+        submitAfterPackageInfo(this::loadServices);
+        submitAfterPackageInfo(this::loadReceivers);
+        submitAfterPackageInfo(this::loadProviders);
     }
 
     @SuppressLint("WrongConstant")
@@ -876,12 +893,46 @@ public class AppDetailsViewModel extends AndroidViewModel {
         }
     }
 
+    /**
+     * Run a loader once the package info has been loaded. Loaders are queued here instead of waiting for the
+     * package info in a worker, which could occupy the whole lane before the package info is loaded.
+     */
+    @AnyThread
+    private void submitAfterPackageInfo(@NonNull Runnable loader) {
+        synchronized (packageInfoWatcher) {
+            if (packageInfoWatcher.getCount() > 0) {
+                pendingLoaders.add(loader);
+                return;
+            }
+        }
+        executor.submit(loader);
+    }
+
+    @WorkerThread
+    private void onPackageInfoLoaded() {
+        List<Runnable> loaders;
+        synchronized (packageInfoWatcher) {
+            packageInfoWatcher.countDown();
+            loaders = new ArrayList<>(pendingLoaders);
+            pendingLoaders.clear();
+        }
+        try {
+            for (Runnable loader : loaders) {
+                executor.submit(loader);
+            }
+        } catch (RejectedExecutionException ignore) {
+            // The view model has been cleared
+        }
+    }
+
+    /**
+     * @return The package info, or {@code null} if it is not loaded (yet). Loaders are only run after it has been
+     * loaded, see {@link #submitAfterPackageInfo(Runnable)}.
+     */
     @WorkerThread
     @Nullable
     private PackageInfo getPackageInfoInternal() {
-        try {
-            packageInfoWatcher.await();
-        } catch (InterruptedException e) {
+        if (packageInfoWatcher.getCount() > 0) {
             return null;
         }
         return packageInfo;
@@ -925,7 +976,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getAppInfo() {
         if (appInfo.getValue() == null) {
-            executor.submit(this::loadAppInfo);
+            submitAfterPackageInfo(this::loadAppInfo);
         }
         return appInfo;
     }
@@ -949,33 +1000,14 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getActivities() {
         if (activities.getValue() == null) {
-            executor.submit(this::loadActivities);
+            submitAfterPackageInfo(this::loadActivities);
         }
         return activities;
     }
 
     @WorkerThread
-    @GuardedBy("blockerLocker")
     private void loadActivities() {
-        List<AppDetailsItem> appDetailsItems = new ArrayList<>();
-        if (getPackageInfoInternal() == null || packageInfo.activities == null) {
-            activities.postValue(appDetailsItems);
-            return;
-        }
-        for (ActivityInfo activityInfo : packageInfo.activities) {
-            AppDetailsComponentItem appDetailsItem = new AppDetailsComponentItem(activityInfo);
-            appDetailsItem.name = activityInfo.targetActivity == null ? activityInfo.name : activityInfo.targetActivity;
-            synchronized (blockerLocker) {
-                if (!isExternalApk) {
-                    appDetailsItem.isBlocked = blocker.hasComponentName(activityInfo.name);
-                }
-            }
-            appDetailsItem.isTracker = ComponentUtils.isTracker(activityInfo.name);
-            if (TextUtils.isEmpty(searchQuery) || appDetailsItem.name.toLowerCase(Locale.ROOT).contains(searchQuery))
-                appDetailsItems.add(appDetailsItem);
-        }
-        sortComponents(appDetailsItems);
-        activities.postValue(appDetailsItems);
+        loadComponents(AppDetailsFragment.ACTIVITIES, activities);
     }
 
     @NonNull
@@ -984,35 +1016,14 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getServices() {
         if (services.getValue() == null) {
-            executor.submit(this::loadServices);
+            submitAfterPackageInfo(this::loadServices);
         }
         return services;
     }
 
     @WorkerThread
-    @GuardedBy("blockerLocker")
     private void loadServices() {
-        List<AppDetailsItem> appDetailsItems = new ArrayList<>();
-        if (getPackageInfoInternal() == null || packageInfo.services == null) {
-            // There are no services
-            services.postValue(appDetailsItems);
-            return;
-        }
-        for (ServiceInfo serviceInfo : packageInfo.services) {
-            AppDetailsComponentItem appDetailsItem = new AppDetailsComponentItem(serviceInfo);
-            appDetailsItem.name = serviceInfo.name;
-            synchronized (blockerLocker) {
-                if (!isExternalApk) {
-                    appDetailsItem.isBlocked = blocker.hasComponentName(serviceInfo.name);
-                }
-            }
-            appDetailsItem.isTracker = ComponentUtils.isTracker(serviceInfo.name);
-            if (TextUtils.isEmpty(searchQuery)
-                    || appDetailsItem.name.toLowerCase(Locale.ROOT).contains(searchQuery))
-                appDetailsItems.add(appDetailsItem);
-        }
-        sortComponents(appDetailsItems);
-        services.postValue(appDetailsItems);
+        loadComponents(AppDetailsFragment.SERVICES, services);
     }
 
     @NonNull
@@ -1021,35 +1032,14 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getReceivers() {
         if (receivers.getValue() == null) {
-            executor.submit(this::loadReceivers);
+            submitAfterPackageInfo(this::loadReceivers);
         }
         return receivers;
     }
 
     @WorkerThread
-    @GuardedBy("blockerLocker")
     private void loadReceivers() {
-        List<AppDetailsItem> appDetailsItems = new ArrayList<>();
-        if (getPackageInfoInternal() == null || packageInfo.receivers == null) {
-            // There are no receivers
-            receivers.postValue(appDetailsItems);
-            return;
-        }
-        for (ActivityInfo activityInfo : packageInfo.receivers) {
-            AppDetailsComponentItem appDetailsItem = new AppDetailsComponentItem(activityInfo);
-            appDetailsItem.name = activityInfo.name;
-            synchronized (blockerLocker) {
-                if (!isExternalApk) {
-                    appDetailsItem.isBlocked = blocker.hasComponentName(activityInfo.name);
-                }
-            }
-            appDetailsItem.isTracker = ComponentUtils.isTracker(activityInfo.name);
-            if (TextUtils.isEmpty(searchQuery)
-                    || appDetailsItem.name.toLowerCase(Locale.ROOT).contains(searchQuery))
-                appDetailsItems.add(appDetailsItem);
-        }
-        sortComponents(appDetailsItems);
-        receivers.postValue(appDetailsItems);
+        loadComponents(AppDetailsFragment.RECEIVERS, receivers);
     }
 
     @NonNull
@@ -1058,53 +1048,101 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getProviders() {
         if (providers.getValue() == null) {
-            executor.submit(this::loadProviders);
+            submitAfterPackageInfo(this::loadProviders);
         }
         return providers;
     }
 
     @WorkerThread
-    @GuardedBy("blockerLocker")
     private void loadProviders() {
-        List<AppDetailsItem> appDetailsItems = new ArrayList<>();
-        if (getPackageInfoInternal() == null || packageInfo.providers == null) {
-            // There are no providers
-            providers.postValue(appDetailsItems);
+        loadComponents(AppDetailsFragment.PROVIDERS, providers);
+    }
+
+    @GuardedBy("componentModels")
+    private final SparseArray<AppDetailsComponentModel> componentModels = new SparseArray<>(4);
+    // Class names of the components that have rules, rebuilt after the rules are changed
+    @GuardedBy("blockerLocker")
+    @Nullable
+    private Set<String> blockedComponents;
+
+    /**
+     * Search and sort the components of a tab. The components are only collected again if the package has been
+     * reloaded since the last time.
+     */
+    @WorkerThread
+    private void loadComponents(@AppDetailsFragment.Property int property,
+                                @NonNull MutableLiveData<List<AppDetailsItem>> liveData) {
+        PackageInfo packageInfo = getPackageInfoInternal();
+        if (packageInfo == null) {
+            liveData.postValue(new ArrayList<>());
             return;
         }
-        for (ProviderInfo providerInfo : packageInfo.providers) {
-            AppDetailsComponentItem appDetailsItem = new AppDetailsComponentItem(providerInfo);
-            appDetailsItem.name = providerInfo.name;
-            synchronized (blockerLocker) {
-                if (!isExternalApk) {
-                    appDetailsItem.isBlocked = blocker.hasComponentName(providerInfo.name);
-                }
+        AppDetailsComponentModel model;
+        synchronized (componentModels) {
+            model = componentModels.get(property);
+            if (model == null || !model.isLoadedFrom(packageInfo)) {
+                model = new AppDetailsComponentModel(packageInfo, getComponentItems(packageInfo, property));
+                componentModels.put(property, model);
             }
-            appDetailsItem.isTracker = ComponentUtils.isTracker(providerInfo.name);
-            if (TextUtils.isEmpty(searchQuery)
-                    || appDetailsItem.name.toLowerCase(Locale.ROOT).contains(searchQuery))
-                appDetailsItems.add(appDetailsItem);
         }
-        sortComponents(appDetailsItems);
-        providers.postValue(appDetailsItems);
+        if (!isExternalApk) {
+            model.setBlockedComponents(getBlockedComponents());
+        }
+        AppDetailsComponentModel finalModel = model;
+        uiPrepExecutor.submit(() -> liveData.postValue(finalModel.getItems(searchQuery, sortOrderComponents)));
     }
 
     @SuppressLint("SwitchIntDef")
     @WorkerThread
-    private void sortComponents(List<AppDetailsItem> appDetailsItems) {
-        // First sort by name
-        Collections.sort(appDetailsItems, (o1, o2) -> o1.name.compareToIgnoreCase(o2.name));
-        if (sortOrderComponents == AppDetailsFragment.SORT_BY_NAME) return;
-        Collections.sort(appDetailsItems, (o1, o2) -> {
-            switch (sortOrderComponents) {
-                // No need to sort by name since we've already done it
-                case AppDetailsFragment.SORT_BY_BLOCKED:
-                    return -Boolean.compare(((AppDetailsComponentItem) o1).isBlocked, ((AppDetailsComponentItem) o2).isBlocked);
-                case AppDetailsFragment.SORT_BY_TRACKERS:
-                    return -Boolean.compare(((AppDetailsComponentItem) o1).isTracker, ((AppDetailsComponentItem) o2).isTracker);
+    @NonNull
+    private static List<AppDetailsComponentItem> getComponentItems(@NonNull PackageInfo packageInfo,
+                                                                   @AppDetailsFragment.Property int property) {
+        ComponentInfo[] componentInfoList;
+        switch (property) {
+            case AppDetailsFragment.ACTIVITIES:
+                componentInfoList = packageInfo.activities;
+                break;
+            case AppDetailsFragment.SERVICES:
+                componentInfoList = packageInfo.services;
+                break;
+            case AppDetailsFragment.RECEIVERS:
+                componentInfoList = packageInfo.receivers;
+                break;
+            case AppDetailsFragment.PROVIDERS:
+                componentInfoList = packageInfo.providers;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a component: " + property);
+        }
+        if (componentInfoList == null) {
+            return Collections.emptyList();
+        }
+        List<AppDetailsComponentItem> appDetailsItems = new ArrayList<>(componentInfoList.length);
+        for (ComponentInfo componentInfo : componentInfoList) {
+            AppDetailsComponentItem appDetailsItem = new AppDetailsComponentItem(componentInfo);
+            if (componentInfo instanceof ActivityInfo && ((ActivityInfo) componentInfo).targetActivity != null) {
+                appDetailsItem.name = ((ActivityInfo) componentInfo).targetActivity;
+            } else appDetailsItem.name = componentInfo.name;
+            appDetailsItem.isTracker = ComponentUtils.isTracker(componentInfo.name);
+            appDetailsItems.add(appDetailsItem);
+        }
+        return appDetailsItems;
+    }
+
+    @WorkerThread
+    @NonNull
+    private Set<String> getBlockedComponents() {
+        synchronized (blockerLocker) {
+            if (blockedComponents == null) {
+                waitForBlockerOrExit();
+                Set<String> componentNames = new HashSet<>();
+                for (ComponentRule rule : blocker.getAllComponents()) {
+                    componentNames.add(rule.name);
+                }
+                blockedComponents = componentNames;
             }
-            return 0;
-        });
+            return blockedComponents;
+        }
     }
 
     @NonNull
@@ -1114,7 +1152,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getAppOps() {
         if (appOps.getValue() == null) {
-            executor.submit(this::loadAppOps);
+            submitAfterPackageInfo(this::loadAppOps);
         }
         return appOps;
     }
@@ -1184,13 +1222,22 @@ public class AppDetailsViewModel extends AndroidViewModel {
             }
         }
         if (appOpItems == null) appOpItems = new ArrayList<>(0);
+        List<AppDetailsItem> loadedItems = new ArrayList<>(appOpItems);
+        uiPrepExecutor.submit(() -> appOps.postValue(searchAndSortAppOps(appDetailsItems, loadedItems)));
+    }
+
+    @SuppressLint("SwitchIntDef")
+    @WorkerThread
+    @NonNull
+    private List<AppDetailsItem> searchAndSortAppOps(@NonNull List<AppDetailsItem> appDetailsItems,
+                                                     @NonNull List<AppDetailsItem> loadedItems) {
         if (!TextUtils.isEmpty(searchQuery)) {
-            for (AppDetailsItem appDetailsItem : appOpItems) {
+            for (AppDetailsItem appDetailsItem : loadedItems) {
                 if (appDetailsItem.name.toLowerCase(Locale.ROOT).contains(searchQuery)) {
                     appDetailsItems.add(appDetailsItem);
                 }
             }
-        } else appDetailsItems.addAll(appOpItems);
+        } else appDetailsItems.addAll(loadedItems);
         Collections.sort(appDetailsItems, (o1, o2) -> {
             switch (sortOrderAppOps) {
                 case AppDetailsFragment.SORT_BY_NAME:
@@ -1207,7 +1254,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
             }
             return 0;
         });
-        appOps.postValue(appDetailsItems);
+        return appDetailsItems;
     }
 
     @NonNull
@@ -1217,7 +1264,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getUsesPermissions() {
         if (usesPermissions.getValue() == null) {
-            executor.submit(this::loadUsesPermissions);
+            submitAfterPackageInfo(this::loadUsesPermissions);
         }
         return usesPermissions;
     }
@@ -1288,6 +1335,13 @@ public class AppDetailsViewModel extends AndroidViewModel {
             } catch (PackageManager.NameNotFoundException ignore) {
             }
         }
+        uiPrepExecutor.submit(() -> usesPermissions.postValue(searchAndSortUsesPermissions(appDetailsItems)));
+    }
+
+    @SuppressLint("SwitchIntDef")
+    @WorkerThread
+    @NonNull
+    private List<AppDetailsItem> searchAndSortUsesPermissions(@NonNull List<AppDetailsItem> appDetailsItems) {
         // Filter items
         synchronized (usesPermissionItems) {
             if (!TextUtils.isEmpty(searchQuery)) {
@@ -1307,7 +1361,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
             }
             return 0;
         });
-        usesPermissions.postValue(appDetailsItems);
+        return appDetailsItems;
     }
 
     @WorkerThread
@@ -1325,7 +1379,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getPermissions() {
         if (permissions.getValue() == null) {
-            executor.submit(this::loadPermissions);
+            submitAfterPackageInfo(this::loadPermissions);
         }
         return permissions;
     }
@@ -1355,7 +1409,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getFeatures() {
         if (features.getValue() == null) {
-            executor.submit(this::loadFeatures);
+            submitAfterPackageInfo(this::loadFeatures);
         }
         return features;
     }
@@ -1388,7 +1442,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getConfigurations() {
         if (configurations.getValue() == null) {
-            executor.submit(this::loadConfigurations);
+            submitAfterPackageInfo(this::loadConfigurations);
         }
         return configurations;
     }
@@ -1412,7 +1466,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getSignatures() {
         if (signatures.getValue() == null) {
-            executor.submit(this::loadSignatures);
+            submitAfterPackageInfo(this::loadSignatures);
         }
         return signatures;
     }
@@ -1482,7 +1536,7 @@ public class AppDetailsViewModel extends AndroidViewModel {
     @UiThread
     private LiveData<List<AppDetailsItem>> getSharedLibraries() {
         if (sharedLibraries.getValue() == null) {
-            executor.submit(this::loadSharedLibraries);
+            submitAfterPackageInfo(this::loadSharedLibraries);
         }
         return sharedLibraries;
     }
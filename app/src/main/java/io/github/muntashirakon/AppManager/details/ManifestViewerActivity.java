@@ -5,7 +5,6 @@ package io.github.muntashirakon.AppManager.details;
 import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
@@ -39,9 +38,11 @@ import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.apk.ApkFile;
 import io.github.muntashirakon.AppManager.apk.parser.AndroidBinXmlDecoder;
 import io.github.muntashirakon.AppManager.apk.parser.AndroidBinXmlParser;
+import io.github.muntashirakon.AppManager.apk.parser.ApkLabelLoader;
 import io.github.muntashirakon.AppManager.intercept.IntentCompat;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.LangUtils;
 
 public class ManifestViewerActivity extends BaseActivity {
     public static final String EXTRA_PACKAGE_NAME = "pkg";
@@ -110,20 +111,15 @@ public class ManifestViewerActivity extends BaseActivity {
                     runOnUiThread(this::showErrorAndFinish);
                     return;
                 }
-                String archiveFilePath;
                 try {
-                    archiveFilePath = apkFile.getBaseEntry().getRealCachedFile().getAbsolutePath();
+                    // Only the label is needed, read it from the resource table rather than parsing the package
+                    ApkLabelLoader labelLoader = ApkLabelLoader.fromApk(apkFile.getBaseEntry().getRealCachedFile());
+                    packageName = labelLoader.getPackageName();
+                    String label = labelLoader.getLabel(LangUtils.getLocaleByLanguage(this));
+                    runOnUiThread(() -> setTitle(label));
                 } catch (IOException | RemoteException e) {
-                    return;
+                    Log.w("Manifest", "Could not load label", e);
                 }
-                PackageInfo packageInfo = pm.getPackageArchiveInfo(archiveFilePath, 0);
-                if (packageInfo != null) {
-                    packageName = packageInfo.packageName;
-                    final ApplicationInfo applicationInfo = packageInfo.applicationInfo;
-                    applicationInfo.publicSourceDir = archiveFilePath;
-                    applicationInfo.sourceDir = archiveFilePath;
-                    runOnUiThread(() -> setTitle(applicationInfo.loadLabel(pm)));
-                } // else Could be a split apk
             } else {
                 try {
                     ApplicationInfo applicationInfo = pm.getApplicationInfo(packageName, 0);
@@ -46,7 +46,8 @@ public class FmAdapter extends MultiSelectionView.Adapter<FmAdapter.ViewHolder>
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         FmItem item = adapterList.get(position);
         holder.title.setText(item.name);
-        holder.subtitle.setText(Formatter.formatFileSize(fmActivity, item.path.length()));
+        String size = Formatter.formatFileSize(fmActivity, item.path.length());
+        holder.subtitle.setText(item.label != null ? item.label + ", " + size : size);
         // Set icon
         if (item.type == FileType.DIRECTORY) {
             holder.icon.setImageResource(R.drawable.ic_folder_outline);
@@ -3,6 +3,7 @@
 package io.github.muntashirakon.AppManager.fm;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.util.Objects;
 
@@ -15,6 +16,11 @@ public class FmItem implements Comparable<FmItem> {
     final String name;
     @NonNull
     final Path path;
+    /**
+     * Label of the application if this is an APK file, loaded after the item is displayed
+     */
+    @Nullable
+    volatile String label;
 
     FmItem(@NonNull Path path) {
         this.path = path;
@@ -7,23 +7,32 @@ import android.net.Uri;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
 
+import io.github.muntashirakon.AppManager.apk.parser.ApkLabelLoader;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.LangUtils;
 import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
 public class FmViewModel extends AndroidViewModel {
-    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    public static final String TAG = FmViewModel.class.getSimpleName();
+
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
     private final MutableLiveData<List<FmItem>> fmItems = new MutableLiveData<>();
-    private Path currentPath;
+    private volatile Path currentPath;
 
     public FmViewModel(@NonNull Application application) {
         super(application);
@@ -67,9 +76,45 @@ public class FmViewModel extends AndroidViewModel {
             }
             Collections.sort(fmItems);
             this.fmItems.postValue(fmItems);
+            // Display the files first, the labels are loaded one at a time afterwards
+            Locale locale = LangUtils.getLocaleByLanguage(getApplication());
+            for (FmItem item : fmItems) {
+                if (item.type == FileType.FILE && "apk".equalsIgnoreCase(item.extension)) {
+                    executor.submit(() -> loadLabel(path, fmItems, item, locale));
+                }
+            }
         });
     }
 
+    private void loadLabel(@NonNull Path path, @NonNull List<FmItem> fmItems, @NonNull FmItem item,
+                           @NonNull Locale locale) {
+        if (currentPath != path) {
+            // Another directory has been loaded since
+            return;
+        }
+        String label = loadLabel(item.path, locale);
+        if (label == null) return;
+        item.label = label;
+        // Updates are coalesced, the list is redrawn at most once per frame
+        this.fmItems.postValue(fmItems);
+    }
+
+    @Nullable
+    private static String loadLabel(@NonNull Path apkPath, @NonNull Locale locale) {
+        String filePath = apkPath.getFilePath();
+        if (filePath == null) {
+            // Not a real file, e.g. a document
+            return null;
+        }
+        try {
+            return ApkLabelLoader.fromApk(new File(filePath)).getLabel(locale);
+        } catch (IOException | RuntimeException e) {
+            // A broken APK must not take the file manager down
+            Log.w(TAG, "Could not load label of " + filePath, e);
+            return null;
+        }
+    }
+
     public LiveData<List<FmItem>> observeFiles() {
         return fmItems;
     }
@@ -2,77 +2,362 @@
 
 package io.github.muntashirakon.AppManager.imagecache;
 
-import android.graphics.Bitmap;
-import android.graphics.drawable.Drawable;
-
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 
+/**
+ * A process-wide on-disk icon store. All the icons are appended to a single pack file, each record
+ * consisting of the key, the time it was written and the encoded image. The offsets of the records
+ * are indexed in memory when the pack is opened, and the images are read from a memory-mapped view
+ * of the pack. A record supersedes the previous records of the same key. Superseded and expired
+ * records are dropped when the pack is compacted.
+ */
 public class FileCache {
-    private static final long lastModifiedDate = System.currentTimeMillis() - 604_800_000;
+    public static final String TAG = FileCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x414d4943;  // AMIC
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_KEY_LENGTH = 1024;
+    private static final long EXPIRY_MILLIS = 604_800_000;  // 7 days
+    private static final long MAX_PACK_SIZE = 32 * 1024 * 1024;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private static FileCache sInstance;
+
+    @WorkerThread
+    @NonNull
+    public static synchronized FileCache getInstance() {
+        if (sInstance == null) {
+            File cacheDir = AppManager.getContext().getExternalCacheDir();
+            if (cacheDir == null) {
+                cacheDir = AppManager.getContext().getCacheDir();
+            }
+            // Icons used to be stored as separate PNG files
+            File legacyDir = new File(cacheDir, "images");
+            if (legacyDir.exists()) {
+                FileUtils.deleteDir(legacyDir);
+            }
+            sInstance = new FileCache(new File(cacheDir, "icons.pack"));
+        }
+        return sInstance;
+    }
+
+    private static class Entry {
+        final long offset;
+        final int length;
+        final long timestamp;
+
+        Entry(long offset, int length, long timestamp) {
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final File packFile;
+    @GuardedBy("this")
+    private final Map<String, Entry> index = new HashMap<>();
+    @GuardedBy("this")
+    @Nullable
+    private FileChannel channel;
+    @GuardedBy("this")
+    @Nullable
+    private MappedByteBuffer mappedPack;
+    @GuardedBy("this")
+    private long packSize;
+    @GuardedBy("this")
+    private long liveBytes;
+
+    @VisibleForTesting
+    FileCache(@NonNull File packFile) {
+        this.packFile = packFile;
+        synchronized (this) {
+            try {
+                open();
+                if (needsCompaction()) {
+                    compact();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open icon pack, icons will not be stored.", e);
+                closeChannel();
+            }
+        }
+    }
+
+    /**
+     * Get the encoded image stored for the key, {@code null} if there is none or if it has expired.
+     */
+    @Nullable
+    public synchronized byte[] get(@NonNull String key) {
+        Entry entry = index.get(key);
+        if (entry == null || isExpired(entry, System.currentTimeMillis())) {
+            return null;
+        }
+        try {
+            return read(entry);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read icon " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the encoded images stored for the keys at once.
+     *
+     * @return The images in the order of the keys, {@code null} for the ones that are not stored
+     */
+    @NonNull
+    public synchronized byte[][] getAll(@NonNull List<String> keys) {
+        byte[][] images = new byte[keys.size()][];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < images.length; ++i) {
+            Entry entry = index.get(keys.get(i));
+            if (entry == null || isExpired(entry, now)) {
+                continue;
+            }
+            try {
+                images[i] = read(entry);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read icon " + keys.get(i), e);
+            }
+        }
+        return images;
+    }
+
+    public synchronized void put(@NonNull String key, @NonNull byte[] image) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (channel == null || keyBytes.length > MAX_KEY_LENGTH) {
+            return;
+        }
+        long recordSize = getRecordSize(keyBytes.length, image.length);
+        try {
+            if (packSize + recordSize > MAX_PACK_SIZE) {
+                compact();
+                if (packSize + recordSize > MAX_PACK_SIZE) {
+                    reset();
+                }
+            }
+            long timestamp = System.currentTimeMillis();
+            ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+            record.putInt(keyBytes.length).put(keyBytes).putLong(timestamp).putInt(image.length).put(image);
+            record.flip();
+            writeFully(record, packSize);
+            Entry oldEntry = index.put(key, new Entry(packSize + recordSize - image.length, image.length,
+                    timestamp));
+            if (oldEntry != null) {
+                liveBytes -= getRecordSize(keyBytes.length, oldEntry.length);
+            }
+            liveBytes += recordSize;
+            packSize += recordSize;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not store icon " + key, e);
+        }
+    }
 
-    private final File cacheDir;
+    public synchronized void remove(@NonNull String key) {
+        // The record becomes garbage, it is removed on the next compaction
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            liveBytes -= getRecordSize(key.getBytes(StandardCharsets.UTF_8).length, entry.length);
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
 
-    public FileCache() {
-        if (AppManager.getContext().getExternalCacheDir() != null) {
-            cacheDir = new File(AppManager.getContext().getExternalCacheDir(), "images");
-        } else {
-            cacheDir = new File(AppManager.getContext().getCacheDir(), "images");
+    @VisibleForTesting
+    synchronized long getPackSize() {
+        return packSize;
+    }
+
+    /**
+     * Remove all the icons.
+     */
+    public synchronized void clear() {
+        try {
+            reset();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not clear icon pack", e);
+        }
+    }
+
+    /**
+     * Rewrite the pack with only the up-to-date records.
+     */
+    @VisibleForTesting
+    synchronized void compact() throws IOException {
+        if (channel == null) return;
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+        File tmpFile = new File(packFile.getPath() + ".tmp");
+        try (RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw")) {
+            tmp.setLength(0);
+            FileChannel tmpChannel = tmp.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            tmpChannel.write(header);
+            for (Map.Entry<String, Entry> indexEntry : entries) {
+                Entry entry = indexEntry.getValue();
+                if (isExpired(entry, now)) continue;
+                byte[] keyBytes = indexEntry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate((int) getRecordSize(keyBytes.length, entry.length));
+                record.putInt(keyBytes.length).put(keyBytes).putLong(entry.timestamp).putInt(entry.length)
+                        .put(read(entry));
+                record.flip();
+                while (record.hasRemaining()) {
+                    tmpChannel.write(record);
+                }
+            }
+        }
+        closeChannel();
+        if (!tmpFile.renameTo(packFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            throw new IOException("Could not replace " + packFile);
         }
-        if (!cacheDir.exists()) cacheDir.mkdirs();
+        open();
+        Log.d(TAG, "Compacted icon pack: " + index.size() + " icons, " + packSize + " bytes.");
     }
 
-    public void putImage(String name, InputStream inputStream) throws IOException {
-        File iconFile = getImageFile(name);
-        try (OutputStream os = new FileOutputStream(iconFile)) {
-            FileUtils.copy(inputStream, os);
+    @GuardedBy("this")
+    private void open() throws IOException {
+        index.clear();
+        liveBytes = 0;
+        channel = new RandomAccessFile(packFile, "rw").getChannel();
+        packSize = channel.size();
+        mappedPack = null;
+        if (packSize < HEADER_SIZE) {
+            reset();
+            return;
+        }
+        MappedByteBuffer pack = map();
+        if (pack.getInt(0) != MAGIC || pack.getInt(4) != VERSION) {
+            reset();
+            return;
+        }
+        int position = HEADER_SIZE;
+        while (position + 4 <= packSize) {
+            int keyLength = pack.getInt(position);
+            if (keyLength <= 0 || keyLength > MAX_KEY_LENGTH || position + 4L + keyLength + 12 > packSize) {
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            ByteBuffer keyBuffer = pack.duplicate();
+            keyBuffer.position(position + 4);
+            keyBuffer.get(keyBytes);
+            int timestampPosition = position + 4 + keyLength;
+            long timestamp = pack.getLong(timestampPosition);
+            int length = pack.getInt(timestampPosition + 8);
+            long offset = timestampPosition + 12L;
+            if (length < 0 || offset + length > packSize) {
+                break;
+            }
+            Entry entry = new Entry(offset, length, timestamp);
+            Entry oldEntry = index.put(new String(keyBytes, StandardCharsets.UTF_8), entry);
+            if (oldEntry != null) {
+                liveBytes -= getRecordSize(keyLength, oldEntry.length);
+            }
+            liveBytes += getRecordSize(keyLength, length);
+            position = (int) (offset + length);
+        }
+        if (position < packSize) {
+            // The last record was not written completely
+            Log.w(TAG, "Discarding " + (packSize - position) + " bytes at the end of the icon pack.");
+            channel.truncate(position);
+            packSize = position;
+            mappedPack = null;
         }
     }
 
-    public void putImage(String name, Drawable drawable) throws IOException {
-        File iconFile = getImageFile(name);
-        try (OutputStream os = new FileOutputStream(iconFile)) {
-            Bitmap bitmap = FileUtils.getBitmapFromDrawable(drawable);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, os);
-            os.flush();
+    @GuardedBy("this")
+    private void reset() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(packFile, "rw").getChannel();
         }
+        index.clear();
+        liveBytes = 0;
+        mappedPack = null;
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(header, 0);
+        packSize = HEADER_SIZE;
+    }
+
+    @GuardedBy("this")
+    private boolean needsCompaction() {
+        return channel != null && packSize > MIN_COMPACTION_SIZE && liveBytes * 2 < packSize - HEADER_SIZE;
     }
 
+    @GuardedBy("this")
     @NonNull
-    public Drawable getImage(@NonNull String name) throws FileNotFoundException {
-        File iconFile = getImageFile(name);
-        if (iconFile.exists() && iconFile.lastModified() >= lastModifiedDate) {
-            return Drawable.createFromStream(new FileInputStream(iconFile), name);
-        } else {
-            throw new FileNotFoundException("Icon for " + name + " doesn't exist.");
+    private byte[] read(@NonNull Entry entry) throws IOException {
+        MappedByteBuffer pack = mappedPack;
+        if (pack == null || pack.capacity() < entry.offset + entry.length) {
+            // The pack has grown since it was mapped
+            pack = map();
         }
+        byte[] image = new byte[entry.length];
+        ByteBuffer buffer = pack.duplicate();
+        buffer.position((int) entry.offset);
+        buffer.get(image);
+        return image;
     }
 
+    @GuardedBy("this")
     @NonNull
-    private File getImageFile(@NonNull String name) {
-        return new File(cacheDir, name + ".png");
+    private MappedByteBuffer map() throws IOException {
+        if (channel == null) throw new IOException("Icon pack is closed.");
+        mappedPack = channel.map(FileChannel.MapMode.READ_ONLY, 0, packSize);
+        return mappedPack;
     }
 
-    public void clear() {
-        File[] files = cacheDir.listFiles();
-        if (files == null) return;
-        int count = 0;
-        for (File f : files) {
-            if (f.lastModified() < lastModifiedDate) {
-                if (f.delete()) ++count;
+    @GuardedBy("this")
+    private void writeFully(@NonNull ByteBuffer buffer, long position) throws IOException {
+        if (channel == null) throw new IOException("Icon pack is closed.");
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @GuardedBy("this")
+    private void closeChannel() {
+        mappedPack = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
             }
+            channel = null;
         }
-        Log.d("Cache", "Deleted " + count + " images.");
+    }
+
+    private static boolean isExpired(@NonNull Entry entry, long now) {
+        return entry.timestamp < now - EXPIRY_MILLIS;
+    }
+
+    private static long getRecordSize(int keyLength, int imageLength) {
+        return 4L + keyLength + 8 + 4 + imageLength;
     }
 }
@@ -2,52 +2,109 @@
 
 package io.github.muntashirakon.AppManager.imagecache;
 
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ComponentInfo;
 import android.content.pm.PackageItemInfo;
 import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.main.ApplicationItem;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
 import io.github.muntashirakon.AppManager.utils.UiThreadHandler;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
+/**
+ * Loads icons in two tiers: a byte-bounded {@link MemoryCache} of bitmaps scaled to the size at
+ * which the icons are displayed, and a packed on-disk {@link FileCache}. Icons of packages are stored
+ * on disk along with the version of the package, so that they are reloaded when the package is
+ * updated.
+ */
 public class ImageLoader implements AutoCloseable {
-    private final MemoryCache memoryCache = new MemoryCache();
-    private final FileCache fileCache = new FileCache();
+    /**
+     * Icons are never displayed larger than this
+     */
+    private static final int ICON_SIZE_DP = 48;
+
+    private final MemoryCache memoryCache = MemoryCache.getInstance();
     private final Map<ImageView, String> imageViews = Collections.synchronizedMap(new WeakHashMap<>());
     private final ExecutorService executor;
     private final boolean shutdownExecutor;
+    private final Resources resources;
+    private final PackageManager pm;
+    private final int iconSize;
     private boolean isClosed = false;
 
     public ImageLoader() {
-        executor = Executors.newFixedThreadPool(5);
-        shutdownExecutor = true;
+        this(WorkerPools.newScope(WorkerPools.LANE_IO), true);
     }
 
     public ImageLoader(@NonNull ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private ImageLoader(@NonNull ExecutorService executor, boolean shutdownExecutor) {
         this.executor = executor;
-        shutdownExecutor = false;
+        this.shutdownExecutor = shutdownExecutor;
+        resources = AppManager.getContext().getResources();
+        pm = AppManager.getContext().getPackageManager();
+        iconSize = (int) Math.ceil(ICON_SIZE_DP * resources.getDisplayMetrics().density);
     }
 
     public void displayImage(@NonNull String name, @Nullable PackageItemInfo info, @NonNull ImageView imageView) {
         imageViews.put(imageView, name);
-        Drawable image = memoryCache.get(name);
-        if (image != null) imageView.setImageDrawable(image);
+        Bitmap image = memoryCache.get(getMemoryKey(name, info));
+        if (image != null) imageView.setImageDrawable(new BitmapDrawable(resources, image));
         else {
             queueImage(name, info, imageView);
         }
     }
 
+    /**
+     * Load the icons that are about to be displayed, e.g. the visible range of a list and the page
+     * after it, in a single background task. The icons that are stored on disk are read at once.
+     *
+     * @param names Names of the icons as supplied to {@link #displayImage(String, PackageItemInfo, ImageView)}
+     * @param infos The items whose icons are loaded, in the order of the names
+     */
+    public void prefetch(@NonNull List<String> names, @NonNull List<? extends PackageItemInfo> infos) {
+        if (isClosed || names.isEmpty()) return;
+        List<String> missingNames = new ArrayList<>(names.size());
+        List<PackageItemInfo> missingInfos = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); ++i) {
+            PackageItemInfo info = infos.get(i);
+            if (info != null && memoryCache.get(getMemoryKey(names.get(i), info)) == null) {
+                missingNames.add(names.get(i));
+                missingInfos.add(info);
+            }
+        }
+        if (missingNames.isEmpty()) return;
+        Runnable task = () -> loadImages(missingNames, missingInfos);
+        if (executor instanceof TaskScope) {
+            // The icons that are displayed right now come first
+            ((TaskScope) executor).submit(task, WorkerPools.PRIORITY_BACKGROUND);
+        } else executor.submit(task);
+    }
+
     private void queueImage(@NonNull String name, @Nullable PackageItemInfo info, @NonNull ImageView imageView) {
         ImageLoaderQueueItem queueItem = new ImageLoaderQueueItem(name, info, imageView);
         executor.submit(new LoadQueueItem(queueItem));
@@ -59,21 +116,153 @@ public class ImageLoader implements AutoCloseable {
         if (shutdownExecutor) {
             executor.shutdownNow();
         }
-        memoryCache.clear();
-        fileCache.clear();
+    }
+
+    @WorkerThread
+    @NonNull
+    private Bitmap loadImage(@NonNull String name, @Nullable PackageItemInfo info) {
+        String memoryKey = getMemoryKey(name, info);
+        Bitmap image = memoryCache.get(memoryKey);
+        if (image != null) return image;
+        if (info == null) {
+            image = toBitmap(pm.getDefaultActivityIcon());
+            memoryCache.put(memoryKey, image);
+            return image;
+        }
+        FileCache fileCache = FileCache.getInstance();
+        String fileKey = getFileKey(name, info);
+        image = decode(fileCache.get(fileKey));
+        if (image == null) {  // Cache miss
+            image = toBitmap(info.loadIcon(pm));
+            byte[] encodedImage = encode(image);
+            if (encodedImage != null) {
+                fileCache.put(fileKey, encodedImage);
+            }
+        }
+        memoryCache.put(memoryKey, image);
+        return image;
+    }
+
+    @WorkerThread
+    private void loadImages(@NonNull List<String> names, @NonNull List<PackageItemInfo> infos) {
+        FileCache fileCache = FileCache.getInstance();
+        List<String> fileKeys = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); ++i) {
+            fileKeys.add(getFileKey(names.get(i), infos.get(i)));
+        }
+        byte[][] encodedImages = fileCache.getAll(fileKeys);
+        for (int i = 0; i < names.size(); ++i) {
+            if (isClosed || Thread.currentThread().isInterrupted()) return;
+            String memoryKey = getMemoryKey(names.get(i), infos.get(i));
+            // May have been loaded by displayImage in the meantime
+            if (memoryCache.get(memoryKey) != null) continue;
+            Bitmap image = decode(encodedImages[i]);
+            if (image == null) {  // Cache miss
+                image = toBitmap(infos.get(i).loadIcon(pm));
+                byte[] encodedImage = encode(image);
+                if (encodedImage != null) {
+                    fileCache.put(fileKeys.get(i), encodedImage);
+                }
+            }
+            memoryCache.put(memoryKey, image);
+        }
+    }
+
+    /**
+     * Render the drawable into a bitmap no larger than the displayed size.
+     */
+    @NonNull
+    private Bitmap toBitmap(@NonNull Drawable drawable) {
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+        if (width <= 0) width = iconSize;
+        if (height <= 0) height = iconSize;
+        if (drawable instanceof BitmapDrawable && width <= iconSize && height <= iconSize) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) return bitmap;
+        }
+        float scale = Math.min(1f, iconSize / (float) Math.max(width, height));
+        width = Math.max(1, Math.round(width * scale));
+        height = Math.max(1, Math.round(height * scale));
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    @Nullable
+    private static byte[] encode(@NonNull Bitmap bitmap) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, os)) {
+            return null;
+        }
+        return os.toByteArray();
+    }
+
+    @Nullable
+    private static Bitmap decode(@Nullable byte[] encodedImage) {
+        if (encodedImage == null) return null;
+        return BitmapFactory.decodeByteArray(encodedImage, 0, encodedImage.length);
+    }
+
+    /**
+     * The key of the icon in the memory cache. It has to be computed on the UI thread without any I/O. Therefore, it
+     * includes the version of the package if it is known already, or else the path to the APK file, which changes
+     * whenever the package is updated.
+     */
+    @NonNull
+    private static String getMemoryKey(@NonNull String name, @Nullable PackageItemInfo info) {
+        if (info == null) {
+            // The default icon
+            return name + "@";
+        }
+        if (info instanceof ApplicationItem) {
+            return name + "@" + ((ApplicationItem) info).versionCode;
+        }
+        ApplicationInfo applicationInfo = getApplicationInfo(info);
+        if (applicationInfo != null && applicationInfo.sourceDir != null) {
+            return name + "$" + applicationInfo.sourceDir;
+        }
+        return name;
+    }
+
+    /**
+     * The key of the icon in the file cache. If the version of the package is unknown, the last
+     * modification time of the APK file is used instead.
+     */
+    @WorkerThread
+    @NonNull
+    private static String getFileKey(@NonNull String name, @NonNull PackageItemInfo info) {
+        if (info instanceof ApplicationItem) {
+            return name + "@" + ((ApplicationItem) info).versionCode;
+        }
+        ApplicationInfo applicationInfo = getApplicationInfo(info);
+        if (applicationInfo != null && applicationInfo.sourceDir != null) {
+            return name + "#" + new File(applicationInfo.sourceDir).lastModified();
+        }
+        return name;
+    }
+
+    @Nullable
+    private static ApplicationInfo getApplicationInfo(@NonNull PackageItemInfo info) {
+        if (info instanceof ApplicationInfo) {
+            return (ApplicationInfo) info;
+        } else if (info instanceof ComponentInfo) {
+            return ((ComponentInfo) info).applicationInfo;
+        }
+        return null;
     }
 
     private static class ImageLoaderQueueItem {
         public final String name;
         public final ImageView imageView;
-        public final PackageManager pm;
         public final PackageItemInfo info;
 
         public ImageLoaderQueueItem(@NonNull String name, @Nullable PackageItemInfo info, @NonNull ImageView imageView) {
             this.name = name;
             this.info = info;
             this.imageView = imageView;
-            this.pm = AppManager.getContext().getPackageManager();
         }
     }
 
@@ -86,21 +275,7 @@ public class ImageLoader implements AutoCloseable {
 
         public void run() {
             if (imageViewReusedOrClosed(queueItem)) return;
-            Drawable image = null;
-            try {
-                image = fileCache.getImage(queueItem.name);
-            } catch (FileNotFoundException ignore) {
-            }
-            if (image == null) { // Cache miss
-                if (queueItem.info != null) {
-                    image = queueItem.info.loadIcon(queueItem.pm);
-                    try {
-                        fileCache.putImage(queueItem.name, image);
-                    } catch (IOException ignore) {
-                    }
-                } else image = queueItem.pm.getDefaultActivityIcon();
-            }
-            memoryCache.put(queueItem.name, image);
+            Bitmap image = loadImage(queueItem.name, queueItem.info);
             if (imageViewReusedOrClosed(queueItem)) return;
             UiThreadHandler.run(new LoadImageInImageView(image, queueItem));
         }
@@ -108,17 +283,17 @@ public class ImageLoader implements AutoCloseable {
 
     //Used to display bitmap in the UI thread
     private class LoadImageInImageView implements Runnable {
-        private final Drawable image;
+        private final Bitmap image;
         private final ImageLoaderQueueItem queueItem;
 
-        public LoadImageInImageView(@NonNull Drawable image, ImageLoaderQueueItem queueItem) {
+        public LoadImageInImageView(@NonNull Bitmap image, ImageLoaderQueueItem queueItem) {
             this.image = image;
             this.queueItem = queueItem;
         }
 
         public void run() {
             if (imageViewReusedOrClosed(queueItem)) return;
-            queueItem.imageView.setImageDrawable(image);
+            queueItem.imageView.setImageDrawable(new BitmapDrawable(resources, image));
         }
     }
 
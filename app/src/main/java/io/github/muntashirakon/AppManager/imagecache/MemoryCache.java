@@ -2,27 +2,75 @@
 
 package io.github.muntashirakon.AppManager.imagecache;
 
-import android.graphics.drawable.Drawable;
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
 
-import java.lang.ref.SoftReference;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+/**
+ * A process-wide LRU cache of icons bounded by the number of bytes occupied by the bitmaps rather
+ * than by the number of entries.
+ */
 public class MemoryCache {
-    private final Map<String, SoftReference<Drawable>> cache = Collections.synchronizedMap(new HashMap<>());
+    private static MemoryCache sInstance;
 
-    public Drawable get(String id) {
-        SoftReference<Drawable> ref = cache.get(id);
-        if (ref == null) return null;
-        return ref.get();
+    @NonNull
+    public static synchronized MemoryCache getInstance() {
+        if (sInstance == null) {
+            // An eighth of the heap, as the icons are displayed in almost every screen
+            sInstance = new MemoryCache((int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE));
+        }
+        return sInstance;
     }
 
-    public void put(String id, Drawable image) {
-        cache.put(id, new SoftReference<>(image));
+    private final LruCache<String, Bitmap> cache;
+
+    MemoryCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    @Nullable
+    public Bitmap get(@NonNull String id) {
+        return cache.get(id);
+    }
+
+    public void put(@NonNull String id, @NonNull Bitmap image) {
+        cache.put(id, image);
+    }
+
+    public void remove(@NonNull String id) {
+        cache.remove(id);
+    }
+
+    /**
+     * Release some or all of the icons depending on the level supplied by
+     * {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public int maxSize() {
+        return cache.maxSize();
     }
 
     public void clear() {
-        cache.clear();
+        cache.evictAll();
     }
-}
\ No newline at end of file
+}
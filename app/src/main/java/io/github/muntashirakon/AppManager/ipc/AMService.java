@@ -118,6 +118,17 @@ public class AMService extends RootService {
                 transactRemote(data, reply, flags);
                 return true;
             }
+            if (code == ProxyBinder.PROXY_BINDER_BATCH_TRANSACT_CODE) {
+                data.enforceInterface(IRootIPC.class.getName());
+                Log.d(TAG, String.format("transact batch: uid=%d", Binder.getCallingUid()));
+                long id = Binder.clearCallingIdentity();
+                try {
+                    BinderBatch.replay(data, reply);
+                } finally {
+                    Binder.restoreCallingIdentity(id);
+                }
+                return true;
+            }
             Log.d(TAG, String.format("transact: uid=%d, code=%d", Binder.getCallingUid(), code));
             return super.onTransact(code, data, reply, flags);
         }
@@ -0,0 +1,304 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.ipc;
+
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.server.common.IRootIPC;
+
+/**
+ * Record the transactions made through {@link ProxyBinder} in the current thread and send them to AMService at once.
+ * AMService replays them in order and returns all the replies together, which saves a round-trip and a copy of the
+ * parcel per transaction.
+ * <p>
+ * The replies are not available until the batch is committed, and the reply parcels seen by the callers while
+ * recording are empty. Therefore, only the calls made inside {@link #record(Call)} are recorded, and they should be
+ * the calls whose results are not needed right away, such as setters. Any other transaction made by the thread while
+ * the batch is open sends the recorded transactions first and is then made as usual, so that it sees their effects.
+ * Usage:
+ * <pre>
+ * try (BinderBatch batch = BinderBatch.begin()) {
+ *     for (ComponentName componentName : componentNames) {
+ *         batch.record(() -> pm.setComponentEnabledSetting(componentName, state, 0, userId));
+ *     }
+ *     batch.commitAndReadExceptions();
+ * }
+ * </pre>
+ */
+public final class BinderBatch implements AutoCloseable {
+    public interface Call {
+        void run() throws RemoteException;
+    }
+
+    /**
+     * Maximum size of the data sent to AMService in a single transaction. The binder buffer of a process is about 1 MB
+     * and it is shared by all the transactions in flight including their replies, so the batch is split well below it.
+     */
+    @VisibleForTesting
+    static final int MAX_TRANSACTION_SIZE = 256 * 1024;
+    /**
+     * Size of the header written before the data of each transaction: a binder object and three integers
+     */
+    private static final int TRANSACTION_HEADER_SIZE = 40;
+
+    private static final ThreadLocal<BinderBatch> sCurrentBatch = new ThreadLocal<>();
+
+    /**
+     * Start recording the transactions of the current thread.
+     *
+     * @throws IllegalStateException If the thread is already recording
+     */
+    @NonNull
+    public static BinderBatch begin() {
+        if (sCurrentBatch.get() != null) {
+            throw new IllegalStateException("Another batch is in progress.");
+        }
+        BinderBatch batch = new BinderBatch();
+        sCurrentBatch.set(batch);
+        return batch;
+    }
+
+    @Nullable
+    static BinderBatch getCurrent() {
+        return sCurrentBatch.get();
+    }
+
+    // Transactions that have not been sent yet
+    private final List<IBinder> mTargets = new ArrayList<>();
+    private final List<int[]> mCodesAndFlags = new ArrayList<>();
+    private final List<Parcel> mData = new ArrayList<>();
+    // Replies of the transactions that have been sent
+    private final List<Parcel> mReplies = new ArrayList<>();
+    private boolean mRecording = false;
+    private boolean mCommitted = false;
+
+    @VisibleForTesting
+    BinderBatch() {
+    }
+
+    /**
+     * Record the transactions made by the call instead of making them.
+     */
+    public void record(@NonNull Call call) throws RemoteException {
+        if (mCommitted) {
+            throw new IllegalStateException("The batch has already been committed.");
+        }
+        mRecording = true;
+        try {
+            call.run();
+        } finally {
+            mRecording = false;
+        }
+    }
+
+    boolean isRecording() {
+        return mRecording;
+    }
+
+    void add(@NonNull IBinder target, int code, @NonNull Parcel data, int flags) {
+        Parcel newData = Parcel.obtain();
+        newData.appendFrom(data, 0, data.dataSize());
+        mTargets.add(target);
+        mCodesAndFlags.add(new int[]{code, flags});
+        mData.add(newData);
+    }
+
+    /**
+     * Number of transactions recorded so far
+     */
+    public int size() {
+        return mReplies.size() + mTargets.size();
+    }
+
+    /**
+     * Stop recording and run the recorded transactions.
+     *
+     * @return The replies in the order of the transactions. They are recycled when the batch is closed.
+     * @throws RemoteException If any of the transactions could not be delivered. None of the transactions after it
+     *                         are run.
+     */
+    @NonNull
+    public List<Parcel> commit() throws RemoteException {
+        stopRecording();
+        return commit(ProxyBinder.getPrivilegedService());
+    }
+
+    /**
+     * Same as {@link #commit()}, but also throw the first exception returned by the transactions as AIDL does.
+     */
+    public void commitAndReadExceptions() throws RemoteException {
+        for (Parcel reply : commit()) {
+            reply.readException();
+        }
+    }
+
+    /**
+     * @param service AMService, or {@code null} to run the transactions in this process
+     */
+    @VisibleForTesting
+    @NonNull
+    List<Parcel> commit(@Nullable IBinder service) throws RemoteException {
+        if (mCommitted) {
+            throw new IllegalStateException("The batch has already been committed.");
+        }
+        mCommitted = true;
+        flush(service);
+        return Collections.unmodifiableList(mReplies);
+    }
+
+    /**
+     * Run the transactions recorded so far, because the thread is about to make a transaction whose reply is needed
+     * right away. Their replies are returned by {@link #commit()}.
+     */
+    void flush() throws RemoteException {
+        if (mTargets.isEmpty()) return;
+        flush(ProxyBinder.getPrivilegedService());
+    }
+
+    /**
+     * @param service AMService, or {@code null} to run the transactions in this process
+     */
+    @VisibleForTesting
+    void flush(@Nullable IBinder service) throws RemoteException {
+        try {
+            if (service == null) {
+                // Run unprivileged code as a fallback method
+                for (int i = 0; i < mTargets.size(); ++i) {
+                    Parcel data = mData.get(i);
+                    Parcel reply = Parcel.obtain();
+                    mReplies.add(reply);
+                    data.setDataPosition(0);
+                    mTargets.get(i).transact(mCodesAndFlags.get(i)[0], data, reply, mCodesAndFlags.get(i)[1]);
+                    reply.setDataPosition(0);
+                }
+                return;
+            }
+            // Split the batch to keep each transaction within the binder buffer
+            int start = 0;
+            while (start < mTargets.size()) {
+                int end = start;
+                long size = 0;
+                do {
+                    size += TRANSACTION_HEADER_SIZE + mData.get(end).dataSize();
+                    ++end;
+                } while (end < mTargets.size() && size + TRANSACTION_HEADER_SIZE + mData.get(end).dataSize()
+                        <= MAX_TRANSACTION_SIZE);
+                transact(service, start, end);
+                start = end;
+            }
+        } finally {
+            for (Parcel parcel : mData) {
+                parcel.recycle();
+            }
+            mTargets.clear();
+            mCodesAndFlags.clear();
+            mData.clear();
+        }
+    }
+
+    private void transact(@NonNull IBinder service, int start, int end) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        Parcel reply = Parcel.obtain();
+        try {
+            data.writeInterfaceToken(IRootIPC.class.getName());
+            data.writeInt(end - start);
+            for (int i = start; i < end; ++i) {
+                Parcel transactionData = mData.get(i);
+                data.writeStrongBinder(mTargets.get(i));
+                data.writeInt(mCodesAndFlags.get(i)[0]);
+                data.writeInt(mCodesAndFlags.get(i)[1]);
+                data.writeInt(transactionData.dataSize());
+                data.appendFrom(transactionData, 0, transactionData.dataSize());
+            }
+            service.transact(ProxyBinder.PROXY_BINDER_BATCH_TRANSACT_CODE, data, reply, 0);
+            reply.setDataPosition(0);
+            readReplies(reply, mReplies, end - start);
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+
+    /**
+     * Stop recording and recycle the parcels.
+     */
+    @Override
+    public void close() {
+        stopRecording();
+        for (Parcel parcel : mData) {
+            parcel.recycle();
+        }
+        for (Parcel parcel : mReplies) {
+            parcel.recycle();
+        }
+        mTargets.clear();
+        mCodesAndFlags.clear();
+        mData.clear();
+        mReplies.clear();
+    }
+
+    private void stopRecording() {
+        mRecording = false;
+        if (sCurrentBatch.get() == this) {
+            sCurrentBatch.remove();
+        }
+    }
+
+    /**
+     * Run the transactions written by {@link #flush(IBinder)}, stopping at the first one that could not be delivered.
+     * Called by AMService.
+     */
+    static void replay(@NonNull Parcel data, @NonNull Parcel reply) {
+        int count = data.readInt();
+        for (int i = 0; i < count; ++i) {
+            IBinder target = data.readStrongBinder();
+            int code = data.readInt();
+            int flags = data.readInt();
+            int size = data.readInt();
+            int position = data.dataPosition();
+            Parcel transactionData = Parcel.obtain();
+            Parcel transactionReply = Parcel.obtain();
+            try {
+                transactionData.appendFrom(data, position, size);
+                transactionData.setDataPosition(0);
+                data.setDataPosition(position + size);
+                target.transact(code, transactionData, transactionReply, flags);
+                reply.writeInt(transactionReply.dataSize());
+                reply.appendFrom(transactionReply, 0, transactionReply.dataSize());
+            } catch (RemoteException | RuntimeException e) {
+                reply.writeInt(-1);
+                reply.writeString("Transaction " + i + " of " + count + " failed: " + e);
+                return;
+            } finally {
+                transactionData.recycle();
+                transactionReply.recycle();
+            }
+        }
+    }
+
+    private static void readReplies(@NonNull Parcel reply, @NonNull List<Parcel> replies, int count)
+            throws RemoteException {
+        for (int i = 0; i < count; ++i) {
+            int size = reply.readInt();
+            if (size < 0) {
+                throw new RemoteException(reply.readString());
+            }
+            int position = reply.dataPosition();
+            Parcel transactionReply = Parcel.obtain();
+            replies.add(transactionReply);
+            transactionReply.appendFrom(reply, position, size);
+            transactionReply.setDataPosition(0);
+            reply.setDataPosition(position + size);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import android.os.ServiceManager;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.collection.ArrayMap;
 
 import java.io.FileDescriptor;
@@ -23,6 +24,7 @@ import io.github.muntashirakon.AppManager.utils.AppPref;
 // Copyright 2020 Rikka
 public class ProxyBinder implements IBinder {
     public static final int PROXY_BINDER_TRANSACT_CODE = 2;
+    public static final int PROXY_BINDER_BATCH_TRANSACT_CODE = 3;
 
     private static final Map<String, IBinder> sServiceCache = new ArrayMap<>();
 
@@ -44,27 +46,55 @@ public class ProxyBinder implements IBinder {
 
     @Override
     public boolean transact(int code, @NonNull Parcel data, @Nullable Parcel reply, int flags) throws RemoteException {
-        if (AppPref.isRootOrAdbEnabled()) {
-            if (!LocalServer.isAMServiceAlive()) {
-                throw new RemoteException("Root/ADB enabled but privileged service isn't alive.");
-            }
-            Parcel newData = Parcel.obtain();
-            try {
-                newData.writeInterfaceToken(IRootIPC.class.getName());
-                newData.writeStrongBinder(original);
-                newData.writeInt(code);
-                newData.appendFrom(data, 0, data.dataSize());
-                // Transact via AMService instead of AM
-                IPCUtils.getServiceSafe().asBinder().transact(PROXY_BINDER_TRANSACT_CODE, newData, reply, flags);
-            } finally {
-                newData.recycle();
+        BinderBatch batch = BinderBatch.getCurrent();
+        if (batch != null) {
+            if (batch.isRecording()) {
+                // Deferred until the batch is committed, the reply is left empty
+                batch.add(original, code, data, flags);
+                return true;
             }
+            // The reply is needed right away, so it must follow the recorded transactions
+            batch.flush();
+        }
+        IBinder service = getPrivilegedService();
+        if (service != null) {
+            // Transact via AMService instead of AM
+            transact(service, original, code, data, reply, flags);
             return true;
         }
         // Run unprivileged code as a fallback method
         return original.transact(code, data, reply, flags);
     }
 
+    /**
+     * @return The binder of AMService if the privileged mode is enabled, {@code null} otherwise
+     */
+    @Nullable
+    static IBinder getPrivilegedService() throws RemoteException {
+        if (AppPref.isRootOrAdbEnabled()) {
+            if (!LocalServer.isAMServiceAlive()) {
+                throw new RemoteException("Root/ADB enabled but privileged service isn't alive.");
+            }
+            return IPCUtils.getServiceSafe().asBinder();
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    static void transact(@NonNull IBinder service, @NonNull IBinder target, int code, @NonNull Parcel data,
+                         @Nullable Parcel reply, int flags) throws RemoteException {
+        Parcel newData = Parcel.obtain();
+        try {
+            newData.writeInterfaceToken(IRootIPC.class.getName());
+            newData.writeStrongBinder(target);
+            newData.writeInt(code);
+            newData.appendFrom(data, 0, data.dataSize());
+            service.transact(PROXY_BINDER_TRANSACT_CODE, newData, reply, flags);
+        } finally {
+            newData.recycle();
+        }
+    }
+
     @Nullable
     @Override
     public String getInterfaceDescriptor() {
@@ -86,11 +86,12 @@ import io.github.muntashirakon.AppManager.types.TextInputDialogBuilder;
 import io.github.muntashirakon.AppManager.types.TextInputDropdownDialogBuilder;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.BetterActivityResult;
-import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PermissionUtils;
 import io.github.muntashirakon.AppManager.utils.StoragePermission;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
 import io.github.muntashirakon.AppManager.utils.UiThreadHandler;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 import io.github.muntashirakon.io.Path;
 import me.zhanghai.android.fastscroll.FastScrollerBuilder;
 
@@ -106,9 +107,6 @@ public class LogViewerActivity extends BaseActivity implements FilterListener,
     public static final String EXTRA_FILTER = "filter";
     public static final String EXTRA_LEVEL = "level";
 
-    // how often to check to see if we've gone over the max size
-    private static final int UPDATE_CHECK_INTERVAL = 200;
-
     // how many suggestions to keep in the autosuggestions text
     private static final int MAX_NUM_SUGGESTIONS = 1000;
 
@@ -139,7 +137,7 @@ public class LogViewerActivity extends BaseActivity implements FilterListener,
     private Handler mHandler;
     private SearchView searchView;
 
-    private final MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
     private final BetterActivityResult<Intent, ActivityResult> activityLauncher =
             BetterActivityResult.registerActivityForResult(this);
     private final StoragePermission storagePermission = StoragePermission.init(this);
@@ -890,7 +888,7 @@ public class LogViewerActivity extends BaseActivity implements FilterListener,
 
         if (mCurrentlyOpenLog != null) { // Use saved log file
             try {
-                files.add(SaveLogHelper.getFile(mCurrentlyOpenLog));
+                files.addAll(SaveLogHelper.getLogSegments(mCurrentlyOpenLog));
             } catch (IOException e) {
                 Log.e(TAG, e);
             }
@@ -1067,7 +1065,7 @@ public class LogViewerActivity extends BaseActivity implements FilterListener,
                 progressIndicator.hide();
 
                 for (LogLine logLine : logLines) {
-                    mLogListAdapter.addWithFilter(logLine, "", false);
+                    mLogListAdapter.add(logLine, false);
                     addToAutocompleteSuggestions(logLine);
 
                 }
@@ -1240,7 +1238,6 @@ public class LogViewerActivity extends BaseActivity implements FilterListener,
     private class LogReaderAsyncTask extends AsyncTask<Void, LogLine, Void> {
 
         private final Object mLock = new Object();
-        private int counter = 0;
         private volatile boolean mPaused;
         private boolean mFirstLineReceived;
         private boolean mKilled;
@@ -1334,23 +1331,13 @@ public class LogViewerActivity extends BaseActivity implements FilterListener,
                 progressIndicator.hide();
             }
             for (LogLine logLine : values) {
-                mLogListAdapter.addWithFilter(logLine, mSearchingString, false);
+                mLogListAdapter.add(logLine, false);
 
                 addToAutocompleteSuggestions(logLine);
             }
+            // The adapter drops the oldest lines once the display limit is reached
             mLogListAdapter.notifyDataSetChanged();
 
-            // How many logs to keep in memory, to avoid OutOfMemoryError
-            int maxNumLogLines = AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_DISPLAY_LIMIT_INT);
-
-            // check to see if the list needs to be truncated to avoid out of memory errors
-            if (++counter % UPDATE_CHECK_INTERVAL == 0
-                    && mLogListAdapter.getTrueValues().size() > maxNumLogLines) {
-                int numItemsToRemove = mLogListAdapter.getTrueValues().size() - maxNumLogLines;
-                mLogListAdapter.removeFirst(numItemsToRemove);
-                Log.d(TAG, "Truncating " + numItemsToRemove + " lines from log list to avoid out of memory errors");
-            }
-
             if (mAutoscrollToBottom) {
                 scrollToBottom();
             }
@@ -18,13 +18,13 @@ import androidx.collection.SparseArrayCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogStore;
 import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.utils.AppPref;
@@ -84,154 +84,101 @@ public class LogViewerRecyclerAdapter extends RecyclerView.Adapter<LogViewerRecy
     }
 
     /**
-     * Lock used to modify the content of {@link #mObjects}. Any write operation
-     * performed on the array should be synchronized on this lock. This lock is also
-     * used by the filter (see {@link #getFilter()} to make a synchronized copy of
-     * the original array of data.
+     * Lock used to access {@link #mStore} and {@link #mVisibleSeqs}. The filter holds this lock only
+     * to select the candidate lines, and matches them without it.
      */
     private final Object mLock = new Object();
     /**
-     * Contains the list of objects that represent the data of this ArrayAdapter.
-     * The content of this list is referred to as "the array" in the documentation.
+     * All the lines that are loaded, including the ones that are filtered out.
      */
     @GuardedBy("mLock")
-    private List<LogLine> mObjects;
+    private LogStore mStore;
+    /**
+     * Sequence numbers of the lines in {@link #mStore} that are displayed.
+     */
+    @GuardedBy("mLock")
+    private LogStore.SeqList mVisibleSeqs = new LogStore.SeqList();
+    @GuardedBy("mLock")
+    private int mFilterLogLevel = Integer.MIN_VALUE;
+    @GuardedBy("mLock")
+    private SearchCriteria mSearchCriteria = new SearchCriteria(null);
 
     private ViewHolder.OnClickListener mClickListener;
 
-    private ArrayList<LogLine> mOriginalValues;
     private ArrayFilter mFilter;
 
     private int logLevelLimit = AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_DEFAULT_LOG_LEVEL_INT);
 
     public LogViewerRecyclerAdapter() {
-        mObjects = new ArrayList<>();
+        mStore = newStore();
         setHasStableIds(true);
     }
 
-
     /**
-     * Adds the specified object at the end of the array.
+     * Adds the specified object at the end of the list, and displays it if it matches the current
+     * filter. The oldest object is removed if the display limit has been reached.
      *
-     * @param object The object to add at the end of the array.
+     * @param object The object to add at the end of the list.
      */
     @GuardedBy("mLock")
     public void add(LogLine object, boolean notify) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(object);
-            }
-            mObjects.add(object);
-            if (notify) {
-                notifyItemInserted(mObjects.size());
-            }
-        }
-    }
-
-
-    public void addWithFilter(LogLine object, CharSequence text, boolean notify) {
-        if (mOriginalValues != null) {
-            List<LogLine> inputList = Collections.singletonList(object);
-            if (mFilter == null) {
-                mFilter = new ArrayFilter();
-            }
-            List<LogLine> filteredObjects = mFilter.performFilteringOnList(inputList, text);
-            synchronized (mLock) {
-                mOriginalValues.add(object);
-                mObjects.addAll(filteredObjects);
+            int generation = mStore.getGeneration();
+            int seq = mStore.add(object);
+            if (generation != mStore.getGeneration()) {
+                // Sequence numbers were reassigned
+                refilter();
                 if (notify) {
-                    notifyItemRangeInserted(mObjects.size() - filteredObjects.size(), filteredObjects.size());
+                    notifyDataSetChanged();
                 }
+                return;
             }
-        } else {
-            synchronized (mLock) {
-                mObjects.add(object);
-                if (notify) {
-                    notifyItemInserted(mObjects.size());
+            int removed = mVisibleSeqs.dropBefore(mStore.getFirstSeq());
+            boolean inserted = LogStore.matches(object, mFilterLogLevel, mSearchCriteria);
+            if (inserted) {
+                mVisibleSeqs.add(seq);
+            }
+            if (notify) {
+                if (removed > 0) {
+                    notifyItemRangeRemoved(0, removed);
+                }
+                if (inserted) {
+                    notifyItemInserted(mVisibleSeqs.size() - 1);
                 }
             }
         }
     }
 
     /**
-     * Inserts the specified object at the specified index in the array.
-     *
-     * @param object The object to insert into the array.
-     * @param index  The index at which the object must be inserted.
+     * Remove all elements from the list. The display limit is updated as well.
      */
     @GuardedBy("mLock")
-    public void insert(LogLine object, int index) {
+    public void clear() {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(index, object);
-            } else {
-                mObjects.add(index, object);
-            }
+            mStore = newStore();
+            mVisibleSeqs = new LogStore.SeqList();
             notifyDataSetChanged();
         }
     }
 
-    /**
-     * Removes the specified object from the array.
-     *
-     * @param object The object to remove.
-     */
     @GuardedBy("mLock")
-    public void remove(LogLine object) {
+    public LogLine getItem(int position) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.remove(object);
-            } else {
-                mObjects.remove(object);
-            }
-            notifyDataSetChanged();
-        }
-    }
-
-    public void removeFirst(int n) {
-        StopWatch stopWatch = new StopWatch("removeFirst()");
-        if (mOriginalValues != null) {
-            synchronized (mLock) {
-                List<LogLine> subList = mOriginalValues.subList(n, mOriginalValues.size());
-                for (int i = 0; i < n; i++) {
-                    mObjects.remove(mOriginalValues.get(i));
-                }
-                mOriginalValues = new ArrayList<>(subList);
-            }
-        } else {
-            synchronized (mLock) {
-                mObjects = new ArrayList<>(mObjects.subList(n, mObjects.size()));
-            }
+            return Objects.requireNonNull(mStore.get(mVisibleSeqs.get(position)));
         }
-        notifyDataSetChanged();
-        stopWatch.log();
     }
 
     /**
-     * Remove all elements from the list.
+     * A copy of all the lines that are loaded, including the ones that are filtered out.
      */
     @GuardedBy("mLock")
-    public void clear() {
-        synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.clear();
-            }
-            mObjects.clear();
-            notifyDataSetChanged();
-        }
-    }
-
-    @GuardedBy("mLock")
-    public LogLine getItem(int position) {
+    @NonNull
+    public List<LogLine> getTrueValues() {
         synchronized (mLock) {
-            return mObjects.get(position);
+            return mStore.getAll();
         }
     }
 
-    public List<LogLine> getTrueValues() {
-        return mOriginalValues != null ? mOriginalValues : mObjects;
-    }
-
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -299,7 +246,7 @@ public class LogViewerRecyclerAdapter extends RecyclerView.Adapter<LogViewerRecy
     @Override
     public long getItemId(int position) {
         synchronized (mLock) {
-            return mObjects.get(position).getOriginalLine().hashCode();
+            return mVisibleSeqs.get(position);
         }
     }
 
@@ -307,7 +254,7 @@ public class LogViewerRecyclerAdapter extends RecyclerView.Adapter<LogViewerRecy
     @Override
     public int getItemCount() {
         synchronized (mLock) {
-            return mObjects.size();
+            return mVisibleSeqs.size();
         }
     }
 
@@ -331,77 +278,79 @@ public class LogViewerRecyclerAdapter extends RecyclerView.Adapter<LogViewerRecy
         return mFilter;
     }
 
-    public List<LogLine> getObjects() {
-        return mObjects;
-    }
-
     public void setClickListener(ViewHolder.OnClickListener clickListener) {
         mClickListener = clickListener;
     }
 
+    @GuardedBy("mLock")
+    private void refilter() {
+        int[] seqs = mStore.select(mFilterLogLevel, mSearchCriteria).match();
+        mVisibleSeqs = new LogStore.SeqList(seqs.length);
+        for (int seq : seqs) {
+            mVisibleSeqs.add(seq);
+        }
+    }
+
+    @NonNull
+    private static LogStore newStore() {
+        return new LogStore(AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_DISPLAY_LIMIT_INT), true);
+    }
+
+    private static class FilterResult {
+        final LogStore.Selection selection;
+        final int[] seqs;
+
+        FilterResult(LogStore.Selection selection, int[] seqs) {
+            this.selection = selection;
+            this.seqs = seqs;
+        }
+    }
+
     /**
-     * <p>An array filter constrains the content of the array adapter with
-     * a prefix. Each item that does not start with the supplied prefix
-     * is removed from the list.</p>
+     * Constrains the lines to the ones that match the log level limit and the search criteria. Only
+     * the lines that can match according to the indices of the {@link LogStore} are checked.
      */
     private class ArrayFilter extends Filter {
         @NonNull
         @Override
         protected FilterResults performFiltering(CharSequence prefix) {
-            FilterResults results = new FilterResults();
-
-            if (mOriginalValues == null) {
-                synchronized (mLock) {
-                    mOriginalValues = new ArrayList<>(mObjects);
-                }
-            }
-
-            ArrayList<LogLine> allValues = performFilteringOnList(mOriginalValues, prefix);
-
-            results.values = allValues;
-            results.count = allValues.size();
-
-            return results;
-        }
-
-        public ArrayList<LogLine> performFilteringOnList(List<LogLine> inputList, CharSequence query) {
-            SearchCriteria searchCriteria = new SearchCriteria(query);
-
-            // search by log level
-            ArrayList<LogLine> allValues = new ArrayList<>();
-
-            ArrayList<LogLine> logLines;
+            StopWatch stopWatch = new StopWatch("performFiltering()");
+            SearchCriteria searchCriteria = new SearchCriteria(prefix);
+            LogStore.Selection selection;
             synchronized (mLock) {
-                logLines = new ArrayList<>(inputList);
-            }
-
-            for (LogLine logLine : logLines) {
-                if (logLine != null && logLine.getLogLevel() >= logLevelLimit) {
-                    allValues.add(logLine);
-                }
-            }
-            ArrayList<LogLine> finalValues = allValues;
-
-            // search by criteria
-            if (!searchCriteria.isEmpty()) {
-                final int count = allValues.size();
-                final ArrayList<LogLine> newValues = new ArrayList<>(count);
-                for (final LogLine value : allValues) {
-                    // search the logline based on the criteria
-                    if (searchCriteria.matches(value)) {
-                        newValues.add(value);
-                    }
-                }
-                finalValues = newValues;
+                selection = mStore.select(logLevelLimit, searchCriteria);
             }
-            return finalValues;
+            int[] seqs = selection.match();
+            FilterResults results = new FilterResults();
+            results.values = new FilterResult(selection, seqs);
+            results.count = seqs.length;
+            stopWatch.log();
+            return results;
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
+            FilterResult result = (FilterResult) results.values;
             synchronized (mLock) {
-                mObjects = (List<LogLine>) results.values;
+                mFilterLogLevel = result.selection.getMinLevel();
+                mSearchCriteria = result.selection.getCriteria();
+                if (!result.selection.isValidFor(mStore)) {
+                    // Cleared in the meantime
+                    refilter();
+                } else {
+                    mVisibleSeqs = new LogStore.SeqList(result.seqs.length);
+                    for (int seq : result.seqs) {
+                        mVisibleSeqs.add(seq);
+                    }
+                    // Catch up with the lines that were added or removed in the meantime
+                    mVisibleSeqs.dropBefore(mStore.getFirstSeq());
+                    for (int seq = Math.max(result.selection.getEndSeq(), mStore.getFirstSeq());
+                         seq < mStore.getEndSeq(); ++seq) {
+                        if (LogStore.matches(mStore.get(seq), mFilterLogLevel, mSearchCriteria)) {
+                            mVisibleSeqs.add(seq);
+                        }
+                    }
+                }
             }
             notifyDataSetChanged();
         }
@@ -419,7 +368,9 @@ public class LogViewerRecyclerAdapter extends RecyclerView.Adapter<LogViewerRecy
         }
 
         public void log() {
-            Log.d(TAG, name + " took " + (System.currentTimeMillis() - startTime) + " ms");
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, name + " took " + (System.currentTimeMillis() - startTime) + " ms");
+            }
         }
     }
 
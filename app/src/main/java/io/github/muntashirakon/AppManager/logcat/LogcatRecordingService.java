@@ -20,6 +20,7 @@ import java.util.Random;
 
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
+import io.github.muntashirakon.AppManager.logcat.helper.LogRecordingWriter;
 import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.ServiceHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.WidgetHelper;
@@ -140,14 +141,17 @@ public class LogcatRecordingService extends ForegroundService {
         int logLevel = intent.getIntExtra(EXTRA_LEVEL, AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_DEFAULT_LOG_LEVEL_INT));
         boolean searchCriteriaWillAlwaysMatch = searchCriteria.isEmpty();
         boolean logLevelAcceptsEverything = logLevel == android.util.Log.VERBOSE;
-        StringBuilder stringBuilder = new StringBuilder();
 
+        // Remove the previous recording by this name whether it was compressed or not
         SaveLogHelper.deleteLogIfExists(filename);
-        initializeReader(intent);
+        SaveLogHelper.deleteLogIfExists(filename + LogRecordingWriter.GZIP_EXTENSION);
+        LogRecordingWriter writer = null;
+        boolean logSaved = false;
         try {
+            // Lines are appended to the file as they arrive
+            writer = SaveLogHelper.startRecording(filename);
+            initializeReader(intent);
             String line;
-            int lineCount = 0;
-            int logLinePeriod = AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_WRITE_PERIOD_INT);
             String filterPattern = AppPref.getString(AppPref.PrefKey.PREF_LOG_VIEWER_FILTER_PATTERN_STR);
             while (mReader != null && (line = mReader.readLine()) != null && !mKilled) {
                 // filter
@@ -156,22 +160,27 @@ public class LogcatRecordingService extends ForegroundService {
                         continue;
                     }
                 }
-                stringBuilder.append(line).append("\n");
-                if (++lineCount % logLinePeriod == 0) {
-                    // avoid OutOfMemoryErrors; flush now
-                    SaveLogHelper.saveLog(stringBuilder, filename);
-                    stringBuilder.delete(0, stringBuilder.length()); // clear
-                }
+                writer.write(line);
             }
+            writer.close();
+            logSaved = true;
         } catch (IOException e) {
             Log.e(TAG, e);
         } finally {
             killProcess();
             Log.d(TAG, "Service ended");
-            boolean logSaved = SaveLogHelper.saveLog(stringBuilder, filename);
+            if (writer != null && !logSaved) {
+                try {
+                    // Keep whatever was recorded
+                    writer.close();
+                    logSaved = true;
+                } catch (IOException e) {
+                    Log.e(TAG, e);
+                }
+            }
             if (logSaved) {
                 makeToast(R.string.log_saved, Toast.LENGTH_SHORT);
-                startLogcatActivityToViewSavedFile(filename);
+                startLogcatActivityToViewSavedFile(writer.getFilename());
             } else {
                 makeToast(R.string.unable_to_save_log, Toast.LENGTH_LONG);
             }
@@ -179,6 +188,10 @@ public class LogcatRecordingService extends ForegroundService {
     }
 
     private boolean checkLogLine(String line, SearchCriteria searchCriteria, int logLevel, String filterPattern) {
+        // Only parse the lines that pass the cheap checks
+        if (!LogLine.mayHaveLogLevel(line, logLevel) || !searchCriteria.mayMatch(line)) {
+            return false;
+        }
         LogLine logLine = LogLine.newLogLine(line, false, filterPattern);
         return logLine != null && logLine.getLogLevel() >= logLevel && searchCriteria.matches(logLine);
     }
@@ -0,0 +1,301 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.apache.commons.compress.utils.CountingOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Appends the lines of a recording to a log file through a single open stream. The recording can be
+ * compressed with gzip, and it can be split into segments once the current segment grows beyond a
+ * size or a duration. The first segment has the name of the recording, e.g. {@code a.log}, and the
+ * following segments have {@code .part} and a sequence number appended to it, e.g.
+ * {@code a.log.part1}. If the recording is compressed, {@code .gz} is appended to the name of every
+ * segment, e.g. {@code a.log.gz} and {@code a.log.part1.gz}. The suffix is reserved so that saved
+ * logs that merely end with a number, e.g. {@code boot.2}, are not mistaken for segments.
+ */
+public class LogRecordingWriter implements Closeable {
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final String SEGMENT_SUFFIX = ".part";
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("(.+)\\.part([1-9]\\d*)(\\.gz)?");
+    private static final int BUFFER = 0x2000; // 8K
+
+    /**
+     * Whether the file is a segment of a recording other than the first one. Such files are not
+     * listed as logs of their own.
+     */
+    public static boolean isContinuationSegment(@NonNull String filename) {
+        return SEGMENT_PATTERN.matcher(filename).matches();
+    }
+
+    /**
+     * Get the segments of a recording in the order they were written.
+     *
+     * @param filename Name of the first segment
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Path> getSegments(@NonNull Path directory, @NonNull String filename)
+            throws FileNotFoundException {
+        List<Path> segments = new ArrayList<>();
+        segments.add(directory.findFile(filename));
+        boolean compressed = filename.endsWith(GZIP_EXTENSION);
+        String baseName = compressed ? filename.substring(0, filename.length() - GZIP_EXTENSION.length()) : filename;
+        for (int i = 1; ; ++i) {
+            String segmentName = getSegmentName(baseName, i, compressed);
+            if (!directory.hasFile(segmentName)) break;
+            segments.add(directory.findFile(segmentName));
+        }
+        return segments;
+    }
+
+    /**
+     * Open the segments of a recording as a single decompressed stream.
+     *
+     * @param filename Name of the first segment
+     */
+    @WorkerThread
+    @NonNull
+    public static InputStream openSegments(@NonNull Path directory, @NonNull String filename) throws IOException {
+        List<Path> segments = getSegments(directory, filename);
+        if (segments.size() == 1) {
+            return openSegment(segments.get(0));
+        }
+        return new SegmentsInputStream(segments);
+    }
+
+    /**
+     * Delete all the segments of a recording.
+     *
+     * @param filename Name of the first segment
+     */
+    @WorkerThread
+    public static void deleteSegments(@NonNull Path directory, @NonNull String filename) {
+        try {
+            for (Path segment : getSegments(directory, filename)) {
+                segment.delete();
+            }
+        } catch (FileNotFoundException ignore) {
+        }
+    }
+
+    @NonNull
+    private static InputStream openSegment(@NonNull Path segment) throws IOException {
+        InputStream is = segment.openInputStream();
+        if (segment.getName().endsWith(GZIP_EXTENSION)) {
+            try {
+                return new UnterminatedGzipInputStream(is);
+            } catch (IOException e) {
+                is.close();
+                throw e;
+            }
+        }
+        return is;
+    }
+
+    @NonNull
+    private static String getSegmentName(@NonNull String baseName, int index, boolean compressed) {
+        return baseName + (index == 0 ? "" : SEGMENT_SUFFIX + index) + (compressed ? GZIP_EXTENSION : "");
+    }
+
+    /**
+     * Treats a missing gzip trailer as the end of the stream. This is the case when the recording is
+     * still in progress or was not closed properly. The lines flushed to such a segment can be read.
+     */
+    private static class UnterminatedGzipInputStream extends GZIPInputStream {
+        UnterminatedGzipInputStream(@NonNull InputStream in) throws IOException {
+            super(in, BUFFER);
+        }
+
+        @Override
+        public int read(@NonNull byte[] buf, int off, int len) throws IOException {
+            try {
+                return super.read(buf, off, len);
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Reads the segments one after another, opening each of them once the previous one is exhausted.
+     */
+    private static class SegmentsInputStream extends InputStream {
+        @NonNull
+        private final List<Path> mSegments;
+        private int mNextSegment = 0;
+        @Nullable
+        private InputStream mCurrent;
+
+        SegmentsInputStream(@NonNull List<Path> segments) {
+            mSegments = segments;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (true) {
+                if (mCurrent == null) {
+                    if (mNextSegment == mSegments.size()) return -1;
+                    mCurrent = openSegment(mSegments.get(mNextSegment++));
+                }
+                int read = mCurrent.read(b, off, len);
+                if (read != -1) return read;
+                mCurrent.close();
+                mCurrent = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mNextSegment = mSegments.size();
+            if (mCurrent != null) {
+                mCurrent.close();
+                mCurrent = null;
+            }
+        }
+    }
+
+    @NonNull
+    private final Path mDirectory;
+    @NonNull
+    private final String mBaseName;
+    private final boolean mCompress;
+    private final long mMaxSegmentBytes;
+    private final long mMaxSegmentMillis;
+    private final int mFlushPeriod;
+
+    private int mSegmentIndex = -1;
+    @Nullable
+    private CountingOutputStream mSegmentStream;
+    @Nullable
+    private Writer mWriter;
+    private long mSegmentStartTime;
+    private int mSegmentLines;
+    private int mUnflushedLines;
+
+    /**
+     * @param filename         Name of the recording, without the gzip extension
+     * @param compress         Whether to compress the segments with gzip
+     * @param maxSegmentBytes  Start a new segment once this many (compressed) bytes have been written
+     *                         to the current segment, {@code 0} for no limit
+     * @param maxSegmentMillis Start a new segment once the current segment has been written to for
+     *                         this long, {@code 0} for no limit
+     * @param flushPeriod      Flush the written lines to the file once every this many lines
+     */
+    @WorkerThread
+    public LogRecordingWriter(@NonNull Path directory, @NonNull String filename, boolean compress,
+                              long maxSegmentBytes, long maxSegmentMillis, int flushPeriod) throws IOException {
+        mDirectory = directory;
+        mBaseName = filename;
+        mCompress = compress;
+        mMaxSegmentBytes = maxSegmentBytes;
+        mMaxSegmentMillis = maxSegmentMillis;
+        mFlushPeriod = Math.max(flushPeriod, 1);
+        deleteSegments(directory, getFilename());
+        openNextSegment();
+    }
+
+    /**
+     * Name of the first segment, i.e. the name by which the recording can be opened.
+     */
+    @NonNull
+    public String getFilename() {
+        return getSegmentName(mBaseName, 0, mCompress);
+    }
+
+    public int getSegmentCount() {
+        return mSegmentIndex + 1;
+    }
+
+    @WorkerThread
+    public void write(@NonNull String line) throws IOException {
+        if (mWriter == null) throw new IOException("Recording is closed.");
+        if (mSegmentLines > 0 && isSegmentFull()) {
+            openNextSegment();
+        }
+        mWriter.write(line);
+        mWriter.write('\n');
+        ++mSegmentLines;
+        if (++mUnflushedLines >= mFlushPeriod) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the buffered lines to the file. A compressed segment remains readable up to this point
+     * even if the recording is never closed.
+     */
+    @WorkerThread
+    public void flush() throws IOException {
+        if (mWriter != null) {
+            mWriter.flush();
+        }
+        mUnflushedLines = 0;
+    }
+
+    @WorkerThread
+    @Override
+    public void close() throws IOException {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } finally {
+                mWriter = null;
+                mSegmentStream = null;
+            }
+        }
+    }
+
+    private boolean isSegmentFull() {
+        if (mMaxSegmentBytes > 0 && mSegmentStream != null && mSegmentStream.getBytesWritten() >= mMaxSegmentBytes) {
+            return true;
+        }
+        return mMaxSegmentMillis > 0 && System.currentTimeMillis() - mSegmentStartTime >= mMaxSegmentMillis;
+    }
+
+    private void openNextSegment() throws IOException {
+        close();
+        String segmentName = getSegmentName(mBaseName, ++mSegmentIndex, mCompress);
+        Path segment = mDirectory.createNewFile(segmentName, null);
+        mSegmentStream = new CountingOutputStream(segment.openOutputStream());
+        OutputStream os = mSegmentStream;
+        if (mCompress) {
+            // Sync flush so that everything flushed so far can be decompressed
+            os = new GZIPOutputStream(os, BUFFER, true);
+        }
+        mWriter = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER);
+        mSegmentStartTime = System.currentTimeMillis();
+        mSegmentLines = 0;
+        mUnflushedLines = 0;
+    }
+}
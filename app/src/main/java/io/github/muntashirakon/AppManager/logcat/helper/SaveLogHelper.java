@@ -9,6 +9,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -26,7 +27,6 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -76,10 +76,18 @@ public class SaveLogHelper {
         return getSavedLogsDirectory().findFile(filename);
     }
 
+    /**
+     * Get all the files of a saved log. A recording may have been split into multiple files.
+     */
+    @NonNull
+    public static List<Path> getLogSegments(@NonNull String filename) throws IOException {
+        return LogRecordingWriter.getSegments(getSavedLogsDirectory(), filename);
+    }
+
     public static void deleteLogIfExists(@Nullable String filename) {
         if (filename == null) return;
         try {
-            getSavedLogsDirectory().findFile(filename).delete();
+            LogRecordingWriter.deleteSegments(getSavedLogsDirectory(), filename);
         } catch (IOException ignore) {
         }
     }
@@ -99,7 +107,9 @@ public class SaveLogHelper {
     @NonNull
     public static List<Path> getLogFiles() {
         try {
-            Path[] filesArray = getSavedLogsDirectory().listFiles();
+            // Only the first file of a recording is listed
+            Path[] filesArray = getSavedLogsDirectory().listFiles((dir, name) ->
+                    !LogRecordingWriter.isContinuationSegment(name));
             List<Path> files = new ArrayList<>(Arrays.asList(filesArray));
             Collections.sort(files, (o1, o2) -> Long.compare(o2.lastModified(), o1.lastModified()));
             return files;
@@ -110,23 +120,46 @@ public class SaveLogHelper {
 
     @NonNull
     public static SavedLog openLog(@NonNull String filename, int maxLines) throws IOException {
-        Path logFile = getSavedLogsDirectory().findFile(filename);
-        LinkedList<String> logLines = new LinkedList<>();
-        boolean truncated = false;
-        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(logFile.openInputStream()), BUFFER)) {
-            while (bufferedReader.ready()) {
-                logLines.add(bufferedReader.readLine());
-                if (logLines.size() > maxLines) {
-                    logLines.removeFirst();
-                    truncated = true;
+        // Only the last maxLines lines are kept, older lines are overwritten in place
+        String[] lineRing = new String[Math.max(1, Math.min(maxLines, 1024))];
+        int lineCount = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
+                LogRecordingWriter.openSegments(getSavedLogsDirectory(), filename)), BUFFER)) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                if (lineCount == lineRing.length && lineCount < maxLines) {
+                    lineRing = Arrays.copyOf(lineRing, Math.min(maxLines, lineCount * 2));
                 }
+                lineRing[lineCount % lineRing.length] = line;
+                ++lineCount;
             }
         } catch (IOException e) {
             Log.e(TAG, e);
         }
+        boolean truncated = lineCount > lineRing.length;
+        List<String> logLines = new ArrayList<>(Math.min(lineCount, lineRing.length));
+        for (int i = Math.max(0, lineCount - lineRing.length); i < lineCount; ++i) {
+            logLines.add(lineRing[i % lineRing.length]);
+        }
         return new SavedLog(logLines, truncated);
     }
 
+    /**
+     * Start recording a log. The recording is compressed and split into multiple files as configured.
+     *
+     * @param filename Name of the log, the name of the recording may differ
+     * @see LogRecordingWriter#getFilename()
+     */
+    @WorkerThread
+    @NonNull
+    public static LogRecordingWriter startRecording(@NonNull String filename) throws IOException {
+        return new LogRecordingWriter(getSavedLogsDirectory(), filename,
+                AppPref.getBoolean(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_COMPRESS_BOOL),
+                AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT) * 1024L * 1024L,
+                AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT) * 60_000L,
+                AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_WRITE_PERIOD_INT));
+    }
+
     public static synchronized boolean saveLog(CharSequence logString, String filename) {
         return saveLog(null, logString, filename);
     }
@@ -5,6 +5,7 @@ package io.github.muntashirakon.AppManager.logcat.struct;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.regex.Matcher;
@@ -90,6 +91,28 @@ public class LogLine {
 
     }
 
+    /**
+     * Whether the unparsed line may have the given log level or higher. This is much cheaper than
+     * parsing the line. It only rejects the lines whose log level is found right after the timestamp,
+     * which is where {@link #newLogLine(String, boolean, String)} finds it.
+     */
+    public static boolean mayHaveLogLevel(@NonNull String originalLine, int minLogLevel) {
+        if (originalLine.length() <= TIMESTAMP_LENGTH + 2
+                || !Character.isDigit(originalLine.charAt(0))
+                || originalLine.charAt(TIMESTAMP_LENGTH + 1) != '/'
+                || originalLine.charAt(TIMESTAMP_LENGTH + 2) == '(') {
+            return true;
+        }
+        char logLevelChar = originalLine.charAt(TIMESTAMP_LENGTH);
+        if (!(logLevelChar >= 'A' && logLevelChar <= 'Z') && !(logLevelChar >= 'a' && logLevelChar <= 'z')) {
+            // The pattern may match later in the line
+            return true;
+        }
+        // If the pattern matches at all, it matches here, but the log level may still be replaced with
+        // verbose depending on the output
+        return convertCharToLogLevel(logLevelChar) >= minLogLevel || Log.VERBOSE >= minLogLevel;
+    }
+
     public static int convertCharToLogLevel(char logLevelChar) {
         switch (logLevelChar) {
             case 'A':
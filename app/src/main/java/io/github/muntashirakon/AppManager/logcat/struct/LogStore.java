@@ -0,0 +1,526 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A fixed-capacity ring buffer of parsed log lines. Each line gets an increasing sequence number
+ * when it is added, and the oldest lines are evicted once the buffer is full. The lines are indexed
+ * by level, tag and PID, and optionally by the words they contain, so that a search only has to look
+ * at the lines that can possibly match it.
+ * <p>
+ * Evicting lines does not touch the indices. Stale sequence numbers are skipped when an index is
+ * read, and swept away after every {@code capacity} additions. This class is not thread-safe.
+ */
+public class LogStore {
+    /**
+     * A growable list of ascending sequence numbers that can be cut from the front in amortised
+     * constant time.
+     */
+    public static final class SeqList {
+        private int[] mSeqs;
+        private int mStart;
+        private int mEnd;
+
+        public SeqList() {
+            this(8);
+        }
+
+        public SeqList(int initialCapacity) {
+            mSeqs = new int[Math.max(initialCapacity, 1)];
+        }
+
+        public void add(int seq) {
+            if (mEnd == mSeqs.length) {
+                int size = mEnd - mStart;
+                if (mStart > 0 && size <= mSeqs.length / 2) {
+                    System.arraycopy(mSeqs, mStart, mSeqs, 0, size);
+                } else {
+                    int[] seqs = new int[mSeqs.length * 2];
+                    System.arraycopy(mSeqs, mStart, seqs, 0, size);
+                    mSeqs = seqs;
+                }
+                mStart = 0;
+                mEnd = size;
+            }
+            mSeqs[mEnd++] = seq;
+        }
+
+        public int get(int index) {
+            if (index < 0 || index >= mEnd - mStart) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (mEnd - mStart));
+            }
+            return mSeqs[mStart + index];
+        }
+
+        public int size() {
+            return mEnd - mStart;
+        }
+
+        public boolean isEmpty() {
+            return mStart == mEnd;
+        }
+
+        /**
+         * Remove the sequence numbers less than the given one.
+         *
+         * @return The number of sequence numbers removed
+         */
+        public int dropBefore(int seq) {
+            int start = mStart;
+            while (mStart < mEnd && mSeqs[mStart] < seq) {
+                ++mStart;
+            }
+            return mStart - start;
+        }
+
+        public void clear() {
+            mStart = mEnd = 0;
+        }
+
+        private int last() {
+            return mSeqs[mEnd - 1];
+        }
+    }
+
+    /**
+     * The candidates of a search, taken from the store so that they can be matched without holding
+     * the lock that guards the store.
+     */
+    public static final class Selection {
+        @NonNull
+        private final LogStore mStore;
+        private final int mGeneration;
+        private final int mEndSeq;
+        private final int mMinLevel;
+        @NonNull
+        private final SearchCriteria mCriteria;
+        @NonNull
+        private final int[] mSeqs;
+        @NonNull
+        private final LogLine[] mLines;
+
+        private Selection(@NonNull LogStore store, int minLevel, @NonNull SearchCriteria criteria,
+                          @NonNull int[] seqs, @NonNull LogLine[] lines) {
+            mStore = store;
+            mGeneration = store.mGeneration;
+            mEndSeq = store.mEndSeq;
+            mMinLevel = minLevel;
+            mCriteria = criteria;
+            mSeqs = seqs;
+            mLines = lines;
+        }
+
+        /**
+         * The sequence numbers of the candidates that match the search, in ascending order.
+         */
+        @NonNull
+        public int[] match() {
+            int[] seqs = new int[mSeqs.length];
+            int count = 0;
+            for (int i = 0; i < mSeqs.length; ++i) {
+                if (matches(mLines[i], mMinLevel, mCriteria)) {
+                    seqs[count++] = mSeqs[i];
+                }
+            }
+            return Arrays.copyOf(seqs, count);
+        }
+
+        /**
+         * Lines added at or after this sequence number were not considered.
+         */
+        public int getEndSeq() {
+            return mEndSeq;
+        }
+
+        public int getMinLevel() {
+            return mMinLevel;
+        }
+
+        @NonNull
+        public SearchCriteria getCriteria() {
+            return mCriteria;
+        }
+
+        /**
+         * Whether the sequence numbers of the selection still refer to the same lines in the store.
+         */
+        public boolean isValidFor(@NonNull LogStore store) {
+            return store == mStore && store.mGeneration == mGeneration;
+        }
+    }
+
+    public static boolean matches(@Nullable LogLine logLine, int minLevel, @NonNull SearchCriteria criteria) {
+        return logLine != null && logLine.getLogLevel() >= minLevel && criteria.matches(logLine);
+    }
+
+    private final int mCapacity;
+    private final int mMaxSeq;
+    private final Map<Integer, SeqList> mLevelIndex = new HashMap<>();
+    private final Map<String, SeqList> mTagIndex = new HashMap<>();
+    private final Map<Integer, SeqList> mPidIndex = new HashMap<>();
+    @Nullable
+    private final Map<String, SeqList> mTokenIndex;
+    @NonNull
+    private LogLine[] mLines;
+    private int mFirstSeq;
+    private int mEndSeq;
+    private int mGeneration;
+    private int mAddedSinceSweep;
+
+    /**
+     * @param capacity    Maximum number of lines to keep
+     * @param indexTokens Whether to index the words of each line for text search
+     */
+    public LogStore(int capacity, boolean indexTokens) {
+        this(capacity, indexTokens, Integer.MAX_VALUE);
+    }
+
+    @VisibleForTesting
+    LogStore(int capacity, boolean indexTokens, int maxSeq) {
+        if (capacity <= 0 || maxSeq < 2 * capacity) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mCapacity = capacity;
+        mMaxSeq = maxSeq;
+        mTokenIndex = indexTokens ? new HashMap<>() : null;
+        mLines = new LogLine[Math.min(capacity, 1024)];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int size() {
+        return mEndSeq - mFirstSeq;
+    }
+
+    /**
+     * Sequence number of the oldest line
+     */
+    public int getFirstSeq() {
+        return mFirstSeq;
+    }
+
+    /**
+     * Sequence number of the next line to be added
+     */
+    public int getEndSeq() {
+        return mEndSeq;
+    }
+
+    /**
+     * Changes whenever the existing lines are assigned new sequence numbers.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Add a line, evicting the oldest line if the store is full.
+     *
+     * @return The sequence number of the line
+     */
+    public int add(@NonNull LogLine logLine) {
+        if (mEndSeq == mMaxSeq) {
+            renumber();
+        }
+        if (size() == mCapacity) {
+            // Evict the oldest line, its slot is reused below
+            ++mFirstSeq;
+        } else if (size() == mLines.length) {
+            grow();
+        }
+        int seq = mEndSeq++;
+        mLines[seq % mLines.length] = logLine;
+        index(seq, logLine);
+        if (++mAddedSinceSweep >= mCapacity) {
+            sweep();
+        }
+        return seq;
+    }
+
+    /**
+     * Get the line with the given sequence number, {@code null} if it has been evicted.
+     */
+    @Nullable
+    public LogLine get(int seq) {
+        if (seq < mFirstSeq || seq >= mEndSeq) {
+            return null;
+        }
+        return mLines[seq % mLines.length];
+    }
+
+    /**
+     * Evict the oldest lines.
+     */
+    public void trim(int count) {
+        mFirstSeq += Math.max(0, Math.min(count, size()));
+    }
+
+    public void clear() {
+        mLines = new LogLine[Math.min(mCapacity, 1024)];
+        mFirstSeq = mEndSeq = 0;
+        mAddedSinceSweep = 0;
+        ++mGeneration;
+        clearIndices();
+    }
+
+    /**
+     * All the lines, from the oldest to the newest.
+     */
+    @NonNull
+    public List<LogLine> getAll() {
+        List<LogLine> logLines = new ArrayList<>(size());
+        for (int seq = mFirstSeq; seq < mEndSeq; ++seq) {
+            logLines.add(mLines[seq % mLines.length]);
+        }
+        return logLines;
+    }
+
+    /**
+     * Find the lines that can match the given level and criteria, using the narrowest of the indices
+     * that apply. The result has to be confirmed by {@link Selection#match()}.
+     */
+    @NonNull
+    public Selection select(int minLevel, @NonNull SearchCriteria criteria) {
+        List<SeqList> bestLists = null;
+        int bestCount = size();
+        // Log level
+        List<SeqList> lists = new ArrayList<>();
+        int count = 0;
+        for (Map.Entry<Integer, SeqList> entry : mLevelIndex.entrySet()) {
+            if (entry.getKey() >= minLevel) {
+                count += addLive(lists, entry.getValue());
+            }
+        }
+        if (count < bestCount) {
+            bestLists = lists;
+            bestCount = count;
+        }
+        // PID
+        if (criteria.getPid() != -1) {
+            lists = new ArrayList<>(1);
+            count = addLive(lists, mPidIndex.get(criteria.getPid()));
+            if (count < bestCount) {
+                bestLists = lists;
+                bestCount = count;
+            }
+        }
+        // Tag
+        String tag = criteria.getTag();
+        if (tag != null && !tag.isEmpty()) {
+            tag = tag.toLowerCase(Locale.ROOT);
+            lists = new ArrayList<>();
+            count = 0;
+            for (Map.Entry<String, SeqList> entry : mTagIndex.entrySet()) {
+                if (entry.getKey().toLowerCase(Locale.ROOT).contains(tag)) {
+                    count += addLive(lists, entry.getValue());
+                }
+            }
+            if (count < bestCount) {
+                bestLists = lists;
+                bestCount = count;
+            }
+        }
+        // Text
+        String word = mTokenIndex != null ? getLongestWord(criteria.getSearchText()) : null;
+        if (word != null) {
+            lists = new ArrayList<>();
+            count = 0;
+            for (Map.Entry<String, SeqList> entry : mTokenIndex.entrySet()) {
+                if (entry.getKey().contains(word)) {
+                    count += addLive(lists, entry.getValue());
+                }
+            }
+            if (criteria.getSearchTextAsInt() != -1) {
+                // A number also matches the PID
+                count += addLive(lists, mPidIndex.get(criteria.getSearchTextAsInt()));
+            }
+            if (count < bestCount) {
+                bestLists = lists;
+                bestCount = count;
+            }
+        }
+        int[] seqs;
+        if (bestLists == null) {
+            // No index helps, consider every line
+            seqs = new int[size()];
+            for (int i = 0; i < seqs.length; ++i) {
+                seqs[i] = mFirstSeq + i;
+            }
+        } else seqs = union(bestLists, bestCount);
+        LogLine[] logLines = new LogLine[seqs.length];
+        for (int i = 0; i < seqs.length; ++i) {
+            logLines[i] = mLines[seqs[i] % mLines.length];
+        }
+        return new Selection(this, minLevel, criteria, seqs, logLines);
+    }
+
+    @VisibleForTesting
+    int getTokenCount() {
+        return mTokenIndex != null ? mTokenIndex.size() : 0;
+    }
+
+    private void index(int seq, @NonNull LogLine logLine) {
+        addToIndex(mLevelIndex, logLine.getLogLevel(), seq);
+        if (logLine.getTag() != null) {
+            addToIndex(mTagIndex, logLine.getTag(), seq);
+        }
+        if (logLine.getProcessId() != -1) {
+            addToIndex(mPidIndex, logLine.getProcessId(), seq);
+        }
+        if (mTokenIndex != null) {
+            indexWords(logLine.getTag(), seq);
+            indexWords(logLine.getLogOutput(), seq);
+        }
+    }
+
+    private void indexWords(@Nullable String text, int seq) {
+        if (text == null || mTokenIndex == null) return;
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; ++i) {
+            if (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start == -1) start = i;
+            } else if (start != -1) {
+                addToIndex(mTokenIndex, text.substring(start, i).toLowerCase(Locale.ROOT), seq);
+                start = -1;
+            }
+        }
+    }
+
+    private static <K> void addToIndex(@NonNull Map<K, SeqList> index, @NonNull K key, int seq) {
+        SeqList seqList = index.get(key);
+        if (seqList == null) {
+            seqList = new SeqList(4);
+            index.put(key, seqList);
+        } else if (!seqList.isEmpty() && seqList.last() == seq) {
+            // The same word occurs more than once in the line
+            return;
+        }
+        seqList.add(seq);
+    }
+
+    private int addLive(@NonNull List<SeqList> lists, @Nullable SeqList seqList) {
+        if (seqList == null) return 0;
+        seqList.dropBefore(mFirstSeq);
+        if (seqList.isEmpty()) return 0;
+        lists.add(seqList);
+        return seqList.size();
+    }
+
+    /**
+     * Drop the evicted lines from all the indices. Performed once every {@code capacity} additions
+     * so that the indices do not grow with the number of lines that have ever been added.
+     */
+    private void sweep() {
+        mAddedSinceSweep = 0;
+        sweep(mLevelIndex);
+        sweep(mTagIndex);
+        sweep(mPidIndex);
+        if (mTokenIndex != null) {
+            sweep(mTokenIndex);
+        }
+    }
+
+    private <K> void sweep(@NonNull Map<K, SeqList> index) {
+        Iterator<SeqList> it = index.values().iterator();
+        while (it.hasNext()) {
+            SeqList seqList = it.next();
+            seqList.dropBefore(mFirstSeq);
+            if (seqList.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void grow() {
+        LogLine[] lines = new LogLine[Math.min(mCapacity, mLines.length * 2)];
+        for (int seq = mFirstSeq; seq < mEndSeq; ++seq) {
+            lines[seq % lines.length] = mLines[seq % mLines.length];
+        }
+        mLines = lines;
+    }
+
+    /**
+     * Assign new sequence numbers starting from zero once they are about to overflow.
+     */
+    private void renumber() {
+        List<LogLine> logLines = getAll();
+        clear();
+        for (LogLine logLine : logLines) {
+            add(logLine);
+        }
+    }
+
+    private void clearIndices() {
+        mLevelIndex.clear();
+        mTagIndex.clear();
+        mPidIndex.clear();
+        if (mTokenIndex != null) {
+            mTokenIndex.clear();
+        }
+    }
+
+    /**
+     * Every line that contains the search text contains its longest run of letters and digits
+     * within one of its words.
+     */
+    @Nullable
+    private static String getLongestWord(@NonNull String searchText) {
+        int bestStart = 0;
+        int bestEnd = 0;
+        int start = -1;
+        int length = searchText.length();
+        for (int i = 0; i <= length; ++i) {
+            char c = i < length ? searchText.charAt(i) : ' ';
+            if (c >= 0x80) {
+                // Lower-casing non-ASCII text may not preserve word boundaries
+                return null;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (start == -1) start = i;
+            } else if (start != -1) {
+                if (i - start > bestEnd - bestStart) {
+                    bestStart = start;
+                    bestEnd = i;
+                }
+                start = -1;
+            }
+        }
+        return bestEnd > bestStart ? searchText.substring(bestStart, bestEnd) : null;
+    }
+
+    @NonNull
+    private static int[] union(@NonNull List<SeqList> lists, int count) {
+        int[] seqs = new int[count];
+        int position = 0;
+        for (SeqList seqList : lists) {
+            System.arraycopy(seqList.mSeqs, seqList.mStart, seqs, position, seqList.size());
+            position += seqList.size();
+        }
+        if (lists.size() == 1) {
+            return seqs;
+        }
+        Arrays.sort(seqs);
+        int unique = 0;
+        for (int i = 0; i < seqs.length; ++i) {
+            if (i == 0 || seqs[i] != seqs[i - 1]) {
+                seqs[unique++] = seqs[i];
+            }
+        }
+        return unique == seqs.length ? seqs : Arrays.copyOf(seqs, unique);
+    }
+}
@@ -4,6 +4,7 @@ package io.github.muntashirakon.AppManager.logcat.struct;
 
 import android.text.TextUtils;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.Locale;
@@ -22,6 +23,7 @@ public class SearchCriteria {
     private int pid = -1;
     private String tag;
     private final String searchText;
+    private final String searchTextLowerCase;
     private int searchTextAsInt = -1;
 
     public SearchCriteria(@Nullable CharSequence inputQuery) {
@@ -52,12 +54,34 @@ public class SearchCriteria {
         }
         // Everything else becomes a search term
         searchText = query.toString().trim();
+        searchTextLowerCase = searchText.toLowerCase(Locale.ROOT);
         try {
             searchTextAsInt = Integer.parseInt(searchText);
         } catch (NumberFormatException ignore) {
         }
     }
 
+    public int getPid() {
+        return pid;
+    }
+
+    @Nullable
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * The search term in lower case
+     */
+    @NonNull
+    public String getSearchText() {
+        return searchTextLowerCase;
+    }
+
+    public int getSearchTextAsInt() {
+        return searchTextAsInt;
+    }
+
     public boolean isEmpty() {
         return pid == -1 && TextUtils.isEmpty(tag) && TextUtils.isEmpty(searchText);
     }
@@ -73,11 +97,46 @@ public class SearchCriteria {
         return checkFoundText(logLine);
     }
 
+    /**
+     * Whether the unparsed log line may match the criteria. This is much cheaper than parsing the
+     * line, and never rejects a line that {@link #matches(LogLine)} accepts once it is parsed.
+     */
+    public boolean mayMatch(@NonNull String originalLine) {
+        if (pid != -1 && !originalLine.contains(Integer.toString(pid))) {
+            return false;
+        }
+        if (!TextUtils.isEmpty(tag) && !mayContain(originalLine, tag.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        // A number may match the PID instead, and the output may be altered when sensitive info is omitted
+        return TextUtils.isEmpty(searchText) || searchTextAsInt != -1 || LogLine.omitSensitiveInfo
+                || mayContain(originalLine, searchTextLowerCase);
+    }
+
+    /**
+     * Whether the lower-cased text may contain the lower-cased term, without lower-casing the text.
+     */
+    private static boolean mayContain(@NonNull String text, @NonNull String lowerCaseTerm) {
+        int length = lowerCaseTerm.length();
+        for (int i = 0; i < length; ++i) {
+            if (lowerCaseTerm.charAt(i) >= 0x80) {
+                // Lower-casing non-ASCII characters may change the length of the text
+                return true;
+            }
+        }
+        for (int i = 0, last = text.length() - length; i <= last; ++i) {
+            if (text.regionMatches(true, i, lowerCaseTerm, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean checkFoundText(LogLine logLine) {
         return TextUtils.isEmpty(searchText)
                 || (searchTextAsInt != -1 && searchTextAsInt == logLine.getProcessId())
-                || (logLine.getTag() != null && logLine.getTag().toLowerCase(Locale.ROOT).contains(searchText.toLowerCase(Locale.ROOT)))
-                || (logLine.getLogOutput() != null && logLine.getLogOutput().toLowerCase(Locale.ROOT).contains(searchText.toLowerCase(Locale.ROOT)));
+                || (logLine.getTag() != null && logLine.getTag().toLowerCase(Locale.ROOT).contains(searchTextLowerCase))
+                || (logLine.getLogOutput() != null && logLine.getLogOutput().toLowerCase(Locale.ROOT).contains(searchTextLowerCase));
     }
 
     private boolean checkFoundTag(LogLine logLine) {
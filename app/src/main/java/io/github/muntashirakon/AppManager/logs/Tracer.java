@@ -0,0 +1,392 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logs;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.JsonWriter;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.AppManager;
+
+/**
+ * Records the timings of an operation as nested spans, and writes them as a trace in the Chrome trace event format
+ * which can be opened in Perfetto (ui.perfetto.dev) or chrome://tracing. Spans nest by their timings on each thread.
+ * <p>
+ * Spans can be begun everywhere: when no trace is being recorded, {@link #begin(String, String)} returns a no-op span
+ * without allocating anything.
+ * <p>
+ * Only the thread that started the trace records spans, so that unrelated work running at the same time, such as
+ * loading the main list, is not included. Tasks run on other threads are recorded if they are wrapped with
+ * {@link #wrap(Runnable)}, which {@link io.github.muntashirakon.AppManager.utils.TaskScope TaskScope} does for every
+ * task submitted to it.
+ * <pre>
+ * try (Tracer.Span span = Tracer.begin("tar", "create", packageName)) {
+ *     span.addBytes(FileUtils.copy(is, os));
+ * }
+ * </pre>
+ */
+@AnyThread
+public final class Tracer {
+    public static final String TAG = Tracer.class.getSimpleName();
+
+    public static final String TRACES_DIR = "traces";
+
+    // 64 bytes or so per span
+    private static final int MAX_SPANS = 200_000;
+    private static final int MAX_TRACE_FILES = 10;
+
+    // The trace being recorded, at most one at a time
+    @Nullable
+    private static volatile Session sSession;
+    // The trace the current thread records to
+    private static final ThreadLocal<Session> sThreadSession = new ThreadLocal<>();
+
+    public static final class Span implements Closeable {
+        private static final Span NOOP = new Span(null, "", "", null);
+
+        @Nullable
+        private final Session mSession;
+        @NonNull
+        private final String mCategory;
+        @NonNull
+        private final String mName;
+        @Nullable
+        private final String mPackageName;
+        private final long mStartNanos;
+        private final long mThreadId;
+        private long mEndNanos;
+        private boolean mClosed;
+        private long mBytes = -1;
+        @Nullable
+        private Map<String, Object> mArgs;
+
+        private Span(@Nullable Session session, @NonNull String category, @NonNull String name,
+                     @Nullable String packageName) {
+            mSession = session;
+            mCategory = category;
+            mName = name;
+            mPackageName = packageName;
+            mThreadId = session != null ? session.registerThread() : 0;
+            mStartNanos = session != null ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Whether this span is being recorded. Useful when the arguments of the span are expensive to compute.
+         */
+        public boolean isRecording() {
+            return mSession != null;
+        }
+
+        /**
+         * Add to the number of bytes processed in this span. The data rate is calculated from it. Must be called from
+         * the thread that began the span.
+         */
+        public void addBytes(long bytes) {
+            if (mSession == null) return;
+            mBytes = mBytes < 0 ? bytes : mBytes + bytes;
+        }
+
+        /**
+         * Add an argument which is displayed along with the span. Must be called from the thread that began the span.
+         */
+        public void setArg(@NonNull String key, @Nullable Object value) {
+            if (mSession == null) return;
+            if (mArgs == null) mArgs = new LinkedHashMap<>();
+            mArgs.put(key, value);
+        }
+
+        @Override
+        public void close() {
+            if (mSession == null || mClosed) return;
+            mClosed = true;
+            mEndNanos = System.nanoTime();
+            mSession.add(this);
+        }
+    }
+
+    private static class Session {
+        @NonNull
+        final String name;
+        final long startNanos = System.nanoTime();
+        final long startTime = System.currentTimeMillis();
+        final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<>();
+        final AtomicInteger spanCount = new AtomicInteger();
+        // Thread ID => Thread name
+        final Map<Long, String> threadNames = new HashMap<>();
+
+        Session(@NonNull String name) {
+            this.name = name;
+        }
+
+        long registerThread() {
+            Thread thread = Thread.currentThread();
+            long threadId = thread.getId();
+            synchronized (threadNames) {
+                if (!threadNames.containsKey(threadId)) {
+                    threadNames.put(threadId, thread.getName());
+                }
+            }
+            return threadId;
+        }
+
+        void add(@NonNull Span span) {
+            // The spans that do not fit are dropped, but they are still counted
+            if (spanCount.incrementAndGet() <= MAX_SPANS) {
+                spans.add(span);
+            }
+        }
+    }
+
+    /**
+     * Start recording a trace in the current thread.
+     *
+     * @param name Name of the trace, e.g. the name of the operation
+     * @return {@code true} if the recording has been started, {@code false} if another trace is being recorded
+     */
+    public static synchronized boolean start(@NonNull String name) {
+        if (sSession != null) {
+            return false;
+        }
+        Session session = new Session(name);
+        sSession = session;
+        sThreadSession.set(session);
+        return true;
+    }
+
+    /**
+     * Whether the current thread is recording a trace.
+     */
+    public static boolean isEnabled() {
+        return getThreadSession() != null;
+    }
+
+    /**
+     * Wrap a task so that it records to the trace of the current thread in whichever thread it runs. The task is
+     * returned as is if the current thread is not recording.
+     */
+    @NonNull
+    public static Runnable wrap(@NonNull Runnable task) {
+        Session session = getThreadSession();
+        if (session == null) {
+            return task;
+        }
+        return () -> {
+            Session previousSession = sThreadSession.get();
+            sThreadSession.set(session);
+            try {
+                task.run();
+            } finally {
+                sThreadSession.set(previousSession);
+            }
+        };
+    }
+
+    /**
+     * @see #wrap(Runnable)
+     */
+    @NonNull
+    public static <T> Callable<T> wrap(@NonNull Callable<T> task) {
+        Session session = getThreadSession();
+        if (session == null) {
+            return task;
+        }
+        return () -> {
+            Session previousSession = sThreadSession.get();
+            sThreadSession.set(session);
+            try {
+                return task.call();
+            } finally {
+                sThreadSession.set(previousSession);
+            }
+        };
+    }
+
+    /**
+     * Stop recording the trace and write it to the {@link #TRACES_DIR} directory in the files directory of the app.
+     * Only the last few traces are kept.
+     *
+     * @return The trace file, or {@code null} if no trace was being recorded or it could not be written
+     */
+    @WorkerThread
+    @Nullable
+    public static File stop() {
+        Session session;
+        synchronized (Tracer.class) {
+            session = sSession;
+            sSession = null;
+        }
+        sThreadSession.remove();
+        if (session == null) {
+            return null;
+        }
+        File tracesDir = getTracesDir(AppManager.getContext());
+        if (!tracesDir.isDirectory() && !tracesDir.mkdirs()) {
+            Log.e(TAG, "Could not create " + tracesDir);
+            return null;
+        }
+        String date = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ROOT).format(new Date(session.startTime));
+        File traceFile = new File(tracesDir, session.name.replaceAll("[^\\w.-]", "_") + "_" + date
+                + ".json");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(traceFile),
+                StandardCharsets.UTF_8))) {
+            write(session, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + traceFile, e);
+            return null;
+        }
+        deleteOldTraces(tracesDir);
+        return traceFile;
+    }
+
+    /**
+     * Begin a span. It has to be closed in the thread that began it.
+     *
+     * @param category Category of the span, e.g. backup, tar or installer
+     * @param name     Name of the span, e.g. the phase of an operation
+     */
+    @NonNull
+    public static Span begin(@NonNull String category, @NonNull String name) {
+        return begin(category, name, null);
+    }
+
+    /**
+     * Begin a span for a package. It has to be closed in the thread that began it.
+     *
+     * @param category    Category of the span, e.g. backup, tar or installer
+     * @param name        Name of the span, e.g. the phase of an operation
+     * @param packageName Name of the package the span belongs to
+     */
+    @NonNull
+    public static Span begin(@NonNull String category, @NonNull String name, @Nullable String packageName) {
+        Session session = getThreadSession();
+        if (session == null) {
+            return Span.NOOP;
+        }
+        return new Span(session, category, name, packageName);
+    }
+
+    @Nullable
+    private static Session getThreadSession() {
+        Session session = sSession;
+        // Avoid looking up the thread-local if nothing is being recorded
+        if (session == null || sThreadSession.get() != session) {
+            return null;
+        }
+        return session;
+    }
+
+    @NonNull
+    public static File getTracesDir(@NonNull Context context) {
+        File filesDir = context.getExternalFilesDir(null);
+        if (filesDir == null || !filesDir.canWrite()) {
+            filesDir = context.getFilesDir();
+        }
+        return new File(filesDir, TRACES_DIR);
+    }
+
+    private static void write(@NonNull Session session, @NonNull Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        int pid = Process.myPid();
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("otherData").beginObject()
+                .name("name").value(session.name)
+                .name("startTime").value(session.startTime)
+                .name("spanCount").value(session.spanCount.get())
+                .name("droppedSpanCount").value(Math.max(0, session.spanCount.get() - MAX_SPANS))
+                .endObject();
+        writer.name("traceEvents").beginArray();
+        // Thread names
+        List<Map.Entry<Long, String>> threads;
+        synchronized (session.threadNames) {
+            threads = new ArrayList<>(session.threadNames.entrySet());
+        }
+        for (Map.Entry<Long, String> thread : threads) {
+            writer.beginObject()
+                    .name("name").value("thread_name")
+                    .name("ph").value("M")
+                    .name("pid").value(pid)
+                    .name("tid").value(thread.getKey())
+                    .name("args").beginObject().name("name").value(thread.getValue()).endObject()
+                    .endObject();
+        }
+        // Spans as complete events, sorted by their start times
+        Span[] spans = session.spans.toArray(new Span[0]);
+        Arrays.sort(spans, (o1, o2) -> Long.compare(o1.mStartNanos, o2.mStartNanos));
+        for (Span span : spans) {
+            long durationNanos = span.mEndNanos - span.mStartNanos;
+            writer.beginObject()
+                    .name("name").value(span.mName)
+                    .name("cat").value(span.mCategory)
+                    .name("ph").value("X")
+                    .name("ts").value((span.mStartNanos - session.startNanos) / 1000d)
+                    .name("dur").value(durationNanos / 1000d)
+                    .name("pid").value(pid)
+                    .name("tid").value(span.mThreadId);
+            writer.name("args").beginObject();
+            if (span.mPackageName != null) {
+                writer.name("package").value(span.mPackageName);
+            }
+            if (span.mBytes >= 0) {
+                writer.name("bytes").value(span.mBytes);
+                if (durationNanos > 0) {
+                    writer.name("MB/s").value(span.mBytes * 1000d / durationNanos);
+                }
+            }
+            if (span.mArgs != null) {
+                for (Map.Entry<String, Object> arg : span.mArgs.entrySet()) {
+                    Object value = arg.getValue();
+                    writer.name(arg.getKey());
+                    if (value instanceof Number) {
+                        writer.value((Number) value);
+                    } else if (value instanceof Boolean) {
+                        writer.value((Boolean) value);
+                    } else writer.value(String.valueOf(value));
+                }
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static void deleteOldTraces(@NonNull File tracesDir) {
+        File[] traceFiles = tracesDir.listFiles((dir, name) -> name.endsWith(".json"));
+        if (traceFiles == null || traceFiles.length <= MAX_TRACE_FILES) {
+            return;
+        }
+        Arrays.sort(traceFiles, (o1, o2) -> Long.compare(o2.lastModified(), o1.lastModified()));
+        for (int i = MAX_TRACE_FILES; i < traceFiles.length; ++i) {
+            //noinspection ResultOfMethodCallIgnored
+            traceFiles[i].delete();
+        }
+    }
+}
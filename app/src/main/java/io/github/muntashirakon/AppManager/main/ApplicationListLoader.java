@@ -0,0 +1,429 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.main;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.backup.BackupUtils;
+import io.github.muntashirakon.AppManager.db.entity.App;
+import io.github.muntashirakon.AppManager.db.entity.Backup;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
+import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
+import io.github.muntashirakon.AppManager.users.Users;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+import io.github.muntashirakon.AppManager.utils.PackageUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
+
+import static io.github.muntashirakon.AppManager.utils.PackageUtils.flagDisabledComponents;
+import static io.github.muntashirakon.AppManager.utils.PackageUtils.flagMatchUninstalled;
+import static io.github.muntashirakon.AppManager.utils.PackageUtils.flagSigningInfo;
+
+/**
+ * Load the installed and backed up applications, and store them in the database. The list is published in stages so
+ * that it can be displayed long before all the applications are loaded:
+ * <ol>
+ *     <li>{@link #STAGE_CACHED}: The applications and backups stored in the database.</li>
+ *     <li>{@link #STAGE_INSTALLED}: The applications installed now. Only the attributes that come with the list of
+ *     packages are loaded, the rest are taken from the database if the application hasn't been updated since.</li>
+ *     <li>{@link #STAGE_ENRICHING}: The labels, signers, tracker and rule counts are being loaded. The list is
+ *     published at regular intervals until they are all loaded.</li>
+ *     <li>{@link #STAGE_COMPLETE}: All the attributes as well as the backups are loaded.</li>
+ * </ol>
+ * The packages of the users are listed in parallel. A loader can only be used once.
+ */
+@WorkerThread
+public final class ApplicationListLoader {
+    public static final String TAG = ApplicationListLoader.class.getSimpleName();
+
+    @IntDef({STAGE_CACHED, STAGE_INSTALLED, STAGE_ENRICHING, STAGE_COMPLETE})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Stage {
+    }
+
+    public static final int STAGE_CACHED = 0;
+    public static final int STAGE_INSTALLED = 1;
+    public static final int STAGE_ENRICHING = 2;
+    public static final int STAGE_COMPLETE = 3;
+
+    public interface Listener {
+        /**
+         * Called each time a newer version of the list is available. The calls are made one at a time, but not
+         * necessarily from the same thread.
+         */
+        @WorkerThread
+        void onLoaded(@NonNull List<ApplicationItem> applicationItems, @Stage int stage);
+    }
+
+    /**
+     * The sources of the applications and where they are stored
+     */
+    @VisibleForTesting
+    interface Backend {
+        @NonNull
+        List<App> getCachedApps();
+
+        @NonNull
+        Map<String, Backup> getCachedBackups();
+
+        /**
+         * Scan the backups and store them in the database.
+         */
+        @NonNull
+        Map<String, Backup> loadBackups() throws IOException;
+
+        @NonNull
+        int[] getUserIds();
+
+        @NonNull
+        List<PackageInfo> getInstalledPackages(int flags, int userId) throws RemoteException;
+
+        /**
+         * Create an app with all the attributes except the rules count.
+         */
+        @NonNull
+        App getApp(@NonNull PackageInfo packageInfo);
+
+        int getRulesCount(@NonNull String packageName, int userId);
+
+        void storeApps(@NonNull List<App> apps);
+    }
+
+    private static class SystemBackend implements Backend {
+        @NonNull
+        private final Context mContext;
+
+        private SystemBackend(@NonNull Context context) {
+            mContext = context;
+        }
+
+        @NonNull
+        @Override
+        public List<App> getCachedApps() {
+            return AppManager.getDb().appDao().getAll();
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Backup> getCachedBackups() {
+            return BackupUtils.getAllLatestBackupMetadataFromDb();
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Backup> loadBackups() throws IOException {
+            return BackupUtils.storeAllAndGetLatestBackupMetadata();
+        }
+
+        @NonNull
+        @Override
+        public int[] getUserIds() {
+            return Users.getUsersIds();
+        }
+
+        @NonNull
+        @Override
+        public List<PackageInfo> getInstalledPackages(int flags, int userId) throws RemoteException {
+            // The list displays the stopped state, which changes without a broadcast
+            return PackageManagerCompat.getInstalledPackagesUncached(flags, userId);
+        }
+
+        @NonNull
+        @Override
+        public App getApp(@NonNull PackageInfo packageInfo) {
+            return App.fromPackageInfo(mContext, packageInfo);
+        }
+
+        @Override
+        public int getRulesCount(@NonNull String packageName, int userId) {
+            try (ComponentsBlocker cb = ComponentsBlocker.getInstance(packageName, userId, true)) {
+                return cb.entryCount();
+            }
+        }
+
+        @Override
+        public void storeApps(@NonNull List<App> apps) {
+            PackageUtils.updateAppTableAndNotify(mContext, apps);
+        }
+    }
+
+    /**
+     * Minimum interval between two lists published while the applications are being enriched
+     */
+    @VisibleForTesting
+    static final long PUBLISH_INTERVAL_MILLIS = 300;
+
+    /**
+     * Flags for the list of packages that can be fetched quickly
+     */
+    private static final int BASIC_FLAGS = flagMatchUninstalled;
+    private static final int FULL_FLAGS = flagSigningInfo | PackageManager.GET_ACTIVITIES
+            | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS | PackageManager.GET_SERVICES
+            | flagDisabledComponents | flagMatchUninstalled;
+
+    @NonNull
+    private final Backend mBackend;
+    private final boolean mLoadBackups;
+    private final int mParallelism;
+    private final Object mPublishLock = new Object();
+    private final AtomicLong mNextPublishTime = new AtomicLong();
+    // Apps by package name and user ID, see App#equals()
+    @GuardedBy("mApps")
+    private final Map<App, App> mApps = new LinkedHashMap<>();
+    @NonNull
+    private volatile Map<String, Backup> mBackups = Collections.emptyMap();
+    @Nullable
+    private Listener mListener;
+    private long mStartTime;
+
+    /**
+     * @param loadBackups Scan the backups instead of using the ones stored in the database
+     */
+    public ApplicationListLoader(@NonNull Context context, boolean loadBackups) {
+        this(new SystemBackend(context.getApplicationContext()), loadBackups, MultithreadedExecutor.getThreadCount());
+    }
+
+    @VisibleForTesting
+    ApplicationListLoader(@NonNull Backend backend, boolean loadBackups, int parallelism) {
+        mBackend = backend;
+        mLoadBackups = loadBackups;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Load the applications and store them in the database.
+     *
+     * @param listener Listener to publish the list to, or {@code null} if only the database has to be updated, in
+     *                 which case the earlier stages are skipped
+     */
+    public void load(@Nullable Listener listener) {
+        mListener = listener;
+        mStartTime = System.nanoTime();
+        mBackups = mBackend.getCachedBackups();
+        int[] userIds = mBackend.getUserIds();
+        if (listener != null) {
+            List<App> cachedApps = mBackend.getCachedApps();
+            if (!cachedApps.isEmpty() || !mBackups.isEmpty()) {
+                publish(cachedApps, STAGE_CACHED);
+            }
+            // Interrupt thread on request
+            if (Thread.currentThread().isInterrupted()) return;
+            loadInstalledApps(userIds, cachedApps);
+            if (Thread.currentThread().isInterrupted()) return;
+            publish(getApps(), STAGE_INSTALLED);
+            mNextPublishTime.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MILLIS));
+        }
+        // Enrich the apps in the order they are listed
+        TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, mParallelism);
+        List<App> newApps = new ArrayList<>();
+        try {
+            Future<Map<String, Backup>> backupsResult = null;
+            if (mLoadBackups) {
+                backupsResult = executor.submit(mBackend::loadBackups);
+            }
+            List<App[]> userApps = new ArrayList<>(userIds.length);
+            for (List<PackageInfo> packageInfoList : getInstalledPackages(FULL_FLAGS, userIds)) {
+                App[] apps = new App[packageInfoList.size()];
+                userApps.add(apps);
+                for (int i = 0; i < apps.length; ++i) {
+                    PackageInfo packageInfo = packageInfoList.get(i);
+                    int index = i;
+                    executor.submit(() -> {
+                        apps[index] = enrich(packageInfo);
+                    });
+                }
+            }
+            if (backupsResult != null) {
+                try {
+                    mBackups = executor.await(backupsResult);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Could not load backups", e);
+                }
+            }
+            // The loader itself may run in a worker of the same lane
+            executor.runAndAwaitCompletion();
+            if (Thread.currentThread().isInterrupted()) return;
+            for (App[] apps : userApps) {
+                for (App app : apps) {
+                    if (app != null) newApps.add(app);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+        // Add rest of the backup items, i.e., items that aren't installed
+        Set<String> installedPackages = new HashSet<>(newApps.size());
+        for (App app : newApps) {
+            installedPackages.add(app.packageName);
+        }
+        for (Backup backup : mBackups.values()) {
+            if (backup == null || installedPackages.contains(backup.packageName)) continue;
+            App app = App.fromBackup(backup);
+            app.rulesCount = mBackend.getRulesCount(app.packageName, app.userId);
+            newApps.add(app);
+        }
+        if (Thread.currentThread().isInterrupted()) return;
+        publish(newApps, STAGE_COMPLETE);
+        mBackend.storeApps(newApps);
+        Log.d(TAG, "Stored " + newApps.size() + " apps in " + getElapsedMillis() + " ms");
+    }
+
+    /**
+     * Replace the apps with the installed apps of all the users and the backed up apps that aren't installed.
+     */
+    private void loadInstalledApps(@NonNull int[] userIds, @NonNull List<App> cachedApps) {
+        Map<App, App> cachedAppMap = new HashMap<>(cachedApps.size());
+        for (App app : cachedApps) {
+            cachedAppMap.put(app, app);
+        }
+        Map<App, App> apps = new LinkedHashMap<>(cachedApps.size());
+        Set<String> installedPackages = new HashSet<>();
+        for (List<PackageInfo> packageInfoList : getInstalledPackages(BASIC_FLAGS, userIds)) {
+            for (PackageInfo packageInfo : packageInfoList) {
+                App app = App.fromPackageInfoWithoutExtras(packageInfo);
+                App cachedApp = cachedAppMap.get(app);
+                if (cachedApp != null && cachedApp.lastUpdateTime == app.lastUpdateTime
+                        && cachedApp.versionCode == app.versionCode) {
+                    // Not updated since it was stored, the stored attributes are still valid
+                    app.packageLabel = cachedApp.packageLabel;
+                    app.certName = cachedApp.certName;
+                    app.certAlgo = cachedApp.certAlgo;
+                    app.hasActivities = cachedApp.hasActivities;
+                    app.trackerCount = cachedApp.trackerCount;
+                    app.rulesCount = cachedApp.rulesCount;
+                } else if (packageInfo.applicationInfo.nonLocalizedLabel != null) {
+                    app.packageLabel = packageInfo.applicationInfo.nonLocalizedLabel.toString();
+                }
+                apps.put(app, app);
+                installedPackages.add(app.packageName);
+            }
+        }
+        for (Backup backup : mBackups.values()) {
+            if (backup == null || installedPackages.contains(backup.packageName)) continue;
+            App app = App.fromBackup(backup);
+            App cachedApp = cachedAppMap.get(app);
+            if (cachedApp != null) {
+                app.rulesCount = cachedApp.rulesCount;
+            }
+            apps.put(app, app);
+        }
+        synchronized (mApps) {
+            mApps.clear();
+            mApps.putAll(apps);
+        }
+    }
+
+    /**
+     * Fetch the installed packages of the users in parallel.
+     *
+     * @return The installed packages in the order of the users. The list of a user that could not be fetched is
+     * empty.
+     */
+    @NonNull
+    private List<List<PackageInfo>> getInstalledPackages(int flags, @NonNull int[] userIds) {
+        TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, userIds.length);
+        List<Future<List<PackageInfo>>> results = new ArrayList<>(userIds.length);
+        try {
+            for (int userId : userIds) {
+                results.add(executor.submit(() -> mBackend.getInstalledPackages(flags, userId)));
+            }
+            List<List<PackageInfo>> packageInfoLists = new ArrayList<>(userIds.length);
+            for (int i = 0; i < userIds.length; ++i) {
+                try {
+                    packageInfoLists.add(executor.await(results.get(i)));
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Could not retrieve package info list for user " + userIds[i], e);
+                    packageInfoLists.add(Collections.emptyList());
+                }
+            }
+            return packageInfoLists;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @NonNull
+    private App enrich(@NonNull PackageInfo packageInfo) {
+        App app;
+        try {
+            app = mBackend.getApp(packageInfo);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not load " + packageInfo.packageName, e);
+            app = App.fromPackageInfoWithoutExtras(packageInfo);
+        }
+        app.rulesCount = mBackend.getRulesCount(app.packageName, app.userId);
+        if (mListener != null) {
+            synchronized (mApps) {
+                mApps.put(app, app);
+            }
+            publishIfDue();
+        }
+        return app;
+    }
+
+    private void publishIfDue() {
+        long now = System.nanoTime();
+        long nextPublishTime = mNextPublishTime.get();
+        if (now - nextPublishTime < 0) return;
+        // Only one of the threads publishes the list
+        if (mNextPublishTime.compareAndSet(nextPublishTime, now
+                + TimeUnit.MILLISECONDS.toNanos(PUBLISH_INTERVAL_MILLIS))) {
+            publish(getApps(), STAGE_ENRICHING);
+        }
+    }
+
+    @NonNull
+    private List<App> getApps() {
+        synchronized (mApps) {
+            return new ArrayList<>(mApps.values());
+        }
+    }
+
+    private void publish(@NonNull List<App> apps, @Stage int stage) {
+        if (mListener == null) return;
+        synchronized (mPublishLock) {
+            List<ApplicationItem> applicationItems = PackageUtils.getApplicationItems(apps, mBackups);
+            Log.d(TAG, "Stage " + stage + ": " + applicationItems.size() + " items in " + getElapsedMillis()
+                    + " ms");
+            mListener.onLoaded(applicationItems, stage);
+        }
+    }
+
+    private long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartTime);
+    }
+}
@@ -544,6 +544,7 @@ public class MainActivity extends BaseActivity implements SearchView.OnQueryText
     @Override
     protected void onPause() {
         super.onPause();
+        if (mModel != null) mModel.onPause();
         unregisterReceiver(mBatchOpsBroadCastReceiver);
     }
 
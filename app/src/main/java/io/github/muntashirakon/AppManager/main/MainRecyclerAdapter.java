@@ -27,8 +27,11 @@ import android.widget.Toast;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
@@ -61,6 +64,17 @@ public class MainRecyclerAdapter extends MultiSelectionView.Adapter<MainRecycler
     @GuardedBy("mAdapterList")
     private final List<ApplicationItem> mAdapterList = new ArrayList<>();
     final ImageLoader imageLoader;
+    private final RecyclerView.OnScrollListener mIconPrefetcher = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            prefetchIcons(recyclerView);
+        }
+    };
+    // Range of the items whose icons have been prefetched
+    @GuardedBy("mAdapterList")
+    private int mPrefetchedStart = 0;
+    @GuardedBy("mAdapterList")
+    private int mPrefetchedEnd = 0;
 
     private final int mColorStopped;
     private final int mColorOrange;
@@ -88,6 +102,7 @@ public class MainRecyclerAdapter extends MultiSelectionView.Adapter<MainRecycler
             synchronized (mAdapterList) {
                 mAdapterList.clear();
                 mAdapterList.addAll(list);
+                mPrefetchedStart = mPrefetchedEnd = 0;
                 mSearchQuery = mActivity.mModel.getSearchQuery();
                 mActivity.runOnUiThread(() -> {
                     synchronized (mAdapterList) {
@@ -442,6 +457,45 @@ public class MainRecyclerAdapter extends MultiSelectionView.Adapter<MainRecycler
         super.onBindViewHolder(holder, position);
     }
 
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        recyclerView.addOnScrollListener(mIconPrefetcher);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(mIconPrefetcher);
+        super.onDetachedFromRecyclerView(recyclerView);
+    }
+
+    /**
+     * Load the icons of the visible items and of a page on either side of them at once.
+     */
+    @UiThread
+    private void prefetchIcons(@NonNull RecyclerView recyclerView) {
+        if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) return;
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) return;
+        int pageSize = last - first + 1;
+        List<ApplicationItem> items;
+        synchronized (mAdapterList) {
+            int start = Math.max(0, first - pageSize);
+            int end = Math.min(mAdapterList.size(), last + 1 + pageSize);
+            if (start >= mPrefetchedStart && end <= mPrefetchedEnd) return;
+            mPrefetchedStart = start;
+            mPrefetchedEnd = end;
+            items = new ArrayList<>(mAdapterList.subList(start, end));
+        }
+        List<String> names = new ArrayList<>(items.size());
+        for (ApplicationItem item : items) {
+            names.add(item.packageName);
+        }
+        imageLoader.prefetch(names, items);
+    }
+
     @GuardedBy("mAdapterList")
     @Override
     public long getItemId(int position) {
@@ -35,6 +35,9 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.backup.BackupUtils;
@@ -50,9 +53,9 @@ import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
-import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
-import io.github.muntashirakon.AppManager.utils.PackageUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
 import io.github.muntashirakon.AppManager.utils.Utils;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
 import static io.github.muntashirakon.AppManager.utils.PackageUtils.flagDisabledComponents;
 import static io.github.muntashirakon.AppManager.utils.PackageUtils.flagSigningInfo;
@@ -73,7 +76,16 @@ public class MainViewModel extends AndroidViewModel {
     private String searchQuery;
     private final Map<String, int[]> selectedPackages = new HashMap<>();
     private final ArrayList<ApplicationItem> selectedApplicationItems = new ArrayList<>();
-    final MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+    // Loading queries the system and the database
+    final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
+    // Sorting and filtering the loaded list, in the order they were requested
+    private final TaskScope uiPrepExecutor = WorkerPools.newScope(WorkerPools.LANE_UI_PREP);
+    // Incremented each time the list is filtered, only the latest filtered list is published
+    private final AtomicInteger mFilterGeneration = new AtomicInteger();
+    // Incremented each time the list is reloaded, only the latest list is published
+    private final AtomicInteger mLoadGeneration = new AtomicInteger();
+    // The list being loaded, cancelled when a newer list is requested so that it does not overwrite the database
+    private final AtomicReference<Future<?>> mLoadResult = new AtomicReference<>();
 
     public MainViewModel(@NonNull Application application) {
         super(application);
@@ -193,7 +205,7 @@ public class MainViewModel extends AndroidViewModel {
 
     public void setSearchQuery(String searchQuery) {
         this.searchQuery = searchQuery;
-        executor.submit(this::filterItemsByFlags);
+        filterItems();
     }
 
     public int getSortBy() {
@@ -201,10 +213,8 @@ public class MainViewModel extends AndroidViewModel {
     }
 
     public void setSortReverse(boolean sortReverse) {
-        executor.submit(() -> {
-            sortApplicationList(mSortBy, mSortReverse);
-            filterItemsByFlags();
-        });
+        uiPrepExecutor.submit(() -> sortApplicationList(mSortBy, sortReverse));
+        filterItems();
         mSortReverse = sortReverse;
         AppPref.set(AppPref.PrefKey.PREF_MAIN_WINDOW_SORT_REVERSE_BOOL, mSortReverse);
     }
@@ -215,10 +225,8 @@ public class MainViewModel extends AndroidViewModel {
 
     public void setSortBy(int sortBy) {
         if (mSortBy != sortBy) {
-            executor.submit(() -> {
-                sortApplicationList(sortBy, mSortReverse);
-                filterItemsByFlags();
-            });
+            uiPrepExecutor.submit(() -> sortApplicationList(sortBy, mSortReverse));
+            filterItems();
         }
         mSortBy = sortBy;
         AppPref.set(AppPref.PrefKey.PREF_MAIN_WINDOW_SORT_ORDER_INT, mSortBy);
@@ -231,13 +239,13 @@ public class MainViewModel extends AndroidViewModel {
     public void addFilterFlag(@ListOptions.Filter int filterFlag) {
         mFilterFlags |= filterFlag;
         AppPref.set(AppPref.PrefKey.PREF_MAIN_WINDOW_FILTER_FLAGS_INT, mFilterFlags);
-        executor.submit(this::filterItemsByFlags);
+        filterItems();
     }
 
     public void removeFilterFlag(@ListOptions.Filter int filterFlag) {
         mFilterFlags &= ~filterFlag;
         AppPref.set(AppPref.PrefKey.PREF_MAIN_WINDOW_FILTER_FLAGS_INT, mFilterFlags);
-        executor.submit(this::filterItemsByFlags);
+        filterItems();
     }
 
     public void setFilterProfileName(@Nullable String filterProfileName) {
@@ -246,7 +254,7 @@ public class MainViewModel extends AndroidViewModel {
         } else if (mFilterProfileName.equals(filterProfileName)) return;
         mFilterProfileName = filterProfileName;
         AppPref.set(AppPref.PrefKey.PREF_MAIN_WINDOW_FILTER_PROFILE_STR, filterProfileName == null ? "" : filterProfileName);
-        executor.submit(this::filterItemsByFlags);
+        filterItems();
     }
 
     public String getFilterProfileName() {
@@ -255,28 +263,48 @@ public class MainViewModel extends AndroidViewModel {
 
     @AnyThread
     public void onResume() {
+        // The list is visible again, run its tasks ahead of the background work
+        executor.setPriority(WorkerPools.PRIORITY_VISIBLE);
+        uiPrepExecutor.setPriority(WorkerPools.PRIORITY_VISIBLE);
         if ((mFilterFlags & ListOptions.FILTER_RUNNING_APPS) != 0) {
             // Reload filters to get running apps again
-            executor.submit(this::filterItemsByFlags);
+            filterItems();
         }
     }
 
+    public void onPause() {
+        executor.setPriority(WorkerPools.PRIORITY_BACKGROUND);
+        uiPrepExecutor.setPriority(WorkerPools.PRIORITY_BACKGROUND);
+    }
+
     @GuardedBy("applicationItems")
     public void loadApplicationItems() {
-        executor.submit(() -> {
-            List<ApplicationItem> updatedApplicationItems = PackageUtils
-                    .getInstalledOrBackedUpApplicationsFromDb(getApplication(), executor, true);
+        int generation = mLoadGeneration.incrementAndGet();
+        ApplicationListLoader.Listener listener = (updatedApplicationItems, stage) -> {
+            if (generation != mLoadGeneration.get()) {
+                // A newer list is being loaded
+                return;
+            }
             synchronized (applicationItems) {
                 applicationItems.clear();
                 applicationItems.addAll(updatedApplicationItems);
                 // select apps again
-                for (ApplicationItem item : selectedApplicationItems) {
-                    select(item);
+                for (ApplicationItem item : updatedApplicationItems) {
+                    if (selectedApplicationItems.contains(item)) {
+                        select(item);
+                    }
                 }
-                sortApplicationList(mSortBy, mSortReverse);
-                filterItemsByFlags();
             }
-        });
+            // The sort order is total, the items that haven't changed keep their position
+            uiPrepExecutor.submit(() -> sortApplicationList(mSortBy, mSortReverse));
+            filterItems();
+        };
+        Future<?> result = executor.submit(() -> new ApplicationListLoader(getApplication(), true).load(listener));
+        Future<?> previousResult = mLoadResult.getAndSet(result);
+        if (previousResult != null) {
+            // The loader stops at the next stage without publishing or storing the apps
+            previousResult.cancel(true);
+        }
     }
 
     private void filterItemsByQuery(@NonNull List<ApplicationItem> applicationItems) {
@@ -292,23 +320,56 @@ public class MainViewModel extends AndroidViewModel {
         });
     }
 
+    /**
+     * Filter the list in the UI-prep lane. The running apps and the packages of the profile are loaded in the I/O
+     * lane beforehand if they are needed.
+     */
+    @AnyThread
+    private void filterItems() {
+        int generation = mFilterGeneration.incrementAndGet();
+        boolean loadRunningApps = (mFilterFlags & ListOptions.FILTER_RUNNING_APPS) != 0;
+        String profileName = mFilterProfileName;
+        if (!loadRunningApps && profileName == null) {
+            uiPrepExecutor.submit(() -> filterItemsByFlags(generation, null));
+            return;
+        }
+        executor.submit(() -> {
+            if (loadRunningApps) {
+                loadRunningApps();
+            }
+            List<String> profilePackages = null;
+            if (profileName != null) {
+                ProfileMetaManager profileMetaManager = new ProfileMetaManager(profileName);
+                // Display an empty list if the profile doesn't exist
+                profilePackages = profileMetaManager.profile != null
+                        ? Arrays.asList(profileMetaManager.profile.packages) : Collections.emptyList();
+            }
+            List<String> finalProfilePackages = profilePackages;
+            uiPrepExecutor.submit(() -> filterItemsByFlags(generation, finalProfilePackages));
+        });
+    }
+
+    /**
+     * @param profilePackages Packages of the filter profile, or {@code null} if the list is not filtered by a profile
+     */
     @WorkerThread
     @GuardedBy("applicationItems")
-    private void filterItemsByFlags() {
+    private void filterItemsByFlags(int generation, @Nullable List<String> profilePackages) {
+        if (generation != mFilterGeneration.get()) {
+            // A newer filter is pending
+            return;
+        }
         synchronized (applicationItems) {
             List<ApplicationItem> candidateApplicationItems = new ArrayList<>();
-            if (mFilterProfileName != null) {
-                ProfileMetaManager profileMetaManager = new ProfileMetaManager(mFilterProfileName);
-                if (profileMetaManager.profile != null) {
-                    for (String packageName : profileMetaManager.profile.packages) {
-                        ApplicationItem item = new ApplicationItem();
-                        item.packageName = packageName;
-                        int index = applicationItems.indexOf(item);
-                        if (index != -1) {
-                            candidateApplicationItems.add(applicationItems.get(index));
-                        }
+            if (profilePackages != null) {
+                for (String packageName : profilePackages) {
+                    ApplicationItem item = new ApplicationItem();
+                    item.packageName = packageName;
+                    int index = applicationItems.indexOf(item);
+                    if (index != -1) {
+                        candidateApplicationItems.add(applicationItems.get(index));
                     }
-                } // else profile doesn't exist, display empty list
+                }
             } else candidateApplicationItems.addAll(applicationItems);
             // Other filters
             if (mFilterFlags == ListOptions.FILTER_NO_FILTER) {
@@ -323,9 +384,6 @@ public class MainViewModel extends AndroidViewModel {
                 }
             } else {
                 List<ApplicationItem> filteredApplicationItems = new ArrayList<>();
-                if ((mFilterFlags & ListOptions.FILTER_RUNNING_APPS) != 0) {
-                    loadRunningApps();
-                }
                 for (ApplicationItem item : candidateApplicationItems) {
                     // Filter user and system apps first (if requested)
                     if ((mFilterFlags & ListOptions.FILTER_USER_APPS) != 0 && !item.isUser) {
@@ -404,8 +462,14 @@ public class MainViewModel extends AndroidViewModel {
             int mode = reverse ? -1 : 1;
             Collections.sort(applicationItems, (o1, o2) -> {
                 switch (sortBy) {
-                    case ListOptions.SORT_BY_APP_LABEL:
-                        return mode * sCollator.compare(o1.label, o2.label);
+                    case ListOptions.SORT_BY_APP_LABEL: {
+                        int i = sCollator.compare(o1.label, o2.label);
+                        if (i == 0) {
+                            // Keep the order of the same labels stable between the loads
+                            i = o1.packageName.compareTo(o2.packageName);
+                        }
+                        return mode * i;
+                    }
                     case ListOptions.SORT_BY_PACKAGE_NAME:
                         return mode * o1.packageName.compareTo(o2.packageName);
                     case ListOptions.SORT_BY_DOMAIN:
@@ -523,7 +587,7 @@ public class MainViewModel extends AndroidViewModel {
             default:
                 return;
         }
-        filterItemsByFlags();
+        filterItems();
     }
 
     @WorkerThread
@@ -707,6 +771,7 @@ public class MainViewModel extends AndroidViewModel {
     protected void onCleared() {
         if (mPackageObserver != null) getApplication().unregisterReceiver(mPackageObserver);
         executor.shutdownNow();
+        uiPrepExecutor.shutdownNow();
         super.onCleared();
     }
 
@@ -2,22 +2,41 @@
 
 package io.github.muntashirakon.AppManager.misc;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.runner.Runner;
 
 public final class SystemProperties {
+    public static final String TAG = SystemProperties.class.getSimpleName();
+
+    /**
+     * Snapshot of all the system properties. It is only used when the hidden API is inaccessible,
+     * and it is loaded at once using a single {@code getprop} call.
+     */
+    @GuardedBy("SystemProperties.class")
+    private static Map<String, String> sPropertySnapshot;
+    private static volatile boolean sHiddenApiUnavailable = false;
+
     @NonNull
     public static String get(@NonNull String key, @NonNull String defaultVal) {
-        try {
-            return android.os.SystemProperties.get(key, defaultVal);
-        } catch (Exception e) {
-            Log.w("SystemProperties", "Unable to use SystemProperties.get", e);
-            Runner.Result result = Runner.runCommand(new String[]{"getprop", key, defaultVal});
-            if (result.isSuccessful()) return result.getOutput().trim();
-            else return defaultVal;
+        if (!sHiddenApiUnavailable) {
+            try {
+                return android.os.SystemProperties.get(key, defaultVal);
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to use SystemProperties.get", e);
+                sHiddenApiUnavailable = true;
+            }
         }
+        String val = getPropertySnapshot().get(key);
+        return val != null && !val.isEmpty() ? val : defaultVal;
     }
 
     public static boolean getBoolean(@NonNull String key, boolean defaultVal) {
@@ -34,4 +53,67 @@ public final class SystemProperties {
             return defaultVal;
         }
     }
+
+    /**
+     * Discard the property snapshot, and retry the hidden API at the next lookup. The snapshot will
+     * be reloaded at the next lookup that cannot be served by the hidden API. Called whenever the
+     * mode of operation changes.
+     */
+    public static synchronized void refresh() {
+        sPropertySnapshot = null;
+        sHiddenApiUnavailable = false;
+    }
+
+    @NonNull
+    private static synchronized Map<String, String> getPropertySnapshot() {
+        if (sPropertySnapshot == null) {
+            Runner.Result result = Runner.runCommand("getprop");
+            if (result.isSuccessful()) {
+                sPropertySnapshot = parseProperties(result.getOutputAsList());
+            } else {
+                Log.w(TAG, "Unable to load system properties via getprop");
+                // Do not retry until refreshed
+                sPropertySnapshot = Collections.emptyMap();
+            }
+        }
+        return sPropertySnapshot;
+    }
+
+    /**
+     * Parse the output of {@code getprop}. Each property has the form {@code [key]: [value]}, and a
+     * value may span multiple lines.
+     */
+    @VisibleForTesting
+    @NonNull
+    static Map<String, String> parseProperties(@NonNull List<String> lines) {
+        Map<String, String> properties = new HashMap<>(lines.size());
+        String key = null;
+        StringBuilder value = null;
+        for (String line : lines) {
+            int keyEnd = line.indexOf("]: [");
+            if (line.startsWith("[") && keyEnd != -1) {
+                if (key != null) {
+                    properties.put(key, stripValue(value));
+                }
+                key = line.substring(1, keyEnd);
+                value = new StringBuilder(line.substring(keyEnd + 4));
+            } else if (value != null) {
+                // Continuation of a multiline value
+                value.append('\n').append(line);
+            }
+        }
+        if (key != null) {
+            properties.put(key, stripValue(value));
+        }
+        return Collections.unmodifiableMap(properties);
+    }
+
+    @NonNull
+    private static String stripValue(@NonNull StringBuilder value) {
+        int end = value.length();
+        if (end > 0 && value.charAt(end - 1) == ']') {
+            --end;
+        }
+        return value.substring(0, end);
+    }
 }
@@ -40,6 +40,8 @@ import io.github.muntashirakon.AppManager.BaseActivity;
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
+import io.github.muntashirakon.AppManager.appops.AppOpsService;
+import io.github.muntashirakon.AppManager.appops.AppOpsSnapshot;
 import io.github.muntashirakon.AppManager.batchops.BatchOpsManager;
 import io.github.muntashirakon.AppManager.batchops.BatchOpsService;
 import io.github.muntashirakon.AppManager.compat.StorageManagerCompat;
@@ -330,6 +332,8 @@ public class OneClickOpsActivity extends BaseActivity {
                             return;
                         }
                         final List<AppOpCount> appOpCounts = new ArrayList<>();
+                        // Fetch the modes of all the packages at once
+                        AppOpsSnapshot snapshot = AppOpsSnapshot.capture(new AppOpsService(), appOpList);
                         for (ApplicationInfo applicationInfo :
                                 getPackageManager().getInstalledApplications(PackageManager.GET_META_DATA)) {
                             if (Thread.currentThread().isInterrupted()) return;
@@ -338,8 +342,8 @@ public class OneClickOpsActivity extends BaseActivity {
                             AppOpCount appOpCount = new AppOpCount();
                             appOpCount.packageName = applicationInfo.packageName;
                             appOpCount.packageLabel = applicationInfo.loadLabel(getPackageManager()).toString();
-                            appOpCount.appOps = PackageUtils.getFilteredAppOps(applicationInfo.packageName,
-                                    UserHandleHidden.myUserId(), appOpList, mode);
+                            appOpCount.appOps = PackageUtils.getFilteredAppOps(snapshot, applicationInfo.packageName,
+                                    applicationInfo.uid, appOpList, mode);
                             appOpCount.count = appOpCount.appOps.size();
                             if (appOpCount.count > 0) appOpCounts.add(appOpCount);
                         }
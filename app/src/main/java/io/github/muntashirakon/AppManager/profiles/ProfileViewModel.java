@@ -29,8 +29,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
@@ -39,13 +37,15 @@ import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
 import io.github.muntashirakon.AppManager.utils.Utils;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
 import static io.github.muntashirakon.AppManager.utils.PackageUtils.getAppOpNames;
 
 public class ProfileViewModel extends AndroidViewModel {
     private final Object profileLock = new Object();
-    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
     private final MutableLiveData<Pair<Integer, Boolean>> toast = new MutableLiveData<>();
     private final MutableLiveData<ArrayList<Pair<CharSequence, ApplicationInfo>>> installedApps = new MutableLiveData<>();
     private final MutableLiveData<Boolean> profileLoaded = new MutableLiveData<>();
@@ -60,7 +60,7 @@ public class ProfileViewModel extends AndroidViewModel {
     @Override
     protected void onCleared() {
         super.onCleared();
-        executor.shutdown();
+        executor.shutdownNow();
     }
 
     public LiveData<Pair<Integer, Boolean>> observeToast() {
@@ -0,0 +1,280 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.content.ComponentName;
+import android.content.pm.IPackageManager;
+import android.content.pm.PackageManagerHidden;
+import android.os.Build;
+import android.os.RemoteException;
+import android.system.ErrnoException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.core.util.Pair;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.ipc.BinderBatch;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.servermanager.LocalServer;
+import io.github.muntashirakon.AppManager.servermanager.PackageInfoCache;
+import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
+import io.github.muntashirakon.io.AtomicProxyFile;
+import io.github.muntashirakon.io.ProxyFiles;
+import io.github.muntashirakon.io.ProxyOutputStream;
+
+/**
+ * Apply component states and IFW rules with as few writes as possible. The current state of the components are read
+ * first, and only the components whose state differ from the requested ones are altered, all at once if the platform
+ * or the privileged service supports it. An IFW rules file is only written if its contents have changed.
+ * <p>
+ * In batch mode, the IFW rules are kept in memory until {@link #close()} is called so that the rules of many packages
+ * are written in a single pass at the end.
+ */
+@WorkerThread
+class ComponentStateApplier implements AutoCloseable {
+    public static final String TAG = ComponentStateApplier.class.getSimpleName();
+
+    /**
+     * The system services used by the applier
+     */
+    @VisibleForTesting
+    interface Backend {
+        int getComponentEnabledSetting(@NonNull ComponentName componentName, int userId) throws RemoteException;
+
+        void setComponentEnabledSetting(@NonNull ComponentName componentName, int newState, int userId)
+                throws RemoteException;
+
+        /**
+         * Whether {@link #setComponentEnabledSettings(List, int[], int)} is supported
+         */
+        boolean canSetComponentEnabledSettings();
+
+        /**
+         * Set the states of several components, possibly from different packages, with a single call.
+         */
+        void setComponentEnabledSettings(@NonNull List<ComponentName> componentNames, @NonNull int[] newStates,
+                                         int userId) throws RemoteException;
+
+        void chmod(@NonNull File file, int mode) throws ErrnoException, RemoteException;
+    }
+
+    private static class SystemBackend implements Backend {
+        @Override
+        public int getComponentEnabledSetting(@NonNull ComponentName componentName, int userId)
+                throws RemoteException {
+            return AppManager.getIPackageManager().getComponentEnabledSetting(componentName, userId);
+        }
+
+        @Override
+        public void setComponentEnabledSetting(@NonNull ComponentName componentName, int newState, int userId)
+                throws RemoteException {
+            PackageManagerCompat.setComponentEnabledSetting(componentName, newState, 0, userId);
+        }
+
+        @Override
+        public boolean canSetComponentEnabledSettings() {
+            return Build.VERSION.SDK_INT >= 33 || LocalServer.isAMServiceAlive();
+        }
+
+        @Override
+        public void setComponentEnabledSettings(@NonNull List<ComponentName> componentNames, @NonNull int[] newStates,
+                                                int userId) throws RemoteException {
+            // The calls below bypass PackageManagerCompat, do not wait for the broadcasts to invalidate the cache
+            Set<String> packageNames = new HashSet<>();
+            for (ComponentName componentName : componentNames) {
+                packageNames.add(componentName.getPackageName());
+            }
+            try {
+                setComponentEnabledSettingsInternal(componentNames, newStates, userId);
+            } finally {
+                PackageInfoCache.getInstance().invalidate(packageNames, false);
+            }
+        }
+
+        private static void setComponentEnabledSettingsInternal(@NonNull List<ComponentName> componentNames,
+                                                                @NonNull int[] newStates, int userId)
+                throws RemoteException {
+            IPackageManager pm = AppManager.getIPackageManager();
+            if (Build.VERSION.SDK_INT < 33) {
+                // Send the calls to the privileged service all at once
+                try (BinderBatch batch = BinderBatch.begin()) {
+                    for (int i = 0; i < newStates.length; ++i) {
+                        ComponentName componentName = componentNames.get(i);
+                        int newState = newStates[i];
+                        batch.record(() -> pm.setComponentEnabledSetting(componentName, newState, 0, userId));
+                    }
+                    batch.commitAndReadExceptions();
+                }
+                return;
+            }
+            List<PackageManagerHidden.ComponentEnabledSetting> settings = new ArrayList<>(componentNames.size());
+            for (int i = 0; i < newStates.length; ++i) {
+                settings.add(new PackageManagerHidden.ComponentEnabledSetting(componentNames.get(i), newStates[i], 0));
+            }
+            pm.setComponentEnabledSettings(settings, userId);
+        }
+
+        @Override
+        public void chmod(@NonNull File file, int mode) throws ErrnoException, RemoteException {
+            ProxyFiles.chmod(file, mode);
+        }
+    }
+
+    private final Backend mBackend;
+    private final boolean mBatch;
+    // Rules file path => (file, rules or null to delete)
+    private final LinkedHashMap<String, Pair<AtomicProxyFile, String>> mPendingIfwRules = new LinkedHashMap<>();
+    private int mIfwWriteCount;
+
+    /**
+     * @param batch Whether to defer writing the IFW rules until {@link #close()} is called
+     */
+    ComponentStateApplier(boolean batch) {
+        this(new SystemBackend(), batch);
+    }
+
+    @VisibleForTesting
+    ComponentStateApplier(@NonNull Backend backend, boolean batch) {
+        mBackend = backend;
+        mBatch = batch;
+    }
+
+    /**
+     * Set the states of the components of a package.
+     *
+     * @param packageName The package the components belong to
+     * @param newStates   Component class names and their requested states
+     * @return The components whose states could not be set
+     */
+    @NonNull
+    public Set<String> setComponentStates(@NonNull String packageName, @NonNull Map<String, Integer> newStates,
+                                          int userId) {
+        List<ComponentName> changedComponents = new ArrayList<>();
+        List<Integer> changedStates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : newStates.entrySet()) {
+            ComponentName componentName = new ComponentName(packageName, entry.getKey());
+            int newState = entry.getValue();
+            if (getComponentEnabledSetting(componentName, userId) == newState) {
+                // Already in the requested state
+                continue;
+            }
+            changedComponents.add(componentName);
+            changedStates.add(newState);
+        }
+        if (changedComponents.isEmpty()) return Collections.emptySet();
+        if (changedComponents.size() > 1 && mBackend.canSetComponentEnabledSettings()) {
+            int[] states = new int[changedStates.size()];
+            for (int i = 0; i < states.length; ++i) {
+                states[i] = changedStates.get(i);
+            }
+            try {
+                mBackend.setComponentEnabledSettings(changedComponents, states, userId);
+                return Collections.emptySet();
+            } catch (RemoteException | RuntimeException e) {
+                Log.w(TAG, "Could not set component states of " + packageName + " at once, setting them one by one",
+                        e);
+            }
+        }
+        Set<String> failedComponents = new HashSet<>();
+        for (int i = 0; i < changedComponents.size(); ++i) {
+            ComponentName componentName = changedComponents.get(i);
+            try {
+                mBackend.setComponentEnabledSetting(componentName, changedStates.get(i), userId);
+            } catch (RemoteException | RuntimeException e) {
+                Log.e(TAG, "Could not set component state: " + componentName.flattenToShortString(), e);
+                failedComponents.add(componentName.getClassName());
+            }
+        }
+        return failedComponents;
+    }
+
+    /**
+     * Save the IFW rules of a package, or delete the rules file if the rules are {@code null}. In batch mode, the
+     * rules are only saved when {@link #close()} is called.
+     */
+    public void saveIfwRules(@NonNull AtomicProxyFile rulesFile, @Nullable String rules) {
+        if (mBatch) {
+            mPendingIfwRules.put(rulesFile.getBaseFile().getAbsolutePath(), new Pair<>(rulesFile, rules));
+        } else writeIfwRules(rulesFile, rules);
+    }
+
+    /**
+     * Number of IFW rules files written or deleted so far
+     */
+    public int getIfwWriteCount() {
+        return mIfwWriteCount;
+    }
+
+    /**
+     * Write the pending IFW rules
+     */
+    @Override
+    public void close() {
+        for (Pair<AtomicProxyFile, String> pendingRules : mPendingIfwRules.values()) {
+            writeIfwRules(pendingRules.first, pendingRules.second);
+        }
+        mPendingIfwRules.clear();
+    }
+
+    private int getComponentEnabledSetting(@NonNull ComponentName componentName, int userId) {
+        try {
+            return mBackend.getComponentEnabledSetting(componentName, userId);
+        } catch (RemoteException | RuntimeException e) {
+            // The state is unknown, let the write decide
+            return -1;
+        }
+    }
+
+    private void writeIfwRules(@NonNull AtomicProxyFile rulesFile, @Nullable String rules) {
+        File baseFile = rulesFile.getBaseFile();
+        if (rules == null) {
+            if (rulesFile.exists()) {
+                rulesFile.delete();
+                ++mIfwWriteCount;
+            }
+            return;
+        }
+        byte[] rulesBytes = rules.getBytes();
+        if (rulesFile.exists()) {
+            try {
+                if (Arrays.equals(rulesBytes, rulesFile.readFully())) {
+                    // Nothing has changed
+                    return;
+                }
+            } catch (IOException | RemoteException e) {
+                Log.w(TAG, "Could not read existing rules " + baseFile, e);
+            }
+        }
+        ProxyOutputStream rulesStream = null;
+        try {
+            rulesStream = rulesFile.startWrite();
+            Log.d(TAG, "Rules: " + rules);
+            rulesStream.write(rulesBytes);
+            rulesFile.finishWrite(rulesStream);
+            ++mIfwWriteCount;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write rules " + baseFile, e);
+            rulesFile.failWrite(rulesStream);
+            return;
+        }
+        try {
+            mBackend.chmod(baseFile, 0666);
+        } catch (ErrnoException | RemoteException e) {
+            Log.e(TAG, "Could not set the mode of " + baseFile, e);
+        }
+    }
+}
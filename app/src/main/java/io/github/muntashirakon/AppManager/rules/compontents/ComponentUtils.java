@@ -92,16 +92,19 @@ public final class ComponentUtils {
     public static List<UserPackagePair> blockTrackingComponents(@NonNull Collection<UserPackagePair> userPackagePairs) {
         List<UserPackagePair> failedPkgList = new ArrayList<>();
         HashMap<String, RuleType> components;
-        for (UserPackagePair pair : userPackagePairs) {
-            components = ComponentUtils.getTrackerComponentsForPackage(pair.getPackageName(), pair.getUserHandle());
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
-                for (String componentName : components.keySet()) {
-                    cb.addComponent(componentName, components.get(componentName));
+        // IFW rules of all packages are written together at the end
+        try (ComponentStateApplier applier = new ComponentStateApplier(true)) {
+            for (UserPackagePair pair : userPackagePairs) {
+                components = ComponentUtils.getTrackerComponentsForPackage(pair.getPackageName(), pair.getUserHandle());
+                try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
+                    for (String componentName : components.keySet()) {
+                        cb.addComponent(componentName, components.get(componentName));
+                    }
+                    cb.applyRules(true, applier);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failedPkgList.add(pair);
                 }
-                cb.applyRules(true);
-            } catch (Exception e) {
-                e.printStackTrace();
-                failedPkgList.add(pair);
             }
         }
         return failedPkgList;
@@ -112,16 +115,19 @@ public final class ComponentUtils {
     public static List<UserPackagePair> unblockTrackingComponents(@NonNull Collection<UserPackagePair> userPackagePairs) {
         List<UserPackagePair> failedPkgList = new ArrayList<>();
         HashMap<String, RuleType> components;
-        for (UserPackagePair pair : userPackagePairs) {
-            components = getTrackerComponentsForPackage(pair.getPackageName(), pair.getUserHandle());
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
-                for (String componentName : components.keySet()) {
-                    cb.removeComponent(componentName);
+        // IFW rules of all packages are written together at the end
+        try (ComponentStateApplier applier = new ComponentStateApplier(true)) {
+            for (UserPackagePair pair : userPackagePairs) {
+                components = getTrackerComponentsForPackage(pair.getPackageName(), pair.getUserHandle());
+                try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
+                    for (String componentName : components.keySet()) {
+                        cb.removeComponent(componentName);
+                    }
+                    cb.applyRules(true, applier);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failedPkgList.add(pair);
                 }
-                cb.applyRules(true);
-            } catch (Exception e) {
-                e.printStackTrace();
-                failedPkgList.add(pair);
             }
         }
         return failedPkgList;
@@ -132,16 +138,19 @@ public final class ComponentUtils {
     public static List<UserPackagePair> blockFilteredComponents(@NonNull Collection<UserPackagePair> userPackagePairs, String[] signatures) {
         List<UserPackagePair> failedPkgList = new ArrayList<>();
         HashMap<String, RuleType> components;
-        for (UserPackagePair pair : userPackagePairs) {
-            components = PackageUtils.getFilteredComponents(pair.getPackageName(), pair.getUserHandle(), signatures);
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
-                for (String componentName : components.keySet()) {
-                    cb.addComponent(componentName, components.get(componentName));
+        // IFW rules of all packages are written together at the end
+        try (ComponentStateApplier applier = new ComponentStateApplier(true)) {
+            for (UserPackagePair pair : userPackagePairs) {
+                components = PackageUtils.getFilteredComponents(pair.getPackageName(), pair.getUserHandle(), signatures);
+                try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
+                    for (String componentName : components.keySet()) {
+                        cb.addComponent(componentName, components.get(componentName));
+                    }
+                    cb.applyRules(true, applier);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failedPkgList.add(pair);
                 }
-                cb.applyRules(true);
-            } catch (Exception e) {
-                e.printStackTrace();
-                failedPkgList.add(pair);
             }
         }
         return failedPkgList;
@@ -152,16 +161,19 @@ public final class ComponentUtils {
     public static List<UserPackagePair> unblockFilteredComponents(@NonNull Collection<UserPackagePair> userPackagePairs, String[] signatures) {
         List<UserPackagePair> failedPkgList = new ArrayList<>();
         HashMap<String, RuleType> components;
-        for (UserPackagePair pair : userPackagePairs) {
-            components = PackageUtils.getFilteredComponents(pair.getPackageName(), pair.getUserHandle(), signatures);
-            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
-                for (String componentName : components.keySet()) {
-                    cb.removeComponent(componentName);
+        // IFW rules of all packages are written together at the end
+        try (ComponentStateApplier applier = new ComponentStateApplier(true)) {
+            for (UserPackagePair pair : userPackagePairs) {
+                components = PackageUtils.getFilteredComponents(pair.getPackageName(), pair.getUserHandle(), signatures);
+                try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserHandle())) {
+                    for (String componentName : components.keySet()) {
+                        cb.removeComponent(componentName);
+                    }
+                    cb.applyRules(true, applier);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failedPkgList.add(pair);
                 }
-                cb.applyRules(true);
-            } catch (Exception e) {
-                e.printStackTrace();
-                failedPkgList.add(pair);
             }
         }
         return failedPkgList;
@@ -5,6 +5,7 @@ package io.github.muntashirakon.AppManager.rules.compontents;
 import android.annotation.SuppressLint;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.RemoteException;
@@ -18,22 +19,22 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
 import io.github.muntashirakon.AppManager.rules.RuleType;
 import io.github.muntashirakon.AppManager.rules.RulesStorageManager;
 import io.github.muntashirakon.AppManager.rules.struct.ComponentRule;
 import io.github.muntashirakon.AppManager.rules.struct.RuleEntry;
-import io.github.muntashirakon.AppManager.runner.Runner;
-import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.utils.AppPref;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.io.AtomicProxyFile;
 import io.github.muntashirakon.io.ProxyFile;
-import io.github.muntashirakon.io.ProxyOutputStream;
 
 /**
  * Block application components: activities, broadcasts, services and providers.
@@ -51,6 +52,7 @@ import io.github.muntashirakon.io.ProxyOutputStream;
  */
 public final class ComponentsBlocker extends RulesStorageManager {
     public static final String TAG = "ComponentBlocker";
+    private static final String TRACE_CATEGORY = "rules";
 
     static final ProxyFile SYSTEM_RULES_PATH;
 
@@ -129,7 +131,9 @@ public final class ComponentsBlocker extends RulesStorageManager {
             INSTANCE = new ComponentsBlocker(packageName, userHandle);
         }
         if (!noReloadFromDisk && AppPref.isRootEnabled()) {
-            INSTANCE.retrieveDisabledComponents();
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "retrieveDisabledComponents", packageName)) {
+                INSTANCE.retrieveDisabledComponents();
+            }
         }
         INSTANCE.readOnly = true;
         return INSTANCE;
@@ -141,7 +145,9 @@ public final class ComponentsBlocker extends RulesStorageManager {
     protected ComponentsBlocker(String packageName, int userHandle) {
         super(packageName, userHandle);
         this.rulesFile = new AtomicProxyFile(new ProxyFile(SYSTEM_RULES_PATH, packageName + ".xml"));
-        this.components = PackageUtils.collectComponentClassNames(packageName, userHandle).keySet();
+        try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "collectComponents", packageName)) {
+            this.components = PackageUtils.collectComponentClassNames(packageName, userHandle).keySet();
+        }
     }
 
     /**
@@ -151,6 +157,15 @@ public final class ComponentsBlocker extends RulesStorageManager {
         this.components = PackageUtils.collectComponentClassNames(packageName, userHandle).keySet();
     }
 
+    /**
+     * Reload package components from an already fetched package info
+     *
+     * @param packageInfo Package info fetched with all the components, including the disabled ones
+     */
+    public void reloadComponents(@NonNull PackageInfo packageInfo) {
+        this.components = PackageUtils.collectComponentClassNames(packageInfo).keySet();
+    }
+
     /**
      * Apply all rules configured within App Manager. This also includes {@link #SYSTEM_RULES_PATH}.
      *
@@ -163,10 +178,12 @@ public final class ComponentsBlocker extends RulesStorageManager {
         File confPath = new File(context.getFilesDir(), "conf");
         String[] packageNamesWithTSVExt = confPath.list((dir, name) -> name.endsWith(".tsv"));
         if (packageNamesWithTSVExt != null) {
-            // Apply rules
-            for (String packageNameWithTSVExt : packageNamesWithTSVExt) {
-                try (ComponentsBlocker cb = getMutableInstance(FileUtils.trimExtension(packageNameWithTSVExt), userHandle)) {
-                    cb.applyRules(true);
+            // Apply rules, IFW rules are written together at the end
+            try (ComponentStateApplier applier = new ComponentStateApplier(true)) {
+                for (String packageNameWithTSVExt : packageNamesWithTSVExt) {
+                    try (ComponentsBlocker cb = getMutableInstance(FileUtils.trimExtension(packageNameWithTSVExt), userHandle)) {
+                        cb.applyRules(true, applier);
+                    }
                 }
             }
         }
@@ -267,13 +284,13 @@ public final class ComponentsBlocker extends RulesStorageManager {
     /**
      * Save the disabled components in the {@link #SYSTEM_RULES_PATH}.
      *
-     * @throws IOException If it fails to write to the destination file
+     * @throws IOException If the instance is read only
      */
-    private void saveDisabledComponents() throws IOException, RemoteException {
+    private void saveDisabledComponents(@NonNull ComponentStateApplier applier) throws IOException {
         if (readOnly) throw new IOException("Saving disabled components in read only mode.");
         if (componentCount() == 0) {
             // No components set, delete if already exists
-            rulesFile.delete();
+            applier.saveIfwRules(rulesFile, null);
             return;
         }
         StringBuilder activities = new StringBuilder();
@@ -306,17 +323,7 @@ public final class ComponentsBlocker extends RulesStorageManager {
                 ((receivers.length() == 0) ? "" : "<broadcast block=\"true\" log=\"false\">\n" + receivers + "</broadcast>\n") +
                 "</rules>";
         // Save rules
-        ProxyOutputStream rulesStream = null;
-        try {
-            rulesStream = rulesFile.startWrite();
-            Log.d(TAG, "Rules: " + rules);
-            rulesStream.write(rules.getBytes());
-            rulesFile.finishWrite(rulesStream);
-            Runner.runCommand(new String[]{"chmod", "0666", rulesFile.getBaseFile().getAbsolutePath()});
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to write rules for package " + packageName, e);
-            rulesFile.failWrite(rulesStream);
-        }
+        applier.saveIfwRules(rulesFile, rules);
     }
 
     /**
@@ -346,54 +353,57 @@ public final class ComponentsBlocker extends RulesStorageManager {
      */
     @WorkerThread
     public void applyRules(boolean apply) {
-        try {
+        try (ComponentStateApplier applier = new ComponentStateApplier(false)) {
+            applyRules(apply, applier);
+        }
+    }
+
+    /**
+     * Same as {@link #applyRules(boolean)}, but the components states and the IFW rules are set via the given
+     * applier so that the IFW rules of several packages can be saved together.
+     */
+    @WorkerThread
+    void applyRules(boolean apply, @NonNull ComponentStateApplier applier) {
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "applyRules", packageName)) {
+            span.setArg("apply", apply);
             // Validate components
             validateComponents();
             // Save blocked IFW components
-            if (apply) saveDisabledComponents();
+            if (apply) {
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "saveDisabledComponents", packageName)) {
+                    saveDisabledComponents(applier);
+                }
+            }
             // Enable/disable components
             List<ComponentRule> allEntries = getAllComponents();
             Log.d(TAG, "All: " + allEntries.toString());
-            if (apply) {
-                // Enable the components that need removal and disable requested components
-                for (ComponentRule entry : allEntries) {
-                    if (ComponentRule.COMPONENT_TO_BE_UNBLOCKED.equals(entry.getComponentStatus())) {
-                        // Enable components that are removed
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(new ComponentName(packageName, entry.name),
-                                    PackageManager.COMPONENT_ENABLED_STATE_DEFAULT, 0, userHandle);
-                            removeEntry(entry);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "Could not enable component: " + packageName + "/" + entry.name);
-                        }
-                    } else {
-                        // Disable components
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(new ComponentName(packageName, entry.name),
-                                    PackageManager.COMPONENT_ENABLED_STATE_DISABLED, 0, userHandle);
-                            setComponent(entry.name, entry.type, ComponentRule.COMPONENT_BLOCKED);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "Could not disable component: " + packageName + "/" + entry.name);
-                        }
-                    }
-                }
-            } else {
-                // Enable all, remove to be removed components and set others to be blocked
-                for (ComponentRule entry : allEntries) {
-                    // Enable components if they're disabled by other methods.
+            Map<String, Integer> newStates = new LinkedHashMap<>(allEntries.size());
+            for (ComponentRule entry : allEntries) {
+                if (!apply || ComponentRule.COMPONENT_TO_BE_UNBLOCKED.equals(entry.getComponentStatus())) {
+                    // Enable components that are removed, or all components if they're disabled by other methods.
                     // IFW rules are already removed above.
-                    try {
-                        PackageManagerCompat.setComponentEnabledSetting(new ComponentName(packageName, entry.name),
-                                PackageManager.COMPONENT_ENABLED_STATE_DEFAULT, 0, userHandle);
-                        if (ComponentRule.COMPONENT_TO_BE_UNBLOCKED.equals(entry.getComponentStatus())) {
-                            removeEntry(entry);
-                        } else setComponent(entry.name, entry.type, ComponentRule.COMPONENT_TO_BE_BLOCKED);
-                    } catch (RemoteException e) {
-                        Log.e(TAG, "Could not enable component: " + packageName + "/" + entry.name);
-                    }
+                    newStates.put(entry.name, PackageManager.COMPONENT_ENABLED_STATE_DEFAULT);
+                } else {
+                    // Disable components
+                    newStates.put(entry.name, PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
                 }
             }
-        } catch (IOException | RemoteException e) {
+            span.setArg("components", newStates.size());
+            Set<String> failedComponents;
+            try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "setComponentStates", packageName)) {
+                failedComponents = applier.setComponentStates(packageName, newStates, userHandle);
+            }
+            for (ComponentRule entry : allEntries) {
+                if (failedComponents.contains(entry.name)) continue;
+                if (ComponentRule.COMPONENT_TO_BE_UNBLOCKED.equals(entry.getComponentStatus())) {
+                    removeEntry(entry);
+                } else if (apply) {
+                    setComponent(entry.name, entry.type, ComponentRule.COMPONENT_BLOCKED);
+                } else {
+                    setComponent(entry.name, entry.type, ComponentRule.COMPONENT_TO_BE_BLOCKED);
+                }
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
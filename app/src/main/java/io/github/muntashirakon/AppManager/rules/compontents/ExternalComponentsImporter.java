@@ -28,6 +28,7 @@ import java.util.List;
 
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
 import io.github.muntashirakon.AppManager.appops.AppOpsService;
+import io.github.muntashirakon.AppManager.appops.AppOpsSnapshot;
 import io.github.muntashirakon.AppManager.rules.RuleType;
 import io.github.muntashirakon.AppManager.runner.Runner;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
@@ -46,16 +47,34 @@ public class ExternalComponentsImporter {
     public static List<UserPackagePair> setModeToFilteredAppOps(@NonNull Collection<UserPackagePair> userPackagePairs,
                                                                 int[] appOps,
                                                                 @AppOpsManager.Mode int mode) {
+        return setModeToFilteredAppOps(AppOpsSnapshot.capture(new AppOpsService(), appOps), userPackagePairs,
+                appOps, mode);
+    }
+
+    /**
+     * Set the mode of the app ops whose mode in the snapshot differs from the given mode. Packages
+     * whose app ops are already in the given mode are left untouched.
+     */
+    @WorkerThread
+    @NonNull
+    public static List<UserPackagePair> setModeToFilteredAppOps(@NonNull AppOpsSnapshot snapshot,
+                                                                @NonNull Collection<UserPackagePair> userPackagePairs,
+                                                                int[] appOps,
+                                                                @AppOpsManager.Mode int mode) {
         List<UserPackagePair> failedPkgList = new ArrayList<>();
         Collection<Integer> appOpList;
-        AppOpsService appOpsService = new AppOpsService();
         for (UserPackagePair pair : userPackagePairs) {
-            appOpList = PackageUtils.getFilteredAppOps(pair.getPackageName(), pair.getUserHandle(), appOps, mode);
+            int uid = PackageUtils.getAppUid(pair);
+            appOpList = PackageUtils.getFilteredAppOps(snapshot, pair.getPackageName(), uid, appOps, mode);
+            if (appOpList.isEmpty()) {
+                // Nothing to change
+                continue;
+            }
             try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(),
                     pair.getUserHandle())) {
                 for (int appOp : appOpList) {
                     try {
-                        appOpsService.setMode(appOp, PackageUtils.getAppUid(pair), pair.getPackageName(), mode);
+                        snapshot.setMode(appOp, uid, pair.getPackageName(), mode);
                         cb.setAppOp(appOp, mode);
                     } catch (Exception ignore) {
                     }
@@ -0,0 +1,146 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.runner;
+
+import android.os.SystemClock;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.Utils;
+
+/**
+ * A pool of long-lived root shells. Each command is run as a job of an idle shell, so that commands
+ * from different threads can run in parallel without spawning a new shell each time.
+ * <p>
+ * If a root shell cannot be created, the pool is not used for a while and the callers fall back to
+ * the main shell of libsu.
+ */
+final class RootShellPool {
+    public static final String TAG = RootShellPool.class.getSimpleName();
+
+    private static final int MAX_SHELLS = Math.max(2, Math.min(4, Utils.getTotalCores()));
+    private static final long ACQUIRE_TIMEOUT_SECONDS = 30;
+    // A failure to obtain root can be transient, e.g. the root manager did not respond in time
+    private static final long ROOT_RETRY_INTERVAL_MILLIS = 30_000;
+
+    private final LinkedBlockingDeque<Shell> mIdleShells = new LinkedBlockingDeque<>();
+    @GuardedBy("this")
+    private int mShellCount = 0;
+    // Time at which a root shell could not be created, or 0
+    private volatile long mRootUnavailableSince = 0;
+
+    /**
+     * Run the commands in a pooled root shell.
+     *
+     * @return The result, or {@code null} if no root shell could be obtained
+     */
+    @WorkerThread
+    @Nullable
+    Runner.Result exec(@NonNull List<String> commands, @NonNull List<InputStream> inputStreams) {
+        Shell shell = acquire();
+        if (shell == null) {
+            return null;
+        }
+        List<String> stdout = new ArrayList<>();
+        List<String> stderr = new ArrayList<>();
+        try {
+            Shell.Job job = shell.newJob().to(stdout, stderr);
+            // Written to the shell at once
+            job.add(commands.toArray(new String[0]));
+            for (InputStream is : inputStreams) {
+                job.add(is);
+            }
+            Shell.Result result = job.exec();
+            return new Runner.Result(stdout, stderr, result.getCode());
+        } finally {
+            release(shell);
+        }
+    }
+
+    @Nullable
+    private Shell acquire() {
+        long rootUnavailableSince = mRootUnavailableSince;
+        if (rootUnavailableSince != 0) {
+            if (SystemClock.elapsedRealtime() - rootUnavailableSince < ROOT_RETRY_INTERVAL_MILLIS) {
+                return null;
+            }
+            // Try again
+            mRootUnavailableSince = 0;
+        }
+        Shell shell;
+        while ((shell = mIdleShells.pollFirst()) != null) {
+            if (shell.isAlive()) {
+                return shell;
+            }
+            discard(shell);
+        }
+        synchronized (this) {
+            if (mShellCount < MAX_SHELLS) {
+                shell = newShell();
+                if (shell != null) {
+                    ++mShellCount;
+                }
+                return shell;
+            }
+        }
+        // All the shells are busy, wait for one
+        try {
+            shell = mIdleShells.pollFirst(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (shell != null && !shell.isAlive()) {
+            discard(shell);
+            return acquire();
+        }
+        return shell;
+    }
+
+    private void release(@NonNull Shell shell) {
+        if (shell.isAlive()) {
+            // Most recently used shell first
+            mIdleShells.offerFirst(shell);
+        } else discard(shell);
+    }
+
+    private void discard(@NonNull Shell shell) {
+        synchronized (this) {
+            --mShellCount;
+        }
+        try {
+            shell.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Nullable
+    private Shell newShell() {
+        try {
+            Shell shell = Shell.Builder.create()
+                    .setFlags(Shell.FLAG_MOUNT_MASTER)
+                    .build();
+            if (shell.isRoot()) {
+                return shell;
+            }
+            shell.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Could not create root shell", e);
+        }
+        mRootUnavailableSince = SystemClock.elapsedRealtime();
+        return null;
+    }
+}
@@ -5,11 +5,15 @@ package io.github.muntashirakon.AppManager.runner;
 import com.topjohnwu.superuser.Shell;
 
 import java.io.InputStream;
+import java.util.Collections;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 class RootShellRunner extends Runner {
+    private final RootShellPool shellPool = new RootShellPool();
+
     @WorkerThread
     @NonNull
     @Override
@@ -22,4 +26,17 @@ class RootShellRunner extends Runner {
         clear();
         return new Result(result.getOut(), result.getErr(), result.getCode());
     }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    protected Result runSingle(@NonNull String command, @Nullable InputStream inputStream) {
+        // Pooled shells are independent of each other and do not require locking
+        Result result = shellPool.exec(Collections.singletonList(command), inputStream != null
+                ? Collections.singletonList(inputStream) : Collections.emptyList());
+        if (result != null) {
+            return result;
+        }
+        return super.runSingle(command, inputStream);
+    }
 }
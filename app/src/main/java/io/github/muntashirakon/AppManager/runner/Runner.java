@@ -17,6 +17,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Runs shell commands in the current mode of operation.
+ * <p>
+ * The static {@code runCommand} methods are not serialised with each other. In root mode, each
+ * command runs in its own job of a pooled shell, and commands from different threads may run at the
+ * same time. Commands must therefore not depend on the state left by another command, e.g. the
+ * working directory or an exported variable, nor on the order of commands sent from other threads.
+ * Commands that need an order must be sent from the same thread, or together via
+ * {@link #runCommands(List)}. The other runners still run one command at a time.
+ */
 public abstract class Runner {
     public static final String TAG = "Runner";
 
@@ -99,7 +109,7 @@ public abstract class Runner {
     }
 
     @NonNull
-    public static Runner getRootInstance() {
+    public static synchronized Runner getRootInstance() {
         if (rootShellRunner == null) {
             rootShellRunner = new RootShellRunner();
             Log.d(TAG, "RootShellRunner");
@@ -108,7 +118,7 @@ public abstract class Runner {
     }
 
     @NonNull
-    public static Runner getAdbInstance() {
+    public static synchronized Runner getAdbInstance() {
         if (adbShellRunner == null) {
             adbShellRunner = new AdbShellRunner();
             Log.d(TAG, "AdbShellRunner");
@@ -116,7 +126,7 @@ public abstract class Runner {
         return adbShellRunner;
     }
 
-    public static Runner getUserInstance() {
+    public static synchronized Runner getUserInstance() {
         if (userShellRunner == null) {
             userShellRunner = new UserShellRunner();
             Log.d(TAG, "UserShellRunner");
@@ -125,32 +135,32 @@ public abstract class Runner {
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull String command) {
+    public static Result runCommand(@NonNull String command) {
         return runCommand(getInstance(), command, null);
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull String[] command) {
+    public static Result runCommand(@NonNull String[] command) {
         return runCommand(getInstance(), command, null);
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull String command, @Nullable InputStream inputStream) {
+    public static Result runCommand(@NonNull String command, @Nullable InputStream inputStream) {
         return runCommand(getInstance(), command, inputStream);
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull String[] command, @Nullable InputStream inputStream) {
+    public static Result runCommand(@NonNull String[] command, @Nullable InputStream inputStream) {
         return runCommand(getInstance(), command, inputStream);
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull Runner runner, @NonNull String command) {
+    public static Result runCommand(@NonNull Runner runner, @NonNull String command) {
         return runner.run(command, null);
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull Runner runner, @NonNull String[] command) {
+    public static Result runCommand(@NonNull Runner runner, @NonNull String[] command) {
         StringBuilder cmd = new StringBuilder();
         for (String part : command) {
             cmd.append(RunnerUtils.escape(part)).append(" ");
@@ -159,12 +169,12 @@ public abstract class Runner {
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull Runner runner, @NonNull String command, @Nullable InputStream inputStream) {
+    public static Result runCommand(@NonNull Runner runner, @NonNull String command, @Nullable InputStream inputStream) {
         return runner.run(command, inputStream);
     }
 
     @NonNull
-    synchronized public static Result runCommand(@NonNull Runner runner, @NonNull String[] command, @Nullable InputStream inputStream) {
+    public static Result runCommand(@NonNull Runner runner, @NonNull String[] command, @Nullable InputStream inputStream) {
         StringBuilder cmd = new StringBuilder();
         for (String part : command) {
             cmd.append(RunnerUtils.escape(part)).append(" ");
@@ -172,6 +182,43 @@ public abstract class Runner {
         return runCommand(runner, cmd.toString(), inputStream);
     }
 
+    /**
+     * Run several commands in a single shell job, i.e. the commands are sent to the shell at once.
+     * Unlike running them one by one, the commands are not isolated from each other: they share the
+     * same shell and must not read from the standard input or exit the shell.
+     *
+     * @return Results in the order of the commands. If the shell terminated prematurely, the
+     * remaining commands have a failed result.
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Result> runCommands(@NonNull List<String[]> commands) {
+        return runCommands(getInstance(), commands);
+    }
+
+    @WorkerThread
+    @NonNull
+    public static List<Result> runCommands(@NonNull Runner runner, @NonNull List<String[]> commands) {
+        List<String> escapedCommands = new ArrayList<>(commands.size());
+        for (String[] command : commands) {
+            StringBuilder cmd = new StringBuilder();
+            for (String part : command) {
+                cmd.append(RunnerUtils.escape(part)).append(" ");
+            }
+            escapedCommands.add(cmd.toString());
+        }
+        return runner.runBatch(escapedCommands);
+    }
+
+    @NonNull
+    public static RunnerMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static final RunnerMetrics metrics = new RunnerMetrics();
+    // A command is unlikely to output this by itself
+    private static final String BATCH_TOKEN = "AM_END_OF_CMD_8c2a";
+
     protected final List<String> commands;
     protected final List<InputStream> inputStreams;
 
@@ -199,9 +246,87 @@ public abstract class Runner {
 
     @NonNull
     private Result run(@NonNull String command, @Nullable InputStream inputStream) {
+        long startTime = System.nanoTime();
+        Result result = runSingle(command, inputStream);
+        metrics.record(1, result.isSuccessful() ? 0 : 1, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Run a single command. Runners capable of running commands concurrently should override this
+     * method without using the shared {@link #commands} and {@link #inputStreams}.
+     */
+    @WorkerThread
+    @NonNull
+    protected synchronized Result runSingle(@NonNull String command, @Nullable InputStream inputStream) {
         clear();
         addCommand(command);
         if (inputStream != null) add(inputStream);
         return runCommand();
     }
+
+    @WorkerThread
+    @NonNull
+    private List<Result> runBatch(@NonNull List<String> commands) {
+        int count = commands.size();
+        if (count == 0) return Collections.emptyList();
+        // Each command is followed by a token containing its index and exit code in the stdout and
+        // a token containing its index in the stderr
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            script.append(commands.get(i)).append('\n')
+                    .append("echo \"").append(BATCH_TOKEN).append(' ').append(i).append(" $?\"\n")
+                    .append("echo \"").append(BATCH_TOKEN).append(' ').append(i).append("\" >&2\n");
+        }
+        long startTime = System.nanoTime();
+        Result batchResult = runSingle(script.toString(), null);
+        List<List<String>> stdouts = new ArrayList<>(count);
+        List<List<String>> stderrs = new ArrayList<>(count);
+        int[] exitCodes = new int[count];
+        splitBatchOutput(batchResult.getOutputAsList(), stdouts, exitCodes, count);
+        splitBatchOutput(batchResult.getStderr(), stderrs, null, count);
+        List<Result> results = new ArrayList<>(count);
+        int failedCount = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i < stdouts.size()) {
+                results.add(new Result(stdouts.get(i), i < stderrs.size() ? stderrs.get(i)
+                        : Collections.emptyList(), exitCodes[i]));
+                if (exitCodes[i] != 0) ++failedCount;
+            } else {
+                // The shell terminated before running this command
+                results.add(new Result());
+                ++failedCount;
+            }
+        }
+        metrics.record(count, failedCount, System.nanoTime() - startTime);
+        return results;
+    }
+
+    private static void splitBatchOutput(@NonNull List<String> lines, @NonNull List<List<String>> outputs,
+                                         @Nullable int[] exitCodes, int count) {
+        List<String> current = new ArrayList<>();
+        for (String line : lines) {
+            int pos = line.indexOf(BATCH_TOKEN);
+            if (pos == -1) {
+                current.add(line);
+                continue;
+            }
+            if (pos > 0) {
+                // The command did not end its output with a newline
+                current.add(line.substring(0, pos));
+            }
+            if (exitCodes != null) {
+                String[] fields = line.substring(pos).split(" ");
+                if (fields.length >= 3) {
+                    try {
+                        exitCodes[Integer.parseInt(fields[1])] = Integer.parseInt(fields[2]);
+                    } catch (NumberFormatException | IndexOutOfBoundsException ignore) {
+                    }
+                }
+            }
+            outputs.add(current);
+            if (outputs.size() == count) return;
+            current = new ArrayList<>();
+        }
+    }
 }
@@ -0,0 +1,94 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.runner;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput counters of the commands run via {@link Runner}.
+ */
+public final class RunnerMetrics {
+    private final long mStartTime = SystemClock.elapsedRealtime();
+    private final AtomicLong mCommandCount = new AtomicLong();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mFailedCount = new AtomicLong();
+    private final AtomicLong mTotalLatencyNanos = new AtomicLong();
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+
+    RunnerMetrics() {
+    }
+
+    /**
+     * Record a single command or a batch of commands.
+     *
+     * @param commandCount Number of commands executed
+     * @param failedCount  Number of commands that exited with a non-zero exit code
+     * @param elapsedNanos Total time taken to execute the commands
+     */
+    void record(int commandCount, int failedCount, long elapsedNanos) {
+        mCommandCount.addAndGet(commandCount);
+        mFailedCount.addAndGet(failedCount);
+        mTotalLatencyNanos.addAndGet(elapsedNanos);
+        if (commandCount > 1) {
+            mBatchCount.incrementAndGet();
+        }
+        long perCommand = elapsedNanos / Math.max(commandCount, 1);
+        long max;
+        do {
+            max = mMaxLatencyNanos.get();
+        } while (perCommand > max && !mMaxLatencyNanos.compareAndSet(max, perCommand));
+    }
+
+    public long getCommandCount() {
+        return mCommandCount.get();
+    }
+
+    public long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    public long getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    /**
+     * Average time taken by a command in milliseconds. For batches, the time is distributed evenly
+     * among the commands of the batch.
+     */
+    public double getAverageLatencyMillis() {
+        long count = mCommandCount.get();
+        if (count == 0) return 0;
+        return mTotalLatencyNanos.get() / 1_000_000.0 / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return mMaxLatencyNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Number of commands executed per second of shell time.
+     */
+    public double getThroughput() {
+        long totalNanos = mTotalLatencyNanos.get();
+        if (totalNanos == 0) return 0;
+        return mCommandCount.get() * 1_000_000_000.0 / totalNanos;
+    }
+
+    public long getUptimeMillis() {
+        return SystemClock.elapsedRealtime() - mStartTime;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "RunnerMetrics{commands=%d, batches=%d, failed=%d, " +
+                        "avgLatency=%.2fms, maxLatency=%.2fms, throughput=%.1f/s}", getCommandCount(),
+                getBatchCount(), getFailedCount(), getAverageLatencyMillis(), getMaxLatencyMillis(),
+                getThroughput());
+    }
+}
@@ -28,6 +28,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.misc.SystemProperties;
 import io.github.muntashirakon.AppManager.servermanager.LocalServer;
 import io.github.muntashirakon.AppManager.servermanager.ServerConfig;
 import io.github.muntashirakon.AppManager.settings.MainPreferences;
@@ -174,6 +175,16 @@ public final class RunnerUtils {
 
     @WorkerThread
     public static void setModeOfOps(FragmentActivity activity, boolean force) {
+        try {
+            setModeOfOpsInternal(activity, force);
+        } finally {
+            // The shell used for the system properties may have changed
+            SystemProperties.refresh();
+        }
+    }
+
+    @WorkerThread
+    private static void setModeOfOpsInternal(FragmentActivity activity, boolean force) {
         String mode = AppPref.getString(AppPref.PrefKey.PREF_MODE_OF_OPS_STR);
         try {
             if (!force) {
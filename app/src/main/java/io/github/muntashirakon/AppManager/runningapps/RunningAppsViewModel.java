@@ -32,14 +32,15 @@ import io.github.muntashirakon.AppManager.runner.Runner;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.utils.AppPref;
-import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
 public class RunningAppsViewModel extends AndroidViewModel {
     @RunningAppsActivity.SortOrder
     private int sortOrder;
     @RunningAppsActivity.Filter
     private int filter;
-    private final MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO);
 
     public RunningAppsViewModel(@NonNull Application application) {
         super(application);
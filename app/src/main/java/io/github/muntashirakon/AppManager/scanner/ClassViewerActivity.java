@@ -2,15 +2,8 @@
 
 package io.github.muntashirakon.AppManager.scanner;
 
-// NOTE: Some patterns here are taken from https://github.com/billthefarmer/editor
-
-import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.StyleSpan;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -18,7 +11,10 @@ import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.widget.AppCompatEditText;
 import androidx.core.content.ContextCompat;
@@ -31,12 +27,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.github.muntashirakon.AppManager.BaseActivity;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 import io.github.muntashirakon.io.Path;
 
 // Copyright 2015 Google, Inc.
@@ -44,57 +41,22 @@ public class ClassViewerActivity extends BaseActivity {
     public static final String EXTRA_APP_NAME = "app_name";
     public static final String EXTRA_URI = "uri";
 
-    private static final Pattern SMALI_KEYWORDS = Pattern.compile(
-            "\\b(invoke-(virtual(/range|)|direct|static|interface|super|polymorphic|custom)|" +
-                    "move(-(result(-wide|-object|)|exception)|(-wide|-object|)(/16|/from16|))|" +
-                    "new-(array|instance)|const(-(string(/jumbo|)|" +
-                    "class|wide(/16|/32|/high16|))|/4|/16|/high16|ructor|)|private|public|protected|final|static|" +
-                    "(add|sub|cmp|mul|div|rem|and|or|xor|shl|shr|ushr)-(int|float|double|long)(/2addr|/lit16|/lit8|)|" +
-                    "(neg|not)-(int|long|float|double)|(int|long|float|double|byte)(-to|)-(int|long|float|double|byte)|" +
-                    "fill-array-data|filled-new-array(/range|)|([ais](ge|pu)t|return)(-(object|boolean|byte|char|short|wide|void)|)|" +
-                    "check-cast|throw|array-length|goto|if-((ge|le|ne|eq|lt|gt)z?)|monitor-(enter|exit)|synthetic|system)\\b", Pattern.MULTILINE);
-
-    private static final Pattern SMALI_CLASS = Pattern.compile("\\[*(L\\w+/[^;]+;|[ZBCSIJFDV])", Pattern.MULTILINE);
-
-    private static final Pattern SMALI_COMMENT = Pattern.compile("#.*$", Pattern.MULTILINE);
-
-    private static final Pattern SMALI_VALUE = Pattern.compile("((\"(?:\\\\\\\\[^\"]|\\\\\\\\\"|.)*?\")" +
-            "|\\b-?(0x[0-9a-f]+|[0-9]+)\\b)", Pattern.MULTILINE);
-
-    private static final Pattern SMALI_LABELS = Pattern.compile("\\b([pv][0-9]+|:(?!L)[\\w]+|->)\\b",
-            Pattern.MULTILINE);
-
-    private static final Pattern JAVA_KEYWORDS = Pattern.compile(
-            "\\b(abstract|and|arguments|as(sert|sociativity)?|auto|break|" +
-                    "case|catch|chan|char|class|con(st|tinue|venience)|continue|" +
-                    "de(bugger|fault|fer|in|init)|didset|do(ne)?|dynamic" +
-                    "(type)?|el(if|se)|enum|esac|eval|ex(cept|ec|plicit|port|" +
-                    "tends|tension|tern)|fallthrough|fi(nal|nally)?|for|" +
-                    "friend|from|func(tion)?|get|global|go(to)?|if|" +
-                    "im(plements|port)|in(fix|it|line|out|stanceof|terface|" +
-                    "ternal)|lazy|left|let|local|map|mut(able|ating)|" +
-                    "namespace|native|new|nonmutating|not|" +
-                    "operator|optional|or|override|package|pass|postfix|" +
-                    "pre(cedence|fix)|print|private|prot(ected|ocol)|public|" +
-                    "raise|range|register|required|return|right|select|self|" +
-                    "set|signed|sizeof|static|strictfp|struct|subscript|super|" +
-                    "switch|synchronized|template|th(en|rows?)|transient|" +
-                    "try|type(alias|def|id|name|of)?|un(ion|owned|signed)|" +
-                    "using|var|virtual|volatile|weak|wh(ere|ile)|willset|" +
-                    "with|yield)\\b", Pattern.MULTILINE);
-
-    private static final Pattern JAVA_TYPES = Pattern.compile
-            ("\\b(boolean|byte|char|double|float|int|long|short|void|this)\\b|[()\\[\\]{};]", Pattern.MULTILINE);
-    private static final Pattern JAVA_COMMENT = Pattern.compile("//.*$|(?s)/\\*.*?\\*/", Pattern.MULTILINE);
-    private static final Pattern JAVA_CLASS = Pattern.compile
-            ("\\b[A-Z][A-Za-z0-9_]+\\b", Pattern.MULTILINE);
-    private static final Pattern JAVA_VALUE = Pattern.compile("(\"(?:\\\\\\\\[^\"]|\\\\\\\\\"|.)*?\")" +
-            "|\\b((?!\\d)-?(0x[\\da-f]+|\\d+)\\.?0?[fl]?|true|false|null)\\b", Pattern.MULTILINE);
+    // Enough to fill the first screen
+    private static final int FIRST_SCREEN_CHARS = 16 * 1024;
+    private static final int TOKENIZER_CHUNK_CHARS = 64 * 1024;
 
+    // Loaded by the workers, and read by the UI thread when saving
+    @Nullable
+    private volatile String mSmaliContent;
+    @Nullable
+    private volatile String mJavaContent;
     @Nullable
-    private SpannableString formattedSmaliContent;
+    private volatile CodeTokenizer mSmaliTokenizer;
     @Nullable
-    private SpannableString formattedJavaContent;
+    private volatile CodeTokenizer mJavaTokenizer;
+    @Nullable
+    private CodeHighlighter mHighlighter;
+    private final TaskScope mExecutor = WorkerPools.newScope(WorkerPools.LANE_CPU);
     private boolean isWrapped = true;  // Wrap by default
     private AppCompatEditText container;
     private LinearProgressIndicator mProgressIndicator;
@@ -109,9 +71,8 @@ public class ClassViewerActivity extends BaseActivity {
                     return;
                 }
                 try (OutputStream outputStream = getContentResolver().openOutputStream(uri)) {
-                    Objects.requireNonNull(outputStream).write(isDisplayingSmali ?
-                            formattedSmaliContent.toString().getBytes(StandardCharsets.UTF_8) :
-                            formattedJavaContent.toString().getBytes(StandardCharsets.UTF_8));
+                    Objects.requireNonNull(outputStream).write(Objects.requireNonNull(isDisplayingSmali ?
+                            mSmaliContent : mJavaContent).getBytes(StandardCharsets.UTF_8));
                     outputStream.flush();
                     Toast.makeText(this, R.string.saved_successfully, Toast.LENGTH_SHORT).show();
                 } catch (IOException e) {
@@ -149,7 +110,20 @@ public class ClassViewerActivity extends BaseActivity {
         updateUi();
     }
 
+    @Override
+    protected void onDestroy() {
+        mExecutor.shutdownNow();
+        if (mHighlighter != null) {
+            mHighlighter.detach();
+        }
+        super.onDestroy();
+    }
+
     private void updateUi() {
+        if (mHighlighter != null) {
+            mHighlighter.detach();
+            mHighlighter = null;
+        }
         if (container != null) container.setVisibility(View.GONE);
         if (isWrapped) container = findViewById(R.id.any_view_wrapped);
         else container = findViewById(R.id.any_view);
@@ -166,15 +140,13 @@ public class ClassViewerActivity extends BaseActivity {
 
     private void displayJavaContent() {
         mProgressIndicator.show();
-        final int typeClassColor = ContextCompat.getColor(this, R.color.ocean_blue);
-        final int keywordsColor = ContextCompat.getColor(this, R.color.purple_y);
-        final int commentColor = ContextCompat.getColor(this, R.color.textColorSecondary);
-        final int valueColor = ContextCompat.getColor(this, R.color.redder_than_you);
-        new Thread(() -> {
-            if (formattedJavaContent == null) {
-                String javaContent;
+        mExecutor.submit(() -> {
+            if (mJavaTokenizer == null) {
                 try {
-                    javaContent = ScannerUtils.toJavaCode(Objects.requireNonNull(formattedSmaliContent).toString(), -1);
+                    if (mSmaliContent == null) {
+                        mSmaliContent = readSmaliContent();
+                    }
+                    mJavaContent = ScannerUtils.toJavaCode(mSmaliContent, -1);
                 } catch (Throwable e) {
                     runOnUiThread(() -> {
                         Toast.makeText(this, e.toString(), Toast.LENGTH_LONG).show();
@@ -182,57 +154,19 @@ public class ClassViewerActivity extends BaseActivity {
                     });
                     return;
                 }
-                formattedJavaContent = new SpannableString(javaContent);
-                Matcher matcher = JAVA_TYPES.matcher(javaContent);
-                while (matcher.find()) {
-                    formattedJavaContent.setSpan(new ForegroundColorSpan(typeClassColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(JAVA_CLASS);
-                while (matcher.find()) {
-                    formattedJavaContent.setSpan(new ForegroundColorSpan(typeClassColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(JAVA_KEYWORDS);
-                while (matcher.find()) {
-                    formattedJavaContent.setSpan(new ForegroundColorSpan(keywordsColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    formattedJavaContent.setSpan(new StyleSpan(Typeface.BOLD), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(JAVA_VALUE);
-                while (matcher.find()) {
-                    formattedJavaContent.setSpan(new ForegroundColorSpan(valueColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(JAVA_COMMENT);
-                while (matcher.find()) {
-                    formattedJavaContent.setSpan(new ForegroundColorSpan(commentColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    formattedJavaContent.setSpan(new StyleSpan(Typeface.ITALIC), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
+                mJavaTokenizer = new CodeTokenizer(mJavaContent, CodeTokenizer.LANGUAGE_JAVA);
             }
-            runOnUiThread(() -> {
-                container.setText(formattedJavaContent);
-                mProgressIndicator.hide();
-            });
-        }).start();
+            displayCode(mJavaTokenizer);
+        });
     }
 
     private void displaySmaliContent() {
         mProgressIndicator.show();
-        final int typeClassColor = ContextCompat.getColor(this, R.color.ocean_blue);
-        final int keywordsColor = ContextCompat.getColor(this, R.color.purple_y);
-        final int commentColor = ContextCompat.getColor(this, R.color.textColorSecondary);
-        final int valueColor = ContextCompat.getColor(this, R.color.redder_than_you);
-        final int labelColor = ContextCompat.getColor(this, R.color.green_mountain);
-        new Thread(() -> {
-            if (formattedSmaliContent == null) {
-                String smaliContent;
+        mExecutor.submit(() -> {
+            if (mSmaliTokenizer == null) {
                 try {
-                    try (InputStream is = smaliPath.openInputStream()) {
-                        smaliContent = FileUtils.getInputStreamContent(is);
+                    if (mSmaliContent == null) {
+                        mSmaliContent = readSmaliContent();
                     }
                 } catch (IOException e) {
                     runOnUiThread(() -> {
@@ -241,42 +175,72 @@ public class ClassViewerActivity extends BaseActivity {
                     });
                     return;
                 }
-                formattedSmaliContent = new SpannableString(smaliContent);
-                Matcher matcher = SMALI_VALUE.matcher(smaliContent);
-                while (matcher.find()) {
-                    formattedSmaliContent.setSpan(new ForegroundColorSpan(valueColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(SMALI_LABELS);
-                while (matcher.find()) {
-                    formattedSmaliContent.setSpan(new ForegroundColorSpan(labelColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(SMALI_CLASS);
-                while (matcher.find()) {
-                    formattedSmaliContent.setSpan(new ForegroundColorSpan(typeClassColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(SMALI_KEYWORDS);
-                while (matcher.find()) {
-                    formattedSmaliContent.setSpan(new ForegroundColorSpan(keywordsColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    formattedSmaliContent.setSpan(new StyleSpan(Typeface.BOLD), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
-                matcher.usePattern(SMALI_COMMENT);
-                while (matcher.find()) {
-                    formattedSmaliContent.setSpan(new ForegroundColorSpan(commentColor), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    formattedSmaliContent.setSpan(new StyleSpan(Typeface.ITALIC), matcher.start(),
-                            matcher.end(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                }
+                mSmaliTokenizer = new CodeTokenizer(mSmaliContent, CodeTokenizer.LANGUAGE_SMALI);
             }
-            runOnUiThread(() -> {
-                container.setText(formattedSmaliContent);
+            displayCode(mSmaliTokenizer);
+        });
+    }
+
+    @WorkerThread
+    @NonNull
+    private String readSmaliContent() throws IOException {
+        try (InputStream is = smaliPath.openInputStream()) {
+            return FileUtils.getInputStreamContent(is);
+        }
+    }
+
+    /**
+     * Display the code as soon as the first screen is tokenized, and highlight the rest of it as it
+     * is tokenized and scrolled into view.
+     */
+    @WorkerThread
+    private void displayCode(@NonNull CodeTokenizer tokenizer) {
+        tokenizer.tokenize(FIRST_SCREEN_CHARS);
+        runOnUiThread(() -> showCode(tokenizer));
+    }
+
+    @UiThread
+    private void showCode(@NonNull CodeTokenizer tokenizer) {
+        if (isDestroyed()) return;
+        container.setText(tokenizer.getText());
+        CodeHighlighter highlighter = new CodeHighlighter(container, tokenizer, getTokenColors());
+        highlighter.attach();
+        mHighlighter = highlighter;
+        if (tokenizer.isFinished()) {
+            mProgressIndicator.hide();
+            return;
+        }
+        // Tokenize the rest in a new task rather than making the worker wait for the UI thread
+        try {
+            mExecutor.submit(() -> tokenizeRemaining(tokenizer, highlighter));
+        } catch (RejectedExecutionException ignore) {
+            // The activity is being destroyed
+        }
+    }
+
+    @WorkerThread
+    private void tokenizeRemaining(@NonNull CodeTokenizer tokenizer, @NonNull CodeHighlighter highlighter) {
+        while (!tokenizer.isFinished()) {
+            if (Thread.currentThread().isInterrupted()) return;
+            tokenizer.tokenize(TOKENIZER_CHUNK_CHARS);
+            highlighter.onTokensAvailable();
+        }
+        runOnUiThread(() -> {
+            if (mHighlighter == highlighter) {
                 mProgressIndicator.hide();
-            });
-        }).start();
+            }
+        });
+    }
+
+    @NonNull
+    private int[] getTokenColors() {
+        int[] colors = new int[CodeTokenizer.TOKEN_COMMENT + 1];
+        colors[CodeTokenizer.TOKEN_KEYWORD] = ContextCompat.getColor(this, R.color.purple_y);
+        colors[CodeTokenizer.TOKEN_TYPE] = ContextCompat.getColor(this, R.color.ocean_blue);
+        colors[CodeTokenizer.TOKEN_VALUE] = ContextCompat.getColor(this, R.color.redder_than_you);
+        colors[CodeTokenizer.TOKEN_LABEL] = ContextCompat.getColor(this, R.color.green_mountain);
+        colors[CodeTokenizer.TOKEN_COMMENT] = ContextCompat.getColor(this, R.color.textColorSecondary);
+        return colors;
     }
 
     @Override
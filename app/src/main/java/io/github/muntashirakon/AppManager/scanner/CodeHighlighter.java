@@ -0,0 +1,184 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.Spannable;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+
+import java.util.BitSet;
+
+/**
+ * Highlights the tokens of a {@link CodeTokenizer} in a {@link TextView}. Only the visible region and
+ * a screen above and below it are highlighted. The text is divided into blocks, and the spans of a
+ * block are added once it comes near the visible region and removed once it is far from it, so that
+ * the number of spans does not grow with the size of the text.
+ */
+public class CodeHighlighter {
+    private static final int BLOCK_SIZE = 4096;
+    // Blocks beyond this distance (in blocks) from the visible region are unhighlighted
+    private static final int MAX_BLOCK_DISTANCE = 32;
+
+    @NonNull
+    private final TextView mView;
+    @NonNull
+    private final CodeTokenizer mTokenizer;
+    @NonNull
+    private final int[] mColors;
+    private final BitSet mHighlightedBlocks = new BitSet();
+    private final Rect mVisibleRect = new Rect();
+    private final Runnable mHighlightRunnable = () -> {
+        mHighlightPending = false;
+        highlightVisibleRegion();
+    };
+    private final ViewTreeObserver.OnScrollChangedListener mScrollListener = this::onViewChanged;
+    private final ViewTreeObserver.OnGlobalLayoutListener mLayoutListener = this::onViewChanged;
+    private boolean mHighlightPending;
+    private boolean mAttached;
+
+    /**
+     * @param colors Colors of the tokens indexed by {@link CodeTokenizer.TokenType}
+     */
+    public CodeHighlighter(@NonNull TextView view, @NonNull CodeTokenizer tokenizer, @NonNull @ColorInt int[] colors) {
+        mView = view;
+        mTokenizer = tokenizer;
+        mColors = colors;
+    }
+
+    /**
+     * Start highlighting the text of the view as it scrolls. The view must already display the text
+     * of the tokenizer.
+     */
+    @UiThread
+    public void attach() {
+        if (mAttached) return;
+        mAttached = true;
+        ViewTreeObserver observer = mView.getViewTreeObserver();
+        observer.addOnScrollChangedListener(mScrollListener);
+        observer.addOnGlobalLayoutListener(mLayoutListener);
+        onViewChanged();
+    }
+
+    @UiThread
+    public void detach() {
+        if (!mAttached) return;
+        mAttached = false;
+        ViewTreeObserver observer = mView.getViewTreeObserver();
+        observer.removeOnScrollChangedListener(mScrollListener);
+        observer.removeOnGlobalLayoutListener(mLayoutListener);
+        mView.removeCallbacks(mHighlightRunnable);
+        mHighlightPending = false;
+    }
+
+    /**
+     * Notify that more of the text has been tokenized.
+     */
+    @AnyThread
+    public void onTokensAvailable() {
+        mView.post(this::onViewChanged);
+    }
+
+    @UiThread
+    private void onViewChanged() {
+        // Highlight at most once per frame
+        if (!mAttached || mHighlightPending) return;
+        mHighlightPending = true;
+        mView.postOnAnimation(mHighlightRunnable);
+    }
+
+    @UiThread
+    private void highlightVisibleRegion() {
+        if (!mAttached) return;
+        Layout layout = mView.getLayout();
+        CharSequence text = mView.getText();
+        if (layout == null || !(text instanceof Spannable) || text.length() != mTokenizer.getText().length()) {
+            return;
+        }
+        if (!mView.getLocalVisibleRect(mVisibleRect)) {
+            return;
+        }
+        Spannable spannable = (Spannable) text;
+        int paddingTop = mView.getTotalPaddingTop();
+        int height = mVisibleRect.height();
+        int firstLine = layout.getLineForVertical(Math.max(mVisibleRect.top - paddingTop - height, 0));
+        int lastLine = layout.getLineForVertical(Math.max(mVisibleRect.bottom - paddingTop + height, 0));
+        int start = layout.getLineStart(firstLine);
+        int end = layout.getLineEnd(lastLine);
+        int tokenizedLength = mTokenizer.getTokenizedLength();
+        int firstBlock = start / BLOCK_SIZE;
+        int lastBlock = Math.max(end - 1, start) / BLOCK_SIZE;
+        // Remove far away highlights first
+        for (int block = mHighlightedBlocks.nextSetBit(0); block >= 0; block = mHighlightedBlocks.nextSetBit(block + 1)) {
+            if (block < firstBlock - MAX_BLOCK_DISTANCE || block > lastBlock + MAX_BLOCK_DISTANCE) {
+                unhighlightBlock(spannable, block);
+            }
+        }
+        for (int block = firstBlock; block <= lastBlock; ++block) {
+            if (mHighlightedBlocks.get(block)) continue;
+            int blockEnd = Math.min((block + 1) * BLOCK_SIZE, spannable.length());
+            if (blockEnd > tokenizedLength) {
+                // Highlighted once the block is tokenized
+                break;
+            }
+            highlightBlock(spannable, block, blockEnd);
+        }
+    }
+
+    @UiThread
+    private void highlightBlock(@NonNull Spannable spannable, int block, int blockEnd) {
+        int blockStart = block * BLOCK_SIZE;
+        // Tokens are clipped to the block so that each span belongs to exactly one block
+        mTokenizer.forEachToken(blockStart, blockEnd, (start, end, type) -> {
+            start = Math.max(start, blockStart);
+            end = Math.min(end, blockEnd);
+            spannable.setSpan(new TokenColorSpan(mColors[type]), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            if (type == CodeTokenizer.TOKEN_KEYWORD) {
+                spannable.setSpan(new TokenStyleSpan(Typeface.BOLD), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            } else if (type == CodeTokenizer.TOKEN_COMMENT) {
+                spannable.setSpan(new TokenStyleSpan(Typeface.ITALIC), start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        });
+        mHighlightedBlocks.set(block);
+    }
+
+    @UiThread
+    private void unhighlightBlock(@NonNull Spannable spannable, int block) {
+        int blockStart = block * BLOCK_SIZE;
+        int blockEnd = Math.min(blockStart + BLOCK_SIZE, spannable.length());
+        for (Object span : spannable.getSpans(blockStart, blockEnd, TokenSpan.class)) {
+            int spanStart = spannable.getSpanStart(span);
+            if (spanStart >= blockStart && spanStart < blockEnd) {
+                spannable.removeSpan(span);
+            }
+        }
+        mHighlightedBlocks.clear(block);
+    }
+
+    /**
+     * Marks the spans added by the highlighter.
+     */
+    private interface TokenSpan {
+    }
+
+    private static class TokenColorSpan extends ForegroundColorSpan implements TokenSpan {
+        TokenColorSpan(@ColorInt int color) {
+            super(color);
+        }
+    }
+
+    private static class TokenStyleSpan extends StyleSpan implements TokenSpan {
+        TokenStyleSpan(int style) {
+            super(style);
+        }
+    }
+}
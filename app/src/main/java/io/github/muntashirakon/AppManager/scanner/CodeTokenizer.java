@@ -0,0 +1,546 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A single-pass tokenizer for smali and Java code used for syntax highlighting. The text is tokenized
+ * line by line, in chunks, so that the beginning of the text can be highlighted before the rest of
+ * it is tokenized. The tokens are stored in a compact int array, and they can be read while the
+ * tokenization is still in progress.
+ */
+public class CodeTokenizer {
+    @IntDef({LANGUAGE_SMALI, LANGUAGE_JAVA})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Language {
+    }
+
+    public static final int LANGUAGE_SMALI = 0;
+    public static final int LANGUAGE_JAVA = 1;
+
+    @IntDef({TOKEN_KEYWORD, TOKEN_TYPE, TOKEN_VALUE, TOKEN_LABEL, TOKEN_COMMENT})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface TokenType {
+    }
+
+    public static final int TOKEN_KEYWORD = 1;
+    public static final int TOKEN_TYPE = 2;
+    public static final int TOKEN_VALUE = 3;
+    public static final int TOKEN_LABEL = 4;
+    public static final int TOKEN_COMMENT = 5;
+
+    public interface TokenConsumer {
+        void accept(int start, int end, @TokenType int type);
+    }
+
+    private static final int TYPE_BITS = 3;
+    private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+
+    private static final Set<String> SMALI_KEYWORDS = new HashSet<>();
+    private static final Set<String> JAVA_KEYWORDS = new HashSet<>(Arrays.asList("abstract", "assert", "break",
+            "case", "catch", "class", "const", "continue", "default", "do", "else", "enum", "extends", "final",
+            "finally", "for", "goto", "if", "implements", "import", "instanceof", "interface", "native", "new",
+            "package", "permits", "private", "protected", "public", "record", "return", "sealed", "static",
+            "strictfp", "super", "switch", "synchronized", "throw", "throws", "transient", "try", "var",
+            "volatile", "while", "yield"));
+    private static final Set<String> JAVA_TYPES = new HashSet<>(Arrays.asList("boolean", "byte", "char", "double",
+            "float", "int", "long", "short", "void", "this"));
+    private static final Set<String> JAVA_VALUES = new HashSet<>(Arrays.asList("true", "false", "null"));
+
+    static {
+        // Access flags and annotation visibilities
+        Collections.addAll(SMALI_KEYWORDS, "public", "private", "protected", "static", "final", "synchronized",
+                "volatile", "bridge", "transient", "varargs", "native", "interface", "abstract", "strictfp",
+                "synthetic", "annotation", "enum", "constructor", "declared-synchronized", "build", "runtime",
+                "system");
+        // Opcodes
+        Collections.addAll(SMALI_KEYWORDS, "nop", "move", "move/from16", "move/16", "move-wide",
+                "move-wide/from16", "move-wide/16", "move-object", "move-object/from16", "move-object/16",
+                "move-result", "move-result-wide", "move-result-object", "move-exception", "return-void",
+                "return-void-barrier", "return-void-no-barrier", "return", "return-wide", "return-object",
+                "const/4", "const/16", "const", "const/high16", "const-wide/16", "const-wide/32", "const-wide",
+                "const-wide/high16", "const-string", "const-string/jumbo", "const-class", "const-method-handle",
+                "const-method-type", "monitor-enter", "monitor-exit", "check-cast", "instance-of", "array-length",
+                "new-instance", "new-array", "filled-new-array", "filled-new-array/range", "fill-array-data",
+                "throw", "goto", "goto/16", "goto/32", "packed-switch", "sparse-switch", "cmpl-float",
+                "cmpg-float", "cmpl-double", "cmpg-double", "cmp-long", "invoke-polymorphic",
+                "invoke-polymorphic/range", "invoke-custom", "invoke-custom/range");
+        for (String condition : new String[]{"eq", "ne", "lt", "ge", "gt", "le"}) {
+            SMALI_KEYWORDS.add("if-" + condition);
+            SMALI_KEYWORDS.add("if-" + condition + "z");
+        }
+        for (String access : new String[]{"aget", "aput", "iget", "iput", "sget", "sput"}) {
+            SMALI_KEYWORDS.add(access);
+            for (String type : new String[]{"wide", "object", "boolean", "byte", "char", "short"}) {
+                SMALI_KEYWORDS.add(access + "-" + type);
+            }
+        }
+        for (String kind : new String[]{"virtual", "super", "direct", "static", "interface"}) {
+            SMALI_KEYWORDS.add("invoke-" + kind);
+            SMALI_KEYWORDS.add("invoke-" + kind + "/range");
+        }
+        String[] numericTypes = new String[]{"int", "long", "float", "double"};
+        for (String type : numericTypes) {
+            SMALI_KEYWORDS.add("neg-" + type);
+            for (String otherType : numericTypes) {
+                if (!type.equals(otherType)) {
+                    SMALI_KEYWORDS.add(type + "-to-" + otherType);
+                }
+            }
+        }
+        Collections.addAll(SMALI_KEYWORDS, "not-int", "not-long", "int-to-byte", "int-to-char", "int-to-short");
+        for (String operation : new String[]{"add", "sub", "mul", "div", "rem", "and", "or", "xor", "shl", "shr",
+                "ushr"}) {
+            boolean isArithmetic = operation.equals("add") || operation.equals("sub") || operation.equals("mul")
+                    || operation.equals("div") || operation.equals("rem");
+            for (String type : numericTypes) {
+                if (!isArithmetic && (type.equals("float") || type.equals("double"))) {
+                    continue;
+                }
+                SMALI_KEYWORDS.add(operation + "-" + type);
+                SMALI_KEYWORDS.add(operation + "-" + type + "/2addr");
+            }
+            SMALI_KEYWORDS.add(operation + "-int/lit8");
+            if (!operation.startsWith("sh") && !operation.equals("ushr")) {
+                SMALI_KEYWORDS.add(operation + "-int/lit16");
+            }
+        }
+        Collections.addAll(SMALI_KEYWORDS, "rsub-int", "rsub-int/lit8");
+    }
+
+    @NonNull
+    private final String mText;
+    @Language
+    private final int mLanguage;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private int[] mTokens = new int[512];
+    @GuardedBy("mLock")
+    private int mTokenCount;
+    @GuardedBy("mLock")
+    private int mPosition;
+    // Only for Java, whether the last tokenized line ended inside a block comment
+    @GuardedBy("mLock")
+    private boolean mInBlockComment;
+
+    public CodeTokenizer(@NonNull String text, @Language int language) {
+        mText = text;
+        mLanguage = language;
+    }
+
+    @NonNull
+    public String getText() {
+        return mText;
+    }
+
+    @Language
+    public int getLanguage() {
+        return mLanguage;
+    }
+
+    /**
+     * Length of the text that has been tokenized so far. It always ends at the end of a line.
+     */
+    public int getTokenizedLength() {
+        synchronized (mLock) {
+            return mPosition;
+        }
+    }
+
+    public boolean isFinished() {
+        return getTokenizedLength() == mText.length();
+    }
+
+    public int getTokenCount() {
+        synchronized (mLock) {
+            return mTokenCount;
+        }
+    }
+
+    /**
+     * Tokenize at least the given number of characters from where the last call stopped, up to the
+     * end of the line they end in.
+     *
+     * @return The length of the text that has been tokenized so far
+     */
+    @WorkerThread
+    public int tokenize(int minChars) {
+        synchronized (mLock) {
+            int length = mText.length();
+            if (mPosition == length) return length;
+            int end = (int) Math.min((long) mPosition + Math.max(minChars, 1), length);
+            if (end < length && mText.charAt(end - 1) != '\n') {
+                int nextLine = mText.indexOf('\n', end);
+                end = nextLine == -1 ? length : nextLine + 1;
+            }
+            int lineStart = mPosition;
+            while (lineStart < end) {
+                int lineEnd = mText.indexOf('\n', lineStart);
+                lineEnd = lineEnd == -1 || lineEnd >= end ? end : lineEnd + 1;
+                int contentEnd = lineEnd;
+                while (contentEnd > lineStart && (mText.charAt(contentEnd - 1) == '\n'
+                        || mText.charAt(contentEnd - 1) == '\r')) {
+                    --contentEnd;
+                }
+                if (mLanguage == LANGUAGE_SMALI) {
+                    tokenizeSmaliLine(lineStart, contentEnd);
+                } else {
+                    tokenizeJavaLine(lineStart, contentEnd);
+                }
+                lineStart = lineEnd;
+            }
+            mPosition = end;
+            return end;
+        }
+    }
+
+    @WorkerThread
+    public void tokenizeAll() {
+        tokenize(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Pass the tokens that overlap with the given range to the consumer in order. The tokens are not
+     * clipped to the range.
+     */
+    public void forEachToken(int start, int end, @NonNull TokenConsumer consumer) {
+        synchronized (mLock) {
+            // The tokens do not overlap, and therefore, their ends are also in order
+            int lo = 0;
+            int hi = mTokenCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getTokenEnd(mid) <= start) lo = mid + 1;
+                else hi = mid;
+            }
+            for (int i = lo; i < mTokenCount; ++i) {
+                int tokenStart = mTokens[i << 1];
+                if (tokenStart >= end) break;
+                consumer.accept(tokenStart, getTokenEnd(i), mTokens[(i << 1) + 1] & TYPE_MASK);
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private int getTokenEnd(int index) {
+        return mTokens[index << 1] + (mTokens[(index << 1) + 1] >>> TYPE_BITS);
+    }
+
+    @GuardedBy("mLock")
+    private void addToken(int start, int end, @TokenType int type) {
+        if (mTokenCount > 0) {
+            // Merge with the previous token if they are adjacent and of the same type
+            int last = (mTokenCount - 1) << 1;
+            if ((mTokens[last + 1] & TYPE_MASK) == type && getTokenEnd(mTokenCount - 1) == start) {
+                mTokens[last + 1] = ((end - mTokens[last]) << TYPE_BITS) | type;
+                return;
+            }
+        }
+        int index = mTokenCount << 1;
+        if (index + 2 > mTokens.length) {
+            mTokens = Arrays.copyOf(mTokens, mTokens.length << 1);
+        }
+        mTokens[index] = start;
+        mTokens[index + 1] = ((end - start) << TYPE_BITS) | type;
+        ++mTokenCount;
+    }
+
+    @GuardedBy("mLock")
+    private void tokenizeSmaliLine(int start, int end) {
+        String text = mText;
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            boolean wordStart = i == start || !isWordPart(text.charAt(i - 1));
+            if (c == '#') {
+                addToken(i, end, TOKEN_COMMENT);
+                return;
+            } else if (c == '"' || c == '\'') {
+                int j = skipQuoted(i, end, c);
+                addToken(i, j, TOKEN_VALUE);
+                i = j;
+            } else if (c == '-' && i + 1 < end && text.charAt(i + 1) == '>') {
+                addToken(i, i + 2, TOKEN_LABEL);
+                i += 2;
+            } else if (c == ':' && i > start && isWordPart(text.charAt(i - 1))) {
+                // Type of a field, e.g. name:I
+                i = skipSmaliTypes(i + 1, end, 1);
+            } else if (c == ':' && i + 1 < end && isWordPart(text.charAt(i + 1))) {
+                // Label, e.g. :cond_0
+                int j = skipWord(i + 1, end);
+                addToken(i, j, TOKEN_LABEL);
+                i = j;
+            } else if (c == '(') {
+                // Parameter types, e.g. (ILjava/lang/String;)
+                i = skipSmaliTypes(i + 1, end, Integer.MAX_VALUE);
+            } else if (c == ')') {
+                // Return type
+                i = skipSmaliTypes(i + 1, end, 1);
+            } else if (wordStart && (c == '[' || c == 'L')) {
+                int j = skipSmaliType(i, end);
+                if (j != -1) {
+                    addToken(i, j, TOKEN_TYPE);
+                    i = j;
+                } else if (c == 'L') {
+                    i = tokenizeSmaliWord(i, end);
+                } else ++i;
+            } else if (wordStart && c == '.' && i + 1 < end && isLetter(text.charAt(i + 1))) {
+                // Directive, e.g. .method
+                int j = i + 1;
+                while (j < end && (isLetter(text.charAt(j)) || text.charAt(j) == '-')) ++j;
+                addToken(i, j, TOKEN_KEYWORD);
+                i = j;
+            } else if (wordStart && (isDigit(c) || (c == '-' && i + 1 < end && isDigit(text.charAt(i + 1))))) {
+                int j = skipNumber(c == '-' ? i + 1 : i, end);
+                if (j != -1) {
+                    addToken(i, j, TOKEN_VALUE);
+                    i = j;
+                } else i = skipWord(i + 1, end);
+            } else if (wordStart && isWordStart(c)) {
+                i = tokenizeSmaliWord(i, end);
+            } else ++i;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private int tokenizeSmaliWord(int start, int end) {
+        String text = mText;
+        int j = start;
+        // Opcodes may contain dashes and slashes, e.g. invoke-virtual/range
+        while (j < end && (isWordPart(text.charAt(j)) || text.charAt(j) == '-' || text.charAt(j) == '/')) ++j;
+        // Trailing dashes and slashes are not a part of the word
+        while (j > start + 1 && !isWordPart(text.charAt(j - 1))) --j;
+        int length = j - start;
+        char c = text.charAt(start);
+        if ((c == 'p' || c == 'v') && length > 1 && isDigits(start + 1, j)) {
+            // Register
+            addToken(start, j, TOKEN_LABEL);
+            return j;
+        }
+        if (SMALI_KEYWORDS.contains(text.substring(start, j))) {
+            addToken(start, j, TOKEN_KEYWORD);
+            return j;
+        }
+        // Only the identifier is consumed so that a register or a label can follow the dash
+        return skipWord(start, end);
+    }
+
+    /**
+     * Add a type token for each of at most {@code maxCount} consecutive types starting at the given
+     * position.
+     *
+     * @return The position after the types
+     */
+    @GuardedBy("mLock")
+    private int skipSmaliTypes(int start, int end, int maxCount) {
+        int i = start;
+        for (int count = 0; count < maxCount && i < end; ++count) {
+            int j = skipSmaliType(i, end);
+            if (j == -1) break;
+            addToken(i, j, TOKEN_TYPE);
+            i = j;
+        }
+        return i;
+    }
+
+    /**
+     * @return The position after the type descriptor at the given position or {@code -1} if there
+     * is no type descriptor there
+     */
+    private int skipSmaliType(int start, int end) {
+        String text = mText;
+        int i = start;
+        while (i < end && text.charAt(i) == '[') ++i;
+        if (i == end) return -1;
+        switch (text.charAt(i)) {
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'I':
+            case 'J':
+            case 'F':
+            case 'D':
+            case 'V':
+                // Must not be the beginning of a word unless it is a part of a signature
+                if (i + 1 < end && isWordPart(text.charAt(i + 1)) && !isTypeStart(text.charAt(i + 1))) return -1;
+                return i + 1;
+            case 'L':
+                for (int j = i + 1; j < end; ++j) {
+                    char c = text.charAt(j);
+                    if (c == ';') return j == i + 1 ? -1 : j + 1;
+                    if (c == ' ' || c == '\t' || c == '(' || c == ')' || c == ',' || c == '"') return -1;
+                }
+                return -1;
+            default:
+                return -1;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void tokenizeJavaLine(int start, int end) {
+        String text = mText;
+        int i = start;
+        if (mInBlockComment) {
+            int j = text.indexOf("*/", i);
+            if (j == -1 || j + 2 > end) {
+                addToken(i, end, TOKEN_COMMENT);
+                return;
+            }
+            addToken(i, j + 2, TOKEN_COMMENT);
+            mInBlockComment = false;
+            i = j + 2;
+        }
+        while (i < end) {
+            char c = text.charAt(i);
+            if (c == '/' && i + 1 < end && text.charAt(i + 1) == '/') {
+                addToken(i, end, TOKEN_COMMENT);
+                return;
+            } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+                int j = text.indexOf("*/", i + 2);
+                if (j == -1 || j + 2 > end) {
+                    addToken(i, end, TOKEN_COMMENT);
+                    mInBlockComment = true;
+                    return;
+                }
+                addToken(i, j + 2, TOKEN_COMMENT);
+                i = j + 2;
+            } else if (c == '"' || c == '\'') {
+                int j = skipQuoted(i, end, c);
+                addToken(i, j, TOKEN_VALUE);
+                i = j;
+            } else if (c == '(' || c == ')' || c == '[' || c == ']' || c == '{' || c == '}' || c == ';') {
+                addToken(i, i + 1, TOKEN_TYPE);
+                ++i;
+            } else if (isDigit(c) && (i == start || !isWordPart(text.charAt(i - 1)))) {
+                int j = skipNumber(i, end);
+                if (j != -1) {
+                    addToken(i, j, TOKEN_VALUE);
+                    i = j;
+                } else i = skipWord(i + 1, end);
+            } else if (isWordStart(c)) {
+                int j = skipWord(i, end);
+                String word = text.substring(i, j);
+                if (JAVA_KEYWORDS.contains(word)) {
+                    addToken(i, j, TOKEN_KEYWORD);
+                } else if (JAVA_TYPES.contains(word)) {
+                    addToken(i, j, TOKEN_TYPE);
+                } else if (JAVA_VALUES.contains(word)) {
+                    addToken(i, j, TOKEN_VALUE);
+                } else if (c >= 'A' && c <= 'Z' && j - i > 1) {
+                    // Class names
+                    addToken(i, j, TOKEN_TYPE);
+                }
+                i = j;
+            } else ++i;
+        }
+    }
+
+    /**
+     * @return The position after the closing quote, or the end of the line if it is not closed
+     */
+    private int skipQuoted(int start, int end, char quote) {
+        String text = mText;
+        for (int i = start + 1; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c == '\\') ++i;
+            else if (c == quote) return i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * @return The position after the number, or {@code -1} if the word at the given position is not
+     * a number
+     */
+    private int skipNumber(int start, int end) {
+        String text = mText;
+        int i = start;
+        if (i + 1 < end && text.charAt(i) == '0' && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X')) {
+            i += 2;
+            while (i < end && (isDigit(text.charAt(i)) || isHexLetter(text.charAt(i)))) ++i;
+        } else {
+            while (i < end && isDigit(text.charAt(i))) ++i;
+            if (i + 1 < end && text.charAt(i) == '.' && isDigit(text.charAt(i + 1))) {
+                ++i;
+                while (i < end && isDigit(text.charAt(i))) ++i;
+            }
+            if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+                int j = i + 1;
+                if (j < end && (text.charAt(j) == '-' || text.charAt(j) == '+')) ++j;
+                if (j < end && isDigit(text.charAt(j))) {
+                    i = j;
+                    while (i < end && isDigit(text.charAt(i))) ++i;
+                }
+            }
+        }
+        if (i < end) {
+            // Suffixes: long, float, double, and in smali, short and byte
+            switch (text.charAt(i)) {
+                case 'l':
+                case 'L':
+                case 'f':
+                case 'F':
+                case 'd':
+                case 'D':
+                case 's':
+                case 'S':
+                case 't':
+                case 'T':
+                    ++i;
+            }
+        }
+        if (i < end && isWordPart(text.charAt(i))) return -1;
+        return i;
+    }
+
+    private int skipWord(int start, int end) {
+        String text = mText;
+        int i = start;
+        while (i < end && isWordPart(text.charAt(i))) ++i;
+        return i;
+    }
+
+    private boolean isDigits(int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (!isDigit(mText.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isTypeStart(char c) {
+        return c == 'Z' || c == 'B' || c == 'C' || c == 'S' || c == 'I' || c == 'J' || c == 'F' || c == 'D'
+                || c == 'V' || c == 'L' || c == '[';
+    }
+
+    private static boolean isWordStart(char c) {
+        return isLetter(c) || c == '_' || c == '$' || (c >= 0x80 && Character.isJavaIdentifierStart(c));
+    }
+
+    private static boolean isWordPart(char c) {
+        return isLetter(c) || isDigit(c) || c == '_' || c == '$' || (c >= 0x80 && Character.isJavaIdentifierPart(c));
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexLetter(char c) {
+        return (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
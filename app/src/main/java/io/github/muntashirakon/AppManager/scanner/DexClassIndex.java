@@ -0,0 +1,251 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+
+/**
+ * An on-disk index of the class names in the dex files of an APK, so that the classes of an APK can
+ * be listed again without parsing its dex files. An index is identified by the contents of the APK,
+ * i.e. its size and the names and CRCs of all its entries, all of which are read from the central
+ * directory of the APK. Therefore, an APK that is copied, moved or touched keeps its index, and an APK
+ * that is replaced in place does not. The class names of each dex file are sorted and
+ * front-coded, and each of them is stored along with its index in the dex file so that the class
+ * definition can be loaded directly later on.
+ */
+class DexClassIndex {
+    public static final String TAG = DexClassIndex.class.getSimpleName();
+
+    private static final int MAGIC = 0x414d4458;  // AMDX
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".idx";
+    private static final int MAX_INDEX_COUNT = 16;
+
+    /**
+     * Identifies the contents of an APK without reading them.
+     */
+    static class Key {
+        final long apkSize;
+        // CRCs of all the entries in the APK
+        @NonNull
+        final Map<String, Long> crcs;
+        // Digest of the above
+        @NonNull
+        final String digest;
+
+        @VisibleForTesting
+        Key(long apkSize, @NonNull Map<String, Long> crcs) {
+            this.apkSize = apkSize;
+            this.crcs = crcs;
+            String[] names = crcs.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            StringBuilder sb = new StringBuilder().append(apkSize).append('\n');
+            for (String name : names) {
+                sb.append(name).append('\0').append(crcs.get(name)).append('\n');
+            }
+            this.digest = DigestUtils.getHexDigest(DigestUtils.SHA_256, sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Read the key of the APK from its central directory.
+         *
+         * @return The key, or {@code null} if the file is not a zip file, e.g. a raw dex file, which is not indexed
+         */
+        @WorkerThread
+        @Nullable
+        static Key forApk(@NonNull File apkFile) throws IOException {
+            Map<String, Long> crcs = new HashMap<>();
+            try (ZipFile zipFile = new ZipFile(apkFile)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    crcs.put(entry.getName(), entry.getCrc());
+                }
+            } catch (ZipException e) {
+                return null;
+            }
+            return new Key(apkFile.length(), crcs);
+        }
+
+        @NonNull
+        String getIndexName() {
+            return digest + EXTENSION;
+        }
+
+        long getCrc(@NonNull String entryName) {
+            Long crc = crcs.get(entryName);
+            return crc != null ? crc : -1;
+        }
+    }
+
+    /**
+     * Class names of a dex file along with the index of each class in the dex file.
+     */
+    static class DexEntry {
+        @NonNull
+        final String name;
+        @NonNull
+        final String[] classNames;
+        @NonNull
+        final int[] classIndices;
+
+        DexEntry(@NonNull String name, @NonNull String[] classNames, @NonNull int[] classIndices) {
+            this.name = name;
+            this.classNames = classNames;
+            this.classIndices = classIndices;
+        }
+    }
+
+    @NonNull
+    final Key key;
+    @NonNull
+    final DexEntry[] dexEntries;
+
+    DexClassIndex(@NonNull Key key, @NonNull DexEntry[] dexEntries) {
+        this.key = key;
+        this.dexEntries = dexEntries;
+    }
+
+    /**
+     * Load the index of the APK identified by the key.
+     *
+     * @return The index, or {@code null} if there is none or if the APK has changed since it was saved
+     */
+    @WorkerThread
+    @Nullable
+    static DexClassIndex load(@NonNull File indexDir, @NonNull Key key) {
+        File indexFile = new File(indexDir, key.getIndexName());
+        if (!indexFile.exists()) return null;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) return null;
+            if (!key.digest.equals(is.readUTF()) || key.apkSize != is.readLong()) {
+                return null;
+            }
+            int dexCount = is.readInt();
+            DexEntry[] dexEntries = new DexEntry[dexCount];
+            for (int i = 0; i < dexCount; ++i) {
+                String dexName = is.readUTF();
+                if (key.getCrc(dexName) != is.readLong()) {
+                    return null;
+                }
+                int classCount = is.readInt();
+                String[] classNames = new String[classCount];
+                int[] classIndices = new int[classCount];
+                String previousName = "";
+                for (int j = 0; j < classCount; ++j) {
+                    int prefixLength = is.readUnsignedShort();
+                    String name = previousName.substring(0, prefixLength) + is.readUTF();
+                    classNames[j] = name;
+                    classIndices[j] = is.readInt();
+                    previousName = name;
+                }
+                dexEntries[i] = new DexEntry(dexName, classNames, classIndices);
+            }
+            // Mark as recently used
+            //noinspection ResultOfMethodCallIgnored
+            indexFile.setLastModified(System.currentTimeMillis());
+            return new DexClassIndex(key, dexEntries);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not read class index " + indexFile, e);
+            //noinspection ResultOfMethodCallIgnored
+            indexFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Save the index, replacing the previous index of the APK. The least recently used indices are
+     * removed to keep the number of indices bounded.
+     */
+    @WorkerThread
+    void save(@NonNull File indexDir) throws IOException {
+        if (!indexDir.exists() && !indexDir.mkdirs()) {
+            throw new IOException("Could not create " + indexDir);
+        }
+        File indexFile = new File(indexDir, key.getIndexName());
+        File tmpFile = new File(indexDir, key.getIndexName() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeUTF(key.digest);
+            os.writeLong(key.apkSize);
+            os.writeInt(dexEntries.length);
+            for (DexEntry dexEntry : dexEntries) {
+                os.writeUTF(dexEntry.name);
+                os.writeLong(key.getCrc(dexEntry.name));
+                int classCount = dexEntry.classNames.length;
+                // Sorted names share long prefixes, e.g. the package names
+                Integer[] order = new Integer[classCount];
+                for (int j = 0; j < classCount; ++j) order[j] = j;
+                Arrays.sort(order, (o1, o2) -> dexEntry.classNames[o1].compareTo(dexEntry.classNames[o2]));
+                os.writeInt(classCount);
+                String previousName = "";
+                for (int j : order) {
+                    String name = dexEntry.classNames[j];
+                    int prefixLength = Math.min(getCommonPrefixLength(previousName, name), 0xffff);
+                    os.writeShort(prefixLength);
+                    os.writeUTF(name.substring(prefixLength));
+                    os.writeInt(dexEntry.classIndices[j]);
+                    previousName = name;
+                }
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            throw e;
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            throw new IOException("Could not replace " + indexFile);
+        }
+        trim(indexDir);
+    }
+
+    private static void trim(@NonNull File indexDir) {
+        File[] indexFiles = indexDir.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (indexFiles == null || indexFiles.length <= MAX_INDEX_COUNT) return;
+        long[] lastModified = new long[indexFiles.length];
+        Integer[] order = new Integer[indexFiles.length];
+        for (int i = 0; i < indexFiles.length; ++i) {
+            lastModified[i] = indexFiles[i].lastModified();
+            order[i] = i;
+        }
+        // Most recently used first
+        Arrays.sort(order, (o1, o2) -> Long.compare(lastModified[o2], lastModified[o1]));
+        for (int i = MAX_INDEX_COUNT; i < order.length; ++i) {
+            //noinspection ResultOfMethodCallIgnored
+            indexFiles[order[i]].delete();
+        }
+    }
+
+    private static int getCommonPrefixLength(@NonNull String a, @NonNull String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) ++i;
+        return i;
+    }
+}
@@ -2,7 +2,10 @@
 
 package io.github.muntashirakon.AppManager.scanner;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import org.jf.baksmali.Adaptors.ClassDefinition;
 import org.jf.baksmali.BaksmaliOptions;
@@ -20,103 +23,129 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.BuildConfig;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 
+/**
+ * Class names and class definitions of an APK or a dex file. The class names of an APK are read from
+ * its {@link DexClassIndex} if the APK has not changed since it was last indexed. Otherwise, its dex
+ * files are indexed in parallel and the index is saved. The dex files are only loaded when a class
+ * definition is requested.
+ */
 public class DexClasses implements Closeable {
-    private final HashMap<String, ClassDef> classDefArraySet = new HashMap<>();
+    public static final String TAG = DexClasses.class.getSimpleName();
+
+    // Class name to the index of the dex file in the upper 32 bits and the index of the class
+    // definition in the dex file in the lower 32 bits
+    private final HashMap<String, Long> mClassLocations = new HashMap<>();
+    private final Object mLock = new Object();
     private final BaksmaliOptions options;
+    @Nullable
+    private final File mApkFile;
+    @NonNull
+    private final String[] mDexEntryNames;
+    @GuardedBy("mLock")
+    @NonNull
+    private final DexBackedDexFile[] mDexFiles;
+    @GuardedBy("mLock")
+    @NonNull
+    private final List<ClassDef>[] mClassDefs;
+    @GuardedBy("mLock")
+    @Nullable
+    private MultiDexContainer<? extends DexBackedDexFile> mContainer;
 
+    @WorkerThread
     public DexClasses(@NonNull File apkFile) throws IOException {
-        this.options = new BaksmaliOptions();
-        // options
-        options.deodex = false;
-        options.implicitReferences = false;
-        options.parameterRegisters = true;
-        options.localsDirective = true;
-        options.sequentialLabels = true;
-        options.debugInfo = BuildConfig.DEBUG;
-        options.codeOffsets = false;
-        options.accessorComments = false;
-        options.registerInfo = 0;
-        options.inlineResolver = null;
-        BaksmaliFormatter formatter = new BaksmaliFormatter();
-        MultiDexContainer<? extends DexBackedDexFile> container = ScannerUtils.loadApk(apkFile, -1);
-        List<String> dexEntryNames = container.getDexEntryNames();
-        for (String dexEntryName : dexEntryNames) {
-            MultiDexContainer.DexEntry<? extends DexBackedDexFile> dexEntry =
-                    Objects.requireNonNull(container.getEntry(dexEntryName));
-            DexBackedDexFile dexFile = dexEntry.getDexFile();
-            // Store list of classes
-            for (ClassDef classDef : dexFile.getClasses()) {
-                String name = formatter.getType(classDef.getType());
-                if (name.endsWith(";")) name = name.substring(0, name.length() - 1);
-                if (name.startsWith("L")) {
-                    name = name.substring(1).replace('/', '.');
+        this.options = getOptions();
+        mApkFile = apkFile;
+        File indexDir = getIndexDirectory();
+        // Raw dex files have no key, and they are not indexed
+        DexClassIndex.Key key = DexClassIndex.Key.forApk(apkFile);
+        DexClassIndex index = key != null ? DexClassIndex.load(indexDir, key) : null;
+        DexBackedDexFile[] dexFiles;
+        DexClassIndex.DexEntry[] dexEntries;
+        if (index != null) {
+            dexEntries = index.dexEntries;
+            dexFiles = new DexBackedDexFile[dexEntries.length];
+        } else {
+            mContainer = ScannerUtils.loadApk(apkFile, -1);
+            List<String> dexEntryNames = mContainer.getDexEntryNames();
+            dexFiles = new DexBackedDexFile[dexEntryNames.size()];
+            dexEntries = indexDexFiles(dexEntryNames, dexFiles);
+            if (key != null) {
+                try {
+                    new DexClassIndex(key, dexEntries).save(indexDir);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not save class index of " + apkFile, e);
                 }
-                classDefArraySet.put(name, classDef);
-            }
-            if (dexFile.supportsOptimizedOpcodes()) {
-                throw new IOException("ODEX isn't supported.");
-            }
-            if (dexFile instanceof DexBackedOdexFile) {
-                options.inlineResolver = InlineMethodResolver.createInlineMethodResolver(
-                        ((DexBackedOdexFile) dexFile).getOdexVersion());
             }
         }
+        mDexEntryNames = new String[dexEntries.length];
+        for (int i = 0; i < mDexEntryNames.length; ++i) {
+            mDexEntryNames[i] = dexEntries[i].name;
+        }
+        mDexFiles = dexFiles;
+        //noinspection unchecked
+        mClassDefs = new List[mDexFiles.length];
+        addClasses(dexEntries);
     }
 
+    @WorkerThread
     public DexClasses(@NonNull InputStream inputStream) throws IOException {
-        this.options = new BaksmaliOptions();
-        // options
-        options.deodex = false;
-        options.implicitReferences = false;
-        options.parameterRegisters = true;
-        options.localsDirective = true;
-        options.sequentialLabels = true;
-        options.debugInfo = BuildConfig.DEBUG;
-        options.codeOffsets = false;
-        options.accessorComments = false;
-        options.registerInfo = 0;
-        options.inlineResolver = null;
-        BaksmaliFormatter formatter = new BaksmaliFormatter();
+        this.options = getOptions();
+        mApkFile = null;
         InputStream is = new BufferedInputStream(inputStream);
         DexBackedDexFile dexFile = ScannerUtils.loadDexContainer(is, -1);
-        // Store list of classes
-        for (ClassDef classDef : dexFile.getClasses()) {
-            String name = formatter.getType(classDef.getType());
-            if (name.endsWith(";")) name = name.substring(0, name.length() - 1);
-            if (name.startsWith("L")) {
-                name = name.substring(1).replace('/', '.');
-            }
-            classDefArraySet.put(name, classDef);
-        }
-        if (dexFile.supportsOptimizedOpcodes()) {
-            throw new IOException("ODEX isn't supported.");
-        }
-        if (dexFile instanceof DexBackedOdexFile) {
-            options.inlineResolver = InlineMethodResolver.createInlineMethodResolver(
-                    ((DexBackedOdexFile) dexFile).getOdexVersion());
-        }
+        checkDexFile(dexFile);
+        mDexEntryNames = new String[]{"classes.dex"};
+        mDexFiles = new DexBackedDexFile[]{dexFile};
+        //noinspection unchecked
+        mClassDefs = new List[1];
+        addClasses(new DexClassIndex.DexEntry[]{indexDexFile(mDexEntryNames[0], dexFile)});
     }
 
     @NonNull
     public List<String> getClassNames() {
-        return new ArrayList<>(classDefArraySet.keySet());
+        return new ArrayList<>(mClassLocations.keySet());
     }
 
+    @WorkerThread
     @NonNull
     public ClassDef getClassDef(@NonNull String className) throws ClassNotFoundException {
-        ClassDef classDef = classDefArraySet.get(className);
-        if (classDef == null) throw new ClassNotFoundException(className + " could not be found.");
-        return classDef;
+        Long location = mClassLocations.get(className);
+        if (location == null) throw new ClassNotFoundException(className + " could not be found.");
+        int dexIndex = (int) (location >>> 32);
+        int classIndex = (int) location.longValue();
+        synchronized (mLock) {
+            List<ClassDef> classDefs = mClassDefs[dexIndex];
+            if (classDefs == null) {
+                try {
+                    // Class definitions are in the same order as they were indexed
+                    classDefs = new ArrayList<>(getDexFile(dexIndex).getClasses());
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(e.getMessage(), e);
+                }
+                mClassDefs[dexIndex] = classDefs;
+            }
+            if (classIndex >= classDefs.size()) throw new ClassNotFoundException(className + " could not be found.");
+            return classDefs.get(classIndex);
+        }
     }
 
+    @WorkerThread
     @NonNull
     public String getJavaCode(@NonNull String className) throws ClassNotFoundException {
         try {
@@ -127,6 +156,7 @@ public class DexClasses implements Closeable {
         }
     }
 
+    @WorkerThread
     @NonNull
     public String getClassContents(@NonNull String className) throws ClassNotFoundException {
         return getClassContents(getClassDef(className));
@@ -146,5 +176,151 @@ public class DexClasses implements Closeable {
 
     @Override
     public void close() throws IOException {
+        synchronized (mLock) {
+            mContainer = null;
+            for (int i = 0; i < mDexFiles.length; ++i) {
+                mDexFiles[i] = null;
+                mClassDefs[i] = null;
+            }
+        }
+    }
+
+    private void addClasses(@NonNull DexClassIndex.DexEntry[] dexEntries) {
+        for (int i = 0; i < dexEntries.length; ++i) {
+            DexClassIndex.DexEntry dexEntry = dexEntries[i];
+            for (int j = 0; j < dexEntry.classNames.length; ++j) {
+                mClassLocations.put(dexEntry.classNames[j], ((long) i << 32) | (dexEntry.classIndices[j] & 0xffffffffL));
+            }
+        }
+    }
+
+    /**
+     * Load and index the dex files in parallel.
+     */
+    @WorkerThread
+    @NonNull
+    private DexClassIndex.DexEntry[] indexDexFiles(@NonNull List<String> dexEntryNames,
+                                                   @NonNull DexBackedDexFile[] dexFiles) throws IOException {
+        int count = dexEntryNames.size();
+        DexClassIndex.DexEntry[] dexEntries = new DexClassIndex.DexEntry[count];
+        AtomicInteger nextDex = new AtomicInteger();
+        AtomicReference<IOException> error = new AtomicReference<>();
+        CountDownLatch indexed = new CountDownLatch(count);
+        Runnable indexer = () -> {
+            int i;
+            while ((i = nextDex.getAndIncrement()) < count) {
+                try {
+                    if (error.get() == null) {
+                        dexFiles[i] = getDexFile(i, dexEntryNames.get(i));
+                        dexEntries[i] = indexDexFile(dexEntryNames.get(i), dexFiles[i]);
+                    }
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, new IOException(e));
+                } finally {
+                    indexed.countDown();
+                }
+            }
+        };
+        int helperCount = Math.min(count - 1, Runtime.getRuntime().availableProcessors() - 1);
+        TaskScope scope = helperCount > 0 ? WorkerPools.newScope(WorkerPools.LANE_CPU, helperCount) : null;
+        try {
+            for (int i = 0; i < helperCount; ++i) {
+                Objects.requireNonNull(scope).submit(indexer);
+            }
+            // The calling thread takes part as well, so that the indexing completes even if the lane is busy
+            indexer.run();
+            indexed.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            if (scope != null) {
+                scope.shutdownNow();
+            }
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return dexEntries;
+    }
+
+    @NonNull
+    private static DexClassIndex.DexEntry indexDexFile(@NonNull String dexEntryName, @NonNull DexBackedDexFile dexFile) {
+        BaksmaliFormatter formatter = new BaksmaliFormatter();
+        List<String> classNames = new ArrayList<>();
+        for (ClassDef classDef : dexFile.getClasses()) {
+            String name = formatter.getType(classDef.getType());
+            if (name.endsWith(";")) name = name.substring(0, name.length() - 1);
+            if (name.startsWith("L")) {
+                name = name.substring(1).replace('/', '.');
+            }
+            classNames.add(name);
+        }
+        int[] classIndices = new int[classNames.size()];
+        for (int i = 0; i < classIndices.length; ++i) {
+            classIndices[i] = i;
+        }
+        return new DexClassIndex.DexEntry(dexEntryName, classNames.toArray(new String[0]), classIndices);
+    }
+
+    @GuardedBy("mLock")
+    @NonNull
+    private DexBackedDexFile getDexFile(int dexIndex) throws IOException {
+        if (mDexFiles[dexIndex] == null) {
+            mDexFiles[dexIndex] = getDexFile(dexIndex, mDexEntryNames[dexIndex]);
+        }
+        return mDexFiles[dexIndex];
+    }
+
+    @NonNull
+    private DexBackedDexFile getDexFile(int dexIndex, @NonNull String dexEntryName) throws IOException {
+        MultiDexContainer<? extends DexBackedDexFile> container;
+        synchronized (mLock) {
+            if (mContainer == null) {
+                mContainer = ScannerUtils.loadApk(Objects.requireNonNull(mApkFile), -1);
+            }
+            container = mContainer;
+        }
+        MultiDexContainer.DexEntry<? extends DexBackedDexFile> dexEntry = container.getEntry(dexEntryName);
+        if (dexEntry == null) {
+            throw new IOException("Dex file " + dexIndex + " (" + dexEntryName + ") could not be found.");
+        }
+        DexBackedDexFile dexFile = dexEntry.getDexFile();
+        checkDexFile(dexFile);
+        return dexFile;
+    }
+
+    private void checkDexFile(@NonNull DexBackedDexFile dexFile) throws IOException {
+        if (dexFile.supportsOptimizedOpcodes()) {
+            throw new IOException("ODEX isn't supported.");
+        }
+        if (dexFile instanceof DexBackedOdexFile) {
+            synchronized (options) {
+                options.inlineResolver = InlineMethodResolver.createInlineMethodResolver(
+                        ((DexBackedOdexFile) dexFile).getOdexVersion());
+            }
+        }
+    }
+
+    @NonNull
+    private static BaksmaliOptions getOptions() {
+        BaksmaliOptions options = new BaksmaliOptions();
+        options.deodex = false;
+        options.implicitReferences = false;
+        options.parameterRegisters = true;
+        options.localsDirective = true;
+        options.sequentialLabels = true;
+        options.debugInfo = BuildConfig.DEBUG;
+        options.codeOffsets = false;
+        options.accessorComments = false;
+        options.registerInfo = 0;
+        options.inlineResolver = null;
+        return options;
+    }
+
+    @NonNull
+    private static File getIndexDirectory() {
+        return new File(AppManager.getContext().getCacheDir(), "dex_index");
     }
 }
@@ -26,11 +26,12 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
-import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
 import io.github.muntashirakon.io.VirtualFileSystem;
 
 public class ScannerViewModel extends AndroidViewModel {
@@ -42,8 +43,8 @@ public class ScannerViewModel extends AndroidViewModel {
     private List<String> trackerClassList = new ArrayList<>();
     private List<String> libClassList = new ArrayList<>();
 
-    private CountDownLatch waitForFile;
-    private final MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+    private final TaskScope ioExecutor = WorkerPools.newScope(WorkerPools.LANE_IO);
+    private final TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_CPU);
     private final MutableLiveData<Pair<String, String>[]> apkChecksums = new MutableLiveData<>();
     private final MutableLiveData<ApkVerifier.Result> apkVerifierResult = new MutableLiveData<>();
     private final MutableLiveData<PackageInfo> packageInfo = new MutableLiveData<>();
@@ -56,6 +57,7 @@ public class ScannerViewModel extends AndroidViewModel {
     @Override
     protected void onCleared() {
         super.onCleared();
+        ioExecutor.shutdownNow();
         executor.shutdownNow();
         if (cached && apkFile != null) {
             // Only attempt to delete the apk file if it's cached
@@ -73,27 +75,22 @@ public class ScannerViewModel extends AndroidViewModel {
         cached = false;
         this.apkFile = apkFile;
         this.apkUri = apkUri;
-        waitForFile = new CountDownLatch(1);
-        // Cache files
-        executor.submit(() -> {
-            Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+        // Cache files, and only then start the tasks that read them, so that no worker waits for the file
+        ioExecutor.submit(() -> {
+            cacheFileIfRequired();
             try {
-                cacheFileIfRequired();
-            } finally {
-                waitForFile.countDown();
+                // Generate APK checksums
+                executor.submit(this::generateApkChecksums);
+                // Verify APK
+                executor.submit(this::loadApkVerifierResult);
+                // Load package info
+                ioExecutor.submit(this::loadPackageInfo);
+                // Load all classes
+                executor.submit(this::loadAllClasses, WorkerPools.PRIORITY_VISIBLE);
+            } catch (RejectedExecutionException ignore) {
+                // The view model was cleared in the meantime
             }
-        });
-        // Generate APK checksums
-        executor.submit(this::generateApkChecksums);
-        // Verify APK
-        executor.submit(this::loadApkVerifierResult);
-        // Load package info
-        executor.submit(this::loadPackageInfo);
-        // Load all classes
-        executor.submit(() -> {
-            Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-            loadAllClasses();
-        });
+        }, WorkerPools.PRIORITY_VISIBLE);
     }
 
     public LiveData<Pair<String, String>[]> getApkChecksums() {
@@ -140,12 +137,10 @@ public class ScannerViewModel extends AndroidViewModel {
 
     @WorkerThread
     private void generateApkChecksums() {
-        waitForFile();
         apkChecksums.postValue(DigestUtils.getDigests(apkFile));
     }
 
     private void loadApkVerifierResult() {
-        waitForFile();
         try {
             // TODO: 26/5/21 Add v4 verification
             ApkVerifier.Builder builder = new ApkVerifier.Builder(apkFile);
@@ -159,14 +154,12 @@ public class ScannerViewModel extends AndroidViewModel {
 
     @WorkerThread
     private void loadPackageInfo() {
-        waitForFile();
         final PackageManager pm = getApplication().getPackageManager();
         packageInfo.postValue(pm.getPackageArchiveInfo(apkFile.getAbsolutePath(), 0));
     }
 
     @WorkerThread
     private void loadAllClasses() {
-        waitForFile();
         try {
             VirtualFileSystem.DexFileSystem dfs = new VirtualFileSystem.DexFileSystem(Uri.fromFile(apkFile), apkFile);
             dexVfsId = VirtualFileSystem.mount(dfs);
@@ -176,13 +169,4 @@ public class ScannerViewModel extends AndroidViewModel {
         }
         allClasses.postValue(classListAll);
     }
-
-    @WorkerThread
-    public void waitForFile() {
-        try {
-            waitForFile.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-    }
 }
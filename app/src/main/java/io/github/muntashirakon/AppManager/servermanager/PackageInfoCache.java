@@ -0,0 +1,448 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.servermanager;
+
+import android.annotation.UserIdInt;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.UserHandleHidden;
+import android.util.LruCache;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.types.PackageChangeReceiver;
+
+/**
+ * A process-wide LRU cache of {@link PackageInfo}, kept per package, user and the flags that decide which packages and
+ * components are matched. The flags that only add data to the result are merged: a request is served by any cached
+ * info that was fetched with at least the requested data, and a request for more data fetches the union so that the
+ * cached info keeps serving the earlier requests as well.
+ * <p>
+ * The packages are invalidated by the package broadcasts, which are only delivered for the current user. The packages
+ * of the other users, and the requests for the runtime permission states ({@link PackageManager#GET_PERMISSIONS}),
+ * which change without a broadcast, are therefore never cached. Likewise, the runtime flags of the applications, such
+ * as {@link android.content.pm.ApplicationInfo#FLAG_STOPPED}, may be stale in the cached info, and the callers that
+ * display them should use {@link #fetchInstalledPackages(int, int)} instead.
+ * <p>
+ * The cached info is shared by all the callers and must not be modified.
+ */
+public final class PackageInfoCache {
+    /**
+     * The flags that only add data to the result, as opposed to the flags that decide what is matched
+     */
+    @SuppressWarnings("deprecation")
+    @VisibleForTesting
+    static final int DATA_FLAGS = PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS
+            | PackageManager.GET_SERVICES | PackageManager.GET_PROVIDERS | PackageManager.GET_INSTRUMENTATION
+            | PackageManager.GET_INTENT_FILTERS | PackageManager.GET_SIGNATURES | PackageManager.GET_META_DATA
+            | PackageManager.GET_GIDS | PackageManager.GET_SHARED_LIBRARY_FILES
+            | PackageManager.GET_URI_PERMISSION_PATTERNS | PackageManager.GET_CONFIGURATIONS
+            | PackageManager.GET_SIGNING_CERTIFICATES;
+
+    /**
+     * Above this, the list of installed packages is fetched again instead of the missing packages
+     */
+    private static final int MAX_MISSING_PACKAGES = 10;
+
+    @VisibleForTesting
+    interface Fetcher {
+        @NonNull
+        PackageInfo getPackageInfo(@NonNull String packageName, int flags, @UserIdInt int userId)
+                throws RemoteException, PackageManager.NameNotFoundException;
+
+        @NonNull
+        List<PackageInfo> getInstalledPackages(int flags, @UserIdInt int userId) throws RemoteException;
+    }
+
+    private static class CachedItem {
+        final int dataFlags;
+        // Only for a single package
+        @Nullable
+        final PackageInfo packageInfo;
+        // Only for the list of installed packages
+        @Nullable
+        final List<String> packageNames;
+
+        CachedItem(int dataFlags, @NonNull PackageInfo packageInfo) {
+            this.dataFlags = dataFlags;
+            this.packageInfo = packageInfo;
+            this.packageNames = null;
+        }
+
+        CachedItem(int dataFlags, @NonNull List<String> packageNames) {
+            this.dataFlags = dataFlags;
+            this.packageInfo = null;
+            this.packageNames = packageNames;
+        }
+    }
+
+    private static PackageInfoCache sInstance;
+
+    @NonNull
+    public static synchronized PackageInfoCache getInstance() {
+        if (sInstance == null) {
+            // A unit is roughly a kilobyte, and a sixteenth of the heap is used at most
+            int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 16 / 1024, Integer.MAX_VALUE);
+            sInstance = new PackageInfoCache(new Fetcher() {
+                @NonNull
+                @Override
+                public PackageInfo getPackageInfo(@NonNull String packageName, int flags, int userId)
+                        throws RemoteException, PackageManager.NameNotFoundException {
+                    return PackageManagerCompat.fetchPackageInfo(packageName, flags, userId);
+                }
+
+                @NonNull
+                @Override
+                public List<PackageInfo> getInstalledPackages(int flags, int userId) throws RemoteException {
+                    return PackageManagerCompat.fetchInstalledPackages(flags, userId);
+                }
+            }, maxSize, UserHandleHidden.myUserId());
+        }
+        return sInstance;
+    }
+
+    private final Fetcher mFetcher;
+    @UserIdInt
+    private final int mCachedUserId;
+    private final LruCache<String, CachedItem> mCache;
+    private final Object mLock = new Object();
+    // Incremented on every invalidation so that the results fetched before it are not cached
+    @GuardedBy("mLock")
+    private int mGeneration = 0;
+    private final AtomicInteger mFetchCount = new AtomicInteger();
+
+    @VisibleForTesting
+    PackageInfoCache(@NonNull Fetcher fetcher, int maxSize, @UserIdInt int cachedUserId) {
+        mFetcher = fetcher;
+        mCachedUserId = cachedUserId;
+        mCache = new LruCache<String, CachedItem>(maxSize) {
+            @Override
+            protected int sizeOf(@NonNull String key, @NonNull CachedItem value) {
+                if (value.packageInfo != null) {
+                    return getSize(value.packageInfo);
+                }
+                return 1 + Objects.requireNonNull(value.packageNames).size() / 64;
+            }
+        };
+    }
+
+    @WorkerThread
+    @NonNull
+    public PackageInfo getPackageInfo(@NonNull String packageName, int flags, @UserIdInt int userId)
+            throws RemoteException, PackageManager.NameNotFoundException {
+        if (!isCacheable(flags, userId)) {
+            mFetchCount.incrementAndGet();
+            return mFetcher.getPackageInfo(packageName, flags, userId);
+        }
+        String key = getPackageKey(packageName, flags, userId);
+        CachedItem item = mCache.get(key);
+        int dataFlags = flags & DATA_FLAGS;
+        if (item != null) {
+            if ((item.dataFlags & dataFlags) == dataFlags) {
+                return Objects.requireNonNull(item.packageInfo);
+            }
+            // Merge the flags so that the cached info can be used for both
+            dataFlags |= item.dataFlags;
+        }
+        int generation = getGeneration();
+        mFetchCount.incrementAndGet();
+        PackageInfo packageInfo = mFetcher.getPackageInfo(packageName, (flags & ~DATA_FLAGS) | dataFlags, userId);
+        synchronized (mLock) {
+            // Not invalidated in the meantime
+            if (generation == mGeneration) {
+                mCache.put(key, new CachedItem(dataFlags, packageInfo));
+            }
+        }
+        return packageInfo;
+    }
+
+    /**
+     * Same as {@link #getPackageInfo(String, int, int)} but returns {@code null} instead of fetching the package.
+     */
+    @Nullable
+    public PackageInfo getCachedPackageInfo(@NonNull String packageName, int flags, @UserIdInt int userId) {
+        if (!isCacheable(flags, userId)) return null;
+        CachedItem item = mCache.get(getPackageKey(packageName, flags, userId));
+        int dataFlags = flags & DATA_FLAGS;
+        if (item != null && (item.dataFlags & dataFlags) == dataFlags) {
+            return item.packageInfo;
+        }
+        return null;
+    }
+
+    @WorkerThread
+    @NonNull
+    public List<PackageInfo> getInstalledPackages(int flags, @UserIdInt int userId) throws RemoteException {
+        if (!isCacheable(flags, userId)) {
+            mFetchCount.incrementAndGet();
+            return mFetcher.getInstalledPackages(flags, userId);
+        }
+        String key = getListKey(flags, userId);
+        CachedItem item = mCache.get(key);
+        int dataFlags = flags & DATA_FLAGS;
+        if (item != null) {
+            if ((item.dataFlags & dataFlags) == dataFlags) {
+                List<PackageInfo> packageInfoList = getCachedPackages(Objects.requireNonNull(item.packageNames),
+                        flags, userId);
+                if (packageInfoList != null) {
+                    return packageInfoList;
+                }
+            }
+            dataFlags |= item.dataFlags;
+        }
+        return fetchAndCacheInstalledPackages(flags, dataFlags, userId);
+    }
+
+    /**
+     * Same as {@link #getInstalledPackages(int, int)} but always fetches the packages, so that their runtime flags are
+     * up-to-date. The result is cached for the other callers.
+     */
+    @WorkerThread
+    @NonNull
+    public List<PackageInfo> fetchInstalledPackages(int flags, @UserIdInt int userId) throws RemoteException {
+        if (!isCacheable(flags, userId)) {
+            mFetchCount.incrementAndGet();
+            return mFetcher.getInstalledPackages(flags, userId);
+        }
+        return fetchAndCacheInstalledPackages(flags, flags & DATA_FLAGS, userId);
+    }
+
+    @NonNull
+    private List<PackageInfo> fetchAndCacheInstalledPackages(int flags, int dataFlags, @UserIdInt int userId)
+            throws RemoteException {
+        int generation = getGeneration();
+        mFetchCount.incrementAndGet();
+        List<PackageInfo> packageInfoList = mFetcher.getInstalledPackages((flags & ~DATA_FLAGS) | dataFlags, userId);
+        List<String> packageNames = new ArrayList<>(packageInfoList.size());
+        for (PackageInfo packageInfo : packageInfoList) {
+            packageNames.add(packageInfo.packageName);
+        }
+        synchronized (mLock) {
+            // Not invalidated in the meantime
+            if (generation == mGeneration) {
+                for (PackageInfo packageInfo : packageInfoList) {
+                    mCache.put(getPackageKey(packageInfo.packageName, flags, userId),
+                            new CachedItem(dataFlags, packageInfo));
+                }
+                mCache.put(getListKey(flags, userId), new CachedItem(dataFlags,
+                        Collections.unmodifiableList(packageNames)));
+            }
+        }
+        return packageInfoList;
+    }
+
+    /**
+     * Number of requests that were sent to the system
+     */
+    public int getFetchCount() {
+        return mFetchCount.get();
+    }
+
+    /**
+     * The package has changed, but the list of installed packages has not.
+     */
+    public void invalidate(@NonNull String packageName) {
+        invalidate(packageName, false);
+    }
+
+    /**
+     * @param installedPackagesChanged Whether the package was installed or uninstalled
+     */
+    public void invalidate(@NonNull String packageName, boolean installedPackagesChanged) {
+        invalidate(Collections.singleton(packageName), installedPackagesChanged);
+    }
+
+    /**
+     * @param installedPackagesChanged Whether any of the packages was installed or uninstalled
+     */
+    public void invalidate(@NonNull Collection<String> packageNames, boolean installedPackagesChanged) {
+        synchronized (mLock) {
+            ++mGeneration;
+            for (Map.Entry<String, CachedItem> entry : mCache.snapshot().entrySet()) {
+                CachedItem item = entry.getValue();
+                if (item.packageInfo != null ? packageNames.contains(item.packageInfo.packageName)
+                        : installedPackagesChanged) {
+                    mCache.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (mLock) {
+            ++mGeneration;
+            mCache.evictAll();
+        }
+    }
+
+    /**
+     * Release some or all of the packages depending on the level supplied by
+     * {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    /**
+     * Invalidate the packages on package broadcasts for as long as the process lives.
+     */
+    public void registerReceiver(@NonNull Context context) {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onPackageBroadcast(intent);
+            }
+        };
+        IntentFilter filter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_RESTARTED);
+        filter.addDataScheme("package");
+        context.registerReceiver(receiver, filter);
+        IntentFilter listFilter = new IntentFilter();
+        listFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE);
+        listFilter.addAction(Intent.ACTION_EXTERNAL_APPLICATIONS_UNAVAILABLE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            listFilter.addAction(Intent.ACTION_PACKAGES_SUSPENDED);
+            listFilter.addAction(Intent.ACTION_PACKAGES_UNSUSPENDED);
+        }
+        listFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        listFilter.addAction(PackageChangeReceiver.ACTION_PACKAGE_ALTERED);
+        listFilter.addAction(PackageChangeReceiver.ACTION_PACKAGE_ADDED);
+        listFilter.addAction(PackageChangeReceiver.ACTION_PACKAGE_REMOVED);
+        context.registerReceiver(receiver, listFilter);
+    }
+
+    @VisibleForTesting
+    void onPackageBroadcast(@NonNull Intent intent) {
+        String action = intent.getAction();
+        if (action == null) return;
+        switch (action) {
+            case Intent.ACTION_PACKAGE_ADDED:
+            case Intent.ACTION_PACKAGE_REMOVED:
+            case Intent.ACTION_PACKAGE_REPLACED:
+            case Intent.ACTION_PACKAGE_CHANGED:
+            case Intent.ACTION_PACKAGE_RESTARTED: {
+                Uri data = intent.getData();
+                String packageName = data != null ? data.getSchemeSpecificPart() : null;
+                if (packageName == null) {
+                    invalidateAll();
+                } else {
+                    invalidate(packageName, Intent.ACTION_PACKAGE_ADDED.equals(action)
+                            || Intent.ACTION_PACKAGE_REMOVED.equals(action));
+                }
+                return;
+            }
+            case Intent.ACTION_LOCALE_CHANGED:
+                invalidateAll();
+                return;
+            default: {
+                String[] packageNames = intent.getStringArrayExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST);
+                if (packageNames == null) {
+                    invalidateAll();
+                    return;
+                }
+                boolean installedPackagesChanged = !Intent.ACTION_PACKAGES_SUSPENDED.equals(action)
+                        && !Intent.ACTION_PACKAGES_UNSUSPENDED.equals(action)
+                        && !PackageChangeReceiver.ACTION_PACKAGE_ALTERED.equals(action);
+                invalidate(new HashSet<>(Arrays.asList(packageNames)), installedPackagesChanged);
+            }
+        }
+    }
+
+    /**
+     * @return The packages, or {@code null} if it is cheaper to fetch the whole list again
+     */
+    @Nullable
+    private List<PackageInfo> getCachedPackages(@NonNull List<String> packageNames, int flags, @UserIdInt int userId)
+            throws RemoteException {
+        List<PackageInfo> packageInfoList = new ArrayList<>(packageNames.size());
+        List<String> missingPackages = new ArrayList<>();
+        for (String packageName : packageNames) {
+            PackageInfo packageInfo = getCachedPackageInfo(packageName, flags, userId);
+            if (packageInfo != null) {
+                packageInfoList.add(packageInfo);
+            } else {
+                missingPackages.add(packageName);
+                if (missingPackages.size() > MAX_MISSING_PACKAGES) {
+                    return null;
+                }
+            }
+        }
+        for (String packageName : missingPackages) {
+            try {
+                packageInfoList.add(getPackageInfo(packageName, flags, userId));
+            } catch (PackageManager.NameNotFoundException e) {
+                // Uninstalled in the meantime
+                return null;
+            }
+        }
+        return packageInfoList;
+    }
+
+    private int getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    private boolean isCacheable(int flags, @UserIdInt int userId) {
+        return userId == mCachedUserId && (flags & PackageManager.GET_PERMISSIONS) == 0;
+    }
+
+    @NonNull
+    private static String getPackageKey(@NonNull String packageName, int flags, @UserIdInt int userId) {
+        return userId + ":" + Integer.toHexString(flags & ~DATA_FLAGS) + ":" + packageName;
+    }
+
+    @NonNull
+    private static String getListKey(int flags, @UserIdInt int userId) {
+        return userId + ":" + Integer.toHexString(flags & ~DATA_FLAGS);
+    }
+
+    /**
+     * Rough size of the package info in kilobytes
+     */
+    private static int getSize(@NonNull PackageInfo packageInfo) {
+        int componentCount = length(packageInfo.activities) + length(packageInfo.services)
+                + length(packageInfo.receivers) + length(packageInfo.providers)
+                + length(packageInfo.requestedPermissions);
+        return 1 + componentCount / 2;
+    }
+
+    private static int length(@Nullable Object[] array) {
+        return array != null ? array.length : 0;
+    }
+}
@@ -67,17 +67,46 @@ public final class PackageManagerCompat {
 
     private static final int WORKING_FLAGS = PackageManager.GET_META_DATA | PackageUtils.flagMatchUninstalled;
 
+    /**
+     * Get the installed packages. The packages are cached by {@link PackageInfoCache} and must not be modified.
+     */
     @WorkerThread
     public static List<PackageInfo> getInstalledPackages(int flags, @UserIdInt int userHandle)
             throws RemoteException {
+        return PackageInfoCache.getInstance().getInstalledPackages(flags, userHandle);
+    }
+
+    /**
+     * Same as {@link #getInstalledPackages(int, int)}, but the packages are always fetched so that their runtime flags,
+     * such as {@link ApplicationInfo#FLAG_STOPPED}, are up-to-date.
+     */
+    @WorkerThread
+    public static List<PackageInfo> getInstalledPackagesUncached(int flags, @UserIdInt int userHandle)
+            throws RemoteException {
+        return PackageInfoCache.getInstance().fetchInstalledPackages(flags, userHandle);
+    }
+
+    @WorkerThread
+    @NonNull
+    static List<PackageInfo> fetchInstalledPackages(int flags, @UserIdInt int userHandle)
+            throws RemoteException {
         if (Build.VERSION.SDK_INT == Build.VERSION_CODES.M && (flags & ~WORKING_FLAGS) != 0) {
             // Need workaround
+            PackageInfoCache cache = PackageInfoCache.getInstance();
             List<ApplicationInfo> applicationInfoList = getInstalledApplications(flags & WORKING_FLAGS, userHandle);
             List<PackageInfo> packageInfoList = new ArrayList<>(applicationInfoList.size());
+            int fetchCount = 0;
             for (int i = 0; i < applicationInfoList.size(); ++i) {
+                String packageName = applicationInfoList.get(i).packageName;
+                PackageInfo packageInfo = cache.getCachedPackageInfo(packageName, flags, userHandle);
+                if (packageInfo != null) {
+                    // No need to wait for the packages that are already there
+                    packageInfoList.add(packageInfo);
+                    continue;
+                }
                 try {
-                    packageInfoList.add(getPackageInfo(applicationInfoList.get(i).packageName, flags, userHandle));
-                    if (i % 100 == 0) {
+                    packageInfoList.add(fetchPackageInfo(packageName, flags, userHandle));
+                    if (++fetchCount % 100 == 0) {
                         // Prevent DeadObjectException
                         SystemClock.sleep(300);
                     }
@@ -96,9 +125,18 @@ public final class PackageManagerCompat {
         return AppManager.getIPackageManager().getInstalledApplications(flags, userHandle).getList();
     }
 
+    /**
+     * Get info for an installed package. The package is cached by {@link PackageInfoCache} and must not be modified.
+     */
     @NonNull
     public static PackageInfo getPackageInfo(String packageName, int flags, @UserIdInt int userHandle)
             throws RemoteException, PackageManager.NameNotFoundException {
+        return PackageInfoCache.getInstance().getPackageInfo(packageName, flags, userHandle);
+    }
+
+    @NonNull
+    static PackageInfo fetchPackageInfo(String packageName, int flags, @UserIdInt int userHandle)
+            throws RemoteException, PackageManager.NameNotFoundException {
         IPackageManager pm = AppManager.getIPackageManager();
         PackageInfo info = null;
         try {
@@ -175,12 +213,15 @@ public final class PackageManagerCompat {
                                                   @UserIdInt int userId)
             throws RemoteException {
         AppManager.getIPackageManager().setComponentEnabledSetting(componentName, newState, flags, userId);
+        // Do not wait for the broadcast
+        PackageInfoCache.getInstance().invalidate(componentName.getPackageName());
     }
 
     public static void setApplicationEnabledSetting(String packageName, @EnabledState int newState,
                                                     @EnabledFlags int flags, @UserIdInt int userId)
             throws RemoteException {
         AppManager.getIPackageManager().setApplicationEnabledSetting(packageName, newState, flags, userId, null);
+        PackageInfoCache.getInstance().invalidate(packageName);
     }
 
     public static String getInstallerPackage(String packageName) throws RemoteException {
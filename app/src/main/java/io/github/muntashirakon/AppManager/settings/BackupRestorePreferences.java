@@ -231,6 +231,26 @@ public class BackupRestorePreferences extends PreferenceFragmentCompat {
                     });
                     return true;
                 });
+        // Verify backups
+        ((Preference) Objects.requireNonNull(findPreference("verify_backups")))
+                .setOnPreferenceClickListener(preference -> {
+                    startVerifyOperation();
+                    return true;
+                });
+    }
+
+    @UiThread
+    private void startVerifyOperation() {
+        // Start batch ops service without any packages to verify all the backups
+        Intent intent = new Intent(activity, BatchOpsService.class);
+        BatchOpsManager.Result input = new BatchOpsManager.Result(Collections.emptyList());
+        intent.putStringArrayListExtra(BatchOpsService.EXTRA_OP_PKG, input.getFailedPackages());
+        intent.putIntegerArrayListExtra(BatchOpsService.EXTRA_OP_USERS, input.getAssociatedUserHandles());
+        intent.putExtra(BatchOpsService.EXTRA_OP, BatchOpsManager.OP_VERIFY_BACKUPS);
+        Bundle args = new Bundle();
+        args.putBoolean(BatchOpsManager.ARG_MARK_VERIFIED, true);
+        intent.putExtra(BatchOpsService.EXTRA_OP_EXTRA_ARGS, args);
+        ContextCompat.startForegroundService(activity, intent);
     }
 
     @UiThread
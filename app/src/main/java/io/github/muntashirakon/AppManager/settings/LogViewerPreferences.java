@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import androidx.annotation.NonNull;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.PreferenceHelper;
@@ -36,6 +37,8 @@ public class LogViewerPreferences extends PreferenceFragmentCompat {
 
     private static final int MAX_LOG_WRITE_PERIOD = 1000;
     private static final int MIN_LOG_WRITE_PERIOD = 1;
+    private static final int MAX_RECORDING_SEGMENT_SIZE = 1024;
+    private static final int MAX_RECORDING_SEGMENT_DURATION = 1440;
     private static final int MAX_DISPLAY_LIMIT = 100000;
     private static final int MIN_DISPLAY_LIMIT = 1000;
 
@@ -140,6 +143,67 @@ public class LogViewerPreferences extends PreferenceFragmentCompat {
             return true;
         });
 
+        SwitchPreference compressRecording = Objects.requireNonNull(findPreference("log_viewer_recording_compress"));
+        compressRecording.setChecked(AppPref.getBoolean(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_COMPRESS_BOOL));
+
+        Preference segmentSize = Objects.requireNonNull(findPreference("log_viewer_recording_segment_size"));
+        segmentSize.setSummary(getSegmentSizeSummary(AppPref.getInt(AppPref.PrefKey
+                .PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT)));
+        segmentSize.setOnPreferenceClickListener(preference -> {
+            new TextInputDialogBuilder(activity, R.string.pref_recording_segment_size_title)
+                    .setTitle(R.string.pref_recording_segment_size_title)
+                    .setHelperText(getString(R.string.pref_recording_segment_size_error))
+                    .setInputText(String.valueOf(AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT)))
+                    .setPositiveButton(R.string.save, (dialog, which, inputText, isChecked) -> {
+                        if (inputText == null) return;
+                        try {
+                            int segmentSizeInt = Integer.parseInt(inputText.toString().trim());
+                            if (segmentSizeInt >= 0 && segmentSizeInt <= MAX_RECORDING_SEGMENT_SIZE) {
+                                AppPref.set(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT, segmentSizeInt);
+                                segmentSize.setSummary(getSegmentSizeSummary(segmentSizeInt));
+                            }
+                        } catch (NumberFormatException ignore) {
+                        }
+                    })
+                    .setNegativeButton(R.string.cancel, null)
+                    .setNeutralButton(R.string.reset_to_default, (dialog, which, inputText, isChecked) -> {
+                        AppPref.setDefault(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT);
+                        segmentSize.setSummary(getSegmentSizeSummary(AppPref.getInt(AppPref.PrefKey
+                                .PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT)));
+                    })
+                    .show();
+            return true;
+        });
+
+        Preference segmentDuration = Objects.requireNonNull(findPreference("log_viewer_recording_segment_duration"));
+        segmentDuration.setSummary(getSegmentDurationSummary(AppPref.getInt(AppPref.PrefKey
+                .PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT)));
+        segmentDuration.setOnPreferenceClickListener(preference -> {
+            new TextInputDialogBuilder(activity, R.string.pref_recording_segment_duration_title)
+                    .setTitle(R.string.pref_recording_segment_duration_title)
+                    .setHelperText(getString(R.string.pref_recording_segment_duration_error))
+                    .setInputText(String.valueOf(AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT)))
+                    .setPositiveButton(R.string.save, (dialog, which, inputText, isChecked) -> {
+                        if (inputText == null) return;
+                        try {
+                            int segmentDurationInt = Integer.parseInt(inputText.toString().trim());
+                            if (segmentDurationInt >= 0 && segmentDurationInt <= MAX_RECORDING_SEGMENT_DURATION) {
+                                AppPref.set(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT, segmentDurationInt);
+                                segmentDuration.setSummary(getSegmentDurationSummary(segmentDurationInt));
+                            }
+                        } catch (NumberFormatException ignore) {
+                        }
+                    })
+                    .setNegativeButton(R.string.cancel, null)
+                    .setNeutralButton(R.string.reset_to_default, (dialog, which, inputText, isChecked) -> {
+                        AppPref.setDefault(AppPref.PrefKey.PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT);
+                        segmentDuration.setSummary(getSegmentDurationSummary(AppPref.getInt(AppPref.PrefKey
+                                .PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT)));
+                    })
+                    .show();
+            return true;
+        });
+
         Preference logLevel = Objects.requireNonNull(findPreference("log_viewer_default_log_level"));
         logLevel.setOnPreferenceClickListener(preference -> {
             CharSequence[] logLevelsLocalised = getResources().getStringArray(R.array.log_levels);
@@ -177,4 +241,20 @@ public class LogViewerPreferences extends PreferenceFragmentCompat {
             return true;
         });
     }
-}
\ No newline at end of file
+
+    @NonNull
+    private String getSegmentSizeSummary(int segmentSize) {
+        if (segmentSize == 0) {
+            return getString(R.string.pref_recording_segment_size_disabled);
+        }
+        return getString(R.string.pref_recording_segment_size_summary, segmentSize);
+    }
+
+    @NonNull
+    private String getSegmentDurationSummary(int segmentDuration) {
+        if (segmentDuration == 0) {
+            return getString(R.string.pref_recording_segment_duration_disabled);
+        }
+        return getString(R.string.pref_recording_segment_duration_summary, segmentDuration);
+    }
+}
@@ -229,6 +229,9 @@ public class MainPreferences extends PreferenceFragmentCompat {
                     .show();
             return true;
         });
+        // Batch operation traces
+        SwitchPreferenceCompat traceBatchOps = Objects.requireNonNull(findPreference("trace_batch_ops"));
+        traceBatchOps.setChecked(AppPref.getBoolean(AppPref.PrefKey.PREF_TRACE_BATCH_OPS_BOOL));
         // Import/export App Manager's KeyStore
         ((Preference) Objects.requireNonNull(findPreference("import_export_keystore")))
                 .setOnPreferenceClickListener(preference -> {
@@ -19,6 +19,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
@@ -27,6 +28,7 @@ import java.util.StringTokenizer;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.misc.OsEnvironment;
 import io.github.muntashirakon.AppManager.runner.Runner;
+import io.github.muntashirakon.AppManager.utils.DeviceStateSnapshot;
 import io.github.muntashirakon.io.AtomicProxyFile;
 import io.github.muntashirakon.io.ProxyOutputStream;
 
@@ -115,9 +117,12 @@ public class UriManager {
             out.endTag(null, TAG_URI_GRANTS);
             out.endDocument();
             mGrantFile.finishWrite(fos);
-            Runner.runCommand(new String[]{"chmod", "600", mGrantFile.getBaseFile().getAbsolutePath()});
-            Runner.runCommand(new String[]{"chown", "1000:1000", mGrantFile.getBaseFile().getAbsolutePath()});
-            Runner.runCommand(new String[]{"restorecon", mGrantFile.getBaseFile().getAbsolutePath()});
+            String grantFilePath = mGrantFile.getBaseFile().getAbsolutePath();
+            Runner.runCommands(Arrays.asList(
+                    new String[]{"chmod", "600", grantFilePath},
+                    new String[]{"chown", "1000:1000", grantFilePath},
+                    new String[]{"restorecon", grantFilePath}));
+            DeviceStateSnapshot.invalidate(DeviceStateSnapshot.STATE_URI_GRANTS);
         } catch (IOException e) {
             Log.e(TAG, "Failed writing Uri grants", e);
             mGrantFile.failWrite(fos);
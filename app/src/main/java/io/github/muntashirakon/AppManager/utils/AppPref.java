@@ -90,6 +90,9 @@ public class AppPref {
         PREF_LOG_VIEWER_EXPAND_BY_DEFAULT_BOOL,
         PREF_LOG_VIEWER_FILTER_PATTERN_STR,
         PREF_LOG_VIEWER_OMIT_SENSITIVE_INFO_BOOL,
+        PREF_LOG_VIEWER_RECORDING_COMPRESS_BOOL,
+        PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT,
+        PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT,
         PREF_LOG_VIEWER_SHOW_PID_TID_TIMESTAMP_BOOL,
         PREF_LOG_VIEWER_WRITE_PERIOD_INT,
 
@@ -110,6 +113,7 @@ public class AppPref {
         PREF_SELECTED_USERS_STR,
         PREF_SIGNATURE_SCHEMES_INT,
         PREF_SHOW_DISCLAIMER_BOOL,
+        PREF_TRACE_BATCH_OPS_BOOL,
         ;
 
         public static final String[] keys = new String[values().length];
@@ -410,6 +414,8 @@ public class AppPref {
             case PREF_MAIN_WINDOW_SORT_REVERSE_BOOL:
             case PREF_LOG_VIEWER_EXPAND_BY_DEFAULT_BOOL:
             case PREF_LOG_VIEWER_OMIT_SENSITIVE_INFO_BOOL:
+            case PREF_LOG_VIEWER_RECORDING_COMPRESS_BOOL:
+            case PREF_TRACE_BATCH_OPS_BOOL:
                 return false;
             case PREF_APP_OP_SHOW_DEFAULT_BOOL:
             case PREF_SHOW_DISCLAIMER_BOOL:
@@ -461,6 +467,10 @@ public class AppPref {
                 return 10_000;
             case PREF_LOG_VIEWER_WRITE_PERIOD_INT:
                 return 200;
+            case PREF_LOG_VIEWER_RECORDING_SEGMENT_SIZE_INT:
+                return 16;  // MiB
+            case PREF_LOG_VIEWER_RECORDING_SEGMENT_DURATION_INT:
+                return 0;  // No limit
             case PREF_LOG_VIEWER_DEFAULT_LOG_LEVEL_INT:
                 return Log.VERBOSE;
             case PREF_LOG_VIEWER_BUFFER_INT:
@@ -0,0 +1,263 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import android.app.INotificationManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.UserHandleHidden;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.collection.ArrayMap;
+import androidx.collection.ArraySet;
+
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.runner.Runner;
+import io.github.muntashirakon.AppManager.servermanager.LocalServer;
+import io.github.muntashirakon.AppManager.uri.UriManager;
+
+/**
+ * A snapshot of the global device states that are consulted for every package during a backup or
+ * while applying rules, namely the MagiskHide list, the battery optimization whitelist, enabled
+ * notification listeners, URI grants and SSAIDs. Each state is loaded lazily at the first lookup
+ * and every subsequent lookup is served from memory.
+ * <p>
+ * Batch operations should wrap their work between {@link #acquire()} and {@link #release()} so that
+ * all the operations share a single snapshot. Outside a batch, {@link #get()} returns a transient
+ * snapshot. A shared snapshot is discarded once it is older than {@link #TTL_MILLIS}, and a state is
+ * reloaded whenever it is modified via {@link #invalidate(int)}.
+ */
+@WorkerThread
+public final class DeviceStateSnapshot {
+    public static final String TAG = DeviceStateSnapshot.class.getSimpleName();
+
+    @IntDef(flag = true, value = {
+            STATE_MAGISK_HIDE,
+            STATE_BATTERY_OPT,
+            STATE_NOTIFICATION_LISTENERS,
+            STATE_URI_GRANTS,
+            STATE_SSAID,
+            STATE_ALL,
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface StateType {
+    }
+
+    public static final int STATE_MAGISK_HIDE = 1;
+    public static final int STATE_BATTERY_OPT = 1 << 1;
+    public static final int STATE_NOTIFICATION_LISTENERS = 1 << 2;
+    public static final int STATE_URI_GRANTS = 1 << 3;
+    public static final int STATE_SSAID = 1 << 4;
+    public static final int STATE_ALL = STATE_MAGISK_HIDE | STATE_BATTERY_OPT | STATE_NOTIFICATION_LISTENERS
+            | STATE_URI_GRANTS | STATE_SSAID;
+
+    /**
+     * Maximum age of a shared snapshot. Changes made outside App Manager are picked up after this.
+     */
+    public static final long TTL_MILLIS = 2 * 60 * 1000;
+
+    private static final Object sLock = new Object();
+    @GuardedBy("sLock")
+    @Nullable
+    private static DeviceStateSnapshot sSharedSnapshot;
+    @GuardedBy("sLock")
+    private static int sRefCount = 0;
+
+    /**
+     * Start a batch operation. Until the matching {@link #release()} is called, {@link #get()}
+     * returns a shared snapshot.
+     */
+    public static void acquire() {
+        synchronized (sLock) {
+            ++sRefCount;
+        }
+    }
+
+    /**
+     * Finish a batch operation started via {@link #acquire()}. The shared snapshot is discarded
+     * when there are no more batch operations running.
+     */
+    public static void release() {
+        synchronized (sLock) {
+            if (sRefCount > 0 && --sRefCount == 0) {
+                sSharedSnapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Get the shared snapshot if a batch operation is running, or a new transient snapshot
+     * otherwise.
+     */
+    @NonNull
+    public static DeviceStateSnapshot get() {
+        synchronized (sLock) {
+            if (sRefCount == 0) {
+                return new DeviceStateSnapshot();
+            }
+            if (sSharedSnapshot == null || sSharedSnapshot.isExpired()) {
+                sSharedSnapshot = new DeviceStateSnapshot();
+            }
+            return sSharedSnapshot;
+        }
+    }
+
+    /**
+     * Notify that the given states have been modified. The shared snapshot, if any, will reload
+     * these states at the next lookup.
+     *
+     * @param states One or more of the {@link StateType}s
+     */
+    public static void invalidate(@StateType int states) {
+        DeviceStateSnapshot snapshot;
+        synchronized (sLock) {
+            snapshot = sSharedSnapshot;
+        }
+        if (snapshot != null) {
+            snapshot.invalidateStates(states);
+        }
+    }
+
+    private final long mCreationTime;
+
+    @GuardedBy("this")
+    @Nullable
+    private Set<String> mMagiskHiddenPackages;
+    @GuardedBy("this")
+    @Nullable
+    private Set<String> mBatteryOptWhitelist;
+    @GuardedBy("this")
+    private final SparseArray<Map<String, List<String>>> mNotificationListeners = new SparseArray<>();
+    @GuardedBy("this")
+    @Nullable
+    private UriManager mUriManager;
+    @GuardedBy("this")
+    private final SparseArray<SsaidSettings> mSsaidSettings = new SparseArray<>();
+
+    private DeviceStateSnapshot() {
+        mCreationTime = SystemClock.elapsedRealtime();
+    }
+
+    public boolean isExpired() {
+        return SystemClock.elapsedRealtime() - mCreationTime > TTL_MILLIS;
+    }
+
+    public synchronized boolean isMagiskHidden(@NonNull String packageName) {
+        if (mMagiskHiddenPackages == null) {
+            mMagiskHiddenPackages = MagiskUtils.listHiddenPackages();
+        }
+        return mMagiskHiddenPackages.contains(packageName);
+    }
+
+    /**
+     * Whether the package has been exempted from battery optimization by the user.
+     */
+    public synchronized boolean isBatteryOptimizationDisabled(@NonNull String packageName, int uid) {
+        if (mBatteryOptWhitelist == null) {
+            mBatteryOptWhitelist = new ArraySet<>();
+            Runner.Result result = Runner.runCommand(new String[]{"dumpsys", "deviceidle", "whitelist"});
+            if (result.isSuccessful()) {
+                // Each line has the format: type,package,uid
+                for (String line : result.getOutputAsList()) {
+                    mBatteryOptWhitelist.add(line.trim());
+                }
+            }
+        }
+        return mBatteryOptWhitelist.contains("user," + packageName + "," + uid);
+    }
+
+    /**
+     * Get the class names of the enabled notification listeners of the package.
+     */
+    @NonNull
+    public synchronized List<String> getEnabledNotificationListeners(@NonNull String packageName, int userHandle) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O_MR1) {
+            return Collections.emptyList();
+        }
+        Map<String, List<String>> listeners = mNotificationListeners.get(userHandle);
+        if (listeners == null) {
+            listeners = new ArrayMap<>();
+            if (LocalServer.isAMServiceAlive()) {
+                INotificationManager notificationManager = INotificationManager.Stub.asInterface(
+                        ProxyBinder.getService(Context.NOTIFICATION_SERVICE));
+                try {
+                    for (ComponentName componentName : notificationManager.getEnabledNotificationListeners(userHandle)) {
+                        List<String> components = listeners.get(componentName.getPackageName());
+                        if (components == null) {
+                            components = new ArrayList<>();
+                            listeners.put(componentName.getPackageName(), components);
+                        }
+                        components.add(componentName.getClassName());
+                    }
+                } catch (RemoteException e) {
+                    Log.e(TAG, e);
+                }
+            }
+            mNotificationListeners.put(userHandle, listeners);
+        }
+        List<String> components = listeners.get(packageName);
+        return components != null ? components : Collections.emptyList();
+    }
+
+    @NonNull
+    public synchronized List<UriManager.UriGrant> getGrantedUris(@NonNull String packageName) {
+        if (mUriManager == null) {
+            mUriManager = new UriManager();
+        }
+        List<UriManager.UriGrant> uriGrants = mUriManager.getGrantedUris(packageName);
+        return uriGrants != null ? Collections.unmodifiableList(uriGrants) : Collections.emptyList();
+    }
+
+    @Nullable
+    public String getSsaid(@NonNull String packageName, int uid) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return null;
+        }
+        SsaidSettings ssaidSettings;
+        synchronized (this) {
+            int userHandle = UserHandleHidden.getUserId(uid);
+            ssaidSettings = mSsaidSettings.get(userHandle);
+            if (ssaidSettings == null) {
+                ssaidSettings = new SsaidSettings(userHandle);
+                mSsaidSettings.put(userHandle, ssaidSettings);
+            }
+        }
+        return ssaidSettings.getSsaid(packageName, uid);
+    }
+
+    private synchronized void invalidateStates(@StateType int states) {
+        if ((states & STATE_MAGISK_HIDE) != 0) {
+            mMagiskHiddenPackages = null;
+        }
+        if ((states & STATE_BATTERY_OPT) != 0) {
+            mBatteryOptWhitelist = null;
+        }
+        if ((states & STATE_NOTIFICATION_LISTENERS) != 0) {
+            mNotificationListeners.clear();
+        }
+        if ((states & STATE_URI_GRANTS) != 0) {
+            mUriManager = null;
+        }
+        if ((states & STATE_SSAID) != 0) {
+            mSsaidSettings.clear();
+        }
+    }
+}
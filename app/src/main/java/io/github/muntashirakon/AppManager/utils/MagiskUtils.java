@@ -82,21 +82,20 @@ public class MagiskUtils {
         return packages;
     }
 
-    public static boolean isHidden(String packageName) {
-        // FIXME: 6/2/21 This implementation is greedy and can match multiple packages
-        return Runner.runCommand(Runner.getRootInstance(), "magiskhide ls | grep " + packageName).isSuccessful();
-    }
-
     public static boolean hide(String packageName) {
         // Check MagiskHide status
         if (!isMagiskHideEnabled(true)) return false;
         // MagiskHide is enabled, enable hide for the package
-        return Runner.runCommand(Runner.getRootInstance(), new String[]{"magiskhide", "add", packageName}).isSuccessful();
+        boolean success = Runner.runCommand(Runner.getRootInstance(), new String[]{"magiskhide", "add", packageName}).isSuccessful();
+        DeviceStateSnapshot.invalidate(DeviceStateSnapshot.STATE_MAGISK_HIDE);
+        return success;
     }
 
     public static boolean unhide(String packageName) {
         // Disable hide for the package (don't need to check for status)
-        return Runner.runCommand(Runner.getRootInstance(), new String[]{"magiskhide", "rm", packageName}).isSuccessful();
+        boolean success = Runner.runCommand(Runner.getRootInstance(), new String[]{"magiskhide", "rm", packageName}).isSuccessful();
+        DeviceStateSnapshot.invalidate(DeviceStateSnapshot.STATE_MAGISK_HIDE);
+        return success;
     }
 
     public static boolean isMagiskHideEnabled(boolean forceEnable) {
@@ -21,6 +21,11 @@ import io.github.muntashirakon.AppManager.logs.Log;
 public class MultithreadedExecutor implements ExecutorService {
     private static final List<MultithreadedExecutor> executorCache = new ArrayList<>();
 
+    /**
+     * @deprecated Dedicated thread pools compete with each other. Use a {@link TaskScope} from
+     * {@link WorkerPools} instead.
+     */
+    @Deprecated
     @WorkerThread
     @NonNull
     public static MultithreadedExecutor getNewInstance() {
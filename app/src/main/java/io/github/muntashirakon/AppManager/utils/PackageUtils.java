@@ -29,6 +29,7 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.ContextCompat;
 
@@ -53,7 +54,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
@@ -65,23 +66,25 @@ import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.appops.AppOpsManager;
 import io.github.muntashirakon.AppManager.appops.AppOpsService;
+import io.github.muntashirakon.AppManager.appops.AppOpsSnapshot;
 import io.github.muntashirakon.AppManager.backup.BackupUtils;
+import io.github.muntashirakon.AppManager.db.AMDatabase;
+import io.github.muntashirakon.AppManager.db.dao.AppDao;
 import io.github.muntashirakon.AppManager.db.entity.App;
 import io.github.muntashirakon.AppManager.db.entity.Backup;
 import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.main.ApplicationItem;
+import io.github.muntashirakon.AppManager.main.ApplicationListLoader;
 import io.github.muntashirakon.AppManager.misc.OsEnvironment;
 import io.github.muntashirakon.AppManager.rules.RuleType;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
-import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
 import io.github.muntashirakon.AppManager.runner.Runner;
 import io.github.muntashirakon.AppManager.runner.RunnerUtils;
 import io.github.muntashirakon.AppManager.servermanager.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.types.PackageChangeReceiver;
 import io.github.muntashirakon.AppManager.types.PackageSizeInfo;
 import io.github.muntashirakon.AppManager.types.UserPackagePair;
-import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.io.FileStatus;
 import io.github.muntashirakon.io.ProxyFile;
 import io.github.muntashirakon.io.ProxyFiles;
@@ -167,34 +170,45 @@ public final class PackageUtils {
             // Update list of apps safely in the background
             executor.submit(() -> updateInstalledOrBackedUpApplications(context, loadBackups));
         }
-        HashMap<String, Backup> backups = BackupUtils.getAllLatestBackupMetadataFromDb();
+        return getApplicationItems(apps, BackupUtils.getAllLatestBackupMetadataFromDb());
+    }
+
+    /**
+     * Create the items of the main list from the given apps and backups. The apps of a package installed in several
+     * users are merged into one item, and the backups of the packages that aren't in the apps are listed as separate
+     * items.
+     *
+     * @param latestBackups Latest backups by package name
+     */
+    @NonNull
+    public static List<ApplicationItem> getApplicationItems(@NonNull List<App> apps,
+                                                            @NonNull Map<String, Backup> latestBackups) {
+        List<ApplicationItem> applicationItems = new ArrayList<>(apps.size());
+        HashMap<String, Backup> backups = new HashMap<>(latestBackups);
+        // Items by package name, multiple users share the same item
+        HashMap<String, ApplicationItem> packageItems = new HashMap<>(apps.size());
         // Get application items from apps
         for (App app : apps) {
-            ApplicationItem item = new ApplicationItem();
-            item.packageName = app.packageName;
-            int i;
-            if (app.isInstalled) {
-                if ((i = applicationItems.indexOf(item)) != -1) {
+            ApplicationItem oldItem = packageItems.get(app.packageName);
+            if (oldItem != null) {
+                if (app.isInstalled) {
                     // Item already exists, add the user handle and continue
-                    ApplicationItem oldItem = applicationItems.get(i);
                     oldItem.userHandles = ArrayUtils.appendInt(oldItem.userHandles, app.userId);
                     oldItem.isInstalled = true;
-                    continue;
-                } else {
-                    // Item doesn't exist, add the user handle
-                    item.userHandles = ArrayUtils.appendInt(item.userHandles, app.userId);
-                    item.isInstalled = true;
-                }
+                } // else app not installed but may be installed in other profiles, use the previous status
+                continue;
+            }
+            ApplicationItem item = new ApplicationItem();
+            item.packageName = app.packageName;
+            if (app.isInstalled) {
+                // Item doesn't exist, add the user handle
+                item.userHandles = ArrayUtils.appendInt(item.userHandles, app.userId);
+                item.isInstalled = true;
             } else {
-                // App not installed but may be installed in other profiles
-                if (applicationItems.contains(item)) {
-                    // Item exists, use the previous status
-                    continue;
-                } else {
-                    // Item doesn't exist, don't add user handle
-                    item.isInstalled = false;
-                }
+                // Item doesn't exist, don't add user handle
+                item.isInstalled = false;
             }
+            packageItems.put(item.packageName, item);
             if (backups.containsKey(item.packageName)) {
                 item.backup = backups.get(item.packageName);
                 backups.remove(item.packageName);
@@ -242,116 +256,104 @@ public final class PackageUtils {
 
     @WorkerThread
     public static void updateInstalledOrBackedUpApplications(@NonNull Context context, boolean loadBackups) {
-        HashMap<String, Backup> backups;
-        if (loadBackups) {
-            try {
-                backups = BackupUtils.storeAllAndGetLatestBackupMetadata();
-            } catch (IOException e) {
-                e.printStackTrace();
-                // Backups variable should always be non-null
-                backups = new HashMap<>(0);
-            }
-        } else {
-            backups = BackupUtils.getAllLatestBackupMetadataFromDb();
-        }
-        // Interrupt thread on request
-        if (Thread.currentThread().isInterrupted()) return;
-
-        List<App> newApps = new ArrayList<>();
-        List<Integer> newAppHashes = new ArrayList<>();
-        int[] userHandles = Users.getUsersIds();
-        for (int userHandle : userHandles) {
-            // Interrupt thread on request
-            if (Thread.currentThread().isInterrupted()) return;
-
-            List<PackageInfo> packageInfoList;
-            try {
-                packageInfoList = PackageManagerCompat.getInstalledPackages(flagSigningInfo
-                        | PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS
-                        | PackageManager.GET_SERVICES | flagDisabledComponents | flagMatchUninstalled, userHandle);
-            } catch (Exception e) {
-                Log.e(TAG, "Could not retrieve package info list for user " + userHandle, e);
-                continue;
-            }
-            ApplicationInfo applicationInfo;
-            Backup backup;
-
-            for (PackageInfo packageInfo : packageInfoList) {
-                // Interrupt thread on request
-                if (Thread.currentThread().isInterrupted()) return;
-
-                applicationInfo = packageInfo.applicationInfo;
-                App app = App.fromPackageInfo(context, packageInfo);
-                backup = backups.get(applicationInfo.packageName);
-                if (backup != null) {
-                    backups.remove(applicationInfo.packageName);
-                }
-                try (ComponentsBlocker cb = ComponentsBlocker.getInstance(app.packageName, app.userId, true)) {
-                    app.rulesCount = cb.entryCount();
-                }
-                newApps.add(app);
-                newAppHashes.add(app.getHashCode());
-            }
-        }
-        // Add rest of the backup items, i.e., items that aren't installed
-        for (Backup backup : backups.values()) {
-            // Interrupt thread on request
-            if (Thread.currentThread().isInterrupted()) return;
+        new ApplicationListLoader(context, loadBackups).load(null);
+    }
 
-            if (backup == null) continue;
-            App app = App.fromBackup(backup);
-            try (ComponentsBlocker cb = ComponentsBlocker.getInstance(app.packageName, app.userId, true)) {
-                app.rulesCount = cb.entryCount();
-            }
-            newApps.add(app);
-            newAppHashes.add(app.getHashCode());
-        }
-        // Add new and delete old items
-        List<App> oldApps = AppManager.getDb().appDao().getAll();
-        List<App> updatedApps = new ArrayList<>();
-        ListIterator<App> iterator = oldApps.listIterator();
-        while (iterator.hasNext()) {
-            // Interrupt thread on request
-            if (Thread.currentThread().isInterrupted()) return;
-
-            App oldApp = iterator.next();
-            int index = newApps.indexOf(oldApp);
-            if (index != -1) {
-                // DB already has this app
-                if (!newAppHashes.contains(oldApp.getHashCode())) {
-                    // Change detected, replace old with new
-                    updatedApps.add(newApps.get(index));
-                } // else no change between two versions, the app don't have to be updated or deleted
-                iterator.remove();
-                newApps.remove(index);
-            } // else the app is new
-        }
-        AppManager.getDb().appDao().delete(oldApps);
-        AppManager.getDb().appDao().insert(newApps);
-        AppManager.getDb().appDao().insert(updatedApps);
-        if (oldApps.size() > 0) {
+    /**
+     * Replace the contents of the app table with the given apps, and notify the changes to the rest of the app.
+     */
+    @WorkerThread
+    public static void updateAppTableAndNotify(@NonNull Context context, @NonNull List<App> newApps) {
+        // Add new, replace altered and delete old items
+        AppTableChanges changes = updateAppTable(AppManager.getDb(), newApps);
+        if (changes == null) {
+            // Nothing has changed
+            return;
+        }
+        if (changes.deletedApps.size() > 0) {
             // Delete broadcast
             Intent intent = new Intent(PackageChangeReceiver.ACTION_PACKAGE_REMOVED);
             intent.setPackage(context.getPackageName());
-            intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, getPackageNamesFromApps(oldApps));
+            intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, getPackageNamesFromApps(changes.deletedApps));
             context.sendBroadcast(intent);
         }
-        if (newApps.size() > 0) {
+        if (changes.newApps.size() > 0) {
             // New apps
             Intent intent = new Intent(PackageChangeReceiver.ACTION_PACKAGE_ADDED);
             intent.setPackage(context.getPackageName());
-            intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, getPackageNamesFromApps(newApps));
+            intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, getPackageNamesFromApps(changes.newApps));
             context.sendBroadcast(intent);
         }
-        if (updatedApps.size() > 0) {
+        if (changes.updatedApps.size() > 0) {
             // Altered apps
             Intent intent = new Intent(PackageChangeReceiver.ACTION_PACKAGE_ALTERED);
             intent.setPackage(context.getPackageName());
-            intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, getPackageNamesFromApps(updatedApps));
+            intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, getPackageNamesFromApps(changes.updatedApps));
             context.sendBroadcast(intent);
         }
     }
 
+    @VisibleForTesting
+    static class AppTableChanges {
+        @NonNull
+        final List<App> newApps = new ArrayList<>();
+        @NonNull
+        final List<App> updatedApps = new ArrayList<>();
+        @NonNull
+        final List<App> deletedApps = new ArrayList<>();
+    }
+
+    /**
+     * Replace the contents of the app table with the given apps in a single transaction. Only the rows that have
+     * been added, altered or removed are written, and the table is not read at all if the apps are the same as the
+     * ones stored.
+     *
+     * @return The changes made to the table, or {@code null} if there weren't any
+     */
+    @VisibleForTesting
+    @WorkerThread
+    @Nullable
+    static AppTableChanges updateAppTable(@NonNull AMDatabase db, @NonNull List<App> apps) {
+        // Rows are keyed by package name and user ID, see App#equals()
+        HashMap<App, App> newApps = new HashMap<>(apps.size());
+        for (App app : apps) {
+            app.contentHash = app.getHashCode();
+            newApps.put(app, app);
+        }
+        long hashSum = 0;
+        for (App app : newApps.values()) {
+            hashSum += app.contentHash;
+        }
+        long finalHashSum = hashSum;
+        AppDao appDao = db.appDao();
+        return db.runInTransaction(() -> {
+            AppDao.ChangeToken token = appDao.getChangeToken();
+            if (token.count == newApps.size() && token.hashSum == finalHashSum) {
+                return null;
+            }
+            AppTableChanges changes = new AppTableChanges();
+            for (AppDao.AppKey key : appDao.getAllKeys()) {
+                App oldApp = new App();
+                oldApp.packageName = key.packageName;
+                oldApp.userId = key.userId;
+                App newApp = newApps.remove(oldApp);
+                if (newApp == null) {
+                    changes.deletedApps.add(oldApp);
+                } else if (newApp.contentHash != key.contentHash) {
+                    changes.updatedApps.add(newApp);
+                } // else no change between two versions, the app don't have to be updated or deleted
+            }
+            changes.newApps.addAll(newApps.values());
+            if (changes.deletedApps.isEmpty() && changes.updatedApps.isEmpty() && changes.newApps.isEmpty()) {
+                return null;
+            }
+            appDao.delete(changes.deletedApps);
+            appDao.insert(changes.newApps);
+            appDao.insert(changes.updatedApps);
+            return changes;
+        });
+    }
+
     @NonNull
     private static String[] getPackageNamesFromApps(@NonNull List<App> apps) {
         HashSet<String> packages = new HashSet<>(apps.size());
@@ -470,6 +472,16 @@ public final class PackageUtils {
         return filteredAppOps;
     }
 
+    /**
+     * Same as {@link #getFilteredAppOps(String, int, int[], int)}, but the modes are looked up in
+     * the given snapshot. This should be preferred when filtering app ops of multiple packages.
+     */
+    @NonNull
+    public static Collection<Integer> getFilteredAppOps(@NonNull AppOpsSnapshot snapshot, String packageName,
+                                                        int uid, @NonNull int[] appOps, int mode) {
+        return snapshot.getOpsNotInMode(packageName, uid, appOps, mode);
+    }
+
     @NonNull
     public static HashMap<String, RuleType> getUserDisabledComponentsForPackage(String packageName, @UserIdInt int userHandle) {
         HashMap<String, RuleType> componentClasses = collectComponentClassNames(packageName, userHandle);
@@ -498,13 +510,6 @@ public final class PackageUtils {
         }
     }
 
-    @Nullable
-    public static String[] getPermissionsForPackage(String packageName, @UserIdInt int userHandle)
-            throws PackageManager.NameNotFoundException, RemoteException {
-        PackageInfo info = PackageManagerCompat.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS, userHandle);
-        return info.requestedPermissions;
-    }
-
     @NonNull
     public static String getPackageLabel(@NonNull PackageManager pm, String packageName) {
         try {
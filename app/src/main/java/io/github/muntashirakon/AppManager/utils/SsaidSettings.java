@@ -35,7 +35,6 @@ import static io.github.muntashirakon.AppManager.utils.SettingsState.SYSTEM_PACK
 public class SsaidSettings {
     public static final String SSAID_USER_KEY = "userkey";
 
-    @SuppressWarnings("FieldCanBeLocal")
     private final Object lock = new Object();
     private final int uid;
     private final String packageName;
@@ -43,12 +42,25 @@ public class SsaidSettings {
 
     @WorkerThread
     public SsaidSettings(String packageName, int uid) throws IOException {
+        this(UserHandleHidden.getUserId(uid), packageName, uid);
+    }
+
+    /**
+     * Load SSAID settings of the given user. Such an instance is not bound to any package, and can
+     * only be accessed via {@link #getSsaid(String, int)} and {@link #setSsaid(String, int, String)}.
+     */
+    @WorkerThread
+    public SsaidSettings(int userId) throws IOException {
+        this(userId, null, -1);
+    }
+
+    private SsaidSettings(int userId, @Nullable String packageName, int uid) throws IOException {
         this.uid = uid;
         this.packageName = packageName;
         HandlerThread thread = new HandlerThread("SSAID", Process.THREAD_PRIORITY_BACKGROUND);
         thread.start();
         int ssaidKey = SettingsStateV26.makeKey(SettingsState.SETTINGS_TYPE_SSAID, 0);
-        File ssaidLocation = new ProxyFile(OsEnvironment.getUserSystemDirectory(UserHandleHidden.getUserId(uid)),
+        File ssaidLocation = new ProxyFile(OsEnvironment.getUserSystemDirectory(userId),
                 "settings_ssaid.xml");
         try {
             if (!ssaidLocation.canRead()) {
@@ -72,19 +84,44 @@ public class SsaidSettings {
 
     @Nullable
     public String getSsaid() {
-        return settingsState.getSettingLocked(getName()).getValue();
+        return getSsaid(requirePackageName(), uid);
+    }
+
+    @Nullable
+    public String getSsaid(@NonNull String packageName, int uid) {
+        synchronized (lock) {
+            return settingsState.getSettingLocked(getName(packageName, uid)).getValue();
+        }
     }
 
     public boolean setSsaid(String ssaid) {
+        return setSsaid(requirePackageName(), uid, ssaid);
+    }
+
+    public boolean setSsaid(@NonNull String packageName, int uid, String ssaid) {
         try {
             PackageManagerCompat.forceStopPackage(packageName, UserHandleHidden.getUserId(uid));
         } catch (Throwable e) {
             e.printStackTrace();
         }
-        return settingsState.insertSettingLocked(getName(), ssaid, null, true, packageName);
+        boolean success;
+        synchronized (lock) {
+            success = settingsState.insertSettingLocked(getName(packageName, uid), ssaid, null, true, packageName);
+        }
+        DeviceStateSnapshot.invalidate(DeviceStateSnapshot.STATE_SSAID);
+        return success;
+    }
+
+    @NonNull
+    private String requirePackageName() {
+        if (packageName == null) {
+            throw new IllegalStateException("SSAID settings are not bound to any package.");
+        }
+        return packageName;
     }
 
-    private String getName() {
+    @NonNull
+    private static String getName(@NonNull String packageName, int uid) {
         return packageName.equals(SYSTEM_PACKAGE_NAME) ? SSAID_USER_KEY : String.valueOf(uid);
     }
 
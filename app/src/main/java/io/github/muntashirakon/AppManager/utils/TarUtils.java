@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.logs.Tracer;
 import io.github.muntashirakon.AppManager.runner.Runner;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.ProxyFiles;
@@ -52,6 +53,8 @@ public final class TarUtils {
     public static final String TAR_GZIP = "z";
     public static final String TAR_BZIP2 = "j";
 
+    private static final String TRACE_CATEGORY = "tar";
+
     /**
      * Create a tar file using the given compression method and split it into multiple files based
      * on the supplied split size.
@@ -72,8 +75,11 @@ public final class TarUtils {
                                     @NonNull String destFilePrefix, @Nullable String[] filters,
                                     @Nullable Long splitSize, @Nullable String[] exclude, boolean followLinks)
             throws IOException, RemoteException, ErrnoException {
-        try (SplitOutputStream sos = new SplitOutputStream(dest, destFilePrefix, splitSize == null ? DEFAULT_SPLIT_SIZE : splitSize);
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "create");
+             SplitOutputStream sos = new SplitOutputStream(dest, destFilePrefix, splitSize == null ? DEFAULT_SPLIT_SIZE : splitSize);
              BufferedOutputStream bos = new BufferedOutputStream(sos)) {
+            span.setArg("file", destFilePrefix);
+            span.setArg("type", type);
             OutputStream os;
             if (TAR_GZIP.equals(type)) {
                 os = new GzipCompressorOutputStream(bos);
@@ -88,7 +94,10 @@ public final class TarUtils {
                 List<Path> files = new ArrayList<>();
                 Path basePath = source.isDirectory() ? source : source.getParentFile();
                 if (basePath == null) basePath = new Path(AppManager.getContext(), new File("/"));
-                gatherFiles(files, basePath, source, filters, exclude, followLinks);
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "gatherFiles")) {
+                    gatherFiles(files, basePath, source, filters, exclude, followLinks);
+                }
+                span.setArg("entries", files.size());
                 for (Path file : files) {
                     String relativePath = getRelativePath(file, basePath);
                     if (relativePath.equals("") || relativePath.equals("/")) continue;
@@ -104,7 +113,7 @@ public final class TarUtils {
                         tos.putArchiveEntry(tarEntry);
                         if (!file.isDirectory()) {
                             try (InputStream is = file.openInputStream()) {
-                                FileUtils.copy(is, tos);
+                                span.addBytes(FileUtils.copy(is, tos));
                             }
                         }
                     }
@@ -132,8 +141,13 @@ public final class TarUtils {
     public static void extract(@NonNull @TarType String type, @NonNull Path[] sources, @NonNull Path dest,
                                @Nullable String[] filters, @Nullable String[] exclude)
             throws IOException, RemoteException {
-        try (SplitInputStream sis = new SplitInputStream(sources);
+        try (Tracer.Span span = Tracer.begin(TRACE_CATEGORY, "extract");
+             SplitInputStream sis = new SplitInputStream(sources);
              BufferedInputStream bis = new BufferedInputStream(sis)) {
+            if (span.isRecording() && sources.length > 0) {
+                span.setArg("file", sources[0].getName());
+            }
+            span.setArg("type", type);
             InputStream is;
             if (TAR_GZIP.equals(type)) {
                 is = new GzipCompressorInputStream(bis, true);
@@ -176,7 +190,7 @@ public final class TarUtils {
                         }
                         if (!entry.isDirectory()) {
                             try (OutputStream os = file.openOutputStream()) {
-                                FileUtils.copy(tis, os);
+                                span.addBytes(FileUtils.copy(tis, os));
                             }
                         }
                     }
@@ -184,7 +198,9 @@ public final class TarUtils {
                     ProxyFiles.setPermissions(file, entry.getMode(), entry.getUserId(), entry.getGroupId());
                 }
                 // Delete unwanted files
-                validateFiles(dest, dest, filters, exclude);
+                try (Tracer.Span ignore = Tracer.begin(TRACE_CATEGORY, "validateFiles")) {
+                    validateFiles(dest, dest, filters, exclude);
+                }
             } catch (ErrnoException | RemoteException e) {
                 throw new IOException(e);
             } finally {
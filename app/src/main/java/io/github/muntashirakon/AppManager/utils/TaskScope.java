@@ -0,0 +1,316 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Tracer;
+
+/**
+ * A group of tasks run in one of the {@link WorkerPools}. Shutting down a scope only affects the
+ * tasks submitted to this scope, the underlying pool is shared and is never shut down.
+ */
+public class TaskScope extends AbstractExecutorService {
+    public static final String TAG = TaskScope.class.getSimpleName();
+
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    @NonNull
+    private final ThreadPoolExecutor mPool;
+    private final int mParallelism;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Set<ScopedTask<?>> mRunningTasks = Collections.newSetFromMap(new IdentityHashMap<>());
+    @GuardedBy("mLock")
+    private final ArrayDeque<ScopedTask<?>> mPendingTasks = new ArrayDeque<>();
+    @GuardedBy("mLock")
+    private boolean mShutdown = false;
+    @WorkerPools.Priority
+    private volatile int mPriority = WorkerPools.PRIORITY_DEFAULT;
+
+    TaskScope(@NonNull ThreadPoolExecutor pool, int parallelism) {
+        mPool = pool;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Set the priority of the tasks submitted hereafter, e.g. raise it when the owning screen
+     * becomes visible and lower it when the screen goes to the background.
+     */
+    public void setPriority(@WorkerPools.Priority int priority) {
+        mPriority = priority;
+    }
+
+    @NonNull
+    public Future<?> submit(@NonNull Runnable task, @WorkerPools.Priority int priority) {
+        ScopedTask<?> scopedTask = new ScopedTask<>(task, null, priority);
+        execute(scopedTask);
+        return scopedTask;
+    }
+
+    @NonNull
+    public <T> Future<T> submit(@NonNull Callable<T> task, @WorkerPools.Priority int priority) {
+        ScopedTask<T> scopedTask = new ScopedTask<>(task, priority);
+        execute(scopedTask);
+        return scopedTask;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        ScopedTask<?> task;
+        if (command instanceof ScopedTask && ((ScopedTask<?>) command).getScope() == this) {
+            task = (ScopedTask<?>) command;
+        } else task = new ScopedTask<>(command, null, mPriority);
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new RejectedExecutionException("The scope was shut down");
+            }
+            if (mRunningTasks.size() < mParallelism) {
+                mRunningTasks.add(task);
+                mPool.execute(task);
+            } else mPendingTasks.add(task);
+        }
+    }
+
+    @Override
+    protected <T> ScopedTask<T> newTaskFor(Runnable runnable, T value) {
+        return new ScopedTask<>(runnable, value, mPriority);
+    }
+
+    @Override
+    protected <T> ScopedTask<T> newTaskFor(Callable<T> callable) {
+        return new ScopedTask<>(callable, mPriority);
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Cancel all the tasks of this scope. Running tasks are interrupted.
+     *
+     * @return The tasks that have never started
+     */
+    @NonNull
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<ScopedTask<?>> runningTasks;
+        List<Runnable> pendingTasks;
+        synchronized (mLock) {
+            mShutdown = true;
+            runningTasks = new ArrayList<>(mRunningTasks);
+            pendingTasks = new ArrayList<>(mPendingTasks);
+            mPendingTasks.clear();
+        }
+        for (Runnable task : pendingTasks) {
+            ((ScopedTask<?>) task).cancel(false);
+        }
+        for (ScopedTask<?> task : runningTasks) {
+            task.cancel(true);
+        }
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+        return pendingTasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (mLock) {
+            return mShutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (mLock) {
+            return mShutdown && mRunningTasks.isEmpty() && mPendingTasks.isEmpty();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (!isTerminated()) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                mLock.wait(remainingMillis);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stop accepting new tasks and wait for the submitted tasks to finish.
+     */
+    @WorkerThread
+    public void awaitCompletion() {
+        shutdown();
+        while (!isTerminated()) {
+            try {
+                awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Log.e(TAG, e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop accepting new tasks, run the tasks that have not started yet in the calling thread and wait for the rest to
+     * finish. Unlike {@link #awaitCompletion()}, it never waits for a task that is still queued in the lane, so it can
+     * be called from a worker of the same lane.
+     */
+    @WorkerThread
+    public void runAndAwaitCompletion() {
+        shutdown();
+        ScopedTask<?> task;
+        while ((task = pollUnstartedTask()) != null) {
+            task.run();
+        }
+        awaitCompletion();
+    }
+
+    /**
+     * Wait for a task of this scope to finish. If it has not started yet, it is run in the calling thread instead, so
+     * that a worker of the lane never waits for a task that is queued behind it.
+     */
+    @WorkerThread
+    public <T> T await(@NonNull Future<T> future) throws ExecutionException, InterruptedException {
+        if (future instanceof ScopedTask && ((ScopedTask<?>) future).getScope() == this) {
+            // No-op if it is already running or done
+            ((ScopedTask<?>) future).run();
+        }
+        return future.get();
+    }
+
+    /**
+     * Number of tasks that are either running or waiting in the shared pool.
+     */
+    public int getActiveTaskCount() {
+        synchronized (mLock) {
+            return mRunningTasks.size();
+        }
+    }
+
+    /**
+     * Number of tasks waiting for the parallelism of this scope to allow them to run.
+     */
+    public int getPendingTaskCount() {
+        synchronized (mLock) {
+            return mPendingTasks.size();
+        }
+    }
+
+    @Nullable
+    private ScopedTask<?> pollUnstartedTask() {
+        synchronized (mLock) {
+            for (ScopedTask<?> task : mRunningTasks) {
+                if (!task.isStarted()) return task;
+            }
+            for (ScopedTask<?> task : mPendingTasks) {
+                if (!task.isStarted()) return task;
+            }
+            return null;
+        }
+    }
+
+    private void onTaskFinished(@NonNull ScopedTask<?> task) {
+        List<ScopedTask<?>> nextTasks = new ArrayList<>();
+        synchronized (mLock) {
+            if (mRunningTasks.remove(task)) {
+                // Cancelled tasks may still be waiting in the pool
+                if (task.isCancelled()) {
+                    mPool.remove(task);
+                }
+                while (mRunningTasks.size() < mParallelism && !mPendingTasks.isEmpty()) {
+                    ScopedTask<?> nextTask = mPendingTasks.poll();
+                    if (nextTask != null && !nextTask.isDone()) {
+                        mRunningTasks.add(nextTask);
+                        nextTasks.add(nextTask);
+                    }
+                }
+            } else mPendingTasks.remove(task);
+            if (isTerminated()) {
+                mLock.notifyAll();
+            }
+        }
+        for (ScopedTask<?> nextTask : nextTasks) {
+            mPool.execute(nextTask);
+        }
+    }
+
+    private class ScopedTask<T> extends FutureTask<T> implements Comparable<ScopedTask<?>> {
+        private final int mTaskPriority;
+        private final long mSequence = sSequence.getAndIncrement();
+        private volatile boolean mStarted = false;
+
+        // The tasks record to the trace of the thread that submitted them
+        ScopedTask(@NonNull Runnable runnable, @Nullable T result, int priority) {
+            super(Tracer.wrap(runnable), result);
+            mTaskPriority = priority;
+        }
+
+        ScopedTask(@NonNull Callable<T> callable, int priority) {
+            super(Tracer.wrap(callable));
+            mTaskPriority = priority;
+        }
+
+        @NonNull
+        TaskScope getScope() {
+            return TaskScope.this;
+        }
+
+        boolean isStarted() {
+            return mStarted || isDone();
+        }
+
+        @Override
+        public void run() {
+            // A task may be run by both a worker and a waiting thread, but FutureTask only runs it once
+            mStarted = true;
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            onTaskFinished(this);
+        }
+
+        @Override
+        public int compareTo(@NonNull ScopedTask<?> o) {
+            if (mTaskPriority != o.mTaskPriority) {
+                return mTaskPriority < o.mTaskPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, o.mSequence);
+        }
+    }
+}
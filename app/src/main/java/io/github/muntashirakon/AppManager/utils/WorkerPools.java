@@ -0,0 +1,158 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import android.os.Process;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * App-wide worker pools. Components should not create their own thread pools. Instead, they should
+ * create a {@link TaskScope} via {@link #newScope(int)}, submit their tasks to it and call
+ * {@link TaskScope#shutdownNow()} once they are destroyed (e.g. in {@code ViewModel#onCleared()}).
+ * <p>
+ * There are three lanes:
+ * <ul>
+ *     <li>{@link #LANE_CPU} for CPU-bound tasks, such as parsing
+ *     <li>{@link #LANE_IO} for tasks that block on I/O, IPC, the database or shell commands
+ *     <li>{@link #LANE_UI_PREP} is a serial lane for searching, sorting and filtering the lists that are displayed,
+ *     in the order they were requested. Its tasks must not block on I/O or IPC.
+ * </ul>
+ * Within a lane, tasks of a higher {@link Priority} are run before tasks of a lower priority.
+ * <p>
+ * The lanes are bounded, so a task must never park its thread waiting for another task of the same lane, which
+ * may still be queued behind it. Either submit the dependent work once its input is ready, or wait via
+ * {@link TaskScope#await(java.util.concurrent.Future)} and {@link TaskScope#runAndAwaitCompletion()}, which run
+ * the tasks that have not started yet in the calling thread.
+ */
+public final class WorkerPools {
+    @IntDef({LANE_CPU, LANE_IO, LANE_UI_PREP})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Lane {
+    }
+
+    public static final int LANE_CPU = 0;
+    public static final int LANE_IO = 1;
+    public static final int LANE_UI_PREP = 2;
+
+    @IntDef({PRIORITY_VISIBLE, PRIORITY_DEFAULT, PRIORITY_BACKGROUND})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {
+    }
+
+    /**
+     * Work for the screen that is currently visible to the user.
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    /**
+     * Work that the user is not waiting for, e.g. refreshing a cache or a batch operation.
+     */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final String[] LANE_NAMES = new String[]{"cpu", "io", "ui-prep"};
+    private static final ThreadPoolExecutor[] sPools = new ThreadPoolExecutor[LANE_NAMES.length];
+
+    /**
+     * Create a new scope whose tasks are run in the given lane. The number of tasks of the scope
+     * that run concurrently is only limited by the size of the lane.
+     */
+    @NonNull
+    public static TaskScope newScope(@Lane int lane) {
+        return new TaskScope(getPool(lane), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new scope whose tasks are run in the given lane, at most {@code parallelism} tasks at
+     * a time. This is useful for long-running batch operations that should not occupy the whole lane.
+     */
+    @NonNull
+    public static TaskScope newScope(@Lane int lane, int parallelism) {
+        return new TaskScope(getPool(lane), parallelism);
+    }
+
+    public static int getThreadCount(@Lane int lane) {
+        return getPool(lane).getPoolSize();
+    }
+
+    public static int getActiveCount(@Lane int lane) {
+        return getPool(lane).getActiveCount();
+    }
+
+    public static int getQueueDepth(@Lane int lane) {
+        return getPool(lane).getQueue().size();
+    }
+
+    public static long getCompletedTaskCount(@Lane int lane) {
+        return getPool(lane).getCompletedTaskCount();
+    }
+
+    @NonNull
+    public static String dumpMetrics() {
+        StringBuilder sb = new StringBuilder();
+        for (int lane = LANE_CPU; lane <= LANE_UI_PREP; ++lane) {
+            ThreadPoolExecutor pool = getPool(lane);
+            sb.append(String.format(Locale.ROOT, "%s: threads=%d (max %d), active=%d, queued=%d, completed=%d\n",
+                    LANE_NAMES[lane], pool.getPoolSize(), pool.getMaximumPoolSize(), pool.getActiveCount(),
+                    pool.getQueue().size(), pool.getCompletedTaskCount()));
+        }
+        return sb.toString();
+    }
+
+    @NonNull
+    private static synchronized ThreadPoolExecutor getPool(@Lane int lane) {
+        if (sPools[lane] == null) {
+            int threadCount;
+            int threadPriority;
+            switch (lane) {
+                case LANE_CPU:
+                    threadCount = Utils.getTotalCores();
+                    threadPriority = Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+                    break;
+                case LANE_IO:
+                    // I/O-bound threads mostly wait
+                    threadCount = Math.max(4, Utils.getTotalCores() * 2);
+                    threadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+                    break;
+                case LANE_UI_PREP:
+                default:
+                    threadCount = 1;
+                    threadPriority = Process.THREAD_PRIORITY_DEFAULT;
+            }
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                    new PriorityBlockingQueue<>(), new WorkerThreadFactory(LANE_NAMES[lane], threadPriority));
+            pool.allowCoreThreadTimeOut(true);
+            sPools[lane] = pool;
+        }
+        return sPools[lane];
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+        private final String mName;
+        private final int mThreadPriority;
+
+        WorkerThreadFactory(String name, int threadPriority) {
+            mName = name;
+            mThreadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            return new Thread(() -> {
+                Process.setThreadPriority(mThreadPriority);
+                r.run();
+            }, "am-" + mName + "-" + mThreadNumber.getAndIncrement());
+        }
+    }
+}
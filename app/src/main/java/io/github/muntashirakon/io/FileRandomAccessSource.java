@@ -0,0 +1,51 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A {@link RandomAccessSource} backed by a regular file.
+ */
+public class FileRandomAccessSource implements RandomAccessSource {
+    // Not a FileChannel: an interrupted positional read would close the channel for every reader
+    private final RandomAccessFile mFile;
+    private final long mLength;
+
+    public FileRandomAccessSource(@NonNull File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        mLength = mFile.length();
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public int read(long position, @NonNull byte[] b, int off, int len) throws IOException {
+        if (position >= mLength) return -1;
+        len = (int) Math.min(len, mLength - position);
+        synchronized (mFile) {
+            mFile.seek(position);
+            int count = 0;
+            while (count < len) {
+                int read = mFile.read(b, off + count, len - count);
+                if (read < 0) break;
+                count += read;
+            }
+            return count == 0 && len > 0 ? -1 : count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mFile) {
+            mFile.close();
+        }
+    }
+}
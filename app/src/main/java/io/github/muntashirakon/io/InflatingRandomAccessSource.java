@@ -0,0 +1,266 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A {@link RandomAccessSource} of the decompressed contents of a raw deflate stream. The contents
+ * are decompressed in blocks, and the most recently used blocks are kept in a bounded cache. Reads
+ * past the last decompressed block continue the decompression. A deflate stream cannot be resumed
+ * from an arbitrary position, therefore, if the contents do not fit in the cache and a spill
+ * directory is given, the decompressed blocks are also appended to a temporary file there until it
+ * reaches the given size, and reads of the blocks in that file that miss the cache are served from
+ * it. Other reads before the last decompressed block restart the decompression from the beginning.
+ */
+public class InflatingRandomAccessSource implements RandomAccessSource {
+    @VisibleForTesting
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    @NonNull
+    private final RandomAccessSource mCompressedSource;
+    private final long mLength;
+    @GuardedBy("this")
+    private final LinkedHashMap<Long, byte[]> mBlocks;
+    @GuardedBy("this")
+    @Nullable
+    private InflaterInputStream mStream;
+    // Position of the stream in the decompressed contents, always at a block boundary
+    @GuardedBy("this")
+    private long mStreamPosition;
+    @Nullable
+    private final File mSpillDir;
+    private final long mMaxSpillSize;
+    // Decompressed contents up to mSpillLength, it is kept when the decompression restarts
+    @GuardedBy("this")
+    @Nullable
+    private File mSpillFile;
+    @GuardedBy("this")
+    @Nullable
+    private RandomAccessFile mSpill;
+    @GuardedBy("this")
+    private long mSpillLength;
+    @GuardedBy("this")
+    private int mRestartCount;
+
+    /**
+     * @param compressedSource The raw deflate stream, i.e. without any zlib or gzip header
+     * @param length           Size of the decompressed contents
+     * @param maxCacheSize     Maximum size of the cached decompressed contents in bytes
+     */
+    public InflatingRandomAccessSource(@NonNull RandomAccessSource compressedSource, long length, long maxCacheSize) {
+        this(compressedSource, length, maxCacheSize, null, 0);
+    }
+
+    /**
+     * @param compressedSource The raw deflate stream, i.e. without any zlib or gzip header
+     * @param length           Size of the decompressed contents
+     * @param maxCacheSize     Maximum size of the cached decompressed contents in bytes
+     * @param spillDir         Where to keep the decompressed contents that do not fit in the cache,
+     *                         {@code null} to decompress them again instead
+     * @param maxSpillSize     Maximum size of the temporary file in {@code spillDir} in bytes. The contents
+     *                         past it are decompressed again.
+     */
+    public InflatingRandomAccessSource(@NonNull RandomAccessSource compressedSource, long length, long maxCacheSize,
+                                       @Nullable File spillDir, long maxSpillSize) {
+        mCompressedSource = compressedSource;
+        mLength = length;
+        mSpillDir = length > maxCacheSize && maxSpillSize >= BLOCK_SIZE ? spillDir : null;
+        mMaxSpillSize = maxSpillSize;
+        int maxBlocks = (int) Math.max(1, Math.min(maxCacheSize / BLOCK_SIZE, Integer.MAX_VALUE));
+        mBlocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public synchronized int read(long position, @NonNull byte[] b, int off, int len) throws IOException {
+        if (position >= mLength) return -1;
+        len = (int) Math.min(len, mLength - position);
+        int count = 0;
+        while (count < len) {
+            long blockIndex = (position + count) / BLOCK_SIZE;
+            byte[] block = getBlock(blockIndex);
+            int offsetInBlock = (int) (position + count - blockIndex * BLOCK_SIZE);
+            int size = Math.min(len - count, block.length - offsetInBlock);
+            System.arraycopy(block, offsetInBlock, b, off + count, size);
+            count += size;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mBlocks.clear();
+        try {
+            closeStream();
+            closeSpill();
+        } finally {
+            mCompressedSource.close();
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getCachedBlockCount() {
+        return mBlocks.size();
+    }
+
+    /**
+     * Number of times the decompression has been started from the beginning
+     */
+    @VisibleForTesting
+    synchronized int getRestartCount() {
+        return mRestartCount;
+    }
+
+    @VisibleForTesting
+    synchronized long getSpillLength() {
+        return mSpillLength;
+    }
+
+    @GuardedBy("this")
+    @NonNull
+    private byte[] getBlock(long blockIndex) throws IOException {
+        byte[] block = mBlocks.get(blockIndex);
+        if (block != null) return block;
+        long blockPosition = blockIndex * BLOCK_SIZE;
+        if (mSpill != null && blockPosition < mSpillLength) {
+            block = new byte[(int) Math.min(BLOCK_SIZE, mLength - blockPosition)];
+            mSpill.seek(blockPosition);
+            mSpill.readFully(block);
+            mBlocks.put(blockIndex, block);
+            return block;
+        }
+        if (mStream == null || blockPosition < mStreamPosition) {
+            restartStream();
+        }
+        // Blocks on the way are cached as well, as they are likely to be read next, e.g. while
+        // reading a zip file from its central directory to its entries
+        while (true) {
+            long currentIndex = mStreamPosition / BLOCK_SIZE;
+            block = new byte[(int) Math.min(BLOCK_SIZE, mLength - mStreamPosition)];
+            readFully(block);
+            if (mSpill != null && mStreamPosition == mSpillLength && mSpillLength + block.length <= mMaxSpillSize) {
+                // The stream only moves forward, so the file is written sequentially
+                mSpill.seek(mStreamPosition);
+                mSpill.write(block);
+                mSpillLength += block.length;
+            }
+            mStreamPosition += block.length;
+            mBlocks.put(currentIndex, block);
+            if (currentIndex == blockIndex) {
+                return block;
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void readFully(@NonNull byte[] block) throws IOException {
+        int count = 0;
+        while (count < block.length) {
+            int read = mStream.read(block, count, block.length - count);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of deflated data at " + (mStreamPosition + count));
+            }
+            count += read;
+        }
+    }
+
+    @GuardedBy("this")
+    private void restartStream() throws IOException {
+        closeStream();
+        mStream = new RawInflaterInputStream(new RandomAccessSourceInputStream(mCompressedSource));
+        mStreamPosition = 0;
+        ++mRestartCount;
+        if (mSpillDir != null && mSpill == null) {
+            try {
+                mSpillFile = File.createTempFile("inflated_", ".tmp", mSpillDir);
+                mSpill = new RandomAccessFile(mSpillFile, "rw");
+            } catch (IOException e) {
+                // Decompress again instead
+                closeSpill();
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void closeSpill() throws IOException {
+        try {
+            if (mSpill != null) {
+                mSpill.close();
+            }
+        } finally {
+            mSpill = null;
+            mSpillLength = 0;
+            if (mSpillFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                mSpillFile.delete();
+                mSpillFile = null;
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void closeStream() throws IOException {
+        if (mStream != null) {
+            mStream.close();
+            mStream = null;
+        }
+    }
+
+    /**
+     * Decompress a raw deflate stream. Like the streams of {@link java.util.zip.ZipFile}, a dummy byte
+     * is supplied at the end of the input which the inflater may need to finish the stream.
+     */
+    static class RawInflaterInputStream extends InflaterInputStream {
+        private boolean mEof;
+        private boolean mClosed;
+
+        public RawInflaterInputStream(@NonNull InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) return;
+            mClosed = true;
+            super.close();
+            inf.end();
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (mEof) {
+                throw new EOFException("Unexpected end of deflated data");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                mEof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+    }
+}
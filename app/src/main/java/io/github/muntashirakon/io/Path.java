@@ -32,7 +32,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
-import java.util.zip.ZipFile;
 
 import io.github.muntashirakon.AppManager.compat.StorageManagerCompat;
 import io.github.muntashirakon.AppManager.ipc.IPCUtils;
@@ -60,9 +59,9 @@ public class Path {
         this.documentFile = new ProxyDocumentFile(fileLocation);
     }
 
-    public Path(@NonNull Context context, int vfsId, @NonNull ZipFile zipFile, @Nullable String path) {
+    public Path(@NonNull Context context, int vfsId, @NonNull ZipArchive zipArchive, @Nullable String path) {
         this.context = context;
-        this.documentFile = new ZipDocumentFile(getParentFile(context, vfsId), vfsId, zipFile, path);
+        this.documentFile = new ZipDocumentFile(getParentFile(context, vfsId), vfsId, zipArchive, path);
     }
 
     public Path(@NonNull Context context, int vfsId, @NonNull DexClasses dexClasses, @Nullable String path) {
@@ -818,6 +817,26 @@ public class Path {
         throw new IOException("Content provider has crashed");
     }
 
+    /**
+     * Open the file for random access without extracting it. Only files inside a mounted zip file
+     * are supported at the moment.
+     *
+     * @param maxInflateCacheSize Maximum number of bytes to keep in memory if the file is compressed. The rest is
+     *                            kept in the cache directory of the app, up to
+     *                            {@link ZipArchive#DEFAULT_MAX_INFLATE_SPILL_SIZE} bytes or half of its free
+     *                            space, whichever is smaller.
+     * @return {@code null} if the file cannot be opened for random access
+     */
+    @Nullable
+    public RandomAccessSource openRandomAccessSource(long maxInflateCacheSize) throws IOException {
+        if (documentFile instanceof ZipDocumentFile) {
+            File cacheDir = context.getCacheDir();
+            long maxSpillSize = Math.min(ZipArchive.DEFAULT_MAX_INFLATE_SPILL_SIZE, cacheDir.getUsableSpace() / 2);
+            return ((ZipDocumentFile) documentFile).openRandomAccessSource(maxInflateCacheSize, cacheDir, maxSpillSize);
+        }
+        return null;
+    }
+
     @NonNull
     @Override
     public String toString() {
@@ -0,0 +1,23 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A read-only sequence of bytes that can be read at any position. Implementations must allow reads
+ * from multiple threads.
+ */
+public interface RandomAccessSource extends Closeable {
+    long length();
+
+    /**
+     * Read up to {@code len} bytes starting at {@code position}.
+     *
+     * @return The number of bytes read, or {@code -1} if {@code position} is at or beyond the end
+     */
+    int read(long position, @NonNull byte[] b, int off, int len) throws IOException;
+}
@@ -0,0 +1,73 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read a {@link RandomAccessSource} sequentially. Closing the stream does not close the source.
+ */
+public class RandomAccessSourceInputStream extends InputStream {
+    @NonNull
+    private final RandomAccessSource mSource;
+    private final long mEnd;
+    private long mPosition;
+    private long mMark;
+
+    public RandomAccessSourceInputStream(@NonNull RandomAccessSource source) {
+        this(source, 0, source.length());
+    }
+
+    public RandomAccessSourceInputStream(@NonNull RandomAccessSource source, long start, long length) {
+        mSource = source;
+        mPosition = start;
+        mMark = start;
+        mEnd = Math.min(start + length, source.length());
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (mPosition >= mEnd) return -1;
+        int read = mSource.read(mPosition, b, off, (int) Math.min(len, mEnd - mPosition));
+        if (read > 0) mPosition += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) return 0;
+        long skipped = Math.min(n, mEnd - mPosition);
+        mPosition += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(mEnd - mPosition, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mMark = mPosition;
+    }
+
+    @Override
+    public synchronized void reset() {
+        mPosition = mMark;
+    }
+}
@@ -0,0 +1,43 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * A range of another {@link RandomAccessSource}. Closing the slice does not close the underlying
+ * source.
+ */
+public class SliceRandomAccessSource implements RandomAccessSource {
+    @NonNull
+    private final RandomAccessSource mSource;
+    private final long mOffset;
+    private final long mLength;
+
+    public SliceRandomAccessSource(@NonNull RandomAccessSource source, long offset, long length) {
+        if (offset < 0 || length < 0 || offset + length > source.length()) {
+            throw new IllegalArgumentException("Slice [" + offset + ", " + (offset + length)
+                    + ") is out of bounds of a source of length " + source.length());
+        }
+        mSource = source;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public int read(long position, @NonNull byte[] b, int off, int len) throws IOException {
+        if (position >= mLength) return -1;
+        return mSource.read(mOffset + position, b, off, (int) Math.min(len, mLength - position));
+    }
+
+    @Override
+    public void close() {
+    }
+}
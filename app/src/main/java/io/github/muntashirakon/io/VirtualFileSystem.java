@@ -18,7 +18,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.zip.ZipFile;
 
 import io.github.muntashirakon.AppManager.AppManager;
 import io.github.muntashirakon.AppManager.logs.Log;
@@ -183,14 +182,27 @@ public final class VirtualFileSystem {
     }
 
     public static class ZipFileSystem extends FileSystem {
-        @NonNull
+        @Nullable
         private final File zipFilePath;
-        private ZipFile zipFile;
+        @Nullable
+        private final RandomAccessSource zipSource;
+        private ZipArchive zipArchive;
         private Path rootPath;
 
         public ZipFileSystem(@NonNull Uri mountPoint, @NonNull File zipFile) {
             super(mountPoint);
             this.zipFilePath = zipFile;
+            this.zipSource = null;
+        }
+
+        /**
+         * Mount a zip file that is not a regular file, e.g. an entry of another mounted zip file. The
+         * source is closed when the file system is unmounted.
+         */
+        public ZipFileSystem(@NonNull Uri mountPoint, @NonNull RandomAccessSource zipSource) {
+            super(mountPoint);
+            this.zipFilePath = null;
+            this.zipSource = zipSource;
         }
 
         @NonNull
@@ -201,13 +213,17 @@ public final class VirtualFileSystem {
 
         @Override
         public void mount(int vfsId) throws IOException {
-            zipFile = new ZipFile(zipFilePath);
-            rootPath = new Path(AppManager.getContext(), vfsId, zipFile, null);
+            if (zipSource != null) {
+                zipArchive = new ZipArchive(zipSource);
+            } else {
+                zipArchive = new ZipArchive(Objects.requireNonNull(zipFilePath));
+            }
+            rootPath = new Path(AppManager.getContext(), vfsId, zipArchive, null);
         }
 
         @Override
         public void unmount() throws IOException {
-            zipFile.close();
+            zipArchive.close();
         }
     }
 
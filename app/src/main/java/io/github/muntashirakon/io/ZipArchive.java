@@ -0,0 +1,372 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only zip file on top of a {@link RandomAccessSource}. Only the central directory is read
+ * when the zip file is opened. Unlike {@link java.util.zip.ZipFile}, the zip file need not be a
+ * regular file, which allows reading a zip file inside another zip file in place: a stored entry is
+ * read as a slice of the outer zip file and a deflated entry is decompressed on demand.
+ */
+public class ZipArchive implements Closeable {
+    public static final String TAG = ZipArchive.class.getSimpleName();
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int FLAG_ENCRYPTED = 1;
+    // General purpose flag bit 11: the name and the comment are in UTF-8, otherwise they are in CP437. Many archivers
+    // write UTF-8 names without setting it.
+    private static final int FLAG_UTF8 = 1 << 11;
+    // Characters 0x80 to 0xff of CP437, the lower half is the same as ASCII
+    private static final String CP437_HIGH = "\u00c7\u00fc\u00e9\u00e2\u00e4\u00e0\u00e5\u00e7\u00ea\u00eb\u00e8\u00ef\u00ee\u00ec\u00c4\u00c5"
+            + "\u00c9\u00e6\u00c6\u00f4\u00f6\u00f2\u00fb\u00f9\u00ff\u00d6\u00dc\u00a2\u00a3\u00a5\u20a7\u0192"
+            + "\u00e1\u00ed\u00f3\u00fa\u00f1\u00d1\u00aa\u00ba\u00bf\u2310\u00ac\u00bd\u00bc\u00a1\u00ab\u00bb"
+            + "\u2591\u2592\u2593\u2502\u2524\u2561\u2562\u2556\u2555\u2563\u2551\u2557\u255d\u255c\u255b\u2510"
+            + "\u2514\u2534\u252c\u251c\u2500\u253c\u255e\u255f\u255a\u2554\u2569\u2566\u2560\u2550\u256c\u2567"
+            + "\u2568\u2564\u2565\u2559\u2558\u2552\u2553\u256b\u256a\u2518\u250c\u2588\u2584\u258c\u2590\u2580"
+            + "\u03b1\u00df\u0393\u03c0\u03a3\u03c3\u00b5\u03c4\u03a6\u0398\u03a9\u03b4\u221e\u03c6\u03b5\u2229"
+            + "\u2261\u00b1\u2265\u2264\u2320\u2321\u00f7\u2248\u00b0\u2219\u00b7\u221a\u207f\u00b2\u25a0\u00a0";
+
+    // Decompressed contents of a deflated entry opened for random access are cached up to this size
+    public static final long DEFAULT_MAX_INFLATE_CACHE_SIZE = 4 * 1024 * 1024;
+    // and the rest is kept in a temporary file up to this size
+    public static final long DEFAULT_MAX_INFLATE_SPILL_SIZE = 64 * 1024 * 1024;
+
+    public static class Entry extends ZipEntry {
+        private final int mMethod;
+        private final int mFlags;
+        private final long mLocalHeaderOffset;
+        // Offset of the data of the entry, -1 until the local header is read
+        private volatile long mDataOffset = -1;
+
+        private Entry(@NonNull String name, int method, int flags, long localHeaderOffset) {
+            super(name);
+            mMethod = method;
+            mFlags = flags;
+            mLocalHeaderOffset = localHeaderOffset;
+        }
+
+        @Override
+        public int getMethod() {
+            return mMethod;
+        }
+    }
+
+    @NonNull
+    private final RandomAccessSource mSource;
+    @NonNull
+    private final List<Entry> mEntries;
+    @NonNull
+    private final HashMap<String, Entry> mEntryMap;
+
+    @WorkerThread
+    public ZipArchive(@NonNull File file) throws IOException {
+        this(new FileRandomAccessSource(file));
+    }
+
+    /**
+     * Open a zip file. The source is closed along with the zip file.
+     */
+    @WorkerThread
+    public ZipArchive(@NonNull RandomAccessSource source) throws IOException {
+        mSource = source;
+        try {
+            mEntries = readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            if (e instanceof ZipException) throw e;
+            ZipException zipException = new ZipException("Invalid zip file: " + e.getMessage());
+            zipException.initCause(e);
+            throw zipException;
+        }
+        mEntryMap = new HashMap<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            // The first entry wins like ZipFile
+            if (!mEntryMap.containsKey(entry.getName())) {
+                mEntryMap.put(entry.getName(), entry);
+            }
+        }
+    }
+
+    /**
+     * Entries in the order of the central directory
+     */
+    @NonNull
+    public List<? extends ZipEntry> getEntries() {
+        return mEntries;
+    }
+
+    @Nullable
+    public ZipEntry getEntry(@NonNull String name) {
+        return mEntryMap.get(name);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Read the entry sequentially.
+     */
+    @WorkerThread
+    @NonNull
+    public InputStream getInputStream(@NonNull ZipEntry zipEntry) throws IOException {
+        Entry entry = checkEntry(zipEntry);
+        InputStream is = new RandomAccessSourceInputStream(mSource, getDataOffset(entry), entry.getCompressedSize());
+        if (entry.mMethod == ZipEntry.STORED) {
+            return is;
+        }
+        return new InflatingRandomAccessSource.RawInflaterInputStream(is);
+    }
+
+    /**
+     * Open the entry for random access, e.g. to open it as another {@link ZipArchive}. A stored entry
+     * is a slice of this zip file, and a deflated entry is decompressed on demand with a cache of at
+     * most {@code maxInflateCacheSize} bytes. The returned source must not be used after this zip
+     * file is closed.
+     */
+    @WorkerThread
+    @NonNull
+    public RandomAccessSource openSource(@NonNull ZipEntry zipEntry, long maxInflateCacheSize) throws IOException {
+        return openSource(zipEntry, maxInflateCacheSize, null, 0);
+    }
+
+    /**
+     * Same as {@link #openSource(ZipEntry, long)}, except that the decompressed contents of a deflated
+     * entry larger than {@code maxInflateCacheSize} are also kept in a temporary file of at most
+     * {@code maxSpillSize} bytes in {@code spillDir} so that seeking backwards does not decompress the
+     * entry again.
+     *
+     * @see InflatingRandomAccessSource
+     */
+    @WorkerThread
+    @NonNull
+    public RandomAccessSource openSource(@NonNull ZipEntry zipEntry, long maxInflateCacheSize, @Nullable File spillDir,
+                                         long maxSpillSize) throws IOException {
+        Entry entry = checkEntry(zipEntry);
+        RandomAccessSource source = new SliceRandomAccessSource(mSource, getDataOffset(entry), entry.getCompressedSize());
+        if (entry.mMethod == ZipEntry.STORED) {
+            return source;
+        }
+        return new InflatingRandomAccessSource(source, entry.getSize(), maxInflateCacheSize, spillDir, maxSpillSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSource.close();
+    }
+
+    @NonNull
+    private Entry checkEntry(@NonNull ZipEntry zipEntry) throws ZipException {
+        Entry entry = zipEntry instanceof Entry ? (Entry) zipEntry : mEntryMap.get(zipEntry.getName());
+        if (entry == null) {
+            throw new ZipException("Entry " + zipEntry.getName() + " does not exist.");
+        }
+        if ((entry.mFlags & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Entry " + entry.getName() + " is encrypted.");
+        }
+        if (entry.mMethod != ZipEntry.STORED && entry.mMethod != ZipEntry.DEFLATED) {
+            throw new ZipException("Entry " + entry.getName() + " uses unsupported compression method " + entry.mMethod);
+        }
+        if (entry.getSize() < 0 || entry.getCompressedSize() < 0) {
+            throw new ZipException("Entry " + entry.getName() + " has an invalid size.");
+        }
+        return entry;
+    }
+
+    private long getDataOffset(@NonNull Entry entry) throws IOException {
+        long dataOffset = entry.mDataOffset;
+        if (dataOffset >= 0) return dataOffset;
+        ByteBuffer header = read(entry.mLocalHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header of " + entry.getName());
+        }
+        // The name and the extra field of the local header may differ from that of the central directory
+        dataOffset = entry.mLocalHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff)
+                + (header.getShort(28) & 0xffff);
+        if (dataOffset + entry.getCompressedSize() > mSource.length()) {
+            throw new ZipException("Data of " + entry.getName() + " is out of bounds.");
+        }
+        entry.mDataOffset = dataOffset;
+        return dataOffset;
+    }
+
+    @NonNull
+    private List<Entry> readCentralDirectory() throws IOException {
+        long length = mSource.length();
+        if (length < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException("File too short to be a zip file: " + length);
+        }
+        // The end of central directory record is followed by a variable length comment
+        int tailSize = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        long tailOffset = length - tailSize;
+        ByteBuffer tail = read(tailOffset, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+                    && i + END_OF_CENTRAL_DIRECTORY_SIZE + (tail.getShort(i + 20) & 0xffff) <= tailSize) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+        long entryCount = tail.getShort(eocd + 10) & 0xffff;
+        long centralDirectorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+        long centralDirectoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+        long eocdOffset = tailOffset + eocd;
+        if (eocdOffset >= ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE) {
+            ByteBuffer locator = read(eocdOffset - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE,
+                    ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64Eocd = read(locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+                if (zip64Eocd.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new ZipException("Invalid zip64 end of central directory");
+                }
+                entryCount = zip64Eocd.getLong(32);
+                centralDirectorySize = zip64Eocd.getLong(40);
+                centralDirectoryOffset = zip64Eocd.getLong(48);
+            }
+        }
+        if (centralDirectoryOffset + centralDirectorySize > eocdOffset || centralDirectorySize > Integer.MAX_VALUE
+                || entryCount > centralDirectorySize / CENTRAL_HEADER_SIZE) {
+            throw new ZipException("Invalid central directory");
+        }
+        ByteBuffer cd = read(centralDirectoryOffset, (int) centralDirectorySize);
+        List<Entry> entries = new ArrayList<>((int) entryCount);
+        int pos = 0;
+        for (long i = 0; i < entryCount; ++i) {
+            if (pos + CENTRAL_HEADER_SIZE > cd.limit() || cd.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry " + i);
+            }
+            int flags = cd.getShort(pos + 8) & 0xffff;
+            int method = cd.getShort(pos + 10) & 0xffff;
+            int time = cd.getShort(pos + 12) & 0xffff;
+            int date = cd.getShort(pos + 14) & 0xffff;
+            long crc = cd.getInt(pos + 16) & 0xffffffffL;
+            long compressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            long size = cd.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = cd.getInt(pos + 42) & 0xffffffffL;
+            int namePos = pos + CENTRAL_HEADER_SIZE;
+            int extraPos = namePos + nameLength;
+            pos = extraPos + extraLength + commentLength;
+            if (pos > cd.limit()) {
+                throw new ZipException("Invalid central directory entry " + i);
+            }
+            String name = decodeName(cd.array(), namePos, nameLength, flags);
+            // Sizes and offsets that do not fit in 32 bits are in the zip64 extra field, in this order
+            if (size == 0xffffffffL || compressedSize == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+                int extraEnd = extraPos + extraLength;
+                while (extraPos + 4 <= extraEnd) {
+                    int id = cd.getShort(extraPos) & 0xffff;
+                    int dataSize = cd.getShort(extraPos + 2) & 0xffff;
+                    int dataPos = extraPos + 4;
+                    extraPos = dataPos + dataSize;
+                    if (id != ZIP64_EXTRA_FIELD_ID || extraPos > extraEnd) continue;
+                    if (size == 0xffffffffL && dataPos + 8 <= extraPos) {
+                        size = cd.getLong(dataPos);
+                        dataPos += 8;
+                    }
+                    if (compressedSize == 0xffffffffL && dataPos + 8 <= extraPos) {
+                        compressedSize = cd.getLong(dataPos);
+                        dataPos += 8;
+                    }
+                    if (localHeaderOffset == 0xffffffffL && dataPos + 8 <= extraPos) {
+                        localHeaderOffset = cd.getLong(dataPos);
+                    }
+                    break;
+                }
+            }
+            if (localHeaderOffset + LOCAL_HEADER_SIZE > centralDirectoryOffset) {
+                throw new ZipException("Invalid local header offset of " + name);
+            }
+            Entry entry = new Entry(name, method, flags, localHeaderOffset);
+            entry.setCrc(crc);
+            if (size >= 0) entry.setSize(size);
+            if (compressedSize >= 0) entry.setCompressedSize(compressedSize);
+            entry.setTime(dosToJavaTime(date, time));
+            entries.add(entry);
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    @NonNull
+    private ByteBuffer read(long position, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        int count = 0;
+        while (count < size) {
+            int read = mSource.read(position + count, bytes, count, size - count);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of zip file at " + (position + count));
+            }
+            count += read;
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @NonNull
+    static String decodeName(@NonNull byte[] bytes, int offset, int length, int flags) {
+        if ((flags & FLAG_UTF8) != 0) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        try {
+            // CP437 is only a fallback for the bytes that cannot be UTF-8, which includes ASCII
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length))
+                    .toString();
+        } catch (CharacterCodingException ignore) {
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            int b = bytes[offset + i] & 0xff;
+            chars[i] = b < 0x80 ? (char) b : CP437_HIGH.charAt(b - 0x80);
+        }
+        return new String(chars);
+    }
+
+    private static long dosToJavaTime(int date, int time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((date >> 9) & 0x7f) + 1980, ((date >> 5) & 0x0f) - 1, date & 0x1f,
+                (time >> 11) & 0x1f, (time >> 5) & 0x3f, (time << 1) & 0x3e);
+        return calendar.getTimeInMillis();
+    }
+}
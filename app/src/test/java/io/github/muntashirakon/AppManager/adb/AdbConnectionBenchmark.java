@@ -0,0 +1,103 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.adb;
+
+import androidx.annotation.NonNull;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+import static io.github.muntashirakon.AppManager.adb.AdbConnectionTest.TRANSFER_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * The fake adbd acknowledges each write after a delay, so the results are the wall-clock times of the transfers over
+ * a simulated wireless connection. The legacy daemon is what the client negotiated with every daemon before.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdbConnectionBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(AdbConnectionBenchmark.class);
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void throughputLegacy() throws Exception {
+        transfer("throughput", "legacy", new AdbConnectionTest.FakeAdbd(AdbProtocol.CONNECT_VERSION_MIN,
+                AdbProtocol.CONNECT_MAXDATA_LEGACY, false));
+    }
+
+    @Test
+    public void throughputModern() throws Exception {
+        transfer("throughput", "modern", new AdbConnectionTest.FakeAdbd(AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM,
+                AdbProtocol.CONNECT_MAXDATA, false));
+    }
+
+    @Test
+    public void throughputDelayedAck() throws Exception {
+        transfer("throughput", "delayedAck", new AdbConnectionTest.FakeAdbd(
+                AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM, 256 * 1024, true));
+    }
+
+    @Test
+    public void latencyLegacy() throws Exception {
+        echo("latency", "legacy", new AdbConnectionTest.FakeAdbd(AdbProtocol.CONNECT_VERSION_MIN,
+                AdbProtocol.CONNECT_MAXDATA_LEGACY, false));
+    }
+
+    @Test
+    public void latencyDelayedAck() throws Exception {
+        echo("latency", "delayedAck", new AdbConnectionTest.FakeAdbd(AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM,
+                AdbProtocol.CONNECT_MAXDATA, true));
+    }
+
+    private static void transfer(@NonNull String name, @NonNull String daemon,
+                                 @NonNull AdbConnectionTest.FakeAdbd fakeAdbd) throws Exception {
+        byte[] data = new byte[TRANSFER_SIZE];
+        new Random(42).nextBytes(data);
+        try (AdbConnectionTest.FakeAdbd adbd = fakeAdbd;
+             AdbConnection connection = AdbConnectionTest.connect(adbd)) {
+            AdbStream stream = connection.open("sink:");
+            sRunner.run(name, getParams(daemon), data.length, () -> {
+                adbd.clearReceivedData();
+                stream.write(data, 0, data.length, true);
+                adbd.awaitReceived(data.length);
+                return stream;
+            });
+            stream.close();
+        }
+    }
+
+    private static void echo(@NonNull String name, @NonNull String daemon,
+                             @NonNull AdbConnectionTest.FakeAdbd fakeAdbd) throws Exception {
+        byte[] ping = "ping".getBytes(StandardCharsets.UTF_8);
+        try (AdbConnectionTest.FakeAdbd adbd = fakeAdbd;
+             AdbConnection connection = AdbConnectionTest.connect(adbd)) {
+            AdbStream stream = connection.open("echo:");
+            sRunner.run(name, getParams(daemon), 0, () -> {
+                stream.write(ping);
+                byte[] pong = stream.read();
+                assertArrayEquals(ping, pong);
+                return pong;
+            });
+            stream.close();
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> getParams(@NonNull String daemon) {
+        return Collections.singletonMap("daemon", daemon);
+    }
+}
@@ -0,0 +1,303 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.adb;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.github.muntashirakon.AppManager.crypto.ks.KeyPair;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the ADB client against a fake adbd on the loopback interface. The fake adbd acknowledges
+ * each write after a delay to simulate the round trip of a wireless connection.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdbConnectionTest {
+    static final int TRANSFER_SIZE = 2 * 1024 * 1024;
+    private static final long ACK_DELAY_MILLIS = 2;
+
+    @Test
+    public void legacyDaemon() throws Exception {
+        try (FakeAdbd adbd = new FakeAdbd(AdbProtocol.CONNECT_VERSION_MIN, AdbProtocol.CONNECT_MAXDATA_LEGACY, false)) {
+            byte[] data = transfer(adbd);
+            assertArrayEquals(data, adbd.getReceivedData());
+            // Packets are checksummed, no larger than 4096 bytes and acknowledged one at a time
+            assertEquals(0, adbd.invalidChecksums);
+            assertEquals(AdbProtocol.CONNECT_MAXDATA_LEGACY, adbd.maxPacketSize);
+            assertEquals(TRANSFER_SIZE / AdbProtocol.CONNECT_MAXDATA_LEGACY, adbd.writePackets);
+            assertEquals(1, adbd.maxPacketsInFlight);
+        }
+    }
+
+    @Test
+    public void modernDaemon() throws Exception {
+        try (FakeAdbd adbd = new FakeAdbd(AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM, AdbProtocol.CONNECT_MAXDATA, false)) {
+            byte[] data = transfer(adbd);
+            assertArrayEquals(data, adbd.getReceivedData());
+            // Packets are not checksummed and as large as negotiated
+            assertEquals(0, adbd.checksummedPackets);
+            assertEquals(AdbProtocol.CONNECT_MAXDATA, adbd.maxPacketSize);
+            assertEquals(TRANSFER_SIZE / AdbProtocol.CONNECT_MAXDATA, adbd.writePackets);
+            assertEquals(1, adbd.maxPacketsInFlight);
+        }
+    }
+
+    @Test
+    public void modernDaemonWithDelayedAck() throws Exception {
+        try (FakeAdbd adbd = new FakeAdbd(AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM, 256 * 1024, true)) {
+            byte[] data = transfer(adbd);
+            assertArrayEquals(data, adbd.getReceivedData());
+            assertEquals(0, adbd.checksummedPackets);
+            assertEquals(256 * 1024, adbd.maxPacketSize);
+            // Multiple packets are in flight, but never more than the window
+            assertTrue(adbd.maxPacketsInFlight > 1);
+            assertTrue(adbd.maxBytesInFlight <= FakeAdbd.DELAYED_ACK_WINDOW);
+        }
+    }
+
+    @Test
+    public void echo() throws Exception {
+        try (FakeAdbd adbd = new FakeAdbd(AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM, AdbProtocol.CONNECT_MAXDATA, true);
+             AdbConnection connection = connect(adbd)) {
+            AdbStream stream = connection.open("echo:");
+            for (int i = 0; i < 50; ++i) {
+                byte[] ping = ("ping " + i).getBytes(StandardCharsets.UTF_8);
+                stream.write(ping);
+                assertArrayEquals(ping, stream.read());
+            }
+            stream.close();
+        }
+    }
+
+    @NonNull
+    private static byte[] transfer(@NonNull FakeAdbd adbd) throws Exception {
+        byte[] data = new byte[TRANSFER_SIZE];
+        new Random(42).nextBytes(data);
+        try (AdbConnection connection = connect(adbd)) {
+            // The peer has authenticated us before connecting
+            assertTrue(adbd.authenticated);
+            AdbStream stream = connection.open("sink:");
+            stream.write(data, 0, data.length, true);
+            adbd.awaitReceived(data.length);
+            stream.close();
+        }
+        return data;
+    }
+
+    @NonNull
+    static AdbConnection connect(@NonNull FakeAdbd adbd) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = new KeyPair(generator.generateKeyPair().getPrivate(), null);
+        AdbConnection connection = AdbConnection.create("127.0.0.1", adbd.getPort(), keyPair);
+        assertTrue(connection.connect(10, TimeUnit.SECONDS, false));
+        return connection;
+    }
+
+    /**
+     * A minimal adbd that accepts any signature of its authentication token. Like the real adbd, it
+     * does not calculate the checksums of its packets, including its AUTH and CNXN packets, if it
+     * supports {@link AdbProtocol#CONNECT_VERSION_SKIP_CHECKSUM}. It supports two services:
+     * {@code sink:} that discards whatever is written to it, and {@code echo:} that writes back
+     * whatever is written to it.
+     */
+    static class FakeAdbd implements Closeable {
+        static final int DELAYED_ACK_WINDOW = 1024 * 1024;
+
+        private final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        private final ScheduledExecutorService ackExecutor = Executors.newSingleThreadScheduledExecutor();
+        private final Thread thread;
+        private final int version;
+        private final int maxData;
+        private final boolean delayedAck;
+        private final ByteArrayOutputStream receivedData = new ByteArrayOutputStream();
+        private Socket socket;
+        private OutputStream out;
+        private boolean echo;
+
+        volatile boolean authenticated;
+        volatile int writePackets;
+        volatile int maxPacketSize;
+        volatile int invalidChecksums;
+        volatile int checksummedPackets;
+        volatile int maxPacketsInFlight;
+        volatile long maxBytesInFlight;
+        private int packetsInFlight;
+        private long bytesInFlight;
+
+        FakeAdbd(int version, int maxData, boolean delayedAck) throws IOException {
+            this.version = version;
+            this.maxData = maxData;
+            this.delayedAck = delayedAck;
+            thread = new Thread(this::serve);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        byte[] getReceivedData() {
+            synchronized (receivedData) {
+                return receivedData.toByteArray();
+            }
+        }
+
+        void clearReceivedData() {
+            synchronized (receivedData) {
+                receivedData.reset();
+            }
+        }
+
+        void awaitReceived(int length) throws InterruptedException {
+            synchronized (receivedData) {
+                while (receivedData.size() < length) {
+                    receivedData.wait(10_000);
+                }
+            }
+        }
+
+        private void serve() {
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                InputStream in = socket.getInputStream();
+                out = socket.getOutputStream();
+                int remoteId = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    AdbProtocol.AdbMessage msg = AdbProtocol.AdbMessage.parseAdbMessage(in);
+                    switch (msg.command) {
+                        case AdbProtocol.CMD_CNXN: {
+                            // Challenge the client
+                            byte[] token = new byte[20];
+                            new Random().nextBytes(token);
+                            send(AdbProtocol.CMD_AUTH, AdbProtocol.AUTH_TYPE_TOKEN, 0, token);
+                            break;
+                        }
+                        case AdbProtocol.CMD_AUTH: {
+                            assertEquals(AdbProtocol.AUTH_TYPE_SIGNATURE, msg.arg0);
+                            authenticated = true;
+                            String features = delayedAck ? "features=" + AdbProtocol.FEATURE_DELAYED_ACK : "";
+                            send(AdbProtocol.CMD_CNXN, version, maxData,
+                                    ("device::ro.product.name=fake;" + features + "\0").getBytes(StandardCharsets.UTF_8));
+                            break;
+                        }
+                        case AdbProtocol.CMD_OPEN: {
+                            remoteId = msg.arg0;
+                            echo = new String(msg.payload, StandardCharsets.UTF_8).startsWith("echo:");
+                            if (delayedAck) {
+                                assertEquals(AdbProtocol.INITIAL_DELAYED_ACK_BYTES, msg.arg1);
+                                send(AdbProtocol.CMD_OKAY, 1, remoteId, getAckPayload(DELAYED_ACK_WINDOW));
+                            } else {
+                                assertEquals(0, msg.arg1);
+                                send(AdbProtocol.generateReady(1, remoteId));
+                            }
+                            break;
+                        }
+                        case AdbProtocol.CMD_WRTE: {
+                            onWrite(msg, remoteId);
+                            break;
+                        }
+                        case AdbProtocol.CMD_CLSE: {
+                            send(AdbProtocol.generateClose(1, remoteId));
+                            break;
+                        }
+                        case AdbProtocol.CMD_OKAY:
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException ignore) {
+            }
+        }
+
+        private void onWrite(@NonNull AdbProtocol.AdbMessage msg, int remoteId) throws IOException {
+            int length = msg.payloadLength;
+            if (msg.checksum != 0) {
+                ++checksummedPackets;
+            }
+            if (version < AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM && !AdbProtocol.validateMessage(msg, true)) {
+                ++invalidChecksums;
+            }
+            ++writePackets;
+            maxPacketSize = Math.max(maxPacketSize, length);
+            synchronized (this) {
+                ++packetsInFlight;
+                bytesInFlight += length;
+                maxPacketsInFlight = Math.max(maxPacketsInFlight, packetsInFlight);
+                maxBytesInFlight = Math.max(maxBytesInFlight, bytesInFlight);
+            }
+            if (echo) {
+                send(AdbProtocol.CMD_WRTE, 1, remoteId, Arrays.copyOf(msg.payload, length));
+            }
+            ackExecutor.schedule(() -> {
+                synchronized (receivedData) {
+                    receivedData.write(msg.payload, 0, length);
+                    receivedData.notifyAll();
+                }
+                synchronized (this) {
+                    --packetsInFlight;
+                    bytesInFlight -= length;
+                }
+                try {
+                    if (delayedAck) {
+                        send(AdbProtocol.CMD_OKAY, 1, remoteId, getAckPayload(length));
+                    } else send(AdbProtocol.generateReady(1, remoteId));
+                } catch (IOException ignore) {
+                }
+            }, ACK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @NonNull
+        private static byte[] getAckPayload(int ackedBytes) {
+            return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(ackedBytes).array();
+        }
+
+        private void send(int command, int arg0, int arg1, @NonNull byte[] payload) throws IOException {
+            boolean checksum = version < AdbProtocol.CONNECT_VERSION_SKIP_CHECKSUM;
+            send(AdbProtocol.generateMessage(command, arg0, arg1, payload, 0, payload.length, checksum));
+        }
+
+        private void send(@NonNull byte[] packet) throws IOException {
+            synchronized (serverSocket) {
+                out.write(packet);
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            thread.interrupt();
+            ackExecutor.shutdownNow();
+            if (socket != null) {
+                socket.close();
+            }
+            serverSocket.close();
+        }
+    }
+}
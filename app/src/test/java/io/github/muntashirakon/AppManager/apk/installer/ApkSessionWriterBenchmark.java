@@ -0,0 +1,108 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.installer;
+
+import androidx.annotation.NonNull;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+import static io.github.muntashirakon.AppManager.apk.installer.ApkSessionWriterTest.MB;
+
+/**
+ * The session simulates the latency of the storage, so the results are the wall-clock times of the writes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ApkSessionWriterBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(ApkSessionWriterBenchmark.class);
+    private static final long PREPARE_MILLIS = 100;
+    private static final long COMMIT_MILLIS = 100;
+    private static final int PACKAGE_COUNT = 5;
+
+    private final List<ApkSessionWriterTest.FakeSource> singleApk = Collections.singletonList(
+            new ApkSessionWriterTest.FakeSource("base.apk", 40 * MB));
+    private final List<ApkSessionWriterTest.FakeSource> apks = ApkSessionWriterTest.getApks();
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void singleApkSequential() throws Exception {
+        sRunner.run("singleApkSequential", getSize(singleApk), () -> write(singleApk, 1));
+    }
+
+    @Test
+    public void singleApkParallel() throws Exception {
+        sRunner.run("singleApkParallel", getSize(singleApk), () -> write(singleApk,
+                ApkSessionWriter.MAX_PARALLEL_WRITES));
+    }
+
+    @Test
+    public void apksSequential() throws Exception {
+        sRunner.run("apksSequential", getSize(apks), () -> write(apks, 1));
+    }
+
+    @Test
+    public void apksParallel() throws Exception {
+        sRunner.run("apksParallel", getSize(apks), () -> write(apks, ApkSessionWriter.MAX_PARALLEL_WRITES));
+    }
+
+    @Test
+    public void queueSequential() throws Exception {
+        sRunner.run("queueSequential", 0, () -> installQueue(false));
+    }
+
+    @Test
+    public void queuePipelined() throws Exception {
+        sRunner.run("queuePipelined", 0, () -> installQueue(true));
+    }
+
+    @NonNull
+    private static ApkSessionWriterTest.FakeSession write(@NonNull List<ApkSessionWriterTest.FakeSource> sources,
+                                                         int parallelism) throws Exception {
+        ApkSessionWriterTest.FakeSession session = new ApkSessionWriterTest.FakeSession();
+        ApkSessionWriter.write(session, sources, parallelism);
+        return session;
+    }
+
+    private int installQueue(boolean pipelined) throws Exception {
+        InstallQueuePreparer<List<ApkSessionWriterTest.FakeSource>> preparer = new InstallQueuePreparer<>(key -> {
+            // Sign the package
+            ApkSessionWriterTest.sleepNanos(PREPARE_MILLIS * 1_000_000L);
+            return apks;
+        });
+        try {
+            if (pipelined) {
+                for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                    preparer.enqueue(i);
+                }
+            }
+            for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                ApkSessionWriter.write(new ApkSessionWriterTest.FakeSession(), preparer.take(i));
+                // Commit
+                ApkSessionWriterTest.sleepNanos(COMMIT_MILLIS * 1_000_000L);
+            }
+        } finally {
+            preparer.close();
+        }
+        return PACKAGE_COUNT;
+    }
+
+    private static long getSize(@NonNull List<ApkSessionWriterTest.FakeSource> sources) {
+        long size = 0;
+        for (ApkSessionWriterTest.FakeSource source : sources) {
+            size += source.getLength();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,194 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.installer;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class ApkSessionWriterTest {
+    static final int MB = 1024 * 1024;
+    // Time taken to write a megabyte to the session, and to sync a file
+    private static final long WRITE_MILLIS_PER_MB = 10;
+    private static final long FSYNC_MILLIS = 20;
+
+    /**
+     * A session that keeps the files in memory, and takes time to write and sync them as the storage does
+     */
+    static class FakeSession implements ApkSessionWriter.Session {
+        final Map<String, ByteArrayOutputStream> files = new ConcurrentHashMap<>();
+        final AtomicInteger openCount = new AtomicInteger();
+        final AtomicInteger maxOpenCount = new AtomicInteger();
+        final AtomicInteger fsyncCount = new AtomicInteger();
+
+        @NonNull
+        @Override
+        public OutputStream openWrite(@NonNull String name, long offsetBytes, long lengthBytes) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream((int) lengthBytes) {
+                @Override
+                public synchronized void write(@NonNull byte[] b, int off, int len) {
+                    super.write(b, off, len);
+                    sleepNanos(WRITE_MILLIS_PER_MB * 1_000_000L * len / MB);
+                }
+
+                @Override
+                public void close() {
+                    openCount.decrementAndGet();
+                }
+            };
+            files.put(name, os);
+            int count = openCount.incrementAndGet();
+            maxOpenCount.accumulateAndGet(count, Math::max);
+            return os;
+        }
+
+        @Override
+        public void fsync(@NonNull OutputStream out) {
+            fsyncCount.incrementAndGet();
+            sleepNanos(FSYNC_MILLIS * 1_000_000L);
+        }
+    }
+
+    static class FakeSource implements ApkSessionWriter.Source {
+        final String name;
+        final byte[] bytes;
+
+        FakeSource(String name, int size) {
+            this.name = name;
+            this.bytes = new byte[size];
+            Arrays.fill(bytes, (byte) name.hashCode());
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getLength() {
+            return bytes.length;
+        }
+
+        @NonNull
+        @Override
+        public InputStream openInputStream() throws IOException {
+            if (name.startsWith("broken")) throw new IOException("Cannot read " + name);
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        FakeSession session = new FakeSession();
+        List<FakeSource> sources = getApks();
+        ApkSessionWriter.write(session, sources);
+        assertEquals(sources.size(), session.files.size());
+        assertEquals(sources.size(), session.fsyncCount.get());
+        assertEquals(0, session.openCount.get());
+        assertTrue(session.maxOpenCount.get() > 1);
+        assertTrue(session.maxOpenCount.get() <= ApkSessionWriter.MAX_PARALLEL_WRITES);
+        for (FakeSource source : sources) {
+            assertArrayEquals(source.bytes, session.files.get(source.name).toByteArray());
+        }
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception {
+        FakeSession session = new FakeSession();
+        List<FakeSource> sources = new ArrayList<>(getApks());
+        sources.add(0, new FakeSource("broken.apk", MB));
+        try {
+            ApkSessionWriter.write(session, sources, 1);
+            fail("No exception");
+        } catch (IOException e) {
+            assertEquals("Cannot read broken.apk", e.getMessage());
+        }
+        // Nothing is written after a failure
+        assertEquals(0, session.files.size());
+    }
+
+    @Test
+    public void testPrepareNextPackage() {
+        CountDownLatch nextPackagePreparing = new CountDownLatch(1);
+        InstallQueuePreparer<Integer> preparer = new InstallQueuePreparer<>(key -> {
+            if (key == 1) nextPackagePreparing.countDown();
+            return key * 10;
+        });
+        try {
+            preparer.enqueue(0);
+            preparer.enqueue(1);
+            assertEquals(0, (int) preparer.take(0));
+            // The second package is prepared while the first one is being installed
+            assertTrue(await(nextPackagePreparing));
+            assertEquals(10, (int) preparer.take(1));
+            // Packages that were not queued are prepared right away
+            assertEquals(20, (int) preparer.take(2));
+        } finally {
+            preparer.close();
+        }
+    }
+
+    @Test
+    public void testFailedPreparationIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        InstallQueuePreparer<Integer> preparer = new InstallQueuePreparer<>(key -> {
+            if (attempts.incrementAndGet() == 1) throw new IllegalStateException("Failed");
+            return key * 10;
+        });
+        try {
+            preparer.enqueue(1);
+            // Prepared again in the calling thread
+            assertEquals(10, (int) preparer.take(1));
+            assertEquals(2, attempts.get());
+        } finally {
+            preparer.close();
+        }
+    }
+
+    @NonNull
+    static List<FakeSource> getApks() {
+        return Arrays.asList(new FakeSource("base.apk", 30 * MB),
+                new FakeSource("split_config.arm64_v8a.apk", 20 * MB),
+                new FakeSource("split_config.xxhdpi.apk", 5 * MB),
+                new FakeSource("split_config.en.apk", MB));
+    }
+
+    private static boolean await(@NonNull CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
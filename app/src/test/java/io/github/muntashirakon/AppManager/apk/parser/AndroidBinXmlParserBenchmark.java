@@ -0,0 +1,60 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.parser;
+
+import androidx.annotation.NonNull;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.github.muntashirakon.AppManager.apk.ApkUtils;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkData;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class AndroidBinXmlParserBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(AndroidBinXmlParserBenchmark.class);
+    private static final String[] PACKAGES = new String[]{"ademar.textlauncher", "dnsfilter.android",
+            "org.billthefarmer.editor"};
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void parseManifest() throws Exception {
+        for (String packageName : PACKAGES) {
+            ByteBuffer manifest = ApkUtils.getManifestFromApk(BenchmarkData.getResource("oandbackups/"
+                    + packageName + "/base.apk"));
+            sRunner.run("parseManifest", BenchmarkRunner.params("apk", packageName), manifest.remaining(),
+                    () -> parse(manifest.duplicate()));
+        }
+    }
+
+    /**
+     * Read every element and attribute, as the manifest readers do
+     */
+    private static int parse(@NonNull ByteBuffer manifest) throws AndroidBinXmlParser.XmlParserException {
+        AndroidBinXmlParser parser = new AndroidBinXmlParser(manifest);
+        int attributeCount = 0;
+        int eventType;
+        while ((eventType = parser.next()) != AndroidBinXmlParser.EVENT_END_DOCUMENT) {
+            if (eventType != AndroidBinXmlParser.EVENT_START_ELEMENT) {
+                continue;
+            }
+            parser.getName();
+            for (int i = 0; i < parser.getAttributeCount(); ++i) {
+                parser.getAttributeName(i);
+                parser.getAttributeStringValue(i);
+                ++attributeCount;
+            }
+        }
+        return attributeCount;
+    }
+}
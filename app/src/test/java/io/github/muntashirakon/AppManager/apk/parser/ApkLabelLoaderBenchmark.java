@@ -0,0 +1,56 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.parser;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Locale;
+
+import io.github.muntashirakon.AppManager.apk.ApkUtils;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+/**
+ * Loading the label is compared against what the eager string pool did for every table, i.e. parsing the table and
+ * decoding all the strings.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ApkLabelLoaderBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(ApkLabelLoaderBenchmark.class);
+    private static final String[] PACKAGES = new String[]{"ademar.textlauncher", "dnsfilter.android",
+            "org.billthefarmer.editor"};
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void decodeAllStrings() throws Exception {
+        for (String packageName : PACKAGES) {
+            ByteBuffer resourceTable = ApkLabelLoaderTest.getResourceTable(ApkLabelLoaderTest.getApk(packageName));
+            sRunner.run("decodeAllStrings", Collections.singletonMap("package", packageName), resourceTable.capacity(),
+                    () -> {
+                        ApkLabelLoaderTest.decodeAllStrings(resourceTable);
+                        return resourceTable;
+                    });
+        }
+    }
+
+    @Test
+    public void loadLabel() throws Exception {
+        for (String packageName : PACKAGES) {
+            File apk = ApkLabelLoaderTest.getApk(packageName);
+            ByteBuffer manifest = ApkUtils.getManifestFromApk(apk);
+            ByteBuffer resourceTable = ApkLabelLoaderTest.getResourceTable(apk);
+            sRunner.run("loadLabel", Collections.singletonMap("package", packageName), resourceTable.capacity(),
+                    () -> ApkLabelLoader.fromBuffers(manifest.duplicate(), resourceTable).getLabel(Locale.ENGLISH));
+        }
+    }
+}
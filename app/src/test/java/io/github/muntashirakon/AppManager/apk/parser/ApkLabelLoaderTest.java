@@ -0,0 +1,101 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk.parser;
+
+import androidx.annotation.NonNull;
+
+import net.dongliu.apk.parser.parser.ResourceTableParser;
+import net.dongliu.apk.parser.struct.StringPool;
+import net.dongliu.apk.parser.struct.resource.Densities;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import io.github.muntashirakon.AppManager.apk.ApkUtils;
+import io.github.muntashirakon.io.IoUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ApkLabelLoaderTest {
+    @Test
+    public void testLabelFromResourceTable() throws IOException {
+        ApkLabelLoader loader = ApkLabelLoader.fromApk(getApk("ademar.textlauncher"));
+        assertEquals("ademar.textlauncher", loader.getPackageName());
+        assertEquals("Text Launcher", loader.getLabel(Locale.ENGLISH));
+        // Not translated, the default label is used
+        assertEquals("Text Launcher", loader.getLabel(Locale.GERMANY));
+        assertEquals("Text Launcher", loader.getLabel(null));
+        assertEquals("Editor", ApkLabelLoader.fromApk(getApk("org.billthefarmer.editor")).getLabel(null));
+    }
+
+    @Test
+    public void testHardcodedLabel() throws IOException {
+        ApkLabelLoader loader = ApkLabelLoader.fromApk(getApk("dnsfilter.android"));
+        assertEquals("personalDNSfilter", loader.getLabel(Locale.ENGLISH));
+    }
+
+    @Test
+    public void testNoResourceTable() throws IOException {
+        File apk = getApk("ademar.textlauncher");
+        ApkLabelLoader loader = ApkLabelLoader.fromBuffers(ApkUtils.getManifestFromApk(apk), null);
+        // The package manager uses the package name as well
+        assertEquals("ademar.textlauncher", loader.getLabel(Locale.ENGLISH));
+        assertNull(loader.getIconPath(Densities.XXHIGH));
+    }
+
+    @Test
+    public void testIconPath() throws IOException {
+        ApkLabelLoader loader = ApkLabelLoader.fromApk(getApk("dnsfilter.android"));
+        assertEquals("res/mipmap-xxhdpi-v4/ic_launcher.png", loader.getIconPath(Densities.XXHIGH));
+        assertEquals("res/mipmap-mdpi-v4/ic_launcher.png", loader.getIconPath(Densities.LOW));
+        // The resource names are obfuscated, but the densities are still selected
+        loader = ApkLabelLoader.fromApk(getApk("org.billthefarmer.editor"));
+        String xxhdpiIcon = loader.getIconPath(Densities.XXHIGH);
+        assertNotNull(xxhdpiIcon);
+        assertTrue(xxhdpiIcon.endsWith(".png"));
+        assertNotEquals(xxhdpiIcon, loader.getIconPath(Densities.LOW));
+        // Density-independent icon
+        loader = ApkLabelLoader.fromApk(getApk("ademar.textlauncher"));
+        assertEquals("res/drawable/ic_launcher.xml", loader.getIconPath(Densities.XXHIGH));
+    }
+
+    static void decodeAllStrings(@NonNull ByteBuffer resourceTable) {
+        ResourceTableParser parser = new ResourceTableParser(resourceTable);
+        parser.parse();
+        StringPool stringPool = parser.getResourceTable().getStringPool();
+        for (int i = 0; i < stringPool.size(); ++i) {
+            stringPool.get(i);
+        }
+    }
+
+    @NonNull
+    static ByteBuffer getResourceTable(@NonNull File apk) throws IOException {
+        try (ZipFile zipFile = new ZipFile(apk)) {
+            ZipEntry zipEntry = zipFile.getEntry("resources.arsc");
+            try (InputStream is = zipFile.getInputStream(zipEntry)) {
+                return ByteBuffer.wrap(IoUtils.readFully(is, -1, true));
+            }
+        }
+    }
+
+    @NonNull
+    static File getApk(@NonNull String packageName) {
+        ClassLoader classLoader = ApkLabelLoaderTest.class.getClassLoader();
+        assert classLoader != null;
+        return new File(classLoader.getResource("oandbackups/" + packageName + "/base.apk").getFile());
+    }
+}
@@ -0,0 +1,205 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.utils.AppPref;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.TarUtils;
+import io.github.muntashirakon.io.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupMetadataIndexTest {
+    private static final File BACKUP_DIR = new File("/tmp/AppManager");
+
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        AppPref.set(AppPref.PrefKey.PREF_BACKUP_VOLUME_STR, "file:///tmp");
+        FileUtils.deleteDir(BACKUP_DIR);
+        indexFile = File.createTempFile("backup_index", ".json");
+        //noinspection ResultOfMethodCallIgnored
+        indexFile.delete();
+        writeBackup("com.example.a", "0", 1000);
+        writeBackup("com.example.a", "0_old", 2000);
+        writeBackup("com.example.b", "0", 3000);
+        writeBackup("com.example.c", "10", 4000);
+        // Not a backup
+        //noinspection ResultOfMethodCallIgnored
+        new File(BACKUP_DIR, BackupFiles.APK_SAVING_DIRECTORY + "/x").mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDir(BACKUP_DIR);
+        //noinspection ResultOfMethodCallIgnored
+        indexFile.delete();
+    }
+
+    @Test
+    public void testUnchangedBackupsAreNotRead() throws IOException {
+        BackupMetadataIndex index = new BackupMetadataIndex(indexFile);
+        HashMap<String, List<MetadataManager.Metadata>> allMetadata = index.getAllMetadata();
+        assertEquals(4, index.getMetadataReadCount());
+        assertEquals(3, allMetadata.size());
+        assertEquals(2, allMetadata.get("com.example.a").size());
+        assertEquals(3000, allMetadata.get("com.example.b").get(0).backupTime);
+        assertEquals("10", allMetadata.get("com.example.c").get(0).backupName);
+        assertTrue(indexFile.exists());
+        // Nothing has changed
+        assertEquals(3, index.getAllMetadata().size());
+        assertEquals(2, index.getMetadata("com.example.a").length);
+        assertEquals(4, index.getMetadataReadCount());
+    }
+
+    @Test
+    public void testIndexIsPersisted() throws IOException {
+        new BackupMetadataIndex(indexFile).getAllMetadata();
+        BackupMetadataIndex index = new BackupMetadataIndex(indexFile);
+        HashMap<String, List<MetadataManager.Metadata>> allMetadata = index.getAllMetadata();
+        assertEquals(0, index.getMetadataReadCount());
+        assertEquals(3, allMetadata.size());
+        MetadataManager.Metadata metadata = allMetadata.get("com.example.b").get(0);
+        assertEquals("0", metadata.backupName);
+        assertEquals("com.example.b", metadata.packageName);
+        assertEquals(TarUtils.TAR_GZIP, metadata.tarType);
+        // The path is resolved on demand
+        assertNull(metadata.backupPath);
+        assertTrue(metadata.getBackupSize() > 0);
+    }
+
+    @Test
+    public void testOnlyChangedPackagesAreRescanned() throws IOException, JSONException {
+        BackupMetadataIndex index = new BackupMetadataIndex(indexFile);
+        index.getAllMetadata();
+        // New backup
+        writeBackup("com.example.b", "0_new", 5000);
+        assertEquals(2, index.getAllMetadata().get("com.example.b").size());
+        assertEquals(5, index.getMetadataReadCount());
+        // Deleted backup
+        FileUtils.deleteDir(new File(BACKUP_DIR, "com.example.a/0_old"));
+        setPackageModified("com.example.a", 20_000);
+        assertEquals(1, index.getAllMetadata().get("com.example.a").size());
+        assertEquals(5, index.getMetadataReadCount());
+        // Deleted package
+        FileUtils.deleteDir(new File(BACKUP_DIR, "com.example.c"));
+        assertFalse(index.getAllMetadata().containsKey("com.example.c"));
+        assertEquals(5, index.getMetadataReadCount());
+        // Replaced metadata
+        writeBackup("com.example.a", "0", 6000);
+        setPackageModified("com.example.a", 30_000);
+        assertEquals(6000, index.getMetadata("com.example.a")[0].backupTime);
+        assertEquals(6, index.getMetadataReadCount());
+    }
+
+    @Test
+    public void testStaleIndexIsDiscarded() throws IOException, JSONException {
+        new BackupMetadataIndex(indexFile).getAllMetadata();
+        // Another backup volume
+        String contents = new JSONObject(FileUtils.getFileContent(indexFile))
+                .put("backup_dir", "file:///sdcard").toString();
+        try (OutputStream os = new FileOutputStream(indexFile)) {
+            os.write(contents.getBytes());
+        }
+        BackupMetadataIndex index = new BackupMetadataIndex(indexFile);
+        assertEquals(3, index.getAllMetadata().size());
+        assertEquals(4, index.getMetadataReadCount());
+        // Corrupt index
+        try (OutputStream os = new FileOutputStream(indexFile)) {
+            os.write("{\"version\":".getBytes());
+        }
+        index = new BackupMetadataIndex(indexFile);
+        assertEquals(3, index.getAllMetadata().size());
+        assertEquals(4, index.getMetadataReadCount());
+    }
+
+    @Test
+    public void testChangesAreAppliedBeforeLoading() throws IOException, JSONException {
+        new BackupMetadataIndex(indexFile).getAllMetadata();
+        // Not loaded yet, and the package directory keeps its modification time
+        BackupMetadataIndex index = new BackupMetadataIndex(indexFile);
+        File backupDir = new File(BACKUP_DIR, "com.example.a/0_old");
+        assertTrue(index.applyChange(new Path(AppManager.getContext(), backupDir), () -> {
+            FileUtils.deleteDir(backupDir);
+            setPackageModified("com.example.a", 2_000_000);
+            return true;
+        }));
+        assertEquals(1, index.getAllMetadata().get("com.example.a").size());
+        // The change is persisted
+        index = new BackupMetadataIndex(indexFile);
+        assertEquals(1, index.getAllMetadata().get("com.example.a").size());
+        assertEquals(0, index.getMetadataReadCount());
+    }
+
+    @Test
+    public void testMetadataOfTheSameTimeButAnotherSizeIsRead() throws IOException, JSONException {
+        BackupMetadataIndex index = new BackupMetadataIndex(indexFile);
+        index.getAllMetadata();
+        // Same modification times, but the metadata is longer
+        writeBackup("com.example.b", "0", 3000, "com.example.b.longer");
+        setPackageModified("com.example.b", 50_000);
+        index = new BackupMetadataIndex(indexFile);
+        assertEquals("com.example.b.longer", index.getMetadata("com.example.b")[0].label);
+        assertEquals(1, index.getMetadataReadCount());
+    }
+
+    private static void writeBackup(String packageName, String backupName, long backupTime)
+            throws IOException, JSONException {
+        writeBackup(packageName, backupName, backupTime, packageName);
+    }
+
+    private static void writeBackup(String packageName, String backupName, long backupTime, String label)
+            throws IOException, JSONException {
+        File backupDir = new File(BACKUP_DIR, packageName + File.separator + backupName);
+        //noinspection ResultOfMethodCallIgnored
+        backupDir.mkdirs();
+        MetadataManager.Metadata metadata = new MetadataManager.Metadata();
+        metadata.label = label;
+        metadata.packageName = packageName;
+        metadata.versionName = "1.0";
+        metadata.versionCode = 1;
+        metadata.dataDirs = new String[0];
+        metadata.splitConfigs = new String[0];
+        metadata.backupTime = backupTime;
+        metadata.crypto = CryptoUtils.MODE_NO_ENCRYPTION;
+        metadata.apkName = "base.apk";
+        metadata.flags = new BackupFlags(BackupFlags.BACKUP_APK_FILES);
+        metadata.userHandle = 0;
+        metadata.tarType = TarUtils.TAR_GZIP;
+        metadata.installer = packageName;
+        File metadataFile = new File(backupDir, MetadataManager.META_FILE);
+        try (OutputStream os = new FileOutputStream(metadataFile)) {
+            os.write(MetadataManager.toJson(metadata).toString(4).getBytes());
+        }
+        // Make the change visible regardless of the timestamp resolution of the file system
+        //noinspection ResultOfMethodCallIgnored
+        metadataFile.setLastModified(backupTime * 1000);
+        setPackageModified(packageName, backupTime * 1000);
+    }
+
+    private static void setPackageModified(String packageName, long time) {
+        //noinspection ResultOfMethodCallIgnored
+        new File(BACKUP_DIR, packageName).setLastModified(time);
+    }
+}
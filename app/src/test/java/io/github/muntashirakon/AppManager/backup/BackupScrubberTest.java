@@ -0,0 +1,145 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.utils.AppPref;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.TarUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupScrubberTest {
+    private static final File BACKUP_DIR = new File("/tmp/AppManager");
+    private static final int BACKUP_COUNT = 8;
+    private static final int SOURCE_SIZE = 256 * 1024;
+
+    private final List<MetadataManager.Metadata> backups = new ArrayList<>();
+    private long backupSize;
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        AppPref.set(AppPref.PrefKey.PREF_BACKUP_VOLUME_STR, "file:///tmp");
+        FileUtils.deleteDir(BACKUP_DIR);
+        for (int i = 0; i < BACKUP_COUNT; ++i) {
+            backups.add(writeBackup("com.example.app" + i, "0", i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDir(BACKUP_DIR);
+    }
+
+    @Test
+    public void testScrub() {
+        // Corrupt one of the backups
+        File sourceFile = new File(BACKUP_DIR, "com.example.app3/0/" + BackupManager.SOURCE_PREFIX + ".tar.gz.0");
+        writeRandomBytes(sourceFile, SOURCE_SIZE, 42);
+        AtomicInteger progressCount = new AtomicInteger();
+        BackupScrubber.Report report = new BackupScrubber(4, false).scrub(backups,
+                (result, done, total) -> {
+                    assertEquals(BACKUP_COUNT, total);
+                    progressCount.incrementAndGet();
+                });
+        assertEquals(BACKUP_COUNT, progressCount.get());
+        assertEquals(BACKUP_COUNT, report.getResults().size());
+        assertEquals(BACKUP_COUNT - 1, report.getCount(BackupScrubber.STATUS_VERIFIED));
+        assertEquals(1, report.getCount(BackupScrubber.STATUS_FAILED));
+        BackupScrubber.BackupResult failedResult = report.getResults().get(3);
+        assertEquals("com.example.app3", failedResult.packageName);
+        assertEquals(BackupScrubber.STATUS_FAILED, failedResult.status);
+        assertNotNull(failedResult.error);
+        // Every file is read exactly once
+        assertEquals(backupSize * (BACKUP_COUNT - 1), report.getBytes());
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void testSkipVerifiedBackups() {
+        BackupScrubber scrubber = new BackupScrubber(4, true);
+        BackupScrubber.Report report = scrubber.scrub(backups, null);
+        assertEquals(BACKUP_COUNT, report.getCount(BackupScrubber.STATUS_VERIFIED));
+        assertTrue(new File(BACKUP_DIR, "com.example.app0/0/" + BackupFiles.VERIFIED).exists());
+        // Nothing has changed
+        report = scrubber.scrub(backups, null);
+        assertEquals(BACKUP_COUNT, report.getCount(BackupScrubber.STATUS_SKIPPED));
+        assertEquals(0, report.getBytes());
+        // A modified file
+        File sourceFile = new File(BACKUP_DIR, "com.example.app5/0/" + BackupManager.SOURCE_PREFIX + ".tar.gz.0");
+        writeRandomBytes(sourceFile, SOURCE_SIZE, 42);
+        //noinspection ResultOfMethodCallIgnored
+        sourceFile.setLastModified(System.currentTimeMillis() + 60_000);
+        // An additional file
+        writeRandomBytes(new File(BACKUP_DIR, "com.example.app6/0/extra"), 16, 42);
+        report = scrubber.scrub(backups, null);
+        assertEquals(BACKUP_COUNT - 2, report.getCount(BackupScrubber.STATUS_SKIPPED));
+        assertEquals(BackupScrubber.STATUS_FAILED, report.getResults().get(5).status);
+        assertEquals(BackupScrubber.STATUS_VERIFIED, report.getResults().get(6).status);
+    }
+
+    private MetadataManager.Metadata writeBackup(String packageName, String backupName, int seed)
+            throws IOException, JSONException {
+        File backupDir = new File(BACKUP_DIR, packageName + File.separator + backupName);
+        //noinspection ResultOfMethodCallIgnored
+        backupDir.mkdirs();
+        MetadataManager.Metadata metadata = new MetadataManager.Metadata();
+        metadata.backupName = backupName;
+        metadata.label = packageName;
+        metadata.packageName = packageName;
+        metadata.versionName = "1.0";
+        metadata.versionCode = 1;
+        metadata.dataDirs = new String[0];
+        metadata.splitConfigs = new String[0];
+        metadata.backupTime = System.currentTimeMillis();
+        metadata.crypto = CryptoUtils.MODE_NO_ENCRYPTION;
+        metadata.apkName = "base.apk";
+        metadata.flags = new BackupFlags(BackupFlags.BACKUP_APK_FILES);
+        metadata.userHandle = 0;
+        metadata.tarType = TarUtils.TAR_GZIP;
+        metadata.installer = packageName;
+        byte[] metadataBytes = MetadataManager.toJson(metadata).toString(4).getBytes();
+        try (OutputStream os = new FileOutputStream(new File(backupDir, MetadataManager.META_FILE))) {
+            os.write(metadataBytes);
+        }
+        File sourceFile = new File(backupDir, BackupManager.SOURCE_PREFIX + ".tar.gz.0");
+        writeRandomBytes(sourceFile, SOURCE_SIZE, seed);
+        try (OutputStream os = new FileOutputStream(new File(backupDir, BackupFiles.CHECKSUMS_TXT))) {
+            os.write((DigestUtils.getHexDigest(metadata.checksumAlgo, metadataBytes) + "\t"
+                    + MetadataManager.META_FILE + "\n").getBytes());
+            os.write((DigestUtils.getHexDigest(metadata.checksumAlgo, sourceFile) + "\t"
+                    + sourceFile.getName() + "\n").getBytes());
+        }
+        backupSize = metadataBytes.length + SOURCE_SIZE;
+        return metadata;
+    }
+
+    private static void writeRandomBytes(File file, int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.batchops;
+
+import android.Manifest;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+import android.os.RemoteException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PermissionStateApplierTest {
+    private static final String UNKNOWN_PERMISSION = "com.example.permission.UNKNOWN";
+    private static final String[] REQUESTED_PERMISSIONS = new String[]{Manifest.permission.CAMERA,
+            Manifest.permission.RECORD_AUDIO, Manifest.permission.ACCESS_FINE_LOCATION,
+            Manifest.permission.READ_CONTACTS, Manifest.permission.INTERNET, Manifest.permission.WRITE_SECURE_SETTINGS,
+            UNKNOWN_PERMISSION};
+
+    /**
+     * Holds the permission states of the packages as the system does, and counts the IPCs
+     */
+    private static class FakeBackend implements PermissionStateApplier.Backend {
+        // Package@user => requested permission => granted
+        final Map<String, Map<String, Boolean>> packages = new HashMap<>();
+        final Set<String> brokenPackages = new HashSet<>();
+        final Set<String> fixedPermissions = new HashSet<>();
+        final Set<String> unavailablePermissions = new HashSet<>();
+        final List<Integer> changedUsers = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger packageInfoCount = new AtomicInteger();
+        final AtomicInteger permissionInfoCount = new AtomicInteger();
+        final AtomicInteger changeCount = new AtomicInteger();
+
+        void addPackage(@NonNull String packageName, int userId, @NonNull String... grantedPermissions) {
+            Map<String, Boolean> permissions = new HashMap<>();
+            for (String permission : REQUESTED_PERMISSIONS) {
+                permissions.put(permission, false);
+            }
+            for (String permission : grantedPermissions) {
+                permissions.put(permission, true);
+            }
+            packages.put(packageName + "@" + userId, permissions);
+        }
+
+        boolean isGranted(@NonNull String packageName, int userId, @NonNull String permission) {
+            //noinspection ConstantConditions
+            return packages.get(packageName + "@" + userId).get(permission);
+        }
+
+        @NonNull
+        @Override
+        public PackageInfo getPackageInfo(@NonNull String packageName, int userId)
+                throws PackageManager.NameNotFoundException {
+            packageInfoCount.incrementAndGet();
+            Map<String, Boolean> permissions = packages.get(packageName + "@" + userId);
+            if (permissions == null || brokenPackages.contains(packageName)) {
+                throw new PackageManager.NameNotFoundException(packageName);
+            }
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.packageName = packageName;
+            synchronized (permissions) {
+                packageInfo.requestedPermissions = REQUESTED_PERMISSIONS.clone();
+                packageInfo.requestedPermissionsFlags = new int[REQUESTED_PERMISSIONS.length];
+                for (int i = 0; i < REQUESTED_PERMISSIONS.length; ++i) {
+                    //noinspection ConstantConditions
+                    if (permissions.get(REQUESTED_PERMISSIONS[i])) {
+                        packageInfo.requestedPermissionsFlags[i] = PackageInfo.REQUESTED_PERMISSION_GRANTED;
+                    }
+                }
+            }
+            return packageInfo;
+        }
+
+        @Nullable
+        @Override
+        public PermissionInfo getPermissionInfo(@NonNull String permissionName) throws RemoteException {
+            permissionInfoCount.incrementAndGet();
+            if (unavailablePermissions.contains(permissionName)) {
+                throw new RemoteException(permissionName + " is unavailable");
+            }
+            PermissionInfo info = new PermissionInfo();
+            info.name = permissionName;
+            switch (permissionName) {
+                case Manifest.permission.INTERNET:
+                    info.protectionLevel = PermissionInfo.PROTECTION_NORMAL;
+                    return info;
+                case Manifest.permission.WRITE_SECURE_SETTINGS:
+                    info.protectionLevel = PermissionInfo.PROTECTION_SIGNATURE
+                            | PermissionInfo.PROTECTION_FLAG_DEVELOPMENT;
+                    return info;
+                case UNKNOWN_PERMISSION:
+                    return null;
+                default:
+                    info.protectionLevel = PermissionInfo.PROTECTION_DANGEROUS;
+                    return info;
+            }
+        }
+
+        @Override
+        public void grantPermission(@NonNull String packageName, @NonNull String permissionName, int userId) {
+            setGranted(packageName, permissionName, userId, true);
+        }
+
+        @Override
+        public void revokePermission(@NonNull String packageName, @NonNull String permissionName, int userId) {
+            setGranted(packageName, permissionName, userId, false);
+        }
+
+        private void setGranted(@NonNull String packageName, @NonNull String permissionName, int userId,
+                                boolean granted) {
+            changeCount.incrementAndGet();
+            if (fixedPermissions.contains(permissionName)) {
+                throw new SecurityException(permissionName + " is fixed");
+            }
+            changedUsers.add(userId);
+            Map<String, Boolean> permissions = packages.get(packageName + "@" + userId);
+            //noinspection ConstantConditions
+            synchronized (permissions) {
+                permissions.put(permissionName, granted);
+            }
+        }
+    }
+
+    private final FakeBackend backend = new FakeBackend();
+
+    @Test
+    public void testGrant() {
+        backend.addPackage("com.example.app", 0, Manifest.permission.CAMERA);
+        PermissionStateApplier applier = new PermissionStateApplier(backend, 1);
+        PermissionStateApplier.Report report = applier.apply(Collections.singletonList(
+                new UserPackagePair("com.example.app", 0)), new String[]{Manifest.permission.CAMERA,
+                Manifest.permission.RECORD_AUDIO, Manifest.permission.INTERNET, Manifest.permission.SEND_SMS,
+                UNKNOWN_PERMISSION, Manifest.permission.WRITE_SECURE_SETTINGS}, true);
+        // Camera is granted already, Internet cannot be granted, SMS is not requested and the unknown permission
+        // does not exist
+        assertEquals(2, report.getAppliedCount());
+        assertEquals(4, report.getSkippedCount());
+        assertEquals(0, report.getFailedCount());
+        assertTrue(report.getFailedPackages().isEmpty());
+        assertTrue(backend.isGranted("com.example.app", 0, Manifest.permission.RECORD_AUDIO));
+        assertTrue(backend.isGranted("com.example.app", 0, Manifest.permission.WRITE_SECURE_SETTINGS));
+        assertFalse(backend.isGranted("com.example.app", 0, Manifest.permission.INTERNET));
+        assertEquals(1, backend.packageInfoCount.get());
+        assertEquals(2, backend.changeCount.get());
+    }
+
+    @Test
+    public void testRevokeAll() {
+        backend.addPackage("com.example.app", 0, Manifest.permission.CAMERA, Manifest.permission.READ_CONTACTS,
+                Manifest.permission.INTERNET);
+        PermissionStateApplier applier = new PermissionStateApplier(backend, 1);
+        PermissionStateApplier.Report report = applier.apply(Collections.singletonList(
+                new UserPackagePair("com.example.app", 0)), null, false);
+        assertEquals(2, report.getAppliedCount());
+        assertEquals(REQUESTED_PERMISSIONS.length - 2, report.getSkippedCount());
+        for (String permission : REQUESTED_PERMISSIONS) {
+            assertEquals(permission.equals(Manifest.permission.INTERNET),
+                    backend.isGranted("com.example.app", 0, permission));
+        }
+    }
+
+    @Test
+    public void testFailures() {
+        backend.addPackage("com.example.app1", 0);
+        backend.addPackage("com.example.app2", 0);
+        backend.addPackage("com.example.app3", 0);
+        backend.brokenPackages.add("com.example.app2");
+        backend.fixedPermissions.add(Manifest.permission.RECORD_AUDIO);
+        List<UserPackagePair> pairs = Arrays.asList(new UserPackagePair("com.example.app1", 0),
+                new UserPackagePair("com.example.app2", 0), new UserPackagePair("com.example.app4", 0));
+        PermissionStateApplier applier = new PermissionStateApplier(backend, 2);
+        PermissionStateApplier.Report report = applier.apply(pairs, new String[]{Manifest.permission.CAMERA,
+                Manifest.permission.RECORD_AUDIO}, true);
+        assertEquals(1, report.getAppliedCount());
+        // One fixed permission, and two for each of the packages that could not be read
+        assertEquals(5, report.getFailedCount());
+        assertEquals(3, report.getFailedPackages().size());
+        assertTrue(backend.isGranted("com.example.app1", 0, Manifest.permission.CAMERA));
+    }
+
+    @Test
+    public void testPermissionInfoFailures() {
+        backend.addPackage("com.example.app1", 0);
+        backend.addPackage("com.example.app2", 0);
+        backend.unavailablePermissions.add(Manifest.permission.CAMERA);
+        List<UserPackagePair> pairs = Arrays.asList(new UserPackagePair("com.example.app1", 0),
+                new UserPackagePair("com.example.app2", 0));
+        PermissionStateApplier applier = new PermissionStateApplier(backend, 1);
+        PermissionStateApplier.Report report = applier.apply(pairs, new String[]{Manifest.permission.CAMERA,
+                Manifest.permission.RECORD_AUDIO}, true);
+        // The permission could not be checked, therefore, it is not skipped
+        assertEquals(2, report.getAppliedCount());
+        assertEquals(0, report.getSkippedCount());
+        assertEquals(2, report.getFailedCount());
+        assertEquals(2, report.getFailedPackages().size());
+        assertFalse(backend.isGranted("com.example.app1", 0, Manifest.permission.CAMERA));
+        // The failure is not cached, every package tries again
+        assertEquals(3, backend.permissionInfoCount.get());
+    }
+
+    @Test
+    public void testGroupedByUser() {
+        List<UserPackagePair> pairs = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            for (int userId : new int[]{0, 10}) {
+                backend.addPackage("com.example.app" + i, userId);
+                pairs.add(new UserPackagePair("com.example.app" + i, userId));
+            }
+        }
+        PermissionStateApplier applier = new PermissionStateApplier(backend, 4);
+        PermissionStateApplier.Report report = applier.apply(pairs, new String[]{Manifest.permission.CAMERA}, true);
+        assertEquals(pairs.size(), report.getAppliedCount());
+        // All the changes of a user are done before the next user
+        List<Integer> changedUsers = backend.changedUsers;
+        assertEquals(pairs.size(), changedUsers.size());
+        for (int i = 0; i < changedUsers.size(); ++i) {
+            assertEquals(i < 20 ? 0 : 10, (int) changedUsers.get(i));
+        }
+    }
+
+    @Test
+    public void testIpcCount() {
+        int packageCount = 200;
+        List<UserPackagePair> pairs = new ArrayList<>();
+        for (int i = 0; i < packageCount; ++i) {
+            for (int userId : new int[]{0, 10}) {
+                // Most of the packages have the permissions granted already
+                if (i % 4 == 0) {
+                    backend.addPackage("com.example.app" + i, userId);
+                } else {
+                    backend.addPackage("com.example.app" + i, userId, Manifest.permission.CAMERA,
+                            Manifest.permission.RECORD_AUDIO, Manifest.permission.ACCESS_FINE_LOCATION);
+                }
+                pairs.add(new UserPackagePair("com.example.app" + i, userId));
+            }
+        }
+        String[] permissions = new String[]{Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO,
+                Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.SEND_SMS, Manifest.permission.INTERNET};
+        PermissionStateApplier applier = new PermissionStateApplier(backend, 4);
+        PermissionStateApplier.Report report = applier.apply(pairs, permissions, true);
+        assertEquals(pairs.size() / 4 * 3, report.getAppliedCount());
+        // One package info for each package, and only the permissions that are not granted yet are changed
+        assertEquals(pairs.size(), backend.packageInfoCount.get());
+        assertEquals(pairs.size() / 4 * 3, backend.changeCount.get());
+        // The permission infos are cached, but the workers may fetch the same one at the same time
+        assertTrue(backend.permissionInfoCount.get() <= 4 * 4);
+        int ipcCount = backend.packageInfoCount.get() + backend.permissionInfoCount.get() + backend.changeCount.get();
+        // Every permission of every package was granted blindly before
+        assertTrue(ipcCount < pairs.size() * permissions.length);
+    }
+}
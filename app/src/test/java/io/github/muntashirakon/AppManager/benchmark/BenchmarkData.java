@@ -0,0 +1,86 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.benchmark;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Inputs of the benchmarks. The synthetic inputs are generated from a fixed seed so that they are the same in every
+ * run.
+ */
+public final class BenchmarkData {
+    private static final long SEED = 0x414D;
+    private static final String[] WORDS = new String[]{"package", "activity", "service", "receiver", "provider",
+            "permission", "android", "intent", "backup", "restore", "manager", "component", "tracker", "version",
+            "label", "user", "data", "cache", "shared_prefs", "databases", "files", "true", "false", "0", "1", "42",
+            "<string name=\"", "\">", "</string>", "{\"id\":", "},", "\n"};
+
+    /**
+     * Bytes that can't be compressed, like those of media or of APK files
+     */
+    @NonNull
+    public static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(SEED).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Bytes that compress well, like those of the databases, the shared preferences and the other app data
+     */
+    @NonNull
+    public static byte[] textBytes(int size) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        byte[] bytes = new byte[size];
+        System.arraycopy(sb.toString().getBytes(StandardCharsets.US_ASCII), 0, bytes, 0, size);
+        return bytes;
+    }
+
+    /**
+     * Create a directory tree like the data directory of an app: half of the files contain text and the other half
+     * contain random bytes, spread across a few subdirectories.
+     *
+     * @return Total size of the files
+     */
+    public static long createFileTree(@NonNull File root, int fileCount, int fileSize) throws IOException {
+        byte[] text = textBytes(fileSize);
+        byte[] random = randomBytes(fileSize);
+        String[] dirs = new String[]{"files", "databases", "shared_prefs", "cache/images"};
+        long totalSize = 0;
+        for (int i = 0; i < fileCount; ++i) {
+            File dir = new File(root, dirs[i % dirs.length]);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            try (OutputStream os = new FileOutputStream(new File(dir, "file" + i))) {
+                os.write(i % 2 == 0 ? text : random);
+            }
+            totalSize += fileSize;
+        }
+        return totalSize;
+    }
+
+    /**
+     * Get a file checked in to the test resources.
+     */
+    @NonNull
+    public static File getResource(@NonNull String name) {
+        URL url = BenchmarkData.class.getClassLoader().getResource(name);
+        if (url == null) {
+            throw new IllegalArgumentException("No resource named " + name);
+        }
+        return new File(url.getFile());
+    }
+}
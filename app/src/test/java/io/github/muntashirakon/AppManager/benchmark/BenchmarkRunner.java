@@ -0,0 +1,328 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.benchmark;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+
+/**
+ * A small benchmark harness for the JVM tests. A benchmark is run for a number of warm-up iterations followed by a
+ * number of measured iterations of a fixed duration on the calling thread. Its throughput, allocations per operation
+ * and, if the number of bytes processed by an operation is given, data rate are measured.
+ * <p>
+ * The results of a benchmark class are written to {@code <outputDir>/<class name>.json} in the JSON format of JMH, so
+ * that they can be compared using the tools made for it. If the results of an earlier run are given, the changes are
+ * printed as well.
+ * <p>
+ * The options are read from the system properties:
+ * <ul>
+ *     <li>{@code benchmark.outputDir}: Where to write the results, {@code build/benchmarks} by default</li>
+ *     <li>{@code benchmark.baselineDir}: Where the results of an earlier run are</li>
+ *     <li>{@code benchmark.warmupIterations}: 2 by default</li>
+ *     <li>{@code benchmark.iterations}: 5 by default</li>
+ *     <li>{@code benchmark.iterationMillis}: Duration of an iteration, 1000 by default</li>
+ *     <li>{@code benchmark.filter}: Regular expression matching the names of the benchmarks to run</li>
+ * </ul>
+ */
+public final class BenchmarkRunner {
+    public interface Operation {
+        /**
+         * Run the operation once.
+         *
+         * @return Anything computed by the operation, so that it isn't optimised away
+         */
+        @Nullable
+        Object run() throws Exception;
+    }
+
+    private static final String ALLOC_RATE_NORM = "·gc.alloc.rate.norm";
+    private static final String ALLOC_RATE = "·gc.alloc.rate";
+    private static final String DATA_RATE = "·data.rate";
+
+    /**
+     * Quantiles of Student's t-distribution for a confidence of 99.9%, as used by JMH, for 1 to 10 degrees of freedom
+     */
+    private static final double[] T_DISTRIBUTION_999 = new double[]{636.619, 31.599, 12.924, 8.610, 6.869, 5.959,
+            5.408, 5.041, 4.781, 4.587};
+
+    @NonNull
+    public static Map<String, String> params(@NonNull String... keyValues) {
+        Map<String, String> params = new LinkedHashMap<>(keyValues.length / 2);
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            params.put(keyValues[i], keyValues[i + 1]);
+        }
+        return params;
+    }
+
+    @NonNull
+    private final Class<?> mBenchmarkClass;
+    private final int mWarmupIterations;
+    private final int mIterations;
+    private final long mIterationMillis;
+    @Nullable
+    private final Pattern mFilter;
+    private final JSONArray mResults = new JSONArray();
+    @Nullable
+    private final com.sun.management.ThreadMXBean mThreadMXBean;
+    // Keeps the results of the operations alive
+    private volatile int mSink;
+
+    public BenchmarkRunner(@NonNull Class<?> benchmarkClass) {
+        mBenchmarkClass = benchmarkClass;
+        mWarmupIterations = Integer.getInteger("benchmark.warmupIterations", 2);
+        mIterations = Math.max(1, Integer.getInteger("benchmark.iterations", 5));
+        mIterationMillis = Long.getLong("benchmark.iterationMillis", 1000);
+        String filter = System.getProperty("benchmark.filter");
+        mFilter = filter != null && !filter.isEmpty() ? Pattern.compile(filter) : null;
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            mThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+        } else mThreadMXBean = null;
+    }
+
+    public void run(@NonNull String name, long bytesPerOperation, @NonNull Operation operation) throws Exception {
+        run(name, Collections.emptyMap(), bytesPerOperation, operation);
+    }
+
+    /**
+     * Measure an operation.
+     *
+     * @param params            Parameters of the benchmark, e.g. the input or the compression type
+     * @param bytesPerOperation Number of bytes processed by an operation, or 0 if the data rate isn't measured
+     */
+    public void run(@NonNull String name, @NonNull Map<String, String> params, long bytesPerOperation,
+                    @NonNull Operation operation) throws Exception {
+        String benchmark = mBenchmarkClass.getName() + "." + name;
+        if (mFilter != null && !mFilter.matcher(benchmark).find()) {
+            return;
+        }
+        for (int i = 0; i < mWarmupIterations; ++i) {
+            runIteration(operation);
+        }
+        double[] scores = new double[mIterations];
+        double[] allocations = new double[mIterations];
+        for (int i = 0; i < mIterations; ++i) {
+            long[] iteration = runIteration(operation);
+            long operations = iteration[0];
+            long elapsedNanos = iteration[1];
+            scores[i] = operations * 1e9 / elapsedNanos;
+            allocations[i] = iteration[2] >= 0 ? (double) iteration[2] / operations : Double.NaN;
+        }
+        JSONObject result = new JSONObject();
+        try {
+            result.put("benchmark", benchmark);
+            result.put("mode", "thrpt");
+            result.put("threads", 1);
+            result.put("forks", 0);
+            result.put("jdkVersion", System.getProperty("java.version"));
+            result.put("vmName", System.getProperty("java.vm.name"));
+            result.put("warmupIterations", mWarmupIterations);
+            result.put("warmupTime", mIterationMillis + " ms");
+            result.put("measurementIterations", mIterations);
+            result.put("measurementTime", mIterationMillis + " ms");
+            if (!params.isEmpty()) {
+                result.put("params", new JSONObject(params));
+            }
+            result.put("primaryMetric", getMetric(scores, "ops/s"));
+            JSONObject secondaryMetrics = new JSONObject();
+            if (mThreadMXBean != null) {
+                double[] allocationRates = new double[mIterations];
+                for (int i = 0; i < mIterations; ++i) {
+                    allocationRates[i] = allocations[i] * scores[i] / (1024 * 1024);
+                }
+                secondaryMetrics.put(ALLOC_RATE_NORM, getMetric(allocations, "B/op"));
+                secondaryMetrics.put(ALLOC_RATE, getMetric(allocationRates, "MB/sec"));
+            }
+            if (bytesPerOperation > 0) {
+                double[] dataRates = new double[mIterations];
+                for (int i = 0; i < mIterations; ++i) {
+                    dataRates[i] = bytesPerOperation * scores[i] / (1024 * 1024);
+                }
+                secondaryMetrics.put(DATA_RATE, getMetric(dataRates, "MB/sec"));
+            }
+            result.put("secondaryMetrics", secondaryMetrics);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        mResults.put(result);
+        System.out.println(toString(result));
+    }
+
+    /**
+     * Write the results to the output directory, and compare them with the baseline if there is one.
+     */
+    public void writeResults() throws IOException {
+        if (mResults.length() == 0) return;
+        File outputDir = new File(System.getProperty("benchmark.outputDir", "build/benchmarks"));
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        String fileName = mBenchmarkClass.getName() + ".json";
+        File resultFile = new File(outputDir, fileName);
+        try (OutputStream os = new FileOutputStream(resultFile)) {
+            os.write(mResults.toString(2).getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        System.out.println("Results: " + resultFile.getAbsolutePath());
+        String baselineDir = System.getProperty("benchmark.baselineDir");
+        if (baselineDir != null && !baselineDir.isEmpty()) {
+            compare(new File(baselineDir, fileName));
+        }
+    }
+
+    /**
+     * @return Number of operations, elapsed time in nanoseconds and bytes allocated, or -1 if they can't be measured
+     */
+    @NonNull
+    private long[] runIteration(@NonNull Operation operation) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        long endNanos = TimeUnit.MILLISECONDS.toNanos(mIterationMillis);
+        long operations = 0;
+        int sink = 0;
+        long allocatedBytes = mThreadMXBean != null ? mThreadMXBean.getThreadAllocatedBytes(threadId) : -1;
+        long startNanos = System.nanoTime();
+        long elapsedNanos;
+        do {
+            Object result = operation.run();
+            sink += result != null ? result.hashCode() : 0;
+            ++operations;
+            elapsedNanos = System.nanoTime() - startNanos;
+        } while (elapsedNanos < endNanos);
+        if (mThreadMXBean != null) {
+            allocatedBytes = mThreadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+        }
+        mSink += sink;
+        return new long[]{operations, elapsedNanos, allocatedBytes};
+    }
+
+    private void compare(@NonNull File baselineFile) throws IOException {
+        if (!baselineFile.exists()) {
+            System.out.println("No baseline: " + baselineFile.getAbsolutePath());
+            return;
+        }
+        try {
+            JSONArray baseline = new JSONArray(FileUtils.getFileContent(baselineFile));
+            Map<String, JSONObject> baselineResults = new HashMap<>(baseline.length());
+            for (int i = 0; i < baseline.length(); ++i) {
+                JSONObject result = baseline.getJSONObject(i);
+                baselineResults.put(getKey(result), result);
+            }
+            for (int i = 0; i < mResults.length(); ++i) {
+                JSONObject result = mResults.getJSONObject(i);
+                JSONObject baselineResult = baselineResults.get(getKey(result));
+                if (baselineResult == null) continue;
+                StringBuilder sb = new StringBuilder(getKey(result)).append(": throughput ")
+                        .append(getChange(getScore(baselineResult, null), getScore(result, null)));
+                double allocation = getScore(result, ALLOC_RATE_NORM);
+                double baselineAllocation = getScore(baselineResult, ALLOC_RATE_NORM);
+                if (!Double.isNaN(allocation) && !Double.isNaN(baselineAllocation)) {
+                    sb.append(", allocations ").append(getChange(baselineAllocation, allocation));
+                }
+                System.out.println(sb);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid baseline " + baselineFile, e);
+        }
+    }
+
+    @NonNull
+    private static JSONObject getMetric(@NonNull double[] values, @NonNull String unit) throws JSONException {
+        double mean = 0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        double error = Double.NaN;
+        if (values.length > 1) {
+            double variance = 0;
+            for (double value : values) {
+                variance += (value - mean) * (value - mean);
+            }
+            variance /= values.length - 1;
+            int degreesOfFreedom = Math.min(values.length - 1, T_DISTRIBUTION_999.length);
+            error = T_DISTRIBUTION_999[degreesOfFreedom - 1] * Math.sqrt(variance / values.length);
+        }
+        JSONObject metric = new JSONObject();
+        metric.put("score", mean);
+        if (!Double.isNaN(error)) {
+            metric.put("scoreError", error);
+            metric.put("scoreConfidence", new JSONArray().put(mean - error).put(mean + error));
+        }
+        metric.put("scoreUnit", unit);
+        JSONArray rawData = new JSONArray();
+        for (double value : values) {
+            rawData.put(value);
+        }
+        metric.put("rawData", new JSONArray().put(rawData));
+        return metric;
+    }
+
+    /**
+     * @param secondaryMetric Name of the secondary metric or {@code null} for the primary metric
+     */
+    private static double getScore(@NonNull JSONObject result, @Nullable String secondaryMetric) {
+        JSONObject metric;
+        if (secondaryMetric == null) {
+            metric = result.optJSONObject("primaryMetric");
+        } else {
+            JSONObject secondaryMetrics = result.optJSONObject("secondaryMetrics");
+            metric = secondaryMetrics != null ? secondaryMetrics.optJSONObject(secondaryMetric) : null;
+        }
+        return metric != null ? metric.optDouble("score") : Double.NaN;
+    }
+
+    @NonNull
+    private static String getKey(@NonNull JSONObject result) {
+        String benchmark = result.optString("benchmark");
+        JSONObject params = result.optJSONObject("params");
+        return params != null ? benchmark + params : benchmark;
+    }
+
+    @NonNull
+    private static String getChange(double before, double after) {
+        return String.format(Locale.ROOT, "%.4g → %.4g (%+.1f%%)", before, after, (after - before) * 100 / before);
+    }
+
+    @NonNull
+    private static String toString(@NonNull JSONObject result) {
+        StringBuilder sb = new StringBuilder(getKey(result));
+        JSONObject primaryMetric = result.optJSONObject("primaryMetric");
+        if (primaryMetric != null) {
+            sb.append(String.format(Locale.ROOT, ": %.3f ± %.3f ops/s", primaryMetric.optDouble("score"),
+                    primaryMetric.optDouble("scoreError", 0)));
+        }
+        double dataRate = getScore(result, DATA_RATE);
+        if (!Double.isNaN(dataRate)) {
+            sb.append(String.format(Locale.ROOT, ", %.1f MB/s", dataRate));
+        }
+        double allocation = getScore(result, ALLOC_RATE_NORM);
+        if (!Double.isNaN(allocation)) {
+            sb.append(String.format(Locale.ROOT, ", %.0f B/op", allocation));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,53 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.crypto;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import io.github.muntashirakon.AppManager.backup.CryptoUtils;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkData;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+import static org.junit.Assert.assertArrayEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class AESCryptoBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(AESCryptoBenchmark.class);
+    private static final int SIZE = 1024 * 1024;
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void encryptDecrypt() throws Exception {
+        byte[] iv = new byte[AESCrypto.GCM_IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        // The RSA mode generates a random AES key instead of reading it from the key store
+        AESCrypto crypto = new AESCrypto(iv, CryptoUtils.MODE_RSA, null);
+        byte[] bytes = BenchmarkData.randomBytes(SIZE);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(SIZE + 64);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream(SIZE);
+        sRunner.run("encrypt", SIZE, () -> {
+            encrypted.reset();
+            crypto.encrypt(new ByteArrayInputStream(bytes), encrypted);
+            return encrypted;
+        });
+        byte[] encryptedBytes = encrypted.toByteArray();
+        sRunner.run("decrypt", SIZE, () -> {
+            decrypted.reset();
+            crypto.decrypt(new ByteArrayInputStream(encryptedBytes), decrypted);
+            return decrypted;
+        });
+        assertArrayEquals(bytes, decrypted.toByteArray());
+    }
+}
@@ -0,0 +1,38 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.details;
+
+import android.content.pm.PackageInfo;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDetailsComponentModelBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(AppDetailsComponentModelBenchmark.class);
+
+    private final AppDetailsComponentModel model = AppDetailsComponentModelTest.newModel(new PackageInfo());
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void typing() throws Exception {
+        String query = "com.google.android.gms.service1234";
+        sRunner.run("typing", 0, () -> {
+            int count = 0;
+            for (int i = 1; i <= query.length(); ++i) {
+                count += model.getItems(query.substring(0, i), AppDetailsFragment.SORT_BY_TRACKERS).size();
+            }
+            return count;
+        });
+    }
+}
@@ -0,0 +1,120 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.details;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.ServiceInfo;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.details.struct.AppDetailsComponentItem;
+import io.github.muntashirakon.AppManager.details.struct.AppDetailsItem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDetailsComponentModelTest {
+    private static final int COMPONENT_COUNT = 5000;
+
+    private final PackageInfo packageInfo = new PackageInfo();
+    private AppDetailsComponentModel model;
+
+    @Before
+    public void setUp() {
+        model = newModel(packageInfo);
+    }
+
+    @NonNull
+    static AppDetailsComponentModel newModel(@NonNull PackageInfo packageInfo) {
+        List<AppDetailsComponentItem> items = new ArrayList<>(COMPONENT_COUNT);
+        for (int i = 0; i < COMPONENT_COUNT; ++i) {
+            ServiceInfo serviceInfo = new ServiceInfo();
+            serviceInfo.name = String.format(Locale.ROOT, "com.google.android.gms.Service%04d", i);
+            AppDetailsComponentItem item = new AppDetailsComponentItem(serviceInfo);
+            item.name = serviceInfo.name;
+            item.isTracker = i % 10 == 0;
+            items.add(item);
+        }
+        // The order of the components in the manifest does not matter
+        Collections.shuffle(items);
+        return new AppDetailsComponentModel(packageInfo, items);
+    }
+
+    @Test
+    public void testSearch() {
+        List<AppDetailsItem> items = model.getItems(null, AppDetailsFragment.SORT_BY_NAME);
+        assertEquals(COMPONENT_COUNT, items.size());
+        assertEquals("com.google.android.gms.Service0000", items.get(0).name);
+        assertEquals("com.google.android.gms.Service4999", items.get(COMPONENT_COUNT - 1).name);
+        // Typing a query
+        assertEquals(COMPONENT_COUNT, model.getItems("service", AppDetailsFragment.SORT_BY_NAME).size());
+        assertEquals(1000, model.getItems("service1", AppDetailsFragment.SORT_BY_NAME).size());
+        assertEquals(100, model.getItems("service12", AppDetailsFragment.SORT_BY_NAME).size());
+        items = model.getItems("service123", AppDetailsFragment.SORT_BY_NAME);
+        assertEquals(10, items.size());
+        assertEquals("com.google.android.gms.Service1230", items.get(0).name);
+        // Removing characters
+        assertEquals(1000, model.getItems("service1", AppDetailsFragment.SORT_BY_NAME).size());
+        // A different query
+        assertEquals(1, model.getItems("0042", AppDetailsFragment.SORT_BY_NAME).size());
+        assertEquals(COMPONENT_COUNT, model.getItems("", AppDetailsFragment.SORT_BY_NAME).size());
+    }
+
+    @Test
+    public void testSort() {
+        Set<String> blockedComponents = new HashSet<>();
+        blockedComponents.add("com.google.android.gms.Service0007");
+        blockedComponents.add("com.google.android.gms.Service0003");
+        model.setBlockedComponents(blockedComponents);
+        List<AppDetailsItem> items = model.getItems(null, AppDetailsFragment.SORT_BY_BLOCKED);
+        assertEquals("com.google.android.gms.Service0003", items.get(0).name);
+        assertEquals("com.google.android.gms.Service0007", items.get(1).name);
+        assertEquals("com.google.android.gms.Service0000", items.get(2).name);
+        assertTrue(((AppDetailsComponentItem) items.get(0)).isBlocked);
+        assertFalse(((AppDetailsComponentItem) items.get(2)).isBlocked);
+        items = model.getItems(null, AppDetailsFragment.SORT_BY_TRACKERS);
+        assertEquals("com.google.android.gms.Service0000", items.get(0).name);
+        assertEquals("com.google.android.gms.Service0010", items.get(1).name);
+        assertEquals("com.google.android.gms.Service0001", items.get(COMPONENT_COUNT / 10).name);
+        // Rules changed
+        model.setBlockedComponents(Collections.emptySet());
+        items = model.getItems(null, AppDetailsFragment.SORT_BY_BLOCKED);
+        assertEquals("com.google.android.gms.Service0000", items.get(0).name);
+        assertFalse(((AppDetailsComponentItem) items.get(0)).isBlocked);
+    }
+
+    @Test
+    public void testReturnedItemsAreNotChanged() {
+        Set<String> blockedComponents = new HashSet<>();
+        blockedComponents.add("com.google.android.gms.Service0000");
+        model.setBlockedComponents(blockedComponents);
+        List<AppDetailsItem> items = model.getItems(null, AppDetailsFragment.SORT_BY_NAME);
+        AppDetailsComponentItem item = (AppDetailsComponentItem) items.get(0);
+        assertTrue(item.isBlocked);
+        // The rules are changed while the items are displayed
+        model.setBlockedComponents(Collections.emptySet());
+        assertTrue(item.isBlocked);
+        assertFalse(((AppDetailsComponentItem) model.getItems(null, AppDetailsFragment.SORT_BY_NAME).get(0))
+                .isBlocked);
+    }
+
+    @Test
+    public void testIsLoadedFrom() {
+        assertTrue(model.isLoadedFrom(packageInfo));
+        assertFalse(model.isLoadedFrom(new PackageInfo()));
+    }
+}
@@ -0,0 +1,127 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.imagecache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileCacheTest {
+    private File packFile;
+
+    @Before
+    public void setUp() throws IOException {
+        packFile = File.createTempFile("icons", ".pack");
+        assertTrue(packFile.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        packFile.delete();
+    }
+
+    @Test
+    public void putAndGet() {
+        FileCache fileCache = new FileCache(packFile);
+        fileCache.put("com.example@1", image(100, 1));
+        fileCache.put("com.example.other@7", image(3000, 2));
+        assertArrayEquals(image(100, 1), fileCache.get("com.example@1"));
+        assertArrayEquals(image(3000, 2), fileCache.get("com.example.other@7"));
+        assertNull(fileCache.get("com.example@2"));
+        byte[][] images = fileCache.getAll(Arrays.asList("com.example.other@7", "missing", "com.example@1"));
+        assertArrayEquals(image(3000, 2), images[0]);
+        assertNull(images[1]);
+        assertArrayEquals(image(100, 1), images[2]);
+    }
+
+    @Test
+    public void recordsSurviveReopening() {
+        FileCache fileCache = new FileCache(packFile);
+        fileCache.put("a", image(10, 1));
+        fileCache.put("b", image(20, 2));
+        fileCache.put("a", image(30, 3));
+        fileCache = new FileCache(packFile);
+        assertEquals(2, fileCache.size());
+        assertArrayEquals(image(30, 3), fileCache.get("a"));
+        assertArrayEquals(image(20, 2), fileCache.get("b"));
+    }
+
+    @Test
+    public void partiallyWrittenRecordIsDiscarded() throws IOException {
+        FileCache fileCache = new FileCache(packFile);
+        fileCache.put("a", image(10, 1));
+        fileCache.put("b", image(20, 2));
+        long packSize = fileCache.getPackSize();
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "rw")) {
+            file.setLength(packSize - 5);
+        }
+        fileCache = new FileCache(packFile);
+        assertEquals(1, fileCache.size());
+        assertArrayEquals(image(10, 1), fileCache.get("a"));
+        assertNull(fileCache.get("b"));
+        // New records are appended after the last complete record
+        fileCache.put("c", image(40, 4));
+        fileCache = new FileCache(packFile);
+        assertArrayEquals(image(40, 4), fileCache.get("c"));
+    }
+
+    @Test
+    public void compactionDropsSupersededRecords() throws IOException {
+        FileCache fileCache = new FileCache(packFile);
+        for (int i = 0; i < 10; ++i) {
+            fileCache.put("a", image(1000, i));
+        }
+        fileCache.put("b", image(500, 42));
+        long packSize = fileCache.getPackSize();
+        fileCache.compact();
+        assertTrue(fileCache.getPackSize() < packSize);
+        assertArrayEquals(image(1000, 9), fileCache.get("a"));
+        assertArrayEquals(image(500, 42), fileCache.get("b"));
+        assertEquals(fileCache.getPackSize(), packFile.length());
+    }
+
+    @Test
+    public void invalidPackIsReset() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(packFile, "rw")) {
+            file.write(image(64, 7));
+        }
+        FileCache fileCache = new FileCache(packFile);
+        assertEquals(0, fileCache.size());
+        fileCache.put("a", image(10, 1));
+        assertArrayEquals(image(10, 1), new FileCache(packFile).get("a"));
+    }
+
+    @Test
+    public void clear() {
+        FileCache fileCache = new FileCache(packFile);
+        fileCache.put("a", image(10, 1));
+        fileCache.remove("a");
+        assertNull(fileCache.get("a"));
+        fileCache.put("b", image(10, 2));
+        fileCache.clear();
+        assertNull(fileCache.get("b"));
+        assertEquals(0, new FileCache(packFile).size());
+    }
+
+    private static byte[] image(int size, int seed) {
+        byte[] image = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            image[i] = (byte) (i * 31 + seed);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,74 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.ipc;
+
+import android.os.IBinder;
+import android.os.Parcel;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+import static io.github.muntashirakon.AppManager.ipc.BinderBatchTest.CODE_INCREMENT;
+import static io.github.muntashirakon.AppManager.ipc.BinderBatchTest.TRANSACTION_COUNT;
+
+/**
+ * Both the paths run in-process, so only the parcel copies are measured, not the binder hops.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BinderBatchBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(BinderBatchBenchmark.class);
+
+    private final IBinder service = new AMService.IAMServiceImpl();
+    private final IBinder target = new BinderBatchTest.TargetBinder();
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void perCall() throws Exception {
+        sRunner.run("perCall", 0, () -> {
+            int sum = 0;
+            for (int i = 0; i < TRANSACTION_COUNT; ++i) {
+                Parcel data = Parcel.obtain();
+                Parcel reply = Parcel.obtain();
+                try {
+                    data.writeInt(i);
+                    ProxyBinder.transact(service, target, CODE_INCREMENT, data, reply, 0);
+                    reply.readException();
+                    sum += reply.readInt();
+                } finally {
+                    data.recycle();
+                    reply.recycle();
+                }
+            }
+            return sum;
+        });
+    }
+
+    @Test
+    public void batch() throws Exception {
+        sRunner.run("batch", 0, () -> {
+            int sum = 0;
+            try (BinderBatch batch = new BinderBatch()) {
+                for (int i = 0; i < TRANSACTION_COUNT; ++i) {
+                    BinderBatchTest.addIncrement(batch, target, i);
+                }
+                List<Parcel> replies = batch.commit(service);
+                for (Parcel reply : replies) {
+                    reply.readException();
+                    sum += reply.readInt();
+                }
+            }
+            return sum;
+        });
+    }
+}
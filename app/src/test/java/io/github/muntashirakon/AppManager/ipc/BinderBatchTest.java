@@ -0,0 +1,235 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.ipc;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinderBatchTest {
+    static final int TRANSACTION_COUNT = 1000;
+    static final int CODE_INCREMENT = IBinder.FIRST_CALL_TRANSACTION;
+    private static final int CODE_SECURITY_EXCEPTION = IBinder.FIRST_CALL_TRANSACTION + 1;
+    private static final int CODE_CRASH = IBinder.FIRST_CALL_TRANSACTION + 2;
+
+    /**
+     * A service that increments an integer, replying in the same way as AIDL
+     */
+    static class TargetBinder extends Binder {
+        int transactionCount;
+
+        @Override
+        protected boolean onTransact(int code, @NonNull Parcel data, Parcel reply, int flags) {
+            ++transactionCount;
+            switch (code) {
+                case CODE_INCREMENT:
+                    int value = data.readInt();
+                    reply.writeNoException();
+                    reply.writeInt(value + 1);
+                    return true;
+                case CODE_SECURITY_EXCEPTION:
+                    reply.writeException(new SecurityException("Denied"));
+                    return true;
+                case CODE_CRASH:
+                    throw new IllegalStateException("Crashed");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Counts the transactions sent to AMService
+     */
+    private static class CountingService extends Binder {
+        private final IBinder service = new AMService.IAMServiceImpl();
+        int transactionCount;
+
+        @Override
+        protected boolean onTransact(int code, @NonNull Parcel data, Parcel reply, int flags)
+                throws RemoteException {
+            ++transactionCount;
+            return service.transact(code, data, reply, flags);
+        }
+    }
+
+    private final CountingService service = new CountingService();
+
+    @Test
+    public void testBatchReplies() throws RemoteException {
+        TargetBinder target = new TargetBinder();
+        try (BinderBatch batch = new BinderBatch()) {
+            for (int i = 0; i < TRANSACTION_COUNT; ++i) {
+                addIncrement(batch, target, i);
+            }
+            assertEquals(TRANSACTION_COUNT, batch.size());
+            List<Parcel> replies = batch.commit(service);
+            assertEquals(TRANSACTION_COUNT, replies.size());
+            for (int i = 0; i < TRANSACTION_COUNT; ++i) {
+                Parcel reply = replies.get(i);
+                reply.readException();
+                assertEquals(i + 1, reply.readInt());
+            }
+        }
+        assertEquals(TRANSACTION_COUNT, target.transactionCount);
+    }
+
+    @Test
+    public void testRecording() throws RemoteException {
+        TargetBinder target = new TargetBinder();
+        ProxyBinder proxyBinder = new ProxyBinder(target);
+        try (BinderBatch batch = BinderBatch.begin()) {
+            for (int i = 0; i < 10; ++i) {
+                int value = i;
+                batch.record(() -> {
+                    Parcel data = Parcel.obtain();
+                    Parcel reply = Parcel.obtain();
+                    try {
+                        data.writeInt(value);
+                        proxyBinder.transact(CODE_INCREMENT, data, reply, 0);
+                        // Nothing is returned until the batch is committed
+                        assertEquals(0, reply.dataSize());
+                    } finally {
+                        data.recycle();
+                        reply.recycle();
+                    }
+                });
+            }
+            assertFalse(batch.isRecording());
+            assertEquals(0, target.transactionCount);
+            assertEquals(10, batch.size());
+            List<Parcel> replies = batch.commit(null);
+            replies.get(9).readException();
+            assertEquals(10, replies.get(9).readInt());
+        }
+        assertEquals(10, target.transactionCount);
+        // Recording has stopped
+        try (BinderBatch ignored = BinderBatch.begin()) {
+            assertEquals(ignored, BinderBatch.getCurrent());
+        }
+        assertNull(BinderBatch.getCurrent());
+    }
+
+    @Test
+    public void testErrors() throws RemoteException {
+        TargetBinder target = new TargetBinder();
+        // Exceptions thrown by the target service are returned in the replies
+        try (BinderBatch batch = new BinderBatch()) {
+            addIncrement(batch, target, 0);
+            addTransaction(batch, target, CODE_SECURITY_EXCEPTION);
+            addIncrement(batch, target, 1);
+            List<Parcel> replies = batch.commit(service);
+            assertEquals(3, replies.size());
+            try {
+                replies.get(1).readException();
+                fail("No exception");
+            } catch (SecurityException ignore) {
+            }
+        }
+        // Transactions that could not be completed stop the batch
+        target.transactionCount = 0;
+        try (BinderBatch batch = new BinderBatch()) {
+            addIncrement(batch, target, 0);
+            addTransaction(batch, target, CODE_CRASH);
+            addIncrement(batch, target, 1);
+            batch.commit(service);
+            fail("No exception");
+        } catch (RemoteException e) {
+            assertTrue(e.getMessage().startsWith("Transaction 1 of 3 failed"));
+        }
+        assertEquals(2, target.transactionCount);
+    }
+
+    @Test
+    public void testTransactionsOutsideRecordingFlushTheBatch() throws RemoteException {
+        TargetBinder target = new TargetBinder();
+        ProxyBinder proxyBinder = new ProxyBinder(target);
+        try (BinderBatch batch = BinderBatch.begin()) {
+            addIncrement(batch, target, 0);
+            addIncrement(batch, target, 1);
+            Parcel data = Parcel.obtain();
+            Parcel reply = Parcel.obtain();
+            try {
+                data.writeInt(2);
+                // A getter has to see the effects of the recorded transactions
+                proxyBinder.transact(CODE_INCREMENT, data, reply, 0);
+                assertEquals(3, target.transactionCount);
+                reply.readException();
+                assertEquals(3, reply.readInt());
+            } finally {
+                data.recycle();
+                reply.recycle();
+            }
+            addIncrement(batch, target, 3);
+            assertEquals(3, batch.size());
+            List<Parcel> replies = batch.commit(null);
+            assertEquals(3, replies.size());
+            replies.get(1).readException();
+            assertEquals(2, replies.get(1).readInt());
+            replies.get(2).readException();
+            assertEquals(4, replies.get(2).readInt());
+        }
+        assertEquals(4, target.transactionCount);
+    }
+
+    @Test
+    public void testLargeBatchesAreSplit() throws RemoteException {
+        TargetBinder target = new TargetBinder();
+        byte[] padding = new byte[BinderBatch.MAX_TRANSACTION_SIZE / 3];
+        try (BinderBatch batch = new BinderBatch()) {
+            for (int i = 0; i < 5; ++i) {
+                Parcel data = Parcel.obtain();
+                try {
+                    data.writeInt(i);
+                    data.writeByteArray(padding);
+                    batch.add(target, CODE_INCREMENT, data, 0);
+                } finally {
+                    data.recycle();
+                }
+            }
+            List<Parcel> replies = batch.commit(service);
+            // Two transactions per batch
+            assertEquals(3, service.transactionCount);
+            assertEquals(5, replies.size());
+            for (int i = 0; i < 5; ++i) {
+                replies.get(i).readException();
+                assertEquals(i + 1, replies.get(i).readInt());
+            }
+        }
+        assertEquals(5, target.transactionCount);
+    }
+
+    static void addIncrement(@NonNull BinderBatch batch, @NonNull IBinder target, int value) {
+        Parcel data = Parcel.obtain();
+        try {
+            data.writeInt(value);
+            batch.add(target, CODE_INCREMENT, data, 0);
+        } finally {
+            data.recycle();
+        }
+    }
+
+    private static void addTransaction(@NonNull BinderBatch batch, @NonNull IBinder target, int code) {
+        Parcel data = Parcel.obtain();
+        try {
+            batch.add(target, code, data, 0);
+        } finally {
+            data.recycle();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.helper;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.io.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogRecordingWriterTest {
+    private final Context context = AppManager.getContext();
+    private Path testRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        testRoot = new Path(context, new File("/tmp")).findOrCreateDirectory("log_recording_test");
+    }
+
+    @After
+    public void tearDown() {
+        testRoot.delete();
+    }
+
+    @Test
+    public void writePlain() throws IOException {
+        List<String> lines = generateLines(1000);
+        String filename = record("plain.log", false, 0, lines);
+        assertEquals("plain.log", filename);
+        assertEquals(1, LogRecordingWriter.getSegments(testRoot, filename).size());
+        assertEquals(lines, read(filename));
+    }
+
+    @Test
+    public void writeCompressed() throws IOException {
+        List<String> lines = generateLines(1000);
+        String filename = record("compressed.log", true, 0, lines);
+        assertEquals("compressed.log.gz", filename);
+        assertEquals(lines, read(filename));
+        // Repetitive logs compress well
+        assertTrue(testRoot.findFile(filename).length() < 1000 * 20);
+    }
+
+    @Test
+    public void flushedLinesOfCompressedRecordingAreReadable() throws IOException {
+        List<String> lines = generateLines(100);
+        try (LogRecordingWriter writer = new LogRecordingWriter(testRoot, "open.log", true, 0, 0, 10)) {
+            for (String line : lines) {
+                writer.write(line);
+            }
+            // Every line has been flushed, but the gzip trailer has not been written yet
+            assertEquals(lines, read(writer.getFilename()));
+        }
+    }
+
+    @Test
+    public void rotateBySize() throws IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            List<String> lines = generateLines(20_000);
+            String filename = record("rotated.log", compress, 64 * 1024, lines);
+            List<Path> segments = LogRecordingWriter.getSegments(testRoot, filename);
+            assertTrue(segments.size() > 1);
+            for (int i = 1; i < segments.size(); ++i) {
+                assertTrue(LogRecordingWriter.isContinuationSegment(segments.get(i).getName()));
+            }
+            assertFalse(LogRecordingWriter.isContinuationSegment(segments.get(0).getName()));
+            assertEquals(lines, read(filename));
+            LogRecordingWriter.deleteSegments(testRoot, filename);
+            for (Path segment : segments) {
+                assertFalse(testRoot.hasFile(segment.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void rotateByTime() throws IOException, InterruptedException {
+        List<String> lines = generateLines(5);
+        LogRecordingWriter writer = new LogRecordingWriter(testRoot, "timed.log", false, 0, 1, 1);
+        for (String line : lines) {
+            writer.write(line);
+            Thread.sleep(5);
+        }
+        writer.close();
+        assertEquals(5, writer.getSegmentCount());
+        assertEquals(lines, read(writer.getFilename()));
+        assertTrue(testRoot.hasFile("timed.log.part4"));
+    }
+
+    @Test
+    public void restartingRecordingRemovesOldSegments() throws IOException {
+        record("restarted.log", false, 1024, generateLines(1000));
+        assertTrue(testRoot.hasFile("restarted.log.part1"));
+        List<String> lines = generateLines(10);
+        record("restarted.log", false, 1024, lines);
+        assertFalse(testRoot.hasFile("restarted.log.part1"));
+        assertEquals(lines, read("restarted.log"));
+    }
+
+    @Test
+    public void continuationSegments() {
+        assertFalse(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.log"));
+        assertFalse(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.log.gz"));
+        assertFalse(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.txt"));
+        assertTrue(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.log.part1"));
+        assertTrue(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.log.part12.gz"));
+        // Saved logs that merely end with a number
+        assertFalse(LogRecordingWriter.isContinuationSegment("boot.2"));
+        assertFalse(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.log.1"));
+        assertFalse(LogRecordingWriter.isContinuationSegment("2021-10-19-12-00-00.log.12.gz"));
+    }
+
+    @NonNull
+    private String record(@NonNull String filename, boolean compress, long maxSegmentBytes,
+                          @NonNull List<String> lines) throws IOException {
+        try (LogRecordingWriter writer = new LogRecordingWriter(testRoot, filename, compress, maxSegmentBytes, 0,
+                200)) {
+            for (String line : lines) {
+                writer.write(line);
+            }
+            return writer.getFilename();
+        }
+    }
+
+    @NonNull
+    private List<String> read(@NonNull String filename) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                LogRecordingWriter.openSegments(testRoot, filename), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @NonNull
+    private static List<String> generateLines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add(String.format(Locale.ROOT, "10-19 12:%02d:%02d.%03d D/ActivityManager( %4d): Line %d",
+                    i / 60000 % 60, i / 1000 % 60, i % 1000, 1000 + i % 7, i));
+        }
+        return lines;
+    }
+}
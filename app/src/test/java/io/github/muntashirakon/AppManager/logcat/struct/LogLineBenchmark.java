@@ -0,0 +1,48 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogLineBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(LogLineBenchmark.class);
+    private static final int LINE_COUNT = 10_000;
+    private static final char[] LEVELS = new char[]{'V', 'D', 'I', 'W', 'E'};
+    private static final String[] TAGS = new String[]{"ActivityManager", "PackageManager", "AppManager",
+            "chatty", "WindowManager"};
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void newLogLine() throws Exception {
+        Random random = new Random(0x414D);
+        String[] lines = new String[LINE_COUNT];
+        long size = 0;
+        for (int i = 0; i < LINE_COUNT; ++i) {
+            lines[i] = String.format(Locale.ROOT, "10-19 12:%02d:%02d.%03d %c/%s(%5d): Message %d of the log",
+                    (i / 60000) % 60, (i / 1000) % 60, i % 1000, LEVELS[random.nextInt(LEVELS.length)],
+                    TAGS[random.nextInt(TAGS.length)], 1000 + random.nextInt(30000), i);
+            size += lines[i].length();
+        }
+        sRunner.run("newLogLine", size, () -> {
+            LogLine logLine = null;
+            for (String line : lines) {
+                logLine = LogLine.newLogLine(line, false, "");
+            }
+            return logLine;
+        });
+    }
+}
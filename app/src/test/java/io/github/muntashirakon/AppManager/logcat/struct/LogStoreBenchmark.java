@@ -0,0 +1,60 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogStoreBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(LogStoreBenchmark.class);
+    private static final int CAPACITY = 100_000;
+
+    private static List<LogLine> sLines;
+    private static LogStore sStore;
+
+    @BeforeClass
+    public static void setUp() {
+        sLines = LogStoreTest.generateLines(150_000, 6);
+        sStore = new LogStore(CAPACITY, true);
+        for (LogLine line : sLines) {
+            sStore.add(line);
+        }
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void add() throws Exception {
+        sRunner.run("add", 0, () -> {
+            LogStore store = new LogStore(CAPACITY, true);
+            for (LogLine line : sLines) {
+                store.add(line);
+            }
+            return store;
+        });
+    }
+
+    @Test
+    public void indexedSearch() throws Exception {
+        SearchCriteria criteria = new SearchCriteria("NullPointer");
+        sRunner.run("indexedSearch", 0, () -> sStore.select(android.util.Log.VERBOSE, criteria).match());
+    }
+
+    @Test
+    public void linearScan() throws Exception {
+        SearchCriteria criteria = new SearchCriteria("NullPointer");
+        sRunner.run("linearScan", 0, () -> LogStoreTest.scan(sStore, android.util.Log.VERBOSE, criteria));
+    }
+}
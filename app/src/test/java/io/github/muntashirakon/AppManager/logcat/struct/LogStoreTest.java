@@ -0,0 +1,193 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogStoreTest {
+    private static final String[] TAGS = {"ActivityManager", "PackageManager", "chatty", "AppOps", "WifiService",
+            "System.err", "AndroidRuntime"};
+    private static final String[] WORDS = {"start", "proc", "for", "activity", "com.example.app", "uid=10123",
+            "Displayed", "+312ms", "java.lang.NullPointerException", "at", "expire", "lines", "identical",
+            "Connected", "to", "network", "\u00dcbergr\u00f6\u00dfe", "0x7f0a0001"};
+    private static final char[] LEVELS = {'V', 'D', 'I', 'W', 'E', 'F', 'A'};
+
+    private static final String[] QUERIES = {"", "proc", "PROC", "com.example", "example.app", "uid=10123",
+            "312", "+312ms", "NullPointer", "pid:1000", "tag:chatty", "tag:manager start", "tag:\"AppOps\" 10123",
+            "pid:1001 displayed", "1002", "x", "==", "\u00fcbergr\u00f6\u00dfe", "beginning", "nothing-matches-this"};
+
+    @Test
+    public void ringBufferEvictsOldestLines() {
+        LogStore store = new LogStore(100, true);
+        List<LogLine> lines = generateLines(250, 1);
+        for (int i = 0; i < lines.size(); ++i) {
+            assertEquals(i, store.add(lines.get(i)));
+        }
+        assertEquals(100, store.size());
+        assertEquals(150, store.getFirstSeq());
+        assertEquals(250, store.getEndSeq());
+        assertNull(store.get(149));
+        assertSame(lines.get(150), store.get(150));
+        assertSame(lines.get(249), store.get(249));
+        assertEquals(lines.subList(150, 250), store.getAll());
+    }
+
+    @Test
+    public void trimIsReflectedInSearches() {
+        LogStore store = new LogStore(1000, true);
+        List<LogLine> lines = generateLines(600, 2);
+        for (LogLine line : lines) {
+            store.add(line);
+        }
+        store.trim(250);
+        assertEquals(350, store.size());
+        assertNull(store.get(249));
+        assertSame(lines.get(250), store.get(250));
+        for (String query : QUERIES) {
+            assertSearch(store, android.util.Log.VERBOSE, query);
+        }
+        store.trim(1000);
+        assertEquals(0, store.size());
+        assertEquals(0, store.select(-1, new SearchCriteria(null)).match().length);
+    }
+
+    @Test
+    public void searchesMatchLinearScan() {
+        for (boolean indexTokens : new boolean[]{true, false}) {
+            LogStore store = new LogStore(2000, indexTokens);
+            // Evict lines several times over so that the indices have to skip stale entries
+            for (LogLine line : generateLines(7500, 3)) {
+                store.add(line);
+            }
+            for (int minLevel : new int[]{-1, android.util.Log.VERBOSE, android.util.Log.WARN, LogLine.LOG_FATAL}) {
+                for (String query : QUERIES) {
+                    assertSearch(store, minLevel, query);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indicesAreSwept() {
+        LogStore store = new LogStore(100, true);
+        for (int i = 0; i < 10_000; ++i) {
+            // Every line has a unique word
+            store.add(parse(String.format(Locale.ROOT, "10-19 12:00:00.000 D/Tag%d( %d): word%d", i, i, i)));
+        }
+        assertTrue(store.getTokenCount() <= 2 * 3 * 100);
+        assertSearch(store, -1, "word9999");
+        assertSearch(store, -1, "word1");
+    }
+
+    @Test
+    public void sequenceNumbersAreReassignedBeforeOverflow() {
+        LogStore store = new LogStore(100, true, 1000);
+        List<LogLine> lines = generateLines(2500, 4);
+        int generation = store.getGeneration();
+        for (LogLine line : lines) {
+            store.add(line);
+        }
+        assertTrue(store.getGeneration() != generation);
+        assertTrue(store.getEndSeq() <= 1000);
+        assertEquals(lines.subList(2400, 2500), store.getAll());
+        for (String query : QUERIES) {
+            assertSearch(store, -1, query);
+        }
+    }
+
+    @Test
+    public void selectionIsInvalidatedByClear() {
+        LogStore store = new LogStore(100, true);
+        for (LogLine line : generateLines(50, 5)) {
+            store.add(line);
+        }
+        LogStore.Selection selection = store.select(-1, new SearchCriteria("proc"));
+        assertTrue(selection.isValidFor(store));
+        store.clear();
+        assertEquals(0, store.size());
+        assertTrue(!selection.isValidFor(store));
+        assertEquals(0, store.select(-1, new SearchCriteria("proc")).match().length);
+    }
+
+    @Test
+    public void searchLargeStore() {
+        LogStore store = new LogStore(100_000, true);
+        for (LogLine line : generateLines(150_000, 6)) {
+            store.add(line);
+        }
+        assertEquals(100_000, store.size());
+        assertEquals(50_000, store.getFirstSeq());
+        assertEquals(150_000, store.getEndSeq());
+        SearchCriteria criteria = new SearchCriteria("NullPointer");
+        int[] indexed = store.select(android.util.Log.VERBOSE, criteria).match();
+        assertTrue(indexed.length > 0);
+        assertArrayEquals(scan(store, android.util.Log.VERBOSE, criteria), indexed);
+    }
+
+    private static void assertSearch(@NonNull LogStore store, int minLevel, @NonNull String query) {
+        SearchCriteria criteria = new SearchCriteria(query);
+        assertArrayEquals("Query: " + query, scan(store, minLevel, criteria),
+                store.select(minLevel, criteria).match());
+    }
+
+    @NonNull
+    static int[] scan(@NonNull LogStore store, int minLevel, @NonNull SearchCriteria criteria) {
+        List<Integer> seqs = new ArrayList<>();
+        for (int seq = store.getFirstSeq(); seq < store.getEndSeq(); ++seq) {
+            if (LogStore.matches(store.get(seq), minLevel, criteria)) {
+                seqs.add(seq);
+            }
+        }
+        int[] result = new int[seqs.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = seqs.get(i);
+        }
+        return result;
+    }
+
+    @NonNull
+    static List<LogLine> generateLines(int count, long seed) {
+        Random random = new Random(seed);
+        List<LogLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            String line;
+            if (random.nextInt(200) == 0) {
+                line = "--------- beginning of main";
+            } else {
+                StringBuilder message = new StringBuilder();
+                int wordCount = 1 + random.nextInt(6);
+                for (int j = 0; j < wordCount; ++j) {
+                    message.append(j == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+                }
+                line = String.format(Locale.ROOT, "10-19 12:%02d:%02d.%03d %c/%s(%5d): %s", i / 60000 % 60,
+                        i / 1000 % 60, i % 1000, LEVELS[random.nextInt(LEVELS.length)],
+                        TAGS[random.nextInt(TAGS.length)], 1000 + random.nextInt(5), message);
+            }
+            lines.add(parse(line));
+        }
+        return lines;
+    }
+
+    @NonNull
+    private static LogLine parse(@NonNull String line) {
+        LogLine logLine = LogLine.newLogLine(line, false, "");
+        assertTrue(line, logLine != null);
+        return logLine;
+    }
+}
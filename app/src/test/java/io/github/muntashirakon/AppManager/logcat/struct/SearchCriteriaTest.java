@@ -0,0 +1,112 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SearchCriteriaTest {
+    private static final String[] TAGS = {"ActivityManager", "PackageManager", "chatty", "AppOps", "System.err",
+            "Tag(with)parens", "Ärger"};
+    private static final String[] WORDS = {"start", "proc", "uid=10123", "+312ms", "java.lang.NullPointerException",
+            "maxLineHeight", "Failed to read", "I/Fake( 42): ", "Übergröße", "İstanbul", "1001"};
+    private static final char[] LEVELS = {'V', 'D', 'I', 'W', 'E', 'F', 'A', 'X', '1', '_'};
+    private static final String[] QUERIES = {"", "proc", "PROC", "uid=10123", "312", "1001", "nullpointer",
+            "pid:1000", "pid:42", "tag:chatty", "tag:manager start", "tag:\"AppOps\" 10123", "tag:parens",
+            "übergröße", "istanbul", "beginning", "nothing-matches-this"};
+    private static final int[] LOG_LEVELS = {-1, android.util.Log.VERBOSE, android.util.Log.DEBUG,
+            android.util.Log.WARN, LogLine.LOG_FATAL};
+
+    @After
+    public void tearDown() {
+        LogLine.omitSensitiveInfo = false;
+    }
+
+    @Test
+    public void prefilterNeverRejectsMatchingLines() {
+        List<String> lines = generateLines(20_000);
+        int rejected = 0;
+        for (boolean omitSensitiveInfo : new boolean[]{false, true}) {
+            LogLine.omitSensitiveInfo = omitSensitiveInfo;
+            for (String query : QUERIES) {
+                SearchCriteria criteria = new SearchCriteria(query);
+                for (String line : lines) {
+                    LogLine logLine = LogLine.newLogLine(line, false, "");
+                    assertTrue(line, logLine != null);
+                    if (criteria.matches(logLine)) {
+                        assertTrue(query + ": " + line, criteria.mayMatch(line));
+                    } else if (!criteria.mayMatch(line)) {
+                        ++rejected;
+                    }
+                }
+            }
+        }
+        // The prefilter has to be of some use
+        assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void logLevelPrefilterNeverRejectsMatchingLines() {
+        int rejected = 0;
+        for (String line : generateLines(20_000)) {
+            LogLine logLine = LogLine.newLogLine(line, false, "");
+            assertTrue(line, logLine != null);
+            for (int logLevel : LOG_LEVELS) {
+                if (logLine.getLogLevel() >= logLevel) {
+                    assertTrue(logLevel + ": " + line, LogLine.mayHaveLogLevel(line, logLevel));
+                } else if (!LogLine.mayHaveLogLevel(line, logLevel)) {
+                    ++rejected;
+                }
+            }
+        }
+        assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void prefilterRejectsObviousMismatches() {
+        String line = "10-19 12:00:00.000 D/ActivityManager( 1000): Start proc";
+        assertFalse(LogLine.mayHaveLogLevel(line, android.util.Log.WARN));
+        assertTrue(LogLine.mayHaveLogLevel(line, android.util.Log.DEBUG));
+        assertFalse(new SearchCriteria("pid:1234").mayMatch(line));
+        assertFalse(new SearchCriteria("tag:chatty").mayMatch(line));
+        assertFalse(new SearchCriteria("nothing").mayMatch(line));
+        assertTrue(new SearchCriteria("tag:activitymanager START").mayMatch(line));
+    }
+
+    private static List<String> generateLines(int count) {
+        Random random = new Random(7);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            int kind = random.nextInt(50);
+            if (kind == 0) {
+                lines.add("--------- beginning of main");
+                continue;
+            }
+            StringBuilder message = new StringBuilder();
+            int wordCount = 1 + random.nextInt(4);
+            for (int j = 0; j < wordCount; ++j) {
+                message.append(j == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            String line = String.format(Locale.ROOT, "%c/%s(%5d): %s", LEVELS[random.nextInt(LEVELS.length)],
+                    TAGS[random.nextInt(TAGS.length)], 1000 + random.nextInt(5), message);
+            if (kind != 1) {
+                // Legacy logs have no timestamp
+                line = String.format(Locale.ROOT, "10-19 12:%02d:%02d.%03d ", i / 60000 % 60, i / 1000 % 60,
+                        i % 1000) + line;
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,64 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logs;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TracerBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(TracerBenchmark.class);
+    private static final int SPAN_COUNT = 1_000_000;
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void disabledSpans() throws Exception {
+        sRunner.run("disabledSpans", 0, () -> {
+            long bytes = 0;
+            for (int i = 0; i < SPAN_COUNT; ++i) {
+                try (Tracer.Span span = Tracer.begin("tar", "create", "com.example.app")) {
+                    span.addBytes(i);
+                    bytes += i;
+                }
+            }
+            return bytes;
+        });
+    }
+
+    @Test
+    public void spansOfAnotherThread() throws Exception {
+        // Another operation is being traced, the spans of this thread are not recorded
+        Thread thread = new Thread(() -> Tracer.start("batch_op_1"));
+        thread.start();
+        thread.join();
+        try {
+            sRunner.run("spansOfAnotherThread", 0, () -> {
+                long bytes = 0;
+                for (int i = 0; i < SPAN_COUNT; ++i) {
+                    try (Tracer.Span span = Tracer.begin("tar", "create", "com.example.app")) {
+                        span.addBytes(i);
+                        bytes += i;
+                    }
+                }
+                return bytes;
+            });
+        } finally {
+            File traceFile = Tracer.stop();
+            if (traceFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                traceFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logs;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.TaskScope;
+import io.github.muntashirakon.AppManager.utils.WorkerPools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TracerTest {
+    @After
+    public void tearDown() {
+        File traceFile = Tracer.stop();
+        if (traceFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            traceFile.delete();
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(Tracer.isEnabled());
+        Tracer.Span span = Tracer.begin("backup", "data", "com.example.app");
+        assertFalse(span.isRecording());
+        span.addBytes(1024);
+        span.setArg("key", "value");
+        span.close();
+        // The same span is returned every time
+        assertTrue(span == Tracer.begin("tar", "create"));
+        assertNull(Tracer.stop());
+    }
+
+    @Test
+    public void testStartTwice() {
+        assertTrue(Tracer.start("first"));
+        assertFalse(Tracer.start("second"));
+        assertTrue(Tracer.isEnabled());
+    }
+
+    @Test
+    public void testTrace() throws Exception {
+        assertTrue(Tracer.start("batch_op_1"));
+        try (Tracer.Span span = Tracer.begin("batchops", "backup", "com.example.app")) {
+            span.setArg("user", 0);
+            try (Tracer.Span tarSpan = Tracer.begin("tar", "create")) {
+                assertTrue(tarSpan.isRecording());
+                tarSpan.addBytes(1000);
+                tarSpan.addBytes(24);
+            }
+            Thread thread = new Thread(Tracer.wrap(() -> {
+                try (Tracer.Span ignore = Tracer.begin("backup", "checksum", "com.example.app")) {
+                    Thread.yield();
+                }
+            }), "Worker");
+            thread.start();
+            thread.join();
+        }
+        File traceFile = Tracer.stop();
+        assertNotNull(traceFile);
+        assertFalse(Tracer.isEnabled());
+        assertTrue(traceFile.getName().startsWith("batch_op_1_"));
+        assertEquals(Tracer.getTracesDir(AppManager.getContext()), traceFile.getParentFile());
+
+        JSONObject trace = new JSONObject(FileUtils.getFileContent(traceFile));
+        assertEquals(3, trace.getJSONObject("otherData").getInt("spanCount"));
+        JSONArray events = trace.getJSONArray("traceEvents");
+        JSONObject backup = findEvent(events, "X", "backup");
+        JSONObject tar = findEvent(events, "X", "create");
+        JSONObject checksum = findEvent(events, "X", "checksum");
+        assertNotNull(backup);
+        assertNotNull(tar);
+        assertNotNull(checksum);
+        assertEquals("batchops", backup.getString("cat"));
+        assertEquals("com.example.app", backup.getJSONObject("args").getString("package"));
+        assertEquals(0, backup.getJSONObject("args").getInt("user"));
+        assertEquals(1024, tar.getJSONObject("args").getLong("bytes"));
+        assertFalse(tar.getJSONObject("args").has("package"));
+        // The nested span is inside its parent on the same thread
+        assertEquals(backup.getLong("tid"), tar.getLong("tid"));
+        assertTrue(tar.getDouble("ts") >= backup.getDouble("ts"));
+        assertTrue(tar.getDouble("ts") + tar.getDouble("dur") <= backup.getDouble("ts") + backup.getDouble("dur"));
+        // The span of the other thread is on its own track, which is named after the thread
+        assertFalse(backup.getLong("tid") == checksum.getLong("tid"));
+        boolean hasThreadName = false;
+        for (int i = 0; i < events.length(); ++i) {
+            JSONObject event = events.getJSONObject(i);
+            if ("M".equals(event.getString("ph")) && event.getLong("tid") == checksum.getLong("tid")) {
+                assertEquals("Worker", event.getJSONObject("args").getString("name"));
+                hasThreadName = true;
+            }
+        }
+        assertTrue(hasThreadName);
+        //noinspection ResultOfMethodCallIgnored
+        traceFile.delete();
+    }
+
+    @Test
+    public void testOnlyTheOperationIsRecorded() throws Exception {
+        assertTrue(Tracer.start("batch_op_1"));
+        // Unrelated work running at the same time
+        boolean[] recording = new boolean[1];
+        Thread thread = new Thread(() -> {
+            try (Tracer.Span span = Tracer.begin("rules", "applyRules", "com.example.other")) {
+                recording[0] = span.isRecording();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertFalse(recording[0]);
+        // The tasks submitted by the operation
+        TaskScope executor = WorkerPools.newScope(WorkerPools.LANE_IO, 2);
+        Future<Boolean> result = executor.submit(() -> {
+            try (Tracer.Span span = Tracer.begin("backup", "checksum", "com.example.app")) {
+                return span.isRecording();
+            }
+        });
+        assertTrue(result.get());
+        executor.awaitCompletion();
+        File traceFile = Tracer.stop();
+        assertNotNull(traceFile);
+
+        JSONObject trace = new JSONObject(FileUtils.getFileContent(traceFile));
+        assertEquals(1, trace.getJSONObject("otherData").getInt("spanCount"));
+        JSONArray events = trace.getJSONArray("traceEvents");
+        assertNotNull(findEvent(events, "X", "checksum"));
+        assertNull(findEvent(events, "X", "applyRules"));
+        //noinspection ResultOfMethodCallIgnored
+        traceFile.delete();
+    }
+
+    @Nullable
+    private static JSONObject findEvent(@NonNull JSONArray events, @NonNull String phase, @NonNull String name)
+            throws JSONException {
+        for (int i = 0; i < events.length(); ++i) {
+            JSONObject event = events.getJSONObject(i);
+            if (phase.equals(event.getString("ph")) && name.equals(event.getString("name"))) {
+                return event;
+            }
+        }
+        return null;
+    }
+}
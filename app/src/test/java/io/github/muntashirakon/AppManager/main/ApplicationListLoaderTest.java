@@ -0,0 +1,356 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.main;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.UserHandleHidden;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.db.entity.App;
+import io.github.muntashirakon.AppManager.db.entity.Backup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ApplicationListLoaderTest {
+    /**
+     * Lists the packages as the system does, with the given delays
+     */
+    private static class FakeBackend implements ApplicationListLoader.Backend {
+        final List<App> cachedApps = new ArrayList<>();
+        final Map<String, Backup> cachedBackups = new HashMap<>();
+        final Map<String, Backup> backups = new HashMap<>();
+        // User ID => installed packages
+        final Map<Integer, List<PackageInfo>> packages = new HashMap<>();
+        final AtomicInteger basicListCount = new AtomicInteger();
+        final AtomicInteger fullListCount = new AtomicInteger();
+        final AtomicInteger appCount = new AtomicInteger();
+        @Nullable
+        CountDownLatch listLatch;
+        volatile boolean listedInParallel = true;
+        long basicListDelayMillis;
+        long fullListDelayMillis;
+        long appDelayMillis;
+        boolean cachedAppsRead;
+        @Nullable
+        List<App> storedApps;
+
+        @NonNull
+        @Override
+        public List<App> getCachedApps() {
+            cachedAppsRead = true;
+            return cachedApps;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Backup> getCachedBackups() {
+            return new HashMap<>(cachedBackups);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Backup> loadBackups() {
+            return new HashMap<>(backups);
+        }
+
+        @NonNull
+        @Override
+        public int[] getUserIds() {
+            return new int[]{0, 10};
+        }
+
+        @NonNull
+        @Override
+        public List<PackageInfo> getInstalledPackages(int flags, int userId) {
+            boolean full = (flags & PackageManager.GET_ACTIVITIES) != 0;
+            if (full) {
+                fullListCount.incrementAndGet();
+                sleep(fullListDelayMillis);
+            } else {
+                basicListCount.incrementAndGet();
+                sleep(basicListDelayMillis);
+            }
+            if (listLatch != null) {
+                listLatch.countDown();
+                try {
+                    // Returns only when the other user is being listed as well
+                    if (!listLatch.await(5, TimeUnit.SECONDS)) {
+                        listedInParallel = false;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<PackageInfo> packageInfoList = packages.get(userId);
+            return packageInfoList != null ? packageInfoList : Collections.emptyList();
+        }
+
+        @NonNull
+        @Override
+        public App getApp(@NonNull PackageInfo packageInfo) {
+            appCount.incrementAndGet();
+            // Loading the label and the trackers
+            sleep(appDelayMillis);
+            App app = App.fromPackageInfoWithoutExtras(packageInfo);
+            app.packageLabel = getLabel(packageInfo.packageName);
+            app.trackerCount = 2;
+            return app;
+        }
+
+        @Override
+        public int getRulesCount(@NonNull String packageName, int userId) {
+            return 1;
+        }
+
+        @Override
+        public void storeApps(@NonNull List<App> apps) {
+            storedApps = apps;
+        }
+
+        private static void sleep(long millis) {
+            if (millis == 0) return;
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Collects the published lists
+     */
+    private static class Listener implements ApplicationListLoader.Listener {
+        final List<Integer> stages = Collections.synchronizedList(new ArrayList<>());
+        final List<List<ApplicationItem>> lists = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> times = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onLoaded(@NonNull List<ApplicationItem> applicationItems, int stage) {
+            stages.add(stage);
+            lists.add(applicationItems);
+            times.add(System.nanoTime());
+        }
+
+        @NonNull
+        List<ApplicationItem> getList(@ApplicationListLoader.Stage int stage) {
+            int index = stage == ApplicationListLoader.STAGE_COMPLETE ? stages.size() - 1 : stages.indexOf(stage);
+            return lists.get(index);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final FakeBackend backend = new FakeBackend();
+    private File apkFile;
+
+    @Before
+    public void setUp() throws IOException {
+        apkFile = tmpFolder.newFile("base.apk");
+    }
+
+    @Test
+    public void testStages() {
+        backend.cachedApps.add(newApp("com.example.unchanged", 0, "Cached label", 1));
+        backend.cachedApps.add(newApp("com.example.unchanged", 10, "Cached label", 1));
+        backend.cachedApps.add(newApp("com.example.updated", 0, "Old label", 1));
+        backend.cachedApps.add(newApp("com.example.removed", 0, "Removed", 1));
+        backend.cachedBackups.put("com.example.backup", newBackup("com.example.backup"));
+        backend.backups.putAll(backend.cachedBackups);
+        backend.backups.put("com.example.new", newBackup("com.example.new"));
+        addPackage("com.example.unchanged", 0, 1);
+        addPackage("com.example.unchanged", 10, 1);
+        addPackage("com.example.updated", 0, 2);
+        addPackage("com.example.new", 0, 1);
+        Listener listener = new Listener();
+        new ApplicationListLoader(backend, true, 2).load(listener);
+
+        assertEquals(ApplicationListLoader.STAGE_CACHED, (int) listener.stages.get(0));
+        assertEquals(ApplicationListLoader.STAGE_INSTALLED, (int) listener.stages.get(1));
+        for (int i = 2; i < listener.stages.size() - 1; ++i) {
+            assertEquals(ApplicationListLoader.STAGE_ENRICHING, (int) listener.stages.get(i));
+        }
+        assertEquals(ApplicationListLoader.STAGE_COMPLETE, (int) listener.stages.get(listener.stages.size() - 1));
+        // The database as is
+        List<ApplicationItem> items = listener.getList(ApplicationListLoader.STAGE_CACHED);
+        assertEquals(4, items.size());
+        assertEquals("Old label", getItem(items, "com.example.updated").label);
+        assertNotNull(getItem(items, "com.example.removed"));
+        // The installed packages, with the stored labels of the packages that haven't been updated
+        items = listener.getList(ApplicationListLoader.STAGE_INSTALLED);
+        assertEquals(4, items.size());
+        assertNull(getItem(items, "com.example.removed"));
+        ApplicationItem item = getItem(items, "com.example.unchanged");
+        assertEquals("Cached label", item.label);
+        assertArrayEquals(new int[]{0, 10}, item.userHandles);
+        assertEquals("com.example.updated", getItem(items, "com.example.updated").label);
+        assertEquals("com.example.new", getItem(items, "com.example.new").label);
+        assertFalse(getItem(items, "com.example.backup").isInstalled);
+        // Everything is loaded
+        items = listener.getList(ApplicationListLoader.STAGE_COMPLETE);
+        assertEquals(4, items.size());
+        for (String packageName : new String[]{"com.example.unchanged", "com.example.updated", "com.example.new"}) {
+            item = getItem(items, packageName);
+            assertEquals(getLabel(packageName), item.label);
+            assertEquals(2, (int) item.trackerCount);
+            assertEquals(1, (int) item.blockedCount);
+        }
+        assertNotNull(getItem(items, "com.example.new").backup);
+        assertNotNull(backend.storedApps);
+        assertEquals(5, backend.storedApps.size());
+        assertEquals(2, backend.basicListCount.get());
+        assertEquals(2, backend.fullListCount.get());
+        assertEquals(4, backend.appCount.get());
+    }
+
+    @Test
+    public void testStoreOnly() {
+        addPackage("com.example.app", 0, 1);
+        new ApplicationListLoader(backend, false, 2).load(null);
+        // Nothing is published, the earlier stages are skipped
+        assertFalse(backend.cachedAppsRead);
+        assertEquals(0, backend.basicListCount.get());
+        assertNotNull(backend.storedApps);
+        assertEquals(1, backend.storedApps.size());
+        assertEquals(getLabel("com.example.app"), backend.storedApps.get(0).packageLabel);
+    }
+
+    @Test
+    public void testUsersListedInParallel() {
+        addPackage("com.example.app", 0, 1);
+        addPackage("com.example.app", 10, 1);
+        backend.listLatch = new CountDownLatch(2);
+        new ApplicationListLoader(backend, false, 1).load(null);
+        assertTrue(backend.listedInParallel);
+        assertNotNull(backend.storedApps);
+        assertEquals(2, backend.storedApps.size());
+    }
+
+    @Test
+    public void testFirstPaint() {
+        int packageCount = 200;
+        for (int i = 0; i < packageCount; ++i) {
+            addPackage("com.example.app" + i, 0, 1);
+            addPackage("com.example.app" + i, 10, 1);
+        }
+        backend.basicListDelayMillis = 20;
+        backend.fullListDelayMillis = 150;
+        backend.appDelayMillis = 2;
+        // A fresh install, nothing is stored in the database
+        Listener listener = new Listener();
+        long start = System.nanoTime();
+        new ApplicationListLoader(backend, false, 4).load(listener);
+        long firstPaintMillis = TimeUnit.NANOSECONDS.toMillis(listener.times.get(0) - start);
+        long completeMillis = TimeUnit.NANOSECONDS.toMillis(listener.times.get(listener.times.size() - 1) - start);
+        assertEquals(ApplicationListLoader.STAGE_INSTALLED, (int) listener.stages.get(0));
+        assertEquals(packageCount, listener.getList(ApplicationListLoader.STAGE_INSTALLED).size());
+        assertTrue(firstPaintMillis < completeMillis);
+    }
+
+    @Test
+    public void testInterruptedLoadIsNotStored() {
+        addPackage("com.example.app", 0, 1);
+        List<Integer> stages = new ArrayList<>();
+        try {
+            new ApplicationListLoader(backend, false, 2).load((applicationItems, stage) -> {
+                stages.add(stage);
+                if (stage == ApplicationListLoader.STAGE_INSTALLED) {
+                    // A newer list was requested
+                    Thread.currentThread().interrupt();
+                }
+            });
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+        }
+        assertEquals(Collections.singletonList(ApplicationListLoader.STAGE_INSTALLED), stages);
+        assertNull(backend.storedApps);
+    }
+
+    private void addPackage(@NonNull String packageName, int userId, long lastUpdateTime) {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.lastUpdateTime = lastUpdateTime;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.packageName = packageName;
+        packageInfo.applicationInfo.uid = UserHandleHidden.getUid(userId, 10_000);
+        packageInfo.applicationInfo.flags = ApplicationInfo.FLAG_INSTALLED;
+        packageInfo.applicationInfo.publicSourceDir = apkFile.getAbsolutePath();
+        packageInfo.applicationInfo.enabled = true;
+        List<PackageInfo> packageInfoList = backend.packages.get(userId);
+        if (packageInfoList == null) {
+            packageInfoList = new ArrayList<>();
+            backend.packages.put(userId, packageInfoList);
+        }
+        packageInfoList.add(packageInfo);
+    }
+
+    @NonNull
+    private static App newApp(@NonNull String packageName, int userId, @NonNull String label, long lastUpdateTime) {
+        App app = new App();
+        app.packageName = packageName;
+        app.userId = userId;
+        app.uid = UserHandleHidden.getUid(userId, 10_000);
+        app.packageLabel = label;
+        app.lastUpdateTime = lastUpdateTime;
+        app.isInstalled = true;
+        app.isEnabled = true;
+        app.flags = ApplicationInfo.FLAG_INSTALLED;
+        app.certName = "";
+        app.certAlgo = "";
+        return app;
+    }
+
+    @NonNull
+    private static Backup newBackup(@NonNull String packageName) {
+        Backup backup = new Backup();
+        backup.packageName = packageName;
+        backup.label = "Backup of " + packageName;
+        backup.backupName = "0";
+        return backup;
+    }
+
+    @Nullable
+    private static ApplicationItem getItem(@NonNull List<ApplicationItem> items, @NonNull String packageName) {
+        for (ApplicationItem item : items) {
+            if (item.packageName.equals(packageName)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String getLabel(@NonNull String packageName) {
+        return "Label of " + packageName;
+    }
+}
@@ -0,0 +1,31 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.misc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SystemPropertiesTest {
+    @Test
+    public void parseProperties() {
+        Map<String, String> properties = SystemProperties.parseProperties(Arrays.asList(
+                "[ro.build.version.sdk]: [30]",
+                "[ro.crypto.state]: [encrypted]",
+                "[ro.empty]: []",
+                "[ro.multiline]: [first line",
+                "second line]",
+                "[ro.miui.ui.version.name]: [V12]"));
+        assertEquals(5, properties.size());
+        assertEquals("30", properties.get("ro.build.version.sdk"));
+        assertEquals("encrypted", properties.get("ro.crypto.state"));
+        assertEquals("", properties.get("ro.empty"));
+        assertEquals("first line\nsecond line", properties.get("ro.multiline"));
+        assertEquals("V12", properties.get("ro.miui.ui.version.name"));
+        assertNull(properties.get("ro.missing"));
+    }
+}
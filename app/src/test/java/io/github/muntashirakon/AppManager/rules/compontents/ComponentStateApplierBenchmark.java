@@ -0,0 +1,93 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.content.pm.PackageManager;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.io.AtomicProxyFile;
+import io.github.muntashirakon.io.ProxyFile;
+
+import static io.github.muntashirakon.AppManager.rules.compontents.ComponentStateApplierTest.PACKAGE_COUNT;
+
+@RunWith(RobolectricTestRunner.class)
+public class ComponentStateApplierBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(ComponentStateApplierBenchmark.class);
+
+    private static File sIfwDir;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        sIfwDir = File.createTempFile("ifw", "");
+        //noinspection ResultOfMethodCallIgnored
+        sIfwDir.delete();
+        //noinspection ResultOfMethodCallIgnored
+        sIfwDir.mkdirs();
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        FileUtils.deleteDir(sIfwDir);
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void setComponentStates() throws Exception {
+        sRunner.run("setComponentStates", 0, () -> {
+            ComponentStateApplierTest.FakePackageManager pm = new ComponentStateApplierTest.FakePackageManager(true);
+            ComponentStateApplier applier = new ComponentStateApplier(pm, false);
+            for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                applier.setComponentStates(ComponentStateApplierTest.getPackageName(i),
+                        ComponentStateApplierTest.getStates(i, PackageManager.COMPONENT_ENABLED_STATE_DISABLED), 0);
+            }
+            return pm;
+        });
+    }
+
+    @Test
+    public void setUnchangedComponentStates() throws Exception {
+        ComponentStateApplierTest.FakePackageManager pm = new ComponentStateApplierTest.FakePackageManager(true);
+        ComponentStateApplier applier = new ComponentStateApplier(pm, false);
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            applier.setComponentStates(ComponentStateApplierTest.getPackageName(i),
+                    ComponentStateApplierTest.getStates(i, PackageManager.COMPONENT_ENABLED_STATE_DISABLED), 0);
+        }
+        sRunner.run("setUnchangedComponentStates", 0, () -> {
+            for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                applier.setComponentStates(ComponentStateApplierTest.getPackageName(i),
+                        ComponentStateApplierTest.getStates(i, PackageManager.COMPONENT_ENABLED_STATE_DISABLED), 0);
+            }
+            return pm;
+        });
+    }
+
+    @Test
+    public void saveIfwRules() throws Exception {
+        ComponentStateApplierTest.FakePackageManager pm = new ComponentStateApplierTest.FakePackageManager(false);
+        int[] round = new int[1];
+        sRunner.run("saveIfwRules", 0, () -> {
+            // Alternate the rules so that every file is written
+            boolean empty = (round[0]++ & 1) == 1;
+            try (ComponentStateApplier applier = new ComponentStateApplier(pm, true)) {
+                for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                    AtomicProxyFile rulesFile = new AtomicProxyFile(new ProxyFile(sIfwDir,
+                            ComponentStateApplierTest.getPackageName(i) + ".xml"));
+                    applier.saveIfwRules(rulesFile, empty ? "<rules>\n</rules>"
+                            : ComponentStateApplierTest.getRules(i));
+                }
+                applier.close();
+                return applier.getIfwWriteCount();
+            }
+        });
+    }
+}
@@ -0,0 +1,234 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.content.ComponentName;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.io.AtomicProxyFile;
+import io.github.muntashirakon.io.ProxyFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ComponentStateApplierTest {
+    static final int PACKAGE_COUNT = 300;
+    static final int COMPONENT_COUNT = 10;
+
+    /**
+     * Counts the IPCs and the package settings writes, and reports the state of the components as is
+     */
+    static class FakePackageManager implements ComponentStateApplier.Backend {
+        final HashMap<ComponentName, Integer> states = new HashMap<>();
+        final boolean canSetMultiple;
+        int ipcCount;
+        int settingsWriteCount;
+        int chmodCount;
+
+        FakePackageManager(boolean canSetMultiple) {
+            this.canSetMultiple = canSetMultiple;
+        }
+
+        @Override
+        public int getComponentEnabledSetting(@NonNull ComponentName componentName, int userId) {
+            ++ipcCount;
+            Integer state = states.get(componentName);
+            return state != null ? state : PackageManager.COMPONENT_ENABLED_STATE_DEFAULT;
+        }
+
+        @Override
+        public void setComponentEnabledSetting(@NonNull ComponentName componentName, int newState, int userId)
+                throws RemoteException {
+            ++ipcCount;
+            if (componentName.getClassName().endsWith("Broken")) throw new RemoteException();
+            states.put(componentName, newState);
+            ++settingsWriteCount;
+        }
+
+        @Override
+        public boolean canSetComponentEnabledSettings() {
+            return canSetMultiple;
+        }
+
+        @Override
+        public void setComponentEnabledSettings(@NonNull List<ComponentName> componentNames,
+                                                @NonNull int[] newStates, int userId) {
+            ++ipcCount;
+            for (int i = 0; i < newStates.length; ++i) {
+                states.put(componentNames.get(i), newStates[i]);
+            }
+            ++settingsWriteCount;
+        }
+
+        @Override
+        public void chmod(@NonNull File file, int mode) {
+            assertEquals(0666, mode);
+            ++chmodCount;
+        }
+    }
+
+    private File ifwDir;
+
+    @Before
+    public void setUp() throws IOException {
+        ifwDir = File.createTempFile("ifw", "");
+        //noinspection ResultOfMethodCallIgnored
+        ifwDir.delete();
+        //noinspection ResultOfMethodCallIgnored
+        ifwDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDir(ifwDir);
+    }
+
+    @Test
+    public void testOnlyChangedComponentsAreWritten() {
+        FakePackageManager pm = new FakePackageManager(false);
+        // Half of the components are already disabled
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            for (int j = 0; j < COMPONENT_COUNT / 2; ++j) {
+                pm.states.put(new ComponentName(getPackageName(i), getComponentName(i, j)),
+                        PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+            }
+        }
+        ComponentStateApplier applier = new ComponentStateApplier(pm, false);
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            assertTrue(applier.setComponentStates(getPackageName(i), getStates(i,
+                    PackageManager.COMPONENT_ENABLED_STATE_DISABLED), 0).isEmpty());
+        }
+        int naiveCount = PACKAGE_COUNT * COMPONENT_COUNT;
+        assertEquals(naiveCount / 2, pm.settingsWriteCount);
+        // Nothing to do
+        pm.settingsWriteCount = pm.ipcCount = 0;
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            applier.setComponentStates(getPackageName(i), getStates(i,
+                    PackageManager.COMPONENT_ENABLED_STATE_DISABLED), 0);
+        }
+        assertEquals(0, pm.settingsWriteCount);
+        // Only the reads
+        assertEquals(naiveCount, pm.ipcCount);
+    }
+
+    @Test
+    public void testMultipleComponentsAreWrittenAtOnce() {
+        FakePackageManager pm = new FakePackageManager(true);
+        ComponentStateApplier applier = new ComponentStateApplier(pm, false);
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            applier.setComponentStates(getPackageName(i), getStates(i,
+                    PackageManager.COMPONENT_ENABLED_STATE_DISABLED), 0);
+        }
+        // One read per component and one write per package
+        assertEquals(PACKAGE_COUNT, pm.settingsWriteCount);
+        assertEquals(PACKAGE_COUNT * (COMPONENT_COUNT + 1), pm.ipcCount);
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                (int) pm.states.get(new ComponentName(getPackageName(7), getComponentName(7, 3))));
+        // Re-enable a single component
+        pm.settingsWriteCount = pm.ipcCount = 0;
+        Map<String, Integer> states = getStates(7, PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+        states.put(getComponentName(7, 3), PackageManager.COMPONENT_ENABLED_STATE_DEFAULT);
+        applier.setComponentStates(getPackageName(7), states, 0);
+        assertEquals(1, pm.settingsWriteCount);
+        assertEquals(PackageManager.COMPONENT_ENABLED_STATE_DEFAULT,
+                (int) pm.states.get(new ComponentName(getPackageName(7), getComponentName(7, 3))));
+    }
+
+    @Test
+    public void testFailedComponents() {
+        FakePackageManager pm = new FakePackageManager(false);
+        ComponentStateApplier applier = new ComponentStateApplier(pm, false);
+        Map<String, Integer> states = getStates(0, PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+        states.put("com.example.app0.Broken", PackageManager.COMPONENT_ENABLED_STATE_DISABLED);
+        Set<String> failedComponents = applier.setComponentStates(getPackageName(0), states, 0);
+        assertEquals(1, failedComponents.size());
+        assertTrue(failedComponents.contains("com.example.app0.Broken"));
+        assertEquals(COMPONENT_COUNT, pm.settingsWriteCount);
+    }
+
+    @Test
+    public void testIfwRulesAreCoalesced() {
+        FakePackageManager pm = new FakePackageManager(false);
+        try (ComponentStateApplier applier = new ComponentStateApplier(pm, true)) {
+            for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                AtomicProxyFile rulesFile = getRulesFile(i);
+                applier.saveIfwRules(rulesFile, "<rules>\n</rules>");
+                // The latest rules of a package win
+                applier.saveIfwRules(rulesFile, getRules(i));
+            }
+            // Nothing is written until the batch is closed
+            assertEquals(0, applier.getIfwWriteCount());
+            assertFalse(getRulesFile(0).exists());
+            applier.close();
+            assertEquals(PACKAGE_COUNT, applier.getIfwWriteCount());
+        }
+        assertEquals(PACKAGE_COUNT, pm.chmodCount);
+        assertEquals(getRules(5), FileUtils.getFileContent(getRulesFile(5).getBaseFile()));
+        // Unchanged rules are not written again
+        pm.chmodCount = 0;
+        try (ComponentStateApplier applier = new ComponentStateApplier(pm, true)) {
+            for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                applier.saveIfwRules(getRulesFile(i), i == 5 ? null : getRules(i));
+            }
+            applier.close();
+            // Only the deleted rules
+            assertEquals(1, applier.getIfwWriteCount());
+        }
+        assertEquals(0, pm.chmodCount);
+        assertFalse(getRulesFile(5).exists());
+    }
+
+    @NonNull
+    private AtomicProxyFile getRulesFile(int i) {
+        return new AtomicProxyFile(new ProxyFile(ifwDir, getPackageName(i) + ".xml"));
+    }
+
+    @NonNull
+    static Map<String, Integer> getStates(int i, int state) {
+        Map<String, Integer> states = new LinkedHashMap<>();
+        for (int j = 0; j < COMPONENT_COUNT; ++j) {
+            states.put(getComponentName(i, j), state);
+        }
+        return states;
+    }
+
+    @NonNull
+    static String getRules(int i) {
+        StringBuilder rules = new StringBuilder("<rules>\n<service block=\"true\" log=\"false\">\n");
+        for (int j = 0; j < COMPONENT_COUNT; ++j) {
+            rules.append("  <component-filter name=\"").append(getPackageName(i)).append("/")
+                    .append(getComponentName(i, j)).append("\"/>\n");
+        }
+        return rules.append("</service>\n</rules>").toString();
+    }
+
+    @NonNull
+    static String getPackageName(int i) {
+        return "com.example.app" + i;
+    }
+
+    @NonNull
+    private static String getComponentName(int i, int j) {
+        return getPackageName(i) + ".Tracker" + j;
+    }
+}
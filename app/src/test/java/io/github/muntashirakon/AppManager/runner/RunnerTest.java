@@ -0,0 +1,96 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.runner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RunnerTest {
+    @Test
+    public void runCommandsSplitsOutputsAndExitCodes() {
+        LocalShellRunner runner = new LocalShellRunner();
+        List<Runner.Result> results = Runner.runCommands(runner, Arrays.asList(
+                new String[]{"echo", "first"},
+                new String[]{"sh", "-c", "echo error >&2; exit 3"},
+                new String[]{"printf", "no newline"},
+                new String[]{"echo", "$HOME; `id`"}));
+        // All commands were sent in a single job
+        assertEquals(1, runner.jobCount);
+        assertEquals(4, results.size());
+        assertEquals(Collections.singletonList("first"), results.get(0).getOutputAsList());
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals(Collections.emptyList(), results.get(1).getOutputAsList());
+        assertEquals(Collections.singletonList("error"), results.get(1).getStderr());
+        assertEquals(3, results.get(1).getExitCode());
+        assertEquals(Collections.singletonList("no newline"), results.get(2).getOutputAsList());
+        assertEquals(Collections.singletonList("$HOME; `id`"), results.get(3).getOutputAsList());
+    }
+
+    @Test
+    public void runCommandsMarksUnfinishedCommandsAsFailed() {
+        List<Runner.Result> results = Runner.runCommands(new LocalShellRunner(), Arrays.asList(
+                new String[]{"true"},
+                new String[]{"exit", "0"},
+                new String[]{"echo", "never"}));
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals(1, results.get(1).getExitCode());
+        assertEquals(1, results.get(2).getExitCode());
+    }
+
+    /**
+     * Runs commands using the local {@code sh}.
+     */
+    private static class LocalShellRunner extends Runner {
+        int jobCount = 0;
+
+        @NonNull
+        @Override
+        public Result runCommand() {
+            throw new UnsupportedOperationException();
+        }
+
+        @NonNull
+        @Override
+        protected Result runSingle(@NonNull String command, @Nullable InputStream inputStream) {
+            ++jobCount;
+            try {
+                Process process = new ProcessBuilder("sh", "-c", command).start();
+                List<String> stdout = readLines(process.getInputStream());
+                List<String> stderr = readLines(process.getErrorStream());
+                return new Result(stdout, stderr, process.waitFor());
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @NonNull
+        private static List<String> readLines(@NonNull InputStream is) throws IOException {
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class CodeTokenizerBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(CodeTokenizerBenchmark.class);
+    private static final String SMALI = CodeTokenizerTest.generateSmali(5000);
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void regularExpressions() throws Exception {
+        sRunner.run("regularExpressions", SMALI.length(), () -> CodeTokenizerTest.tokenizeWithRegex(SMALI));
+    }
+
+    @Test
+    public void tokenizeAll() throws Exception {
+        sRunner.run("tokenizeAll", SMALI.length(), () -> {
+            CodeTokenizer tokenizer = new CodeTokenizer(SMALI, CodeTokenizer.LANGUAGE_SMALI);
+            tokenizer.tokenizeAll();
+            return tokenizer;
+        });
+    }
+
+    @Test
+    public void tokenizeFirstScreen() throws Exception {
+        sRunner.run("tokenizeFirstScreen", 0, () -> {
+            CodeTokenizer tokenizer = new CodeTokenizer(SMALI, CodeTokenizer.LANGUAGE_SMALI);
+            return tokenizer.tokenize(16 * 1024);
+        });
+    }
+}
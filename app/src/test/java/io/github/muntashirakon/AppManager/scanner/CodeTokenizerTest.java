@@ -0,0 +1,235 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.github.muntashirakon.AppManager.scanner.CodeTokenizer.TOKEN_COMMENT;
+import static io.github.muntashirakon.AppManager.scanner.CodeTokenizer.TOKEN_KEYWORD;
+import static io.github.muntashirakon.AppManager.scanner.CodeTokenizer.TOKEN_LABEL;
+import static io.github.muntashirakon.AppManager.scanner.CodeTokenizer.TOKEN_TYPE;
+import static io.github.muntashirakon.AppManager.scanner.CodeTokenizer.TOKEN_VALUE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CodeTokenizerTest {
+    private static final String SMALI_METHOD = ".method public static a(ILjava/lang/String;)[B\n" +
+            "    .locals 2\n" +
+            "    # comment with \"quotes\" and Lfoo/Bar;\n" +
+            "    const/4 v0, 0x1\n" +
+            "    const-string v1, \"a # \\\"b\\\"\"\n" +
+            "    if-eqz p0, :cond_0\n" +
+            "    invoke-virtual {p1}, Ljava/lang/String;->length()I\n" +
+            "    iget-object v0, p0, Lcom/example/Foo;->bar:Ljava/util/List;\n" +
+            "    :cond_0\n" +
+            "    new-array v0, v0, [B\n" +
+            "    return-object v0\n" +
+            ".end method\n";
+
+    private static final String JAVA_CLASS = "package com.example;\n" +
+            "/* block\n" +
+            " * comment */ public class Foo {\n" +
+            "    // line comment\n" +
+            "    private static final long VALUE = 0x1fL;\n" +
+            "    String s = \"a // b\";\n" +
+            "    boolean test(char c) { return c == '\\'' && true; }\n" +
+            "}\n";
+
+    // The regular expressions previously used by the class viewer, kept for the benchmark
+    private static final Pattern SMALI_KEYWORDS = Pattern.compile(
+            "\\b(invoke-(virtual(/range|)|direct|static|interface|super|polymorphic|custom)|" +
+                    "move(-(result(-wide|-object|)|exception)|(-wide|-object|)(/16|/from16|))|" +
+                    "new-(array|instance)|const(-(string(/jumbo|)|" +
+                    "class|wide(/16|/32|/high16|))|/4|/16|/high16|ructor|)|private|public|protected|final|static|" +
+                    "(add|sub|cmp|mul|div|rem|and|or|xor|shl|shr|ushr)-(int|float|double|long)(/2addr|/lit16|/lit8|)|" +
+                    "(neg|not)-(int|long|float|double)|(int|long|float|double|byte)(-to|)-(int|long|float|double|byte)|" +
+                    "fill-array-data|filled-new-array(/range|)|([ais](ge|pu)t|return)(-(object|boolean|byte|char|short|wide|void)|)|" +
+                    "check-cast|throw|array-length|goto|if-((ge|le|ne|eq|lt|gt)z?)|monitor-(enter|exit)|synthetic|system)\\b", Pattern.MULTILINE);
+    private static final Pattern SMALI_CLASS = Pattern.compile("\\[*(L\\w+/[^;]+;|[ZBCSIJFDV])", Pattern.MULTILINE);
+    private static final Pattern SMALI_COMMENT = Pattern.compile("#.*$", Pattern.MULTILINE);
+    private static final Pattern SMALI_VALUE = Pattern.compile("((\"(?:\\\\\\\\[^\"]|\\\\\\\\\"|.)*?\")" +
+            "|\\b-?(0x[0-9a-f]+|[0-9]+)\\b)", Pattern.MULTILINE);
+    private static final Pattern SMALI_LABELS = Pattern.compile("\\b([pv][0-9]+|:(?!L)[\\w]+|->)\\b",
+            Pattern.MULTILINE);
+
+    @Test
+    public void tokenizeSmali() {
+        List<String> tokens = tokenize(SMALI_METHOD, CodeTokenizer.LANGUAGE_SMALI);
+        assertContains(tokens, TOKEN_KEYWORD, ".method");
+        assertContains(tokens, TOKEN_KEYWORD, "public");
+        assertContains(tokens, TOKEN_TYPE, "I");
+        assertContains(tokens, TOKEN_TYPE, "Ljava/lang/String;");
+        assertContains(tokens, TOKEN_TYPE, "[B");
+        assertContains(tokens, TOKEN_COMMENT, "# comment with \"quotes\" and Lfoo/Bar;");
+        assertContains(tokens, TOKEN_KEYWORD, "const/4");
+        assertContains(tokens, TOKEN_LABEL, "v0");
+        assertContains(tokens, TOKEN_VALUE, "0x1");
+        assertContains(tokens, TOKEN_VALUE, "\"a # \\\"b\\\"\"");
+        assertContains(tokens, TOKEN_KEYWORD, "if-eqz");
+        assertContains(tokens, TOKEN_LABEL, "p0");
+        assertContains(tokens, TOKEN_LABEL, ":cond_0");
+        assertContains(tokens, TOKEN_KEYWORD, "invoke-virtual");
+        assertContains(tokens, TOKEN_LABEL, "->");
+        assertContains(tokens, TOKEN_KEYWORD, "iget-object");
+        assertContains(tokens, TOKEN_TYPE, "Ljava/util/List;");
+        assertContains(tokens, TOKEN_KEYWORD, "new-array");
+        assertContains(tokens, TOKEN_KEYWORD, "return-object");
+        assertContains(tokens, TOKEN_KEYWORD, ".end");
+        // Method names are not highlighted
+        for (String token : tokens) {
+            assertTrue(token, !token.endsWith(":length") && !token.endsWith(":bar") && !token.endsWith(":a"));
+        }
+    }
+
+    @Test
+    public void tokenizeJava() {
+        List<String> tokens = tokenize(JAVA_CLASS, CodeTokenizer.LANGUAGE_JAVA);
+        assertContains(tokens, TOKEN_KEYWORD, "package");
+        assertContains(tokens, TOKEN_COMMENT, "/* block");
+        assertContains(tokens, TOKEN_COMMENT, " * comment */");
+        assertContains(tokens, TOKEN_KEYWORD, "public");
+        assertContains(tokens, TOKEN_TYPE, "Foo");
+        assertContains(tokens, TOKEN_COMMENT, "// line comment");
+        assertContains(tokens, TOKEN_TYPE, "long");
+        assertContains(tokens, TOKEN_TYPE, "VALUE");
+        assertContains(tokens, TOKEN_VALUE, "0x1fL");
+        assertContains(tokens, TOKEN_VALUE, "\"a // b\"");
+        assertContains(tokens, TOKEN_VALUE, "'\\''");
+        assertContains(tokens, TOKEN_VALUE, "true");
+        assertContains(tokens, TOKEN_KEYWORD, "return");
+        // Adjacent tokens of the same type are merged
+        assertContains(tokens, TOKEN_TYPE, "(char");
+    }
+
+    @Test
+    public void incrementalTokenizationMatchesSinglePass() {
+        String smali = generateSmali(2000);
+        String java = JAVA_CLASS + JAVA_CLASS + JAVA_CLASS;
+        for (int chunk : new int[]{1, 7, 100, 4096}) {
+            assertIncremental(smali, CodeTokenizer.LANGUAGE_SMALI, chunk);
+            assertIncremental(java, CodeTokenizer.LANGUAGE_JAVA, chunk);
+        }
+    }
+
+    @Test
+    public void tokenizeEndsAtLineBoundaries() {
+        String smali = generateSmali(100);
+        CodeTokenizer tokenizer = new CodeTokenizer(smali, CodeTokenizer.LANGUAGE_SMALI);
+        while (!tokenizer.isFinished()) {
+            int position = tokenizer.tokenize(1000);
+            assertTrue(position == smali.length() || smali.charAt(position - 1) == '\n');
+        }
+        // Nothing left to tokenize
+        int count = tokenizer.getTokenCount();
+        assertEquals(smali.length(), tokenizer.tokenize(1000));
+        assertEquals(count, tokenizer.getTokenCount());
+    }
+
+    @Test
+    public void forEachTokenReturnsOverlappingTokens() {
+        String smali = generateSmali(500);
+        CodeTokenizer tokenizer = new CodeTokenizer(smali, CodeTokenizer.LANGUAGE_SMALI);
+        tokenizer.tokenizeAll();
+        List<int[]> all = new ArrayList<>();
+        tokenizer.forEachToken(0, smali.length(), (start, end, type) -> all.add(new int[]{start, end, type}));
+        assertEquals(tokenizer.getTokenCount(), all.size());
+        for (int i = 1; i < all.size(); ++i) {
+            assertTrue(all.get(i - 1)[1] <= all.get(i)[0]);
+        }
+        for (int rangeStart = 0; rangeStart < smali.length(); rangeStart += 997) {
+            int rangeEnd = Math.min(rangeStart + 4096, smali.length());
+            List<int[]> expected = new ArrayList<>();
+            for (int[] token : all) {
+                if (token[1] > rangeStart && token[0] < rangeEnd) expected.add(token);
+            }
+            List<int[]> actual = new ArrayList<>();
+            tokenizer.forEachToken(rangeStart, rangeEnd, (start, end, type) -> actual.add(new int[]{start, end, type}));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); ++i) {
+                assertEquals(expected.get(i)[0], actual.get(i)[0]);
+                assertEquals(expected.get(i)[1], actual.get(i)[1]);
+                assertEquals(expected.get(i)[2], actual.get(i)[2]);
+            }
+        }
+    }
+
+    @Test
+    public void firstScreenIsAPrefixOfTheWholeText() {
+        String smali = generateSmali(5000);
+        CodeTokenizer firstScreen = new CodeTokenizer(smali, CodeTokenizer.LANGUAGE_SMALI);
+        int position = firstScreen.tokenize(16 * 1024);
+        assertTrue(position >= 16 * 1024 && position < smali.length());
+        assertTrue(!firstScreen.isFinished());
+        CodeTokenizer tokenizer = new CodeTokenizer(smali, CodeTokenizer.LANGUAGE_SMALI);
+        tokenizer.tokenizeAll();
+        // The tokens of the first screen are the same as those of the whole text
+        List<String> expected = new ArrayList<>();
+        tokenizer.forEachToken(0, position, (start, end, type) -> {
+            if (end <= position) expected.add(type + ":" + smali.substring(start, end));
+        });
+        assertEquals(expected, toStrings(firstScreen));
+        assertTrue(tokenizer.getTokenCount() > firstScreen.getTokenCount());
+    }
+
+    static int tokenizeWithRegex(@NonNull String text) {
+        int count = 0;
+        Matcher matcher = SMALI_VALUE.matcher(text);
+        for (Pattern pattern : new Pattern[]{SMALI_VALUE, SMALI_LABELS, SMALI_CLASS, SMALI_KEYWORDS, SMALI_COMMENT}) {
+            matcher.usePattern(pattern);
+            matcher.reset();
+            while (matcher.find()) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static void assertIncremental(@NonNull String text, @CodeTokenizer.Language int language, int chunk) {
+        CodeTokenizer expected = new CodeTokenizer(text, language);
+        expected.tokenizeAll();
+        CodeTokenizer actual = new CodeTokenizer(text, language);
+        while (!actual.isFinished()) {
+            actual.tokenize(chunk);
+        }
+        assertEquals(toStrings(expected), toStrings(actual));
+    }
+
+    private static void assertContains(@NonNull List<String> tokens, int type, @NonNull String token) {
+        assertTrue(type + ":" + token + " in " + tokens, tokens.contains(type + ":" + token));
+    }
+
+    @NonNull
+    private static List<String> tokenize(@NonNull String text, @CodeTokenizer.Language int language) {
+        CodeTokenizer tokenizer = new CodeTokenizer(text, language);
+        tokenizer.tokenizeAll();
+        return toStrings(tokenizer);
+    }
+
+    @NonNull
+    private static List<String> toStrings(@NonNull CodeTokenizer tokenizer) {
+        List<String> tokens = new ArrayList<>();
+        String text = tokenizer.getText();
+        tokenizer.forEachToken(0, text.length(), (start, end, type) -> tokens.add(type + ":" + text.substring(start, end)));
+        return tokens;
+    }
+
+    @NonNull
+    static String generateSmali(int methodCount) {
+        StringBuilder sb = new StringBuilder(".class public final Lcom/example/a/b;\n.super Ljava/lang/Object;\n\n");
+        for (int i = 0; i < methodCount; ++i) {
+            sb.append(SMALI_METHOD.replace("static a(", "static a" + i + "("))
+                    .append("\n.field private static c").append(i).append(":Lcom/example/a/c;\n\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,175 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DexClassIndexTest {
+    private File indexDir;
+
+    @Before
+    public void setUp() throws IOException {
+        indexDir = File.createTempFile("dex_index", "");
+        assertTrue(indexDir.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = indexDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        indexDir.delete();
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        DexClassIndex.Key key = key(100, 7, 8);
+        new DexClassIndex(key, new DexClassIndex.DexEntry[]{
+                new DexClassIndex.DexEntry("classes.dex", new String[]{"com.example.b.Foo", "com.example.a.Bar",
+                        "com.example.a.Bar$1", "a"}, new int[]{0, 1, 2, 3}),
+                new DexClassIndex.DexEntry("classes2.dex", new String[0], new int[0]),
+        }).save(indexDir);
+        DexClassIndex index = DexClassIndex.load(indexDir, key(100, 7, 8));
+        assertNotNull(index);
+        assertEquals(2, index.dexEntries.length);
+        // Class names are stored sorted along with their indices in the dex file
+        DexClassIndex.DexEntry dexEntry = index.dexEntries[0];
+        assertEquals("classes.dex", dexEntry.name);
+        assertArrayEquals(new String[]{"a", "com.example.a.Bar", "com.example.a.Bar$1", "com.example.b.Foo"},
+                dexEntry.classNames);
+        assertArrayEquals(new int[]{3, 1, 2, 0}, dexEntry.classIndices);
+        assertEquals("classes2.dex", index.dexEntries[1].name);
+        assertEquals(0, index.dexEntries[1].classNames.length);
+    }
+
+    @Test
+    public void changedApkInvalidatesIndex() throws IOException {
+        new DexClassIndex(key(100, 7, 8), new DexClassIndex.DexEntry[]{
+                new DexClassIndex.DexEntry("classes.dex", new String[]{"a.B"}, new int[]{0}),
+                new DexClassIndex.DexEntry("classes2.dex", new String[]{"a.C"}, new int[]{0}),
+        }).save(indexDir);
+        assertNull(DexClassIndex.load(indexDir, key(101, 7, 8)));
+        assertNull(DexClassIndex.load(indexDir, key(100, 7, 9)));
+        assertNull(DexClassIndex.load(indexDir, key(100, 7)));
+        assertNotNull(DexClassIndex.load(indexDir, key(100, 7, 8)));
+    }
+
+    @Test
+    public void corruptIndexIsDiscarded() throws IOException {
+        DexClassIndex.Key key = key(100, 7);
+        new DexClassIndex(key, new DexClassIndex.DexEntry[]{
+                new DexClassIndex.DexEntry("classes.dex", new String[]{"a.B"}, new int[]{0}),
+        }).save(indexDir);
+        File indexFile = new File(indexDir, key.getIndexName());
+        assertTrue(indexFile.setLastModified(0));
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        assertNull(DexClassIndex.load(indexDir, key));
+        assertFalse(indexFile.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedIndicesAreRemoved() throws IOException {
+        for (int i = 0; i < 20; ++i) {
+            DexClassIndex.Key key = key(100 + i, 7);
+            new DexClassIndex(key, new DexClassIndex.DexEntry[0]).save(indexDir);
+            assertTrue(new File(indexDir, key.getIndexName()).setLastModified(1000L * i));
+        }
+        File[] indexFiles = indexDir.listFiles();
+        assertNotNull(indexFiles);
+        assertEquals(16, indexFiles.length);
+        assertNull(DexClassIndex.load(indexDir, key(100, 7)));
+        assertNull(DexClassIndex.load(indexDir, key(103, 7)));
+        assertNotNull(DexClassIndex.load(indexDir, key(104, 7)));
+        assertNotNull(DexClassIndex.load(indexDir, key(119, 7)));
+    }
+
+    @Test
+    public void keyDependsOnTheContentsOnly() throws IOException {
+        File apk1 = createZip("classes.dex", "classes2.dex");
+        File apk2 = createZip("classes.dex", "classes2.dex");
+        try {
+            assertTrue(apk2.setLastModified(apk1.lastModified() + 60_000));
+            DexClassIndex.Key key1 = DexClassIndex.Key.forApk(apk1);
+            DexClassIndex.Key key2 = DexClassIndex.Key.forApk(apk2);
+            assertNotNull(key1);
+            assertNotNull(key2);
+            // Same contents at a different path with a different modification time
+            assertEquals(key1.getIndexName(), key2.getIndexName());
+            new DexClassIndex(key1, new DexClassIndex.DexEntry[]{
+                    new DexClassIndex.DexEntry("classes.dex", new String[]{"a.B"}, new int[]{0}),
+            }).save(indexDir);
+            assertNotNull(DexClassIndex.load(indexDir, key2));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            apk1.delete();
+            //noinspection ResultOfMethodCallIgnored
+            apk2.delete();
+        }
+    }
+
+    @Test
+    public void rawDexFileHasNoKey() throws IOException {
+        File dexFile = File.createTempFile("classes", ".dex");
+        try {
+            try (FileOutputStream os = new FileOutputStream(dexFile)) {
+                os.write("dex\n035\0".getBytes(StandardCharsets.US_ASCII));
+                os.write(new byte[0x70]);
+            }
+            assertNull(DexClassIndex.Key.forApk(dexFile));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            dexFile.delete();
+        }
+    }
+
+    private static File createZip(String... entryNames) throws IOException {
+        File file = File.createTempFile("base", ".apk");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (String entryName : entryNames) {
+                ZipEntry entry = new ZipEntry(entryName);
+                entry.setTime(0);
+                zos.putNextEntry(entry);
+                zos.write(entryName.getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static DexClassIndex.Key key(long size, long... crcs) {
+        Map<String, Long> crcMap = new HashMap<>();
+        for (int i = 0; i < crcs.length; ++i) {
+            crcMap.put(i == 0 ? "classes.dex" : "classes" + (i + 1) + ".dex", crcs[i]);
+        }
+        return new DexClassIndex.Key(size, crcMap);
+    }
+}
@@ -0,0 +1,250 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.servermanager;
+
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.muntashirakon.AppManager.types.PackageChangeReceiver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageInfoCacheTest {
+    private static final int PACKAGE_COUNT = 300;
+    private static final int USER_ID = 0;
+    private static final int COMPONENT_FLAGS = PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS
+            | PackageManager.GET_PROVIDERS | PackageManager.GET_SERVICES;
+
+    /**
+     * Returns the installed packages as the system does, and counts the IPCs
+     */
+    private static class FakePackageManager implements PackageInfoCache.Fetcher {
+        final Map<String, Long> packages = new LinkedHashMap<>();
+        final List<Integer> requestedFlags = new ArrayList<>();
+        int ipcCount;
+
+        @NonNull
+        @Override
+        public PackageInfo getPackageInfo(@NonNull String packageName, int flags, int userId)
+                throws PackageManager.NameNotFoundException {
+            ++ipcCount;
+            requestedFlags.add(flags);
+            Long versionCode = packages.get(packageName);
+            if (versionCode == null) throw new PackageManager.NameNotFoundException(packageName);
+            return newPackageInfo(packageName, versionCode, flags);
+        }
+
+        @NonNull
+        @Override
+        public List<PackageInfo> getInstalledPackages(int flags, int userId) {
+            ++ipcCount;
+            requestedFlags.add(flags);
+            List<PackageInfo> packageInfoList = new ArrayList<>(packages.size());
+            for (Map.Entry<String, Long> entry : packages.entrySet()) {
+                packageInfoList.add(newPackageInfo(entry.getKey(), entry.getValue(), flags));
+            }
+            return packageInfoList;
+        }
+
+        @NonNull
+        private static PackageInfo newPackageInfo(@NonNull String packageName, long versionCode, int flags) {
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.packageName = packageName;
+            //noinspection deprecation
+            packageInfo.versionCode = (int) versionCode;
+            packageInfo.applicationInfo = new ApplicationInfo();
+            packageInfo.applicationInfo.packageName = packageName;
+            if ((flags & PackageManager.GET_ACTIVITIES) != 0) {
+                packageInfo.activities = new ActivityInfo[20];
+            }
+            return packageInfo;
+        }
+    }
+
+    private final FakePackageManager pm = new FakePackageManager();
+    private PackageInfoCache cache;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            pm.packages.put(getPackageName(i), 1L);
+        }
+        cache = new PackageInfoCache(pm, 100_000, USER_ID);
+    }
+
+    @Test
+    public void testFlagsAreMerged() throws Exception {
+        PackageInfo info = cache.getPackageInfo(getPackageName(0), PackageManager.GET_META_DATA, USER_ID);
+        // Less data
+        assertSame(info, cache.getPackageInfo(getPackageName(0), 0, USER_ID));
+        assertEquals(1, pm.ipcCount);
+        // More data
+        PackageInfo info1 = cache.getPackageInfo(getPackageName(0), PackageManager.GET_ACTIVITIES, USER_ID);
+        assertNotNull(info1.activities);
+        assertEquals(2, pm.ipcCount);
+        assertEquals(PackageManager.GET_META_DATA | PackageManager.GET_ACTIVITIES, (int) pm.requestedFlags.get(1));
+        // Both are served by the merged info
+        assertSame(info1, cache.getPackageInfo(getPackageName(0), PackageManager.GET_META_DATA, USER_ID));
+        assertSame(info1, cache.getPackageInfo(getPackageName(0), PackageManager.GET_ACTIVITIES, USER_ID));
+        assertEquals(2, pm.ipcCount);
+        // The flags that decide what is matched are not merged
+        cache.getPackageInfo(getPackageName(0), PackageManager.GET_ACTIVITIES
+                | PackageManager.MATCH_DISABLED_COMPONENTS, USER_ID);
+        assertEquals(3, pm.ipcCount);
+    }
+
+    @Test
+    public void testUncachedRequests() throws Exception {
+        cache.getPackageInfo(getPackageName(0), PackageManager.GET_PERMISSIONS, USER_ID);
+        cache.getPackageInfo(getPackageName(0), PackageManager.GET_PERMISSIONS, USER_ID);
+        assertEquals(2, pm.ipcCount);
+        // Broadcasts are not received for the other users
+        cache.getPackageInfo(getPackageName(0), 0, USER_ID + 10);
+        cache.getPackageInfo(getPackageName(0), 0, USER_ID + 10);
+        assertEquals(4, pm.ipcCount);
+        assertNull(cache.getCachedPackageInfo(getPackageName(0), 0, USER_ID + 10));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        PackageInfo info = cache.getPackageInfo(getPackageName(0), 0, USER_ID);
+        cache.getPackageInfo(getPackageName(1), 0, USER_ID);
+        // Updated
+        pm.packages.put(getPackageName(0), 2L);
+        cache.onPackageBroadcast(new Intent(Intent.ACTION_PACKAGE_REPLACED,
+                Uri.fromParts("package", getPackageName(0), null)));
+        PackageInfo info1 = cache.getPackageInfo(getPackageName(0), 0, USER_ID);
+        assertNotSame(info, info1);
+        //noinspection deprecation
+        assertEquals(2, info1.versionCode);
+        // Other packages are kept
+        assertNotNull(cache.getCachedPackageInfo(getPackageName(1), 0, USER_ID));
+        // Uninstalled
+        pm.packages.remove(getPackageName(1));
+        cache.onPackageBroadcast(new Intent(Intent.ACTION_PACKAGE_REMOVED,
+                Uri.fromParts("package", getPackageName(1), null)));
+        try {
+            cache.getPackageInfo(getPackageName(1), 0, USER_ID);
+            fail("No exception");
+        } catch (PackageManager.NameNotFoundException ignore) {
+        }
+        // Altered by App Manager
+        Intent intent = new Intent(PackageChangeReceiver.ACTION_PACKAGE_ALTERED);
+        intent.putExtra(Intent.EXTRA_CHANGED_PACKAGE_LIST, new String[]{getPackageName(0)});
+        cache.onPackageBroadcast(intent);
+        assertNull(cache.getCachedPackageInfo(getPackageName(0), 0, USER_ID));
+    }
+
+    @Test
+    public void testInstalledPackages() throws Exception {
+        List<PackageInfo> packageInfoList = cache.getInstalledPackages(COMPONENT_FLAGS, USER_ID);
+        assertEquals(PACKAGE_COUNT, packageInfoList.size());
+        assertEquals(1, pm.ipcCount);
+        // The packages of the list are cached too
+        assertSame(packageInfoList.get(7), cache.getPackageInfo(getPackageName(7), 0, USER_ID));
+        assertEquals(PACKAGE_COUNT, cache.getInstalledPackages(0, USER_ID).size());
+        assertEquals(1, pm.ipcCount);
+        // A changed package is fetched alone
+        cache.onPackageBroadcast(new Intent(Intent.ACTION_PACKAGE_CHANGED,
+                Uri.fromParts("package", getPackageName(7), null)));
+        assertEquals(PACKAGE_COUNT, cache.getInstalledPackages(COMPONENT_FLAGS, USER_ID).size());
+        assertEquals(2, pm.ipcCount);
+        // A new package changes the list
+        pm.packages.put("com.example.new", 1L);
+        cache.onPackageBroadcast(new Intent(Intent.ACTION_PACKAGE_ADDED,
+                Uri.fromParts("package", "com.example.new", null)));
+        assertEquals(PACKAGE_COUNT + 1, cache.getInstalledPackages(COMPONENT_FLAGS, USER_ID).size());
+        assertEquals(3, pm.ipcCount);
+    }
+
+    @Test
+    public void testFetchedBeforeInvalidation() throws Exception {
+        PackageInfoCache.Fetcher fetcher = new PackageInfoCache.Fetcher() {
+            @NonNull
+            @Override
+            public PackageInfo getPackageInfo(@NonNull String packageName, int flags, int userId)
+                    throws PackageManager.NameNotFoundException {
+                PackageInfo packageInfo = pm.getPackageInfo(packageName, flags, userId);
+                // The package is changed while it is being fetched
+                cache.invalidate(packageName);
+                return packageInfo;
+            }
+
+            @NonNull
+            @Override
+            public List<PackageInfo> getInstalledPackages(int flags, int userId) {
+                return pm.getInstalledPackages(flags, userId);
+            }
+        };
+        cache = new PackageInfoCache(fetcher, 100_000, USER_ID);
+        cache.getPackageInfo(getPackageName(0), 0, USER_ID);
+        assertNull(cache.getCachedPackageInfo(getPackageName(0), 0, USER_ID));
+    }
+
+    @Test
+    public void testMemoryBound() throws Exception {
+        cache = new PackageInfoCache(pm, 100, USER_ID);
+        for (int i = 0; i < PACKAGE_COUNT; ++i) {
+            cache.getPackageInfo(getPackageName(i), PackageManager.GET_ACTIVITIES, USER_ID);
+        }
+        assertTrue(cache.size() <= 100);
+        assertNull(cache.getCachedPackageInfo(getPackageName(0), PackageManager.GET_ACTIVITIES, USER_ID));
+    }
+
+    @Test
+    public void testFetchInstalledPackages() throws Exception {
+        cache.getInstalledPackages(COMPONENT_FLAGS, USER_ID);
+        // Always fetched, for the runtime flags
+        List<PackageInfo> packageInfoList = cache.fetchInstalledPackages(COMPONENT_FLAGS, USER_ID);
+        assertEquals(2, pm.ipcCount);
+        // The fetched packages replace the cached ones
+        assertSame(packageInfoList.get(7), cache.getPackageInfo(getPackageName(7), 0, USER_ID));
+        assertSame(packageInfoList.get(7), cache.getInstalledPackages(COMPONENT_FLAGS, USER_ID).get(7));
+        assertEquals(2, pm.ipcCount);
+    }
+
+    @Test
+    public void testWarmSession() throws Exception {
+        // The main list, 1-Click Ops, the profiles and a few App Details pages, twice
+        for (int round = 0; round < 2; ++round) {
+            cache.getInstalledPackages(COMPONENT_FLAGS | PackageManager.MATCH_DISABLED_COMPONENTS
+                    | PackageManager.GET_SIGNING_CERTIFICATES, USER_ID);
+            cache.getInstalledPackages(COMPONENT_FLAGS | PackageManager.MATCH_DISABLED_COMPONENTS, USER_ID);
+            cache.getInstalledPackages(PackageManager.GET_META_DATA, USER_ID);
+            for (int i = 0; i < 20; ++i) {
+                cache.getPackageInfo(getPackageName(i), COMPONENT_FLAGS
+                        | PackageManager.MATCH_DISABLED_COMPONENTS, USER_ID);
+            }
+        }
+        // One for each set of matched packages
+        assertEquals(2, pm.ipcCount);
+    }
+
+    @NonNull
+    private static String getPackageName(int i) {
+        return "com.example.app" + i;
+    }
+}
@@ -0,0 +1,46 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkData;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class DigestUtilsBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(DigestUtilsBenchmark.class);
+    private static final int SIZE = 1024 * 1024;
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void getDigestsOfBytes() throws Exception {
+        byte[] bytes = BenchmarkData.randomBytes(SIZE);
+        sRunner.run("getDigestsOfBytes", SIZE, () -> DigestUtils.getDigests(bytes));
+    }
+
+    @Test
+    public void getDigestsOfFile() throws Exception {
+        File file = BenchmarkData.getResource("AppManager_v2.5.22.apks.tar.gz");
+        sRunner.run("getDigestsOfFile", file.length(), () -> DigestUtils.getDigests(file));
+    }
+
+    @Test
+    public void getHexDigest() throws Exception {
+        byte[] bytes = BenchmarkData.randomBytes(SIZE);
+        for (String algo : new String[]{DigestUtils.MD5, DigestUtils.SHA_1, DigestUtils.SHA_256}) {
+            sRunner.run("getHexDigest", BenchmarkRunner.params("algorithm", algo), SIZE,
+                    () -> DigestUtils.getHexDigest(algo, bytes));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.room.Room;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+import io.github.muntashirakon.AppManager.db.AMDatabase;
+import io.github.muntashirakon.AppManager.db.entity.App;
+
+import static io.github.muntashirakon.AppManager.utils.PackageUtilsTest.APP_COUNT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageUtilsBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(PackageUtilsBenchmark.class);
+
+    private AMDatabase db;
+
+    @Before
+    public void setUp() {
+        db = Room.inMemoryDatabaseBuilder(AppManager.getContext(), AMDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void fullSync() throws Exception {
+        List<App> apps = PackageUtilsTest.getApps(0, APP_COUNT);
+        sRunner.run("fullSync", 0, () -> {
+            // Every row is new
+            db.getOpenHelper().getWritableDatabase().execSQL("DELETE FROM app");
+            PackageUtils.AppTableChanges changes = PackageUtils.updateAppTable(db, apps);
+            assertNotNull(changes);
+            assertEquals(APP_COUNT, changes.newApps.size());
+            return changes;
+        });
+    }
+
+    @Test
+    public void noOpSync() throws Exception {
+        List<App> apps = PackageUtilsTest.getApps(0, APP_COUNT);
+        PackageUtils.updateAppTable(db, apps);
+        sRunner.run("noOpSync", 0, () -> {
+            PackageUtils.AppTableChanges changes = PackageUtils.updateAppTable(db, apps);
+            assertNull(changes);
+            return apps;
+        });
+    }
+
+    @Test
+    public void singleChangeSync() throws Exception {
+        List<App> apps = PackageUtilsTest.getApps(0, APP_COUNT);
+        PackageUtils.updateAppTable(db, apps);
+        App app = apps.get(APP_COUNT / 2);
+        sRunner.run("singleChangeSync", 0, () -> {
+            // Alternate the version so that the row changes every time
+            app.versionCode = app.versionCode == 1 ? 2 : 1;
+            PackageUtils.AppTableChanges changes = PackageUtils.updateAppTable(db, apps);
+            assertNotNull(changes);
+            assertEquals(1, changes.updatedApps.size());
+            return changes;
+        });
+    }
+}
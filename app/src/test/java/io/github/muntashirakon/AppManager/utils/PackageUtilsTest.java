@@ -0,0 +1,129 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.db.AMDatabase;
+import io.github.muntashirakon.AppManager.db.entity.App;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageUtilsTest {
+    static final int APP_COUNT = 2000;
+
+    private AMDatabase db;
+
+    @Before
+    public void setUp() {
+        db = Room.inMemoryDatabaseBuilder(AppManager.getContext(), AMDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void updateAppTable() {
+        PackageUtils.AppTableChanges changes = PackageUtils.updateAppTable(db, getApps(0, APP_COUNT));
+        assertNotNull(changes);
+        assertEquals(APP_COUNT, changes.newApps.size());
+        assertEquals(APP_COUNT, db.appDao().getAll().size());
+
+        // Unchanged apps are skipped without reading the rows
+        assertNull(PackageUtils.updateAppTable(db, getApps(0, APP_COUNT)));
+
+        // 10 apps are removed, 10 are added and 10 are altered
+        List<App> apps = getApps(10, APP_COUNT + 10);
+        for (int i = 100; i < 110; ++i) {
+            apps.get(i).versionCode = 2;
+        }
+        changes = PackageUtils.updateAppTable(db, apps);
+        assertNotNull(changes);
+        assertEquals(10, changes.deletedApps.size());
+        assertEquals(10, changes.newApps.size());
+        assertEquals(10, changes.updatedApps.size());
+        HashMap<String, App> storedApps = new HashMap<>();
+        for (App app : db.appDao().getAll()) {
+            storedApps.put(app.packageName, app);
+        }
+        assertEquals(APP_COUNT, storedApps.size());
+        assertNull(storedApps.get(getPackageName(0)));
+        assertEquals(2, storedApps.get(getPackageName(110)).versionCode);
+        assertEquals(1, storedApps.get(getPackageName(120)).versionCode);
+        assertNotNull(storedApps.get(getPackageName(APP_COUNT + 9)));
+    }
+
+    @Test
+    public void updateAppTableWithOppositeChanges() {
+        PackageUtils.updateAppTable(db, getApps(0, 10));
+        // Would cancel each other out in the sum if the content hashes were linear in the fields
+        List<App> apps = getApps(0, 10);
+        apps.get(3).versionCode = 2;
+        apps.get(4).versionCode = 0;
+        PackageUtils.AppTableChanges changes = PackageUtils.updateAppTable(db, apps);
+        assertNotNull(changes);
+        assertEquals(2, changes.updatedApps.size());
+    }
+
+    @Test
+    public void updateAppTableWithExternalChanges() {
+        PackageUtils.updateAppTable(db, getApps(0, 10));
+        // Rows written elsewhere do not have a content hash
+        App app = getApp(3);
+        app.packageLabel = "Altered";
+        db.appDao().insert(app);
+        PackageUtils.AppTableChanges changes = PackageUtils.updateAppTable(db, getApps(0, 10));
+        assertNotNull(changes);
+        assertEquals(1, changes.updatedApps.size());
+        assertEquals(getPackageName(3), changes.updatedApps.get(0).packageName);
+        assertEquals(getPackageName(3), db.appDao().getAll(getPackageName(3), 0).get(0).packageLabel);
+        assertNull(PackageUtils.updateAppTable(db, getApps(0, 10)));
+    }
+
+    static List<App> getApps(int from, int to) {
+        List<App> apps = new ArrayList<>(to - from);
+        for (int i = from; i < to; ++i) {
+            apps.add(getApp(i));
+        }
+        return apps;
+    }
+
+    private static App getApp(int i) {
+        App app = new App();
+        app.packageName = getPackageName(i);
+        app.userId = 0;
+        app.uid = 10_000 + i;
+        app.packageLabel = app.packageName;
+        app.versionName = "1.0";
+        app.versionCode = 1;
+        app.certName = "";
+        app.certAlgo = "";
+        app.isInstalled = true;
+        app.isEnabled = true;
+        app.lastActionTime = System.currentTimeMillis();
+        return app;
+    }
+
+    static String getPackageName(int i) {
+        return String.format(Locale.ROOT, "com.example.app%04d", i);
+    }
+}
@@ -0,0 +1,96 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkData;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+import io.github.muntashirakon.io.Path;
+
+@RunWith(RobolectricTestRunner.class)
+public class TarUtilsBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(TarUtilsBenchmark.class);
+    // A small app: 4 MiB of data in 64 files
+    private static final int FILE_COUNT = 64;
+    private static final int FILE_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final Context context = AppManager.getContext();
+    private Path source;
+    private Path dest;
+    private long sourceSize;
+
+    @Before
+    public void setUp() throws IOException {
+        File sourceDir = tmpFolder.newFolder("source");
+        sourceSize = BenchmarkData.createFileTree(sourceDir, FILE_COUNT, FILE_SIZE);
+        source = new Path(context, sourceDir);
+        dest = new Path(context, tmpFolder.newFolder("dest"));
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void createGzip() throws Exception {
+        create(TarUtils.TAR_GZIP, "gzip");
+    }
+
+    @Test
+    public void createBzip2() throws Exception {
+        create(TarUtils.TAR_BZIP2, "bzip2");
+    }
+
+    @Test
+    public void extractGzip() throws Exception {
+        extract(TarUtils.TAR_GZIP, "gzip");
+    }
+
+    @Test
+    public void extractBzip2() throws Exception {
+        extract(TarUtils.TAR_BZIP2, "bzip2");
+    }
+
+    private void create(@TarUtils.TarType String type, @NonNull String typeName) throws Exception {
+        sRunner.run("create", BenchmarkRunner.params("type", typeName), sourceSize, () -> {
+            List<Path> files = TarUtils.create(type, source, dest, "data.tar", null, null, null, false);
+            for (Path file : files) {
+                file.delete();
+            }
+            return files;
+        });
+    }
+
+    private void extract(@TarUtils.TarType String type, @NonNull String typeName) throws Exception {
+        Path[] files = TarUtils.create(type, source, dest, "data.tar", null, null, null, false)
+                .toArray(new Path[0]);
+        Path extractRoot = new Path(context, tmpFolder.newFolder("extract"));
+        // Files are extracted to a new directory each time, as they are during a restore
+        sRunner.run("extract", BenchmarkRunner.params("type", typeName), sourceSize, () -> {
+            Path extractDir = extractRoot.findOrCreateDirectory("data");
+            TarUtils.extract(type, files, extractDir, null, null);
+            extractDir.delete();
+            return extractDir;
+        });
+    }
+}
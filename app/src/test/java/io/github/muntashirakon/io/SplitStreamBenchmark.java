@@ -0,0 +1,74 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import android.content.Context;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.AppManager;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkData;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class SplitStreamBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(SplitStreamBenchmark.class);
+    private static final int SIZE = 8 * 1024 * 1024;
+    private static final int PART_SIZE = 1024 * 1024;
+    private static final int CHUNK_SIZE = 8192;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final Context context = AppManager.getContext();
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        Path base = new Path(context, tmpFolder.newFolder("split"));
+        byte[] bytes = BenchmarkData.randomBytes(SIZE);
+        // Written in chunks, as the tar streams do
+        sRunner.run("write", SIZE, () -> {
+            List<Path> files;
+            try (SplitOutputStream sos = new SplitOutputStream(base, "data.tar", PART_SIZE)) {
+                for (int offset = 0; offset < SIZE; offset += CHUNK_SIZE) {
+                    sos.write(bytes, offset, CHUNK_SIZE);
+                }
+                files = sos.getFiles();
+            }
+            for (Path file : files) {
+                file.delete();
+            }
+            return files;
+        });
+        List<Path> files;
+        try (SplitOutputStream sos = new SplitOutputStream(base, "data.tar", PART_SIZE)) {
+            sos.write(bytes);
+            files = sos.getFiles();
+        }
+        byte[] buffer = new byte[CHUNK_SIZE];
+        sRunner.run("read", SIZE, () -> {
+            long size = 0;
+            try (InputStream sis = new SplitInputStream(files)) {
+                int count;
+                while ((count = sis.read(buffer)) != -1) {
+                    size += count;
+                }
+            }
+            return size;
+        });
+    }
+}
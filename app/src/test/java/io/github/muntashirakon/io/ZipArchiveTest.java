@@ -0,0 +1,312 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ZipArchiveTest {
+    private final ClassLoader classLoader = getClass().getClassLoader();
+    private File apksFile;
+    private File storedFile;
+
+    @Before
+    public void setUp() throws IOException {
+        assert classLoader != null;
+        apksFile = File.createTempFile("AppManager_v2.5.22", ".apks");
+        byte[] buffer = new byte[8192];
+        try (OutputStream os = new FileOutputStream(apksFile)) {
+            for (int i = 0; i < 8; ++i) {
+                try (InputStream is = new FileInputStream(classLoader.getResource("AppManager_v2.5.22.apks." + i).getFile())) {
+                    int read;
+                    while ((read = is.read(buffer)) > 0) {
+                        os.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        apksFile.delete();
+        if (storedFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            storedFile.delete();
+        }
+    }
+
+    @Test
+    public void readCentralDirectory() throws IOException {
+        try (ZipArchive zipArchive = new ZipArchive(apksFile);
+             ZipFile zipFile = new ZipFile(apksFile)) {
+            assertEquals(zipFile.size(), zipArchive.size());
+            Enumeration<? extends ZipEntry> expectedEntries = zipFile.entries();
+            for (ZipEntry entry : zipArchive.getEntries()) {
+                ZipEntry expectedEntry = expectedEntries.nextElement();
+                assertEquals(expectedEntry.getName(), entry.getName());
+                assertEquals(expectedEntry.getMethod(), entry.getMethod());
+                assertEquals(expectedEntry.getSize(), entry.getSize());
+                assertEquals(expectedEntry.getCompressedSize(), entry.getCompressedSize());
+                assertEquals(expectedEntry.getCrc(), entry.getCrc());
+                try (InputStream is = zipArchive.getInputStream(entry)) {
+                    assertEquals(entry.getCrc(), crc(is));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readDeflatedNestedZip() throws IOException {
+        try (ZipArchive zipArchive = new ZipArchive(apksFile)) {
+            ZipEntry baseEntry = zipArchive.getEntry("base.apk");
+            assertNotNull(baseEntry);
+            assertEquals(ZipEntry.DEFLATED, baseEntry.getMethod());
+            InflatingRandomAccessSource source = (InflatingRandomAccessSource) zipArchive.openSource(baseEntry,
+                    4 * InflatingRandomAccessSource.BLOCK_SIZE);
+            try (ZipArchive nestedArchive = new ZipArchive(source)) {
+                assertNestedEntries(zipArchive.getInputStream(baseEntry), nestedArchive);
+                // The cache remains bounded
+                assertTrue(source.getCachedBlockCount() <= 4);
+            }
+        }
+    }
+
+    @Test
+    public void readStoredNestedZip() throws IOException {
+        storedFile = File.createTempFile("stored", ".apks");
+        try (ZipFile zipFile = new ZipFile(apksFile);
+             ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(storedFile))) {
+            ZipEntry baseEntry = zipFile.getEntry("base.apk");
+            ZipEntry storedEntry = new ZipEntry("base.apk");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(baseEntry.getSize());
+            storedEntry.setCompressedSize(baseEntry.getSize());
+            storedEntry.setCrc(baseEntry.getCrc());
+            zos.putNextEntry(storedEntry);
+            try (InputStream is = zipFile.getInputStream(baseEntry)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) > 0) {
+                    zos.write(buffer, 0, read);
+                }
+            }
+            zos.closeEntry();
+        }
+        try (ZipArchive zipArchive = new ZipArchive(storedFile)) {
+            ZipEntry baseEntry = zipArchive.getEntry("base.apk");
+            assertNotNull(baseEntry);
+            RandomAccessSource source = zipArchive.openSource(baseEntry, 0);
+            // Nothing is copied or decompressed
+            assertTrue(source instanceof SliceRandomAccessSource);
+            try (ZipArchive nestedArchive = new ZipArchive(source)) {
+                assertNestedEntries(zipArchive.getInputStream(baseEntry), nestedArchive);
+            }
+        }
+    }
+
+    @Test
+    public void randomReadsOfDeflatedEntry() throws IOException {
+        try (ZipArchive zipArchive = new ZipArchive(apksFile)) {
+            ZipEntry baseEntry = zipArchive.getEntry("base.apk");
+            assertNotNull(baseEntry);
+            byte[] expected;
+            try (InputStream is = zipArchive.getInputStream(baseEntry)) {
+                expected = readFully(is);
+            }
+            assertEquals(baseEntry.getSize(), expected.length);
+            InflatingRandomAccessSource source = (InflatingRandomAccessSource) zipArchive.openSource(baseEntry,
+                    2 * InflatingRandomAccessSource.BLOCK_SIZE);
+            Random random = new Random(42);
+            for (int i = 0; i < 50; ++i) {
+                int position = random.nextInt(expected.length);
+                int length = Math.min(random.nextInt(3 * InflatingRandomAccessSource.BLOCK_SIZE), expected.length - position);
+                byte[] actual = new byte[length];
+                assertEquals(length, source.read(position, actual, 0, length));
+                byte[] expectedRange = new byte[length];
+                System.arraycopy(expected, position, expectedRange, 0, length);
+                assertArrayEquals(expectedRange, actual);
+                assertTrue(source.getCachedBlockCount() <= 2);
+            }
+            assertEquals(-1, source.read(expected.length, new byte[1], 0, 1));
+            source.close();
+        }
+    }
+
+    @Test
+    public void spilledReadsOfDeflatedEntry() throws IOException {
+        File spillDir = File.createTempFile("spill", "");
+        assertTrue(spillDir.delete());
+        assertTrue(spillDir.mkdir());
+        try (ZipArchive zipArchive = new ZipArchive(apksFile)) {
+            ZipEntry baseEntry = zipArchive.getEntry("base.apk");
+            assertNotNull(baseEntry);
+            byte[] expected;
+            try (InputStream is = zipArchive.getInputStream(baseEntry)) {
+                expected = readFully(is);
+            }
+            InflatingRandomAccessSource source = (InflatingRandomAccessSource) zipArchive.openSource(baseEntry,
+                    2 * InflatingRandomAccessSource.BLOCK_SIZE, spillDir, Long.MAX_VALUE);
+            Random random = new Random(42);
+            for (int i = 0; i < 50; ++i) {
+                int position = random.nextInt(expected.length);
+                int length = Math.min(random.nextInt(3 * InflatingRandomAccessSource.BLOCK_SIZE), expected.length - position);
+                byte[] actual = new byte[length];
+                assertEquals(length, source.read(position, actual, 0, length));
+                byte[] expectedRange = new byte[length];
+                System.arraycopy(expected, position, expectedRange, 0, length);
+                assertArrayEquals(expectedRange, actual);
+                assertTrue(source.getCachedBlockCount() <= 2);
+            }
+            // Seeking backwards never decompresses the entry again
+            assertEquals(1, source.getRestartCount());
+            source.close();
+            String[] spillFiles = spillDir.list();
+            assertNotNull(spillFiles);
+            assertEquals(0, spillFiles.length);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            spillDir.delete();
+        }
+    }
+
+    @Test
+    public void cappedSpilledReadsOfDeflatedEntry() throws IOException {
+        File spillDir = File.createTempFile("spill", "");
+        assertTrue(spillDir.delete());
+        assertTrue(spillDir.mkdir());
+        try (ZipArchive zipArchive = new ZipArchive(apksFile)) {
+            ZipEntry baseEntry = zipArchive.getEntry("base.apk");
+            assertNotNull(baseEntry);
+            byte[] expected;
+            try (InputStream is = zipArchive.getInputStream(baseEntry)) {
+                expected = readFully(is);
+            }
+            long maxSpillSize = 3 * InflatingRandomAccessSource.BLOCK_SIZE;
+            assertTrue(expected.length > maxSpillSize);
+            InflatingRandomAccessSource source = (InflatingRandomAccessSource) zipArchive.openSource(baseEntry,
+                    2 * InflatingRandomAccessSource.BLOCK_SIZE, spillDir, maxSpillSize);
+            Random random = new Random(42);
+            for (int i = 0; i < 50; ++i) {
+                int position = random.nextInt(expected.length);
+                int length = Math.min(random.nextInt(3 * InflatingRandomAccessSource.BLOCK_SIZE), expected.length - position);
+                byte[] actual = new byte[length];
+                assertEquals(length, source.read(position, actual, 0, length));
+                byte[] expectedRange = new byte[length];
+                System.arraycopy(expected, position, expectedRange, 0, length);
+                assertArrayEquals(expectedRange, actual);
+                assertTrue(source.getCachedBlockCount() <= 2);
+                // The contents past the cap are decompressed again instead
+                assertTrue(source.getSpillLength() <= maxSpillSize);
+            }
+            source.close();
+            String[] spillFiles = spillDir.list();
+            assertNotNull(spillFiles);
+            assertEquals(0, spillFiles.length);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            spillDir.delete();
+        }
+    }
+
+    @Test
+    public void decodeNames() throws IOException {
+        storedFile = File.createTempFile("names", ".zip");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(storedFile), Charset.forName("IBM437"))) {
+            zos.putNextEntry(new ZipEntry("caf\u00e9/\u00c7a.txt"));
+            zos.closeEntry();
+        }
+        try (ZipArchive zipArchive = new ZipArchive(storedFile)) {
+            // Without the UTF-8 flag, names are in CP437
+            assertNotNull(zipArchive.getEntry("caf\u00e9/\u00c7a.txt"));
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(storedFile), StandardCharsets.UTF_8)) {
+            zos.putNextEntry(new ZipEntry("caf\u00e9/\u00c7a.txt"));
+            zos.closeEntry();
+        }
+        try (ZipArchive zipArchive = new ZipArchive(storedFile)) {
+            assertNotNull(zipArchive.getEntry("caf\u00e9/\u00c7a.txt"));
+        }
+        byte[] name = new byte[]{'a', (byte) 0x80, (byte) 0xe1, (byte) 0xff};
+        assertEquals("a\u00c7\u00df\u00a0", ZipArchive.decodeName(name, 0, name.length, 0));
+        // UTF-8 names without the UTF-8 flag
+        name = "caf\u00e9/\u4e2d\u6587.txt".getBytes(StandardCharsets.UTF_8);
+        assertEquals("caf\u00e9/\u4e2d\u6587.txt", ZipArchive.decodeName(name, 0, name.length, 0));
+    }
+
+    private static void assertNestedEntries(InputStream nestedZipStream, ZipArchive nestedArchive) throws IOException {
+        // Compare with the entries as read by ZipInputStream, i.e. without the central directory
+        List<String> expectedNames = new ArrayList<>();
+        List<Long> expectedCrcs = new ArrayList<>();
+        try (ZipInputStream zis = new ZipInputStream(nestedZipStream)) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                expectedNames.add(entry.getName());
+                expectedCrcs.add(crc(zis));
+            }
+        }
+        assertEquals(expectedNames.size(), nestedArchive.size());
+        assertNotNull(nestedArchive.getEntry("AndroidManifest.xml"));
+        // Read the entries in reverse to exercise seeking backwards
+        List<? extends ZipEntry> entries = nestedArchive.getEntries();
+        for (int i = entries.size() - 1; i >= 0; --i) {
+            ZipEntry entry = entries.get(i);
+            int index = expectedNames.indexOf(entry.getName());
+            assertTrue(entry.getName(), index >= 0);
+            try (InputStream is = nestedArchive.getInputStream(entry)) {
+                long crc = crc(is);
+                assertEquals(entry.getName(), (long) expectedCrcs.get(index), crc);
+                assertEquals(entry.getName(), entry.getCrc(), crc);
+            }
+        }
+    }
+
+    private static long crc(InputStream is) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+            crc32.update(buffer, 0, read);
+        }
+        return crc32.getValue();
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+            os.write(buffer, 0, read);
+        }
+        return os.toByteArray();
+    }
+}
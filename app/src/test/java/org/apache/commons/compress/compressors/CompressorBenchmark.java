@@ -0,0 +1,99 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package org.apache.commons.compress.compressors;
+
+import androidx.annotation.NonNull;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkData;
+import io.github.muntashirakon.AppManager.benchmark.BenchmarkRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompressorBenchmark {
+    private static final BenchmarkRunner sRunner = new BenchmarkRunner(CompressorBenchmark.class);
+    private static final int SIZE = 1024 * 1024;
+
+    private interface StreamFactory<T> {
+        @NonNull
+        T create(@NonNull T stream) throws IOException;
+    }
+
+    private final byte[] textBytes = BenchmarkData.textBytes(SIZE);
+    private final byte[] randomBytes = BenchmarkData.randomBytes(SIZE);
+    private final byte[] buffer = new byte[8192];
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        sRunner.writeResults();
+    }
+
+    @Test
+    public void gzip() throws Exception {
+        roundTrip("gzip", GzipCompressorOutputStream::new, GzipCompressorInputStream::new);
+    }
+
+    @Test
+    public void bzip2() throws Exception {
+        roundTrip("bzip2", BZip2CompressorOutputStream::new, BZip2CompressorInputStream::new);
+    }
+
+    @Test
+    public void decompressArchives() throws Exception {
+        decompressFile("gzip", "AppManager_v2.5.22.apks.tar.gz", GzipCompressorInputStream::new);
+        decompressFile("bzip2", "AppManager_v2.5.22.apks.tar.bz2", BZip2CompressorInputStream::new);
+    }
+
+    private void roundTrip(@NonNull String type, @NonNull StreamFactory<OutputStream> compressor,
+                           @NonNull StreamFactory<InputStream> decompressor) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(SIZE);
+        for (String data : new String[]{"text", "random"}) {
+            byte[] bytes = data.equals("text") ? textBytes : randomBytes;
+            sRunner.run("compress", BenchmarkRunner.params("type", type, "data", data), SIZE, () -> {
+                bos.reset();
+                try (OutputStream os = compressor.create(bos)) {
+                    os.write(bytes);
+                }
+                return bos;
+            });
+            byte[] compressed = bos.toByteArray();
+            sRunner.run("decompress", BenchmarkRunner.params("type", type, "data", data), SIZE,
+                    () -> drain(decompressor.create(new ByteArrayInputStream(compressed))));
+        }
+    }
+
+    private void decompressFile(@NonNull String type, @NonNull String name,
+                                @NonNull StreamFactory<InputStream> decompressor) throws Exception {
+        File file = BenchmarkData.getResource(name);
+        long size = drain(decompressor.create(new BufferedInputStream(new FileInputStream(file))));
+        sRunner.run("decompressFile", BenchmarkRunner.params("type", type), size,
+                () -> drain(decompressor.create(new BufferedInputStream(new FileInputStream(file)))));
+    }
+
+    private long drain(@NonNull InputStream is) throws IOException {
+        long size = 0;
+        try (InputStream stream = is) {
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                size += count;
+            }
+        }
+        return size;
+    }
+}
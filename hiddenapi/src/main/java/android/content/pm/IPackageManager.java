@@ -551,6 +551,13 @@ public interface IPackageManager extends IInterface {
      */
     void setComponentEnabledSetting(ComponentName componentName, int newState, int flags, int userId) throws RemoteException;
 
+    /**
+     * As per {@link android.content.pm.PackageManager#setComponentEnabledSettings}.
+     */
+    @RequiresApi(33)
+    void setComponentEnabledSettings(List<PackageManagerHidden.ComponentEnabledSetting> settings, int userId)
+            throws RemoteException;
+
     /**
      * As per {@link android.content.pm.PackageManager#getComponentEnabledSetting}.
      */
@@ -0,0 +1,20 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package android.content.pm;
+
+import android.content.ComponentName;
+
+import androidx.annotation.RequiresApi;
+
+import dev.rikka.tools.refine.RefineAs;
+import misc.utils.HiddenUtil;
+
+@RefineAs(PackageManager.class)
+public class PackageManagerHidden {
+    @RequiresApi(33)
+    public static final class ComponentEnabledSetting {
+        public ComponentEnabledSetting(ComponentName componentName, int newState, int flags) {
+            HiddenUtil.throwUOE(componentName, newState, flags);
+        }
+    }
+}
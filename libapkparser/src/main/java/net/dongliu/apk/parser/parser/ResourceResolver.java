@@ -0,0 +1,151 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package net.dongliu.apk.parser.parser;
+
+import android.util.TypedValue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.dongliu.apk.parser.struct.ResourceValue;
+import net.dongliu.apk.parser.struct.resource.Densities;
+import net.dongliu.apk.parser.struct.resource.ResourceEntry;
+import net.dongliu.apk.parser.struct.resource.ResourceTable;
+import net.dongliu.apk.parser.struct.resource.Type;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resolve resource IDs directly from the {@code resources.arsc} of an APK, without involving the package manager.
+ * Only the entries of the requested resources are read, and only the strings of those entries are decoded.
+ * <p>
+ * The configuration is matched by locale and density only, and the other qualifiers are ignored. The first of the
+ * configurations that match equally, which is the default one in the tables generated by aapt, is chosen. This
+ * class is not thread-safe.
+ */
+public class ResourceResolver {
+    // aapt does not allow cyclic references, but a corrupted table could have them
+    private static final int MAX_REFERENCE_DEPTH = 8;
+
+    private final ResourceTable resourceTable;
+
+    /**
+     * @param buffer Contents of {@code resources.arsc}. The buffer is used as is, and must not be altered afterwards.
+     */
+    public ResourceResolver(@NonNull ByteBuffer buffer) {
+        ResourceTableParser parser = new ResourceTableParser(buffer);
+        parser.parse();
+        resourceTable = parser.getResourceTable();
+    }
+
+    /**
+     * Get the string for the given resource ID under the given locale, following the references if necessary.
+     *
+     * @param locale The locale to use, or {@code null} to use the default configuration
+     * @return The string or {@code null} if the resource does not exist or is not a string
+     */
+    @Nullable
+    public String getString(long resId, @Nullable Locale locale) {
+        ResourceValue value = resolve(resId, locale, Densities.DEFAULT);
+        if (value != null && value.type == TypedValue.TYPE_STRING) {
+            return value.stringValue;
+        }
+        return null;
+    }
+
+    /**
+     * Get the path of the file inside the APK for the given resource ID, such as the file of a drawable or a mipmap.
+     * Density-independent files, such as adaptive icons, are only chosen if there is no alternative for any density,
+     * as they cannot be drawn without the framework.
+     *
+     * @param locale  The locale to use, or {@code null} to use the default configuration
+     * @param density The density of the screen, see {@link Densities}
+     * @return The path or {@code null} if the resource does not exist or is not a file
+     */
+    @Nullable
+    public String getFilePath(long resId, @Nullable Locale locale, int density) {
+        // Files are string values pointing to the path in the APK
+        ResourceValue value = resolve(resId, locale, density);
+        if (value != null && value.type == TypedValue.TYPE_STRING) {
+            return value.stringValue;
+        }
+        return null;
+    }
+
+    @Nullable
+    private ResourceValue resolve(long resId, @Nullable Locale locale, int density) {
+        for (int depth = 0; depth < MAX_REFERENCE_DEPTH; ++depth) {
+            ResourceValue value = select(resId, locale, density);
+            if (value == null || value.type != TypedValue.TYPE_REFERENCE) {
+                return value;
+            }
+            resId = value.data & 0xFFFFFFFFL;
+        }
+        return null;
+    }
+
+    /**
+     * Select the value of the configuration that suits the locale and the density the best.
+     */
+    @Nullable
+    private ResourceValue select(long resId, @Nullable Locale locale, int density) {
+        List<ResourceTable.Resource> resources = resourceTable.getResourcesById(resId);
+        ResourceEntry selected = null;
+        int selectedLocaleLevel = Integer.MIN_VALUE;
+        int selectedDensityLevel = Integer.MIN_VALUE;
+        for (ResourceTable.Resource resource : resources) {
+            Type type = resource.getType();
+            int localeLevel = localeLevel(type.getLocale(), locale);
+            int densityLevel = densityLevel(type.getDensity(), density);
+            if (localeLevel > selectedLocaleLevel || (localeLevel == selectedLocaleLevel
+                    && densityLevel > selectedDensityLevel)) {
+                selected = resource.getResourceEntry();
+                selectedLocaleLevel = localeLevel;
+                selectedDensityLevel = densityLevel;
+            }
+        }
+        // Complex resources, such as styles and arrays, have no value
+        return selected != null ? selected.getValue() : null;
+    }
+
+    /**
+     * Higher is better. A different language is the worst match, but is still used if there is nothing else.
+     */
+    private static int localeLevel(@NonNull Locale typeLocale, @Nullable Locale locale) {
+        if (typeLocale.getLanguage().isEmpty()) {
+            // Default configuration
+            return 1;
+        }
+        if (locale == null || !typeLocale.getLanguage().equals(locale.getLanguage())) {
+            return -1;
+        }
+        if (typeLocale.getCountry().equals(locale.getCountry())) {
+            return 4;
+        }
+        // Another region of the same language is still better than the default
+        return typeLocale.getCountry().isEmpty() ? 3 : 2;
+    }
+
+    /**
+     * Higher is better. Android prefers scaling down a larger image to scaling up a smaller one, therefore, the
+     * smallest density above the requested density is the best, followed by the largest density below it.
+     */
+    private static int densityLevel(int typeDensity, int density) {
+        if (typeDensity == Densities.ANY || typeDensity == Densities.NONE) {
+            return 0;
+        }
+        if (typeDensity == Densities.DEFAULT) {
+            typeDensity = Densities.MEDIUM;
+        }
+        if (density == Densities.DEFAULT) {
+            density = Densities.MEDIUM;
+        }
+        if (typeDensity >= density) {
+            // Always above the densities below the requested density
+            return 0x20000 - typeDensity;
+        }
+        return typeDensity;
+    }
+}
@@ -1,23 +1,45 @@
-// SPDX-License-Identifier: BSD-2-Clause
+// SPDX-License-Identifier: BSD-2-Clause AND GPL-3.0-or-later
 
 package net.dongliu.apk.parser.struct;
 
+import net.dongliu.apk.parser.utils.Buffers;
+import net.dongliu.apk.parser.utils.ParseUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
- * String pool.
+ * String pool. The strings are decoded from the backing buffer when they are first requested, since only a handful of
+ * the strings of a resource table are ever used.
  */
 // Copyright 2014 Liu Dong
 public class StringPool {
+    private final ByteBuffer buffer;
+    // Position of each string in the buffer
+    private final int[] offsets;
+    private final boolean utf8;
     private final String[] pool;
 
-    public StringPool(int poolSize) {
-        pool = new String[poolSize];
+    public StringPool(ByteBuffer buffer, int[] offsets, boolean utf8) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.offsets = offsets;
+        this.utf8 = utf8;
+        this.pool = new String[offsets.length];
     }
 
     public String get(int idx) {
-        return pool[idx];
+        String str = pool[idx];
+        if (str == null) {
+            // Strings are immutable, a concurrent decoding of the same string is harmless
+            ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            Buffers.position(b, offsets[idx]);
+            str = ParseUtils.readString(b, utf8);
+            pool[idx] = str;
+        }
+        return str;
     }
 
-    public void set(int idx, String value) {
-        pool[idx] = value;
+    public int size() {
+        return pool.length;
     }
 }
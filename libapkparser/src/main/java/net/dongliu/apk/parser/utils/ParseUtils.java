@@ -7,7 +7,6 @@ import android.util.TypedValue;
 
 import androidx.annotation.Nullable;
 
-import net.dongliu.apk.parser.parser.StringPoolEntry;
 import net.dongliu.apk.parser.struct.ResourceValue;
 import net.dongliu.apk.parser.struct.StringPool;
 import net.dongliu.apk.parser.struct.StringPoolHeader;
@@ -95,47 +94,21 @@ public class ParseUtils {
 
 
     /**
-     * read String pool, for apk binary xml file and resource table.
+     * read String pool, for apk binary xml file and resource table. The strings are only located here, they are decoded
+     * by the pool on demand.
      */
     public static StringPool readStringPool(ByteBuffer buffer, StringPoolHeader stringPoolHeader) {
 
         long beginPos = buffer.position();
-        int[] offsets = new int[stringPoolHeader.getStringCount()];
-        // read strings offset
-        if (stringPoolHeader.getStringCount() > 0) {
-            for (int idx = 0; idx < stringPoolHeader.getStringCount(); idx++) {
-                offsets[idx] = Unsigned.toUInt(Buffers.readUInt(buffer));
-            }
-        }
-        // read flag
-        // the string index is sorted by the string values if true
-        boolean sorted = (stringPoolHeader.getFlags() & StringPoolHeader.SORTED_FLAG) != 0;
         // string use utf-8 format if true, otherwise utf-16
         boolean utf8 = (stringPoolHeader.getFlags() & StringPoolHeader.UTF8_FLAG) != 0;
-
-        // read strings. the head and metas have 28 bytes
+        // the head and metas have 28 bytes
         long stringPos = beginPos + stringPoolHeader.getStringsStart() - stringPoolHeader.getHeaderSize();
-        Buffers.position(buffer, stringPos);
 
-        StringPoolEntry[] entries = new StringPoolEntry[offsets.length];
-        for (int i = 0; i < offsets.length; i++) {
-            entries[i] = new StringPoolEntry(i, stringPos + Unsigned.toLong(offsets[i]));
-        }
-
-        String lastStr = null;
-        long lastOffset = -1;
-        StringPool stringPool = new StringPool(stringPoolHeader.getStringCount());
-        for (StringPoolEntry entry : entries) {
-            if (entry.getOffset() == lastOffset) {
-                stringPool.set(entry.getIdx(), lastStr);
-                continue;
-            }
-
-            Buffers.position(buffer, entry.getOffset());
-            lastOffset = entry.getOffset();
-            String str = ParseUtils.readString(buffer, utf8);
-            lastStr = str;
-            stringPool.set(entry.getIdx(), str);
+        // read strings offset
+        int[] offsets = new int[stringPoolHeader.getStringCount()];
+        for (int idx = 0; idx < offsets.length; idx++) {
+            offsets[idx] = Unsigned.ensureUInt(stringPos + Buffers.readUInt(buffer));
         }
 
         // read styles
@@ -145,7 +118,7 @@ public class ParseUtils {
 
         Buffers.position(buffer, beginPos + stringPoolHeader.getBodySize());
 
-        return stringPool;
+        return new StringPool(buffer, offsets, utf8);
     }
 
     /**